@@ -21,6 +21,9 @@
 
 package org.sakaiproject.lti.api;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
@@ -210,6 +213,31 @@ public interface LTIService {
 	 */
 	public List<Map<String, Object>> getToolsDao(String search, String order, int first, int last, String siteId);
 
+	/**
+	 * A page of tools that starts after the last tool of the page before,
+	 * so a deep page is as quick as the first.
+	 * 
+	 * @param search
+	 * @param orderField id, created_at or updated_at - null for id
+	 * @param descending
+	 * @param after The last tool of the page before, or null for the first page
+	 * @param count
+	 * @return
+	 */
+	public List<Map<String, Object>> getToolsAfter(String search, String orderField, boolean descending, Map<String, Object> after, int count);
+
+	/**
+	 * 
+	 * @param search
+	 * @param orderField
+	 * @param descending
+	 * @param after
+	 * @param count
+	 * @param siteId
+	 * @return
+	 */
+	public List<Map<String, Object>> getToolsAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId);
+
 	/**
 	 * 
 	 * @param tool_id
@@ -239,6 +267,15 @@ public interface LTIService {
 	 */
 	public Object insertContentDao(Properties newProps, String siteId);
 
+	/**
+	 * Insert a number of content items in one transaction
+	 * 
+	 * @param newProps
+	 * @param siteId
+	 * @return String (failure) or Long (key on success) for each of newProps
+	 */
+	public List<Object> insertContentsDao(List<Properties> newProps, String siteId);
+
 	/**
 	 * 
 	 * @param key
@@ -318,6 +355,16 @@ public interface LTIService {
 	 */
 	public Object updateContentDao(Long key, Map<String, Object> newProps, String siteId);
 
+	/**
+	 * Update a number of content items in one transaction
+	 * 
+	 * @param keys
+	 * @param newProps
+	 * @param siteId
+	 * @return String (failure) or Boolean for each of keys
+	 */
+	public List<Object> updateContentsDao(List<Long> keys, List<Map<String, Object>> newProps, String siteId);
+
 	/**
 	 * 
 	 * @param search
@@ -339,6 +386,32 @@ public interface LTIService {
 	 * @return A List of LTI Contents objects.
 	 */
 	public List<Map<String, Object>> getContentsDao(String search, String order, int first, int last, String siteId);
+
+	/**
+	 * 
+	 * @param search
+	 * @param orderField
+	 * @param descending
+	 * @param after
+	 * @param count
+	 * @return
+	 */
+	public List<Map<String, Object>> getContentsAfter(String search, String orderField, boolean descending, Map<String, Object> after, int count);
+
+	/**
+	 * This finds a page of LTI Contents objects that starts after the last
+	 * object of the page before.  Unlike first and last in getContentsDao the
+	 * database does not have to read past the pages before, so a deep page is
+	 * as quick as the first.
+	 * @param search The SQL search string to limit the results
+	 * @param orderField id, created_at or updated_at - null for id.
+	 * @param descending True to sort newest first.
+	 * @param after The last object of the page before, or null for the first page.
+	 * @param count The most objects to return.
+	 * @param siteId The site ID or null to search as admin.
+	 * @return A List of LTI Contents objects.
+	 */
+	public List<Map<String, Object>> getContentsAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId);
 	/**
 	 * 
 	 * @param content
@@ -409,6 +482,17 @@ public interface LTIService {
 	 */
 	public List<Map<String, Object>> getDeploysDao(String search, String order, int first, int last);
 
+	/**
+	 * 
+	 * @param search
+	 * @param orderField id, created_at or updated_at - null for id
+	 * @param descending
+	 * @param after
+	 * @param count
+	 * @return
+	 */
+	public List<Map<String, Object>> getDeploysAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count);
+
 
 
 
@@ -454,6 +538,27 @@ public interface LTIService {
 	 */
 	public Map<String, Object> getProxyBindingDao(Long tool_id, String siteId);
 
+	/**
+	 * Write the whole of lti_tools, lti_content, lti_deploy or lti_binding
+	 * to out, one tab separated row per line, ending with a #end line that
+	 * holds the row count.  Only from the administrator site.
+	 * 
+	 * @param table
+	 * @param out
+	 * @return the number of rows written
+	 */
+	public long exportTable(String table, Writer out) throws IOException, PermissionException;
+
+	/**
+	 * Load rows written by exportTable() into an empty table, keeping their
+	 * ids.  Only from the administrator site.
+	 * 
+	 * @param table
+	 * @param in
+	 * @return the number of rows inserted - rows that fail are logged
+	 */
+	public long importTable(String table, BufferedReader in) throws IOException, PermissionException;
+
 
 	/**
 	 * 
@@ -31,6 +31,7 @@ import java.util.TreeMap;
 import java.util.Properties;
 import java.util.Enumeration;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.Iterator;
 import java.util.UUID;
 
@@ -50,6 +51,9 @@ import net.oauth.server.OAuthServlet;
 import net.oauth.signature.OAuthSignatureMethod;
 
 import org.imsglobal.basiclti.XMLMap;
+import org.json.simple.JSONArray;
+import org.json.simple.JSONObject;
+import org.json.simple.JSONValue;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.Element;
@@ -63,8 +67,8 @@ import org.sakaiproject.component.cover.ComponentManager;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.imsglobal.basiclti.BasicLTIUtil;
-import org.sakaiproject.authz.api.Member;
-import org.sakaiproject.authz.api.Role;
+import org.imsglobal.basiclti.HashedBody;
+import org.imsglobal.basiclti.OutcomeBatch;
 import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.event.cover.UsageSessionService;
 import org.sakaiproject.id.cover.IdManager;
@@ -77,17 +81,17 @@ import org.sakaiproject.tool.api.Session;
 import org.sakaiproject.tool.api.Tool;
 import org.sakaiproject.tool.cover.SessionManager;
 import org.sakaiproject.tool.cover.ToolManager;
-import org.sakaiproject.user.api.User;
-import org.sakaiproject.user.cover.UserDirectoryService;
 import org.sakaiproject.util.ResourceLoader;
+import org.sakaiproject.basiclti.util.RosterWriter;
 import org.sakaiproject.basiclti.util.SakaiBLTIUtil;
 import org.imsglobal.basiclti.BasicLTIConstants;
-import org.sakaiproject.basiclti.util.ShaUtil;
+import org.sakaiproject.basiclti.util.SourcedidCodec;
 import org.sakaiproject.util.FormattedText;
 
 import org.sakaiproject.lessonbuildertool.SimplePageItem;
 
 import org.imsglobal.pox.IMSPOXRequest;
+import org.imsglobal.json.IMSJSONRequest;
 
 import org.sakaiproject.lti.api.LTIService;
 import org.sakaiproject.util.foorm.SakaiFoorm;
@@ -127,6 +131,13 @@ public class ServiceServlet extends HttpServlet {
 
     protected static LTIService ltiService = null;
 
+	// Sakai extension to the outcomes service
+	public static final String REPLACE_RESULT_BATCH = OutcomeBatch.REPLACE_RESULT_BATCH;
+
+	// Sakai extension for paging basic-lis-readmembershipsforcontext
+	public static final String ROSTER_PAGE_SIZE = "ext_sakai_roster_page_size";
+	public static final String ROSTER_CONTINUATION = "ext_sakai_roster_continuation";
+
 	protected static XPath xpath = null;
 	protected static XPathExpression LESSONS_RESOURCES_EXPR = null;
 	protected static XPathExpression LESSONS_FOLDER_EXPR = null;
@@ -182,6 +193,10 @@ public class ServiceServlet extends HttpServlet {
 			super.init(config);
             LessonsFacade.init();
 			if ( ltiService == null ) ltiService = (LTIService) ComponentManager.get("org.sakaiproject.lti.api.LTIService");
+			int maxBody = ServerConfigurationService.getInt(SakaiBLTIUtil.BASICLTI_SERVICE_MAX_BODY,
+					SakaiBLTIUtil.BASICLTI_SERVICE_MAX_BODY_DEFAULT);
+			if ( maxBody > 0 ) HashedBody.setMaxBodySize(maxBody);
+			SakaiBLTIUtil.configureNonceStore();
 			try {
 				xpath = XPathFactory.newInstance().newXPath();
 				LESSONS_RESOURCES_EXPR = xpath.compile("params/resources/*");
@@ -451,18 +466,10 @@ public class ServiceServlet extends HttpServlet {
 				return;
 			}
 
-			String pre_hash = placement_secret + ":::" + user_id + ":::" + placement_id;
-			String received_signature = ShaUtil.sha256Hash(pre_hash);
-			M_log.debug("Received signature="+signature+" received="+received_signature);
-			boolean matched = signature.equals(received_signature);
-
 			String old_placement_secret  = pitch.getProperty(LTIService.LTI_OLDPLACEMENTSECRET);
-			if ( old_placement_secret != null && ! matched ) {
-				pre_hash = placement_secret + ":::" + user_id + ":::" + placement_id;
-				received_signature = ShaUtil.sha256Hash(pre_hash);
-				M_log.debug("Received signature II="+signature+" received="+received_signature);
-				matched = signature.equals(received_signature);
-			}
+			boolean matched = SourcedidCodec.verify(signature, placement_secret, old_placement_secret, 
+				user_id, placement_id);
+			M_log.debug("Received signature="+signature+" matched="+matched);
 
 			// Send a message back to the caller
 			if ( ! matched ) {
@@ -522,6 +529,7 @@ public class ServiceServlet extends HttpServlet {
 						}
 						try {
 							placement.save();
+							SakaiBLTIUtil.invalidatePlacementCache(placement_id);
 							success = true;
 						} catch(Exception e) {
 							doError(request, response, theMap, "setting.save.fail", "", e);
@@ -621,9 +629,9 @@ public class ServiceServlet extends HttpServlet {
 
 			if ( ! success ) return;
 
-			String theXml = XMLMap.getXML(theMap, true);
 			PrintWriter out = response.getWriter();
-			out.println(theXml);
+			XMLMap.writeXML(theMap, out, true);
+			out.println();
 		}
 
 	protected void processRoster(HttpServletRequest request, HttpServletResponse response, 
@@ -646,60 +654,56 @@ public class ServiceServlet extends HttpServlet {
 					SakaiBLTIUtil.BASICLTI_OUTCOMES_ENABLED, SakaiBLTIUtil.BASICLTI_OUTCOMES_ENABLED_DEFAULT);
 			if ( ! "true".equals(allowOutcomes) ) allowOutcomes = null;
 
-			String maintainRole = site.getMaintainRole();
-
-			SakaiBLTIUtil.pushAdvisor();
-			boolean success = false;
-			try { 
-				List<Map<String,String>> lm = new ArrayList<Map<String,String>>();
-				Set<Member> members = site.getMembers();
-				for (Member member : members ) {
-					Map<String,String> mm = new TreeMap<String,String>();
-					Role role = member.getRole();
-					String ims_user_id = member.getUserId();
-					mm.put("/user_id",ims_user_id);
-					String ims_role = "Learner";
-					if ( maintainRole != null && maintainRole.equals(role.getId())) ims_role = "Instructor";
-					mm.put("/role",ims_role);
-					User user = null;
-					if ( "true".equals(allowOutcomes) && assignment != null ) {
-						user = UserDirectoryService.getUser(ims_user_id);
-						String placement_secret  = pitch.getProperty(LTIService.LTI_PLACEMENTSECRET);
-						String result_sourcedid = SakaiBLTIUtil.getSourceDID(user, placement_id, placement_secret);
-						if ( result_sourcedid != null ) mm.put("/lis_result_sourcedid",result_sourcedid);
-					}
+			String placement_secret = null;
+			if ( allowOutcomes != null && assignment != null ) {
+				placement_secret  = pitch.getProperty(LTIService.LTI_PLACEMENTSECRET);
+			}
 
-					if ( "on".equals(releaseName) || "on".equals(releaseEmail) ) {
-						if ( user == null ) user = UserDirectoryService.getUser(ims_user_id);
-						if ( "on".equals(releaseName) ) {
-							mm.put("/person_name_given",user.getFirstName());
-							mm.put("/person_name_family",user.getLastName());
-							mm.put("/person_name_full",user.getDisplayName());
-						}
-						if ( "on".equals(releaseEmail) ) {
-							mm.put("/person_contact_email_primary",user.getEmail());
-							mm.put("/person_sourcedid",user.getEid());
-						}
-					}
-					lm.add(mm);
+			// Paging is optional - without a page size the whole roster is returned
+			int pageSize = 0;
+			String pageParam = request.getParameter(ROSTER_PAGE_SIZE);
+			if ( pageParam != null ) {
+				try {
+					pageSize = Integer.parseInt(pageParam.trim());
+				} catch (NumberFormatException e) {
+					pageSize = 0;
 				}
-				theMap.put("/message_response/members/member", lm);
-				success = true;
+				if ( pageSize < 1 ) {
+					doError(request, response, theMap, "outcomes.invalid", ROSTER_PAGE_SIZE+"="+pageParam, null);
+					return;
+				}
+				int maxPage = ServerConfigurationService.getInt(SakaiBLTIUtil.BASICLTI_ROSTER_PAGE_MAX, 
+						SakaiBLTIUtil.BASICLTI_ROSTER_PAGE_MAX_DEFAULT);
+				if ( maxPage > 0 && pageSize > maxPage ) pageSize = maxPage;
+			}
+			String continuation = request.getParameter(ROSTER_CONTINUATION);
+			if ( BasicLTIUtil.isBlank(continuation) ) continuation = null;
+
+			RosterWriter roster = new RosterWriter(RosterWriter.DIRECTORY, site.getMaintainRole(), 
+					placement_id, placement_secret, "on".equals(releaseName), "on".equals(releaseEmail));
+			SortedMap<String,String> roles = null;
+			try { 
+				roles = roster.getRoles(site.getMembers());
 			} catch (Exception e) {
 				doError(request, response, theMap, "memberships.fail", "", e);
+				return;
+			}
+
+			// Straight to the response - the roster is never held as a Map or a String.
+			// A lookup that fails after the first batch is reported in the roster's
+			// own statusinfo, one that fails before it leaves nothing written.  An
+			// IOException means the client has gone, so there is no one to tell.
+			SakaiBLTIUtil.pushAdvisor();
+			try { 
+				PrintWriter out = response.getWriter();
+				String next = roster.write(out, lti_message_type, roles, continuation, pageSize);
+				out.println();
+				M_log.debug("Roster site="+siteId+" members="+roles.size()+" continuation="+next);
+			} catch (RuntimeException e) {
+				doError(request, response, theMap, "memberships.fail", "", e);
 			} finally {
 				SakaiBLTIUtil.popAdvisor();
 			}
-
-			if ( ! success ) return;
-
-			theMap.put("/message_response/statusinfo/codemajor", "Success");
-			theMap.put("/message_response/statusinfo/severity", "Status");
-			theMap.put("/message_response/statusinfo/codeminor", "fullsuccess");
-			String theXml = XMLMap.getXML(theMap, true);
-			PrintWriter out = response.getWriter();
-			out.println(theXml);
-			M_log.debug(theXml);
 		}
 
 	/* IMS POX XML versions of this service */
@@ -730,17 +734,93 @@ public class ServiceServlet extends HttpServlet {
 		}
 
 
+	// The only JSON service is the batch version of replaceResult
 	@SuppressWarnings("unchecked")
     protected void doPostJSON(HttpServletRequest request, HttpServletResponse response) 
             throws ServletException, IOException 
     {
         String ipAddress = request.getRemoteAddr();
 
-        M_log.warn("LTI JSON Services not implemented IP=" + ipAddress);
-        response.setStatus(HttpServletResponse.SC_FORBIDDEN);
-        return;
+        String allowOutcomes = ServerConfigurationService.getString(
+                SakaiBLTIUtil.BASICLTI_OUTCOMES_ENABLED, SakaiBLTIUtil.BASICLTI_OUTCOMES_ENABLED_DEFAULT);
+        if ( ! "true".equals(allowOutcomes) ) {
+            M_log.warn("LTI JSON Services are disabled IP=" + ipAddress);
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            return;
+        }
+
+        IMSJSONRequest json = new IMSJSONRequest(request);
+        if ( ! json.valid ) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            IMSJSONRequest.doErrorJSON(request, response, json, json.errorMessage, null);
+            return;
+        }
+
+        JSONObject requestData = null;
+        try {
+            requestData = (JSONObject) JSONValue.parse(json.getPostBody());
+        } catch (Exception e) {
+            requestData = null;
+        }
+        if ( requestData == null ) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            IMSJSONRequest.doErrorJSON(request, response, json, "Could not parse JSON", null);
+            return;
+        }
+
+        String operation = (String) requestData.get("operation");
+        if ( ! REPLACE_RESULT_BATCH.equals(operation) ) {
+            M_log.warn("LTI JSON operation not implemented operation="+operation+" IP=" + ipAddress);
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            IMSJSONRequest.doErrorJSON(request, response, json, "Not supported "+operation, null);
+            return;
+        }
+
+        Object records = requestData.get("results");
+        if ( ! (records instanceof JSONArray) || ((JSONArray) records).size() < 1 ) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            IMSJSONRequest.doErrorJSON(request, response, json, "Missing results", null);
+            return;
+        }
+
+        JSONArray results = (JSONArray) records;
+        String tooMany = checkBatchSize(results.size());
+        if ( tooMany != null ) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            IMSJSONRequest.doErrorJSON(request, response, json, rb.getString("outcomes.batch.size")+": "+tooMany, null);
+            return;
+        }
+
+        OutcomeBatch batch = OutcomeBatch.fromJSON(results);
+        Object retval = SakaiBLTIUtil.setGrades(batch.getSourcedids(), batch.getGrades(), batch.getComments(), 
+            request, ltiService);
+        if ( retval instanceof String ) {
+            response.setStatus(HttpServletResponse.SC_BAD_REQUEST);
+            IMSJSONRequest.doErrorJSON(request, response, json, (String) retval, null);
+            return;
+        }
+
+        List<Object> statuses = (List<Object>) retval;
+        Map<String,Object> jsonResponse = new TreeMap<String,Object>();
+        String desc = OutcomeBatch.getDescription(statuses);
+        jsonResponse.put(IMSJSONRequest.STATUS, (OutcomeBatch.countStored(statuses) == statuses.size()) ? 
+            IMSJSONRequest.getStatusSuccess(desc) : IMSJSONRequest.getStatusFailure(desc));
+        jsonResponse.put("results", batch.getJSONResults(statuses));
+
+        response.setContentType("application/json");
+        PrintWriter out = response.getWriter();
+        JSONValue.writeJSONString(jsonResponse, out);
+        out.println();
     }
 
+	// Returns an error message if a batch is too big
+	protected String checkBatchSize(int size)
+	{
+		int max = ServerConfigurationService.getInt(SakaiBLTIUtil.BASICLTI_OUTCOMES_BATCH_MAX,
+				SakaiBLTIUtil.BASICLTI_OUTCOMES_BATCH_MAX_DEFAULT);
+		return OutcomeBatch.checkSize(size, max);
+	}
+
 	@SuppressWarnings("unchecked")
 	protected void doPostXml(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException 
 	{
@@ -774,11 +854,18 @@ public class ServiceServlet extends HttpServlet {
 
 			String sourcedid = null;
 			String message_type = null;
-            if ( M_log.isDebugEnabled() ) M_log.debug("POST\n"+XMLMap.prettyPrint(pox.postBody));
+            if ( M_log.isDebugEnabled() ) M_log.debug("POST\n"+XMLMap.prettyPrint(pox.getPostBody()));
+
+			// The batch is handled record by record so it never goes through the body map
+			if ( REPLACE_RESULT_BATCH.equals(lti_message_type) && allowOutcomes != null ) {
+				processOutcomeBatchXml(request, response, pox);
+				return;
+			}
+
 			Map<String,String> bodyMap = pox.getBodyMap();
 			if ( ( "replaceResultRequest".equals(lti_message_type) || "readResultRequest".equals(lti_message_type) ||
                    "deleteResultRequest".equals(lti_message_type) )  && allowOutcomes != null ) {
-				sourcedid = bodyMap.get("/resultRecord/sourcedGUID/sourcedId");
+				sourcedid = pox.getResultSourcedId();
 				message_type = "basicoutcome";
 			} else if ( "getCourseStructureRequest".equals(lti_message_type) ) {
                 sourcedid = bodyMap.get("/params/sourcedGUID/sourcedId");
@@ -888,18 +975,10 @@ public class ServiceServlet extends HttpServlet {
 				return;
 			}
 
-			String pre_hash = placement_secret + ":::" + user_id + ":::" + placement_id;
-			String received_signature = ShaUtil.sha256Hash(pre_hash);
-			M_log.debug("Received signature="+signature+" received="+received_signature);
-			boolean matched = signature.equals(received_signature);
-
 			String old_placement_secret  = pitch.getProperty(LTIService.LTI_OLDPLACEMENTSECRET);
-			if ( old_placement_secret != null && ! matched ) {
-				pre_hash = placement_secret + ":::" + user_id + ":::" + placement_id;
-				received_signature = ShaUtil.sha256Hash(pre_hash);
-				M_log.debug("Received signature II="+signature+" received="+received_signature);
-				matched = signature.equals(received_signature);
-			}
+			boolean matched = SourcedidCodec.verify(signature, placement_secret, old_placement_secret, 
+				user_id, placement_id);
+			M_log.debug("Received signature="+signature+" matched="+matched);
 
 			// Send a message back to the caller
 			if ( ! matched ) {
@@ -980,12 +1059,13 @@ public class ServiceServlet extends HttpServlet {
 
 			Map<String,Object> theMap = new TreeMap<String,Object>();
 			theMap.put("/getCourseStructureResponse/resources/resource",structureMap);
-			String theXml = XMLMap.getXMLFragment(theMap, true);
-			String output = pox.getResponseSuccess("processCourseStructureXml", theXml);
 
 			PrintWriter out = response.getWriter();
-			out.println(output);
-			M_log.debug(output);
+			pox.writeResponseSuccess("processCourseStructureXml", theMap, out);
+			out.println();
+			if ( M_log.isDebugEnabled() ) {
+				M_log.debug(pox.getResponseSuccess("processCourseStructureXml", XMLMap.getXMLFragment(theMap, true)));
+			}
 			return;
 	}
 
@@ -1261,8 +1341,8 @@ public class ServiceServlet extends HttpServlet {
 			boolean isDelete = BasicLTIUtil.equals(lti_message_type, "deleteResultRequest");
 
 			Map<String,String> bodyMap = pox.getBodyMap();
-			String result_resultscore_textstring = bodyMap.get("/resultRecord/result/resultScore/textString");
-			String result_resultdata_text = bodyMap.get("/resultRecord/result/resultData/text");
+			String result_resultscore_textstring = pox.getResultScore();
+			String result_resultdata_text = pox.getResultComment();
 			String sourced_id = bodyMap.get("/resultRecord/result/sourcedId");
 			// System.out.println("comment="+result_resultdata_text);
 			// System.out.println("grade="+result_resultscore_textstring);
@@ -1341,6 +1421,63 @@ public class ServiceServlet extends HttpServlet {
 		}
 
 
+	/*
+	 * A Sakai extension to the outcomes service - many resultRecords in one 
+	 * request, all for the same placement:
+	 *
+	 *   <replaceResultBatchRequest>
+	 *     <resultRecord> ... as in replaceResultRequest ... </resultRecord>
+	 *     <resultRecord> ... </resultRecord>
+	 *   </replaceResultBatchRequest>
+	 *
+	 * The response has a resultRecord for each one in the request with its 
+	 * sourcedId and an imsx_statusInfo.
+	 */
+	protected void processOutcomeBatchXml(HttpServletRequest request, HttpServletResponse response, 
+			IMSPOXRequest pox)
+		throws java.io.IOException
+		{
+			OutcomeBatch batch = OutcomeBatch.fromXml(pox.bodyElement);
+			if ( batch.size() < 1 ) {
+				doErrorXML(request, response, pox, "outcomes.missing", "resultRecord", null);
+				return;
+			}
+
+			String tooMany = checkBatchSize(batch.size());
+			if ( tooMany != null ) {
+				doErrorXML(request, response, pox, "outcomes.batch.size", tooMany, null);
+				return;
+			}
+
+			Object retval = null;
+			try {
+				retval = SakaiBLTIUtil.setGrades(batch.getSourcedids(), batch.getGrades(), batch.getComments(), 
+					request, ltiService);
+			} catch (Exception e) {
+				doErrorXML(request, response, pox, "outcome.grade.fail", e.getMessage(), e);
+				return;
+			}
+			if ( retval instanceof String ) {
+				doErrorXML(request, response, pox, "outcomes.fail", (String) retval, null);
+				return;
+			}
+
+			@SuppressWarnings("unchecked")
+			List<Object> statuses = (List<Object>) retval;
+			String desc = OutcomeBatch.getDescription(statuses);
+			String output = null;
+			if ( OutcomeBatch.countStored(statuses) == statuses.size() ) {
+				output = pox.getResponseSuccess(desc, batch.getXmlResponse(statuses));
+			} else {
+				output = pox.getResponseFailure(desc, null, batch.getXmlResponse(statuses));
+			}
+
+			response.setContentType("application/xml");
+			PrintWriter out = response.getWriter();
+			out.println(output);
+			M_log.debug(output);
+		}
+
 	public void destroy() {
 
 	}
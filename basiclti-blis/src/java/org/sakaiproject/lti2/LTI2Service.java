@@ -119,6 +119,7 @@ public class LTI2Service extends HttpServlet {
 	public void init(ServletConfig config) throws ServletException {
 		super.init(config);
 		if ( ltiService == null ) ltiService = (LTIService) ComponentManager.get("org.sakaiproject.lti.api.LTIService");
+		SakaiBLTIUtil.configureNonceStore();
 
 		resourceUrl = SakaiBLTIUtil.getOurServerUrl() + LTI2_PATH;
 		LTI2ResultItem = StandardServices.LTI2ResultItem(resourceUrl 
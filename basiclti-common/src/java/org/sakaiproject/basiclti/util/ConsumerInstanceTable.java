@@ -0,0 +1,177 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import java.util.Map;
+
+/**
+ * The LMS-wide keys and secrets to sign launches with, by launch host.
+ * <p>
+ * These come from properties like:
+ * <pre>
+ * basiclti.consumer_instance_key=...
+ * basiclti.consumer_instance_secret=...
+ * basiclti.consumer_instance_key.imsglobal.org=...
+ * basiclti.consumer_instance_secret.imsglobal.org=...
+ * </pre>
+ * A host takes the key (and separately the secret) of the longest
+ * configured name that is the whole host or a dot separated suffix of it,
+ * so www.imsglobal.org uses the imsglobal.org values, and falls back to
+ * the values with no host.
+ * <p>
+ * The host names are kept in a trie of their characters read from the
+ * end, so a lookup walks the launch host once from its last character.
+ * A table is never changed once it is built - build a new one when the
+ * properties change.
+ */
+public class ConsumerInstanceTable {
+
+	public static final String PREFIX = "basiclti.consumer_instance_";
+	public static final String KEY = "key";
+	public static final String SECRET = "secret";
+
+	private static class Node {
+		char[] chars = new char[0];
+		Node[] children = new Node[0];
+		String key = null;
+		String secret = null;
+
+		Node child(char c) {
+			for (int i = 0; i < chars.length; i++) {
+				if ( chars[i] == c ) return children[i];
+			}
+			return null;
+		}
+
+		Node addChild(char c) {
+			Node node = child(c);
+			if ( node != null ) return node;
+			node = new Node();
+			int n = chars.length;
+			char[] newChars = new char[n + 1];
+			Node[] newChildren = new Node[n + 1];
+			System.arraycopy(chars, 0, newChars, 0, n);
+			System.arraycopy(children, 0, newChildren, 0, n);
+			newChars[n] = c;
+			newChildren[n] = node;
+			chars = newChars;
+			children = newChildren;
+			return node;
+		}
+	}
+
+	private final Node root = new Node();
+	private int hosts = 0;
+
+	/**
+	 * @param properties
+	 *		Property names to values - anything not named
+	 *		basiclti.consumer_instance_key[.host] or
+	 *		basiclti.consumer_instance_secret[.host] is ignored
+	 */
+	public ConsumerInstanceTable(Map<String, String> properties) {
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			String name = entry.getKey();
+			String value = entry.getValue();
+			if ( name == null || value == null || ! name.startsWith(PREFIX) ) continue;
+			int start = PREFIX.length();
+			boolean isKey;
+			if ( name.startsWith(KEY, start) ) {
+				isKey = true;
+				start += KEY.length();
+			} else if ( name.startsWith(SECRET, start) ) {
+				isKey = false;
+				start += SECRET.length();
+			} else {
+				continue;
+			}
+
+			Node node = root;
+			if ( start < name.length() ) {
+				if ( name.charAt(start) != '.' || start + 1 == name.length() ) continue;
+				for (int i = name.length() - 1; i > start; i--) {
+					node = node.addChild(name.charAt(i));
+				}
+			}
+			if ( node != root && node.key == null && node.secret == null ) hosts++;
+			if ( isKey ) {
+				node.key = value;
+			} else {
+				node.secret = value;
+			}
+		}
+	}
+
+	/**
+	 * @return { key, secret } for the host of launchUrl - either may be null
+	 */
+	public String[] lookup(String launchUrl) {
+		String key = root.key;
+		String secret = root.secret;
+		int end = launchUrl == null ? -1 : hostEnd(launchUrl);
+		if ( end > 0 ) {
+			int start = hostStart(launchUrl, end);
+			Node node = root;
+			for (int i = end - 1; i >= start; i--) {
+				node = node.child(launchUrl.charAt(i));
+				if ( node == null ) break;
+				// Only whole labels count - badexample.com is not example.com
+				if ( i == start || launchUrl.charAt(i - 1) == '.' ) {
+					if ( node.key != null ) key = node.key;
+					if ( node.secret != null ) secret = node.secret;
+				}
+			}
+		}
+		String [] retval = { key, secret };
+		return retval;
+	}
+
+	public int getHostCount() {
+		return hosts;
+	}
+
+	// Where the host of scheme://user@host:port/path ends, -1 if there is none
+	private static int hostEnd(String url) {
+		int scheme = url.indexOf("://");
+		if ( scheme < 1 ) return -1;
+		int length = url.length();
+		int start = scheme + 3;
+		int end = start;
+		if ( end < length && url.charAt(end) == '[' ) {
+			// An IPv6 address keeps its brackets, as URL.getHost() does
+			end = url.indexOf(']', end);
+			return end < 0 ? -1 : end + 1;
+		}
+		while ( end < length ) {
+			char c = url.charAt(end);
+			if ( c == '/' || c == '?' || c == '#' ) break;
+			if ( c == '@' ) start = end + 1;
+			end++;
+		}
+		int port = url.lastIndexOf(':', end - 1);
+		if ( port >= start ) end = port;
+		return end > start ? end : -1;
+	}
+
+	private static int hostStart(String url, int end) {
+		int at = url.lastIndexOf('@', end - 1);
+		int scheme = url.indexOf("://") + 3;
+		return at >= scheme ? at + 1 : scheme;
+	}
+}
@@ -0,0 +1,172 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import org.sakaiproject.authz.api.AuthzGroup;
+import org.sakaiproject.authz.api.GroupNotDefinedException;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.authz.cover.AuthzGroupService;
+import org.sakaiproject.authz.cover.SecurityService;
+import org.sakaiproject.exception.IdUnusedException;
+import org.sakaiproject.site.api.Site;
+import org.sakaiproject.site.cover.SiteService;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.cover.UserDirectoryService;
+
+/**
+ * The site, realm and user behind one launch.
+ * <p>
+ * Building a launch asks for the same site, realm and current user from
+ * several places.  Each of these is looked up the first time it is
+ * needed and then kept here, so pass one LaunchContext through all of
+ * the SakaiBLTIUtil add*Info() calls for a launch.  A LaunchContext
+ * belongs to the thread doing the launch and is thrown away afterwards -
+ * it is not a cache and is not thread safe.
+ * <p>
+ * Every call to a Sakai service made for the launch is counted in
+ * getLookups().
+ */
+public class LaunchContext {
+
+	private final String siteId;
+	private int lookups = 0;
+
+	private Site site = null;
+	private boolean siteLoaded = false;
+	private AuthzGroup realm = null;
+	private boolean realmLoaded = false;
+	private User user = null;
+	private boolean userLoaded = false;
+	private Boolean superUser = null;
+	private Boolean allowUpdate = null;
+
+	public LaunchContext(String siteId) {
+		this.siteId = siteId;
+	}
+
+	/**
+	 * A context for a site the caller has already loaded
+	 */
+	public LaunchContext(Site site) {
+		this(site == null ? null : site.getId());
+		this.site = site;
+		this.siteLoaded = site != null;
+	}
+
+	public String getSiteId() {
+		return siteId;
+	}
+
+	/**
+	 * @return the site or null if there is no such site
+	 */
+	public Site getSite() {
+		if ( ! siteLoaded ) {
+			siteLoaded = true;
+			if ( siteId != null ) {
+				lookup();
+				try {
+					site = SiteService.getSite(siteId);
+				} catch (IdUnusedException e) {
+					site = null;
+				}
+			}
+		}
+		return site;
+	}
+
+	/**
+	 * @return the realm of the site or null if it has none
+	 */
+	public AuthzGroup getRealm() {
+		if ( ! realmLoaded ) {
+			realmLoaded = true;
+			if ( siteId != null ) {
+				lookup();
+				try {
+					realm = AuthzGroupService.getAuthzGroup(SiteService.siteReference(siteId));
+				} catch (GroupNotDefinedException e) {
+					SakaiBLTIUtil.dPrint("LaunchContext.getRealm: site realm not found"+e.getMessage());
+					realm = null;
+				}
+			}
+		}
+		return realm;
+	}
+
+	/**
+	 * The provider id of the site realm - the packed ids of the rosters
+	 * that make up the site
+	 */
+	public String getProviderGroupId() {
+		AuthzGroup r = getRealm();
+		return r == null ? null : r.getProviderGroupId();
+	}
+
+	public User getUser() {
+		if ( ! userLoaded ) {
+			userLoaded = true;
+			lookup();
+			user = UserDirectoryService.getCurrentUser();
+		}
+		return user;
+	}
+
+	/**
+	 * @return the id of the current user's role in the site realm or null
+	 */
+	public String getRoleId() {
+		User u = getUser();
+		AuthzGroup r = getRealm();
+		if ( u == null || r == null ) return null;
+		Role role = r.getUserRole(u.getId());
+		return role == null ? null : role.getId();
+	}
+
+	public boolean isSuperUser() {
+		if ( superUser == null ) {
+			lookup();
+			superUser = Boolean.valueOf(SecurityService.isSuperUser());
+		}
+		return superUser.booleanValue();
+	}
+
+	public boolean allowUpdateSite() {
+		if ( allowUpdate == null ) {
+			lookup();
+			allowUpdate = Boolean.valueOf(SiteService.allowUpdateSite(siteId));
+		}
+		return allowUpdate.booleanValue();
+	}
+
+	/**
+	 * The number of Sakai service calls made for this launch
+	 */
+	public int getLookups() {
+		return lookups;
+	}
+
+	private void lookup() {
+		lookups++;
+	}
+
+	public String toString() {
+		return "LaunchContext site=" + siteId + " lookups=" + lookups;
+	}
+}
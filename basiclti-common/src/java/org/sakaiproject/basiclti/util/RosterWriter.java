@@ -0,0 +1,275 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.imsglobal.basiclti.XMLPool;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.user.api.User;
+import org.sakaiproject.user.cover.UserDirectoryService;
+
+/**
+ * Writes the basic-lis-readmembershipsforcontext response straight to the
+ * servlet Writer, optionally a page at a time.
+ * <p>
+ * Members are taken in user id order so a page can be continued from the
+ * last id of the page before.  Users are only looked up when names or
+ * emails are released, and then in batches through a single getUsers()
+ * call rather than one getUser() per member.  Each batch is looked up and
+ * signed in full before any of its members are written, and the output is
+ * flushed after each batch so a large roster goes out as it is produced.
+ * <p>
+ * If the first batch fails nothing has been written and the exception is
+ * thrown, so the caller can send its usual error response.  If a later
+ * batch fails the members already sent are kept and the document is
+ * closed with a Fail status instead of Success.
+ */
+public class RosterWriter {
+
+	private static Log M_log = LogFactory.getLog(RosterWriter.class);
+
+	public static final int USER_BATCH = 500;
+
+	/**
+	 * Where users are looked up - the UserDirectoryService unless a test
+	 * provides something else.
+	 */
+	public interface UserSource {
+		List<User> getUsers(Collection<String> ids);
+	}
+
+	public static final UserSource DIRECTORY = new UserSource() {
+		@SuppressWarnings("unchecked")
+		public List<User> getUsers(Collection<String> ids) {
+			return UserDirectoryService.getUsers(ids);
+		}
+	};
+
+	// A member with everything that needs a lookup or a signature done
+	private static class Resolved {
+		String id;
+		String role;
+		String sourcedid;
+		User user;
+	}
+
+	private final UserSource userSource;
+	private final String maintainRole;
+	private final String placementId;
+	private final String placementSecret;
+	private final boolean releaseName;
+	private final boolean releaseEmail;
+
+	/**
+	 * @param placementSecret null unless outcomes are on for the placement,
+	 * in which case each member gets a lis_result_sourcedid
+	 */
+	public RosterWriter(UserSource userSource, String maintainRole, String placementId,
+			String placementSecret, boolean releaseName, boolean releaseEmail)
+	{
+		this.userSource = userSource;
+		this.maintainRole = maintainRole;
+		this.placementId = placementId;
+		this.placementSecret = placementSecret;
+		this.releaseName = releaseName;
+		this.releaseEmail = releaseEmail;
+	}
+
+	/**
+	 * The IMS role of each member keyed by user id, in the order the roster
+	 * is paged through.
+	 */
+	public SortedMap<String,String> getRoles(Collection<Member> members)
+	{
+		SortedMap<String,String> roles = new TreeMap<String,String>();
+		for (Member member : members ) {
+			Role role = member.getRole();
+			String ims_role = "Learner";
+			if ( maintainRole != null && role != null && maintainRole.equals(role.getId())) ims_role = "Instructor";
+			roles.put(member.getUserId(), ims_role);
+		}
+		return roles;
+	}
+
+	/**
+	 * Write the response for up to pageSize members whose ids come after
+	 * continuation.
+	 *
+	 * @param continuation null to start at the beginning
+	 * @param pageSize zero or less for the whole roster
+	 * @return the continuation for the next page, or null if this page
+	 * reached the end of the roster or could not be finished
+	 * @throws RuntimeException from the user lookup or signing of the
+	 * first batch, before anything is written
+	 */
+	public String write(Writer out, String lti_message_type, SortedMap<String,String> roles,
+			String continuation, int pageSize) throws IOException
+	{
+		SortedMap<String,String> rest = roles;
+		if ( continuation != null ) {
+			// Skip the continuation itself, it was the end of the last page
+			rest = roles.tailMap(continuation + "\0");
+		}
+
+		List<String> page = new ArrayList<String>();
+		String next = null;
+		for ( String id : rest.keySet() ) {
+			if ( pageSize > 0 && page.size() >= pageSize ) {
+				next = page.get(page.size()-1);
+				break;
+			}
+			page.add(id);
+		}
+
+		// Any failure here happens before a byte is written
+		List<Resolved> resolved = resolve(page.subList(0, Math.min(page.size(), USER_BATCH)), roles);
+
+		RuntimeException failure = null;
+		int sent = 0;
+		try {
+			XMLStreamWriter writer = XMLPool.createStreamWriter(out);
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeCharacters("\n");
+			writer.writeStartElement("message_response");
+			if ( next != null ) writeElement(writer, 1, "ext_sakai_roster_continuation", next);
+			writeElement(writer, 1, "lti_message_type", lti_message_type);
+			indent(writer, 1);
+			writer.writeStartElement("members");
+
+			for (int start = 0; start < page.size(); start += USER_BATCH ) {
+				if ( start > 0 ) {
+					try {
+						resolved = resolve(page.subList(start, Math.min(page.size(), start + USER_BATCH)), roles);
+					} catch (RuntimeException e) {
+						failure = e;
+						break;
+					}
+				}
+				for ( Resolved member : resolved ) {
+					writeMember(writer, member);
+				}
+				sent += resolved.size();
+				// Let this batch go to the client before the next lookup
+				writer.flush();
+			}
+
+			indent(writer, 1);
+			writer.writeEndElement();
+			indent(writer, 1);
+			writer.writeStartElement("statusinfo");
+			if ( failure == null ) {
+				writeElement(writer, 2, "codemajor", "Success");
+				writeElement(writer, 2, "codeminor", "fullsuccess");
+				writeElement(writer, 2, "severity", "Status");
+			} else {
+				M_log.warn("Roster stopped after "+sent+" of "+page.size()+" members: "+failure.getMessage(), failure);
+				writeElement(writer, 2, "codemajor", "Fail");
+				writeElement(writer, 2, "severity", "Error");
+				writeElement(writer, 2, "description", "Roster incomplete after "+sent+" of "+page.size()+" members");
+			}
+			indent(writer, 1);
+			writer.writeEndElement();
+			writer.writeCharacters("\n");
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			IOException ioe = new IOException("Could not write roster: "+e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+		// An incomplete page can not be continued
+		return failure == null ? next : null;
+	}
+
+	private List<Resolved> resolve(List<String> batch, SortedMap<String,String> roles)
+	{
+		Map<String,User> users = null;
+		if ( releaseName || releaseEmail ) {
+			users = new HashMap<String,User>();
+			for ( User user : userSource.getUsers(batch) ) {
+				users.put(user.getId(), user);
+			}
+		}
+		List<Resolved> resolved = new ArrayList<Resolved>(batch.size());
+		for ( String id : batch ) {
+			Resolved member = new Resolved();
+			member.id = id;
+			member.role = roles.get(id);
+			if ( placementSecret != null ) member.sourcedid = SakaiBLTIUtil.getSourceDID(id, placementId, placementSecret);
+			if ( users != null ) member.user = users.get(id);
+			resolved.add(member);
+		}
+		return resolved;
+	}
+
+	// The same elements in the same order as the Map based roster used to produce
+	private void writeMember(XMLStreamWriter writer, Resolved member)
+		throws XMLStreamException
+	{
+		indent(writer, 2);
+		writer.writeStartElement("member");
+		writeElement(writer, 3, "lis_result_sourcedid", member.sourcedid);
+		User user = member.user;
+		if ( user != null ) {
+			if ( releaseEmail ) writeElement(writer, 3, "person_contact_email_primary", user.getEmail());
+			if ( releaseName ) {
+				writeElement(writer, 3, "person_name_family", user.getLastName());
+				writeElement(writer, 3, "person_name_full", user.getDisplayName());
+				writeElement(writer, 3, "person_name_given", user.getFirstName());
+			}
+			if ( releaseEmail ) writeElement(writer, 3, "person_sourcedid", user.getEid());
+		}
+		writeElement(writer, 3, "role", member.role);
+		writeElement(writer, 3, "user_id", member.id);
+		indent(writer, 2);
+		writer.writeEndElement();
+	}
+
+	private static void writeElement(XMLStreamWriter writer, int depth, String name, String value)
+		throws XMLStreamException
+	{
+		if ( value == null ) return;
+		indent(writer, depth);
+		writer.writeStartElement(name);
+		writer.writeCharacters(value);
+		writer.writeEndElement();
+	}
+
+	private static void indent(XMLStreamWriter writer, int depth) throws XMLStreamException
+	{
+		writer.writeCharacters("\n");
+		for (int j=0; j<depth; j++) writer.writeCharacters("  ");
+	}
+}
@@ -21,12 +21,15 @@ package org.sakaiproject.basiclti.util;
 
 import java.util.Properties;
 import java.util.Map;
+import java.util.HashMap;
 import java.util.TreeMap;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.Enumeration;
-import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+import java.io.IOException;
+import java.io.Writer;
 
 import javax.servlet.http.HttpServletRequest;
 
@@ -51,15 +54,14 @@ import org.sakaiproject.authz.cover.SecurityService;
 import org.sakaiproject.site.api.Site;
 import org.sakaiproject.site.cover.SiteService;
 import org.sakaiproject.api.privacy.PrivacyManager;
-import org.sakaiproject.authz.cover.AuthzGroupService;
-import org.sakaiproject.authz.api.AuthzGroup;
 import org.sakaiproject.authz.api.GroupProvider;
-import org.sakaiproject.authz.api.Role;
 import org.sakaiproject.authz.api.Member;
-import org.sakaiproject.authz.api.GroupNotDefinedException;
 import org.sakaiproject.entity.api.ResourceProperties;
 import org.sakaiproject.component.cover.ServerConfigurationService;
+import org.sakaiproject.component.api.ServerConfigurationService.ConfigItem;
 import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.memory.api.Cache;
+import org.sakaiproject.memory.api.MemoryService;
 import org.sakaiproject.util.ResourceLoader;
 import org.sakaiproject.util.Web;
 import org.sakaiproject.portal.util.CSSUtils;
@@ -81,6 +83,7 @@ import net.oauth.OAuthAccessor;
 import net.oauth.OAuthConsumer;
 import net.oauth.OAuthMessage;
 import net.oauth.OAuthValidator;
+import net.oauth.SimpleNonceStore;
 import net.oauth.SimpleOAuthValidator;
 import net.oauth.signature.OAuthSignatureMethod;
 
@@ -98,10 +101,16 @@ public class SakaiBLTIUtil {
 
 	public static final String BASICLTI_OUTCOMES_ENABLED = "basiclti.outcomes.enabled";
 	public static final String BASICLTI_OUTCOMES_ENABLED_DEFAULT = "true";
+	public static final String BASICLTI_OUTCOMES_BATCH_MAX = "basiclti.outcomes.batch.max";
+	public static final int BASICLTI_OUTCOMES_BATCH_MAX_DEFAULT = 10000;
+	public static final String BASICLTI_SERVICE_MAX_BODY = "basiclti.service.max.body";
+	public static final int BASICLTI_SERVICE_MAX_BODY_DEFAULT = 10000000;
 	public static final String BASICLTI_SETTINGS_ENABLED = "basiclti.settings.enabled";
 	public static final String BASICLTI_SETTINGS_ENABLED_DEFAULT = "true";
 	public static final String BASICLTI_ROSTER_ENABLED = "basiclti.roster.enabled";
 	public static final String BASICLTI_ROSTER_ENABLED_DEFAULT = "true";
+	public static final String BASICLTI_ROSTER_PAGE_MAX = "basiclti.roster.page.max";
+	public static final int BASICLTI_ROSTER_PAGE_MAX_DEFAULT = 5000;
 	public static final String BASICLTI_LORI_ENABLED = "basiclti.lori.enabled";
 	public static final String BASICLTI_LORI_ENABLED_DEFAULT = "true";
 	public static final String BASICLTI_CONTENTLINK_ENABLED = "basiclti.contentlink.enabled";
@@ -109,6 +118,22 @@ public class SakaiBLTIUtil {
 	public static final String BASICLTI_CONSUMER_USERIMAGE_ENABLED = "basiclti.consumer.userimage.enabled";
 	public static final String BASICLTI_ENCRYPTION_KEY = "basiclti.encryption.key";
 	public static final String BASICLTI_LAUNCH_SESSION_TIMEOUT = "basiclti.launch.session.timeout";
+	public static final String BASICLTI_PLACEMENT_CACHE_TTL = "basiclti.placement.cache.ttl";
+	public static final int BASICLTI_PLACEMENT_CACHE_TTL_DEFAULT = 60; // Seconds
+	public static final String BASICLTI_SECRET_CACHE_SIZE = "basiclti.secret.cache.size";
+	public static final int BASICLTI_SECRET_CACHE_SIZE_DEFAULT = 500;
+	public static final String BASICLTI_SECRET_CACHE_TTL = "basiclti.secret.cache.ttl";
+	public static final int BASICLTI_SECRET_CACHE_TTL_DEFAULT = 600; // Seconds
+	public static final String BASICLTI_GRADEBOOK_CACHE_SIZE = "basiclti.gradebook.cache.size";
+	public static final int BASICLTI_GRADEBOOK_CACHE_SIZE_DEFAULT = 200;
+	public static final String BASICLTI_GRADEBOOK_CACHE_TTL = "basiclti.gradebook.cache.ttl";
+	public static final int BASICLTI_GRADEBOOK_CACHE_TTL_DEFAULT = 60; // Seconds
+	public static final String BASICLTI_CONSUMER_CACHE_TTL = "basiclti.consumer.cache.ttl";
+	public static final int BASICLTI_CONSUMER_CACHE_TTL_DEFAULT = 60; // Seconds
+	public static final String BASICLTI_OAUTH_NONCE_MAX = "basiclti.oauth.nonce.max";
+	public static final int BASICLTI_OAUTH_NONCE_MAX_DEFAULT = SimpleNonceStore.DEFAULT_MAX_NONCES;
+	public static final String BASICLTI_OAUTH_NONCE_WINDOW = "basiclti.oauth.nonce.window";
+	public static final int BASICLTI_OAUTH_NONCE_WINDOW_DEFAULT = (int) (SimpleOAuthValidator.DEFAULT_TIMESTAMP_WINDOW / 1000); // Seconds
 
 	public static final String SVC_tc_profile = "tc_profile";
 	public static final String SVC_tc_registration = "tc_registration";
@@ -230,13 +255,61 @@ public class SakaiBLTIUtil {
 		return newsecret;
 	}
 
+	// Holds a decrypted secret - toString() never reveals the value and it is 
+	// deliberately not Serializable so it cannot leak out through a log line
+	// or a replicated cache
+	private static final class DecryptedSecret {
+		private final String value;
+
+		DecryptedSecret(String value) {
+			this.value = value;
+		}
+
+		public String toString() {
+			return "********";
+		}
+	}
+
+	// Decrypted secrets keyed by the encrypted string
+	private static TimedCache<String, DecryptedSecret> secretCache = null;
+	private static String secretCacheKey = null;
+
+	// The cache is thrown away if the encryption key changes
+	private static synchronized TimedCache<String, DecryptedSecret> getSecretCache(String encryptionKey)
+	{
+		if ( secretCache == null ) {
+			int size = ServerConfigurationService.getInt(BASICLTI_SECRET_CACHE_SIZE, 
+				BASICLTI_SECRET_CACHE_SIZE_DEFAULT);
+			int ttl = ServerConfigurationService.getInt(BASICLTI_SECRET_CACHE_TTL, 
+				BASICLTI_SECRET_CACHE_TTL_DEFAULT);
+			secretCache = new TimedCache<String, DecryptedSecret>("secretCache", size, ttl * 1000L);
+		} else if ( ! encryptionKey.equals(secretCacheKey) ) {
+			secretCache.clear();
+		}
+		secretCacheKey = encryptionKey;
+		return secretCache;
+	}
+
+	public static String getSecretCacheStatistics()
+	{
+		String encryptionKey = ServerConfigurationService.getString(BASICLTI_ENCRYPTION_KEY, null);
+		if ( encryptionKey == null ) return null;
+		return getSecretCache(encryptionKey).getStatistics();
+	}
+
+	// Decrypting runs a PBKDF2 key derivation so the results are cached - 
+	// this is called on every launch and every service callback
 	public static String decryptSecret(String orig)
 	{
 		if ( orig == null || orig.trim().length() < 1 ) return orig;
 		String encryptionKey = ServerConfigurationService.getString(BASICLTI_ENCRYPTION_KEY, null);
 		if ( encryptionKey == null ) return orig;
+		TimedCache<String, DecryptedSecret> cache = getSecretCache(encryptionKey);
+		DecryptedSecret cached = cache.get(orig);
+		if ( cached != null ) return cached.value;
 		try {
 			String newsecret = SimpleEncryption.decrypt(encryptionKey, orig);
+			cache.put(orig, new DecryptedSecret(newsecret));
 			return newsecret;
 		} catch (RuntimeException re) {
 			M_log.warn("Falling back to using plain secret, failed to decrypt encrypted secret: "+ re.getMessage());
@@ -256,6 +329,12 @@ public class SakaiBLTIUtil {
 
 	public static void addSiteInfo(Properties props, Properties lti2subst, Site site)
 	{
+		addSiteInfo(props, lti2subst, new LaunchContext(site));
+	}
+
+	public static void addSiteInfo(Properties props, Properties lti2subst, LaunchContext launch)
+	{
+		Site site = launch.getSite();
 		if ( site != null ) {
 			String context_type = site.getType();
 			if ( context_type != null && context_type.toLowerCase().contains("course") ){
@@ -267,7 +346,7 @@ public class SakaiBLTIUtil {
 			setProperty(lti2subst,"CourseOffering.label",site.getTitle());
 			setProperty(props,BasicLTIConstants.CONTEXT_TITLE,site.getTitle());
 			setProperty(lti2subst,"CourseOffering.title",site.getTitle());
-			String courseRoster = getExternalRealmId(site.getId());
+			String courseRoster = launch.getProviderGroupId();
 			if ( courseRoster != null ) 
 			{
 				setProperty(props,BasicLTIConstants.LIS_COURSE_OFFERING_SOURCEDID,courseRoster);
@@ -295,83 +374,94 @@ public class SakaiBLTIUtil {
 	}
 
 	public static void addRoleInfo(Properties props, Properties lti2subst, String context)
+	{
+		addRoleInfo(props, lti2subst, new LaunchContext(context));
+	}
+
+	public static void addRoleInfo(Properties props, Properties lti2subst, LaunchContext launch)
 	{
 		String theRole = "Learner";
-		if ( SecurityService.isSuperUser() )
+		if ( launch.isSuperUser() )
 		{
 			theRole = "Instructor,Administrator,urn:lti:instrole:ims/lis/Administrator,urn:lti:sysrole:ims/lis/Administrator";
 		}
-		else if ( SiteService.allowUpdateSite(context) ) 
+		else if ( launch.allowUpdateSite() ) 
 		{
 			theRole = "Instructor";
 		}
 		setProperty(props,BasicLTIConstants.ROLES,theRole);
 		setProperty(lti2subst,"Membership.role",theRole);
 
-		String realmId = SiteService.siteReference(context);
-		User user = null;
-		try {
-			user = UserDirectoryService.getCurrentUser();
-			if ( user != null ) {
-				Role role = null;
-				String roleId = null;
-				AuthzGroup realm = AuthzGroupService.getAuthzGroup(realmId);
-				if ( realm != null ) role = realm.getUserRole(user.getId());
-				if ( role != null ) roleId = role.getId();
-				if ( roleId != null && roleId.length() > 0 ) setProperty(props, "ext_sakai_role", roleId);
-			}
-		} catch (GroupNotDefinedException e) {
-			dPrint("SiteParticipantHelper.getExternalRealmId: site realm not found"+e.getMessage());
-		}
+		User user = launch.getUser();
+		String roleId = launch.getRoleId();
+		if ( roleId != null && roleId.length() > 0 ) setProperty(props, "ext_sakai_role", roleId);
 
 		// Check if there are sections the user is part of (may be more than one)
-		String courseRoster = getExternalRealmId(context);
+		String courseRoster = launch.getProviderGroupId();
 		if ( user!= null && courseRoster != null )
 		{
 			GroupProvider groupProvider = (GroupProvider) ComponentManager.get(
 				org.sakaiproject.authz.api.GroupProvider.class);
-			String[] courseRosters = groupProvider.unpackId(courseRoster);
-			List<String> rosterList = new ArrayList<String>();
-			String userEid = user.getEid();
-			for(int i=0; i<courseRosters.length;i++) {
-				String providerId = courseRosters[i];
-				Map userRole = groupProvider.getUserRolesForGroup(providerId);
-				if (userRole.containsKey(userEid)) {
-					rosterList.add(providerId);
-				}
-			}
-			if ( rosterList.size() > 0 ) {
-				String[] sArray = new String[rosterList.size()];
-				sArray = (String[]) rosterList.toArray(sArray);
-				String providedGroups = groupProvider.packId(sArray);
-				setProperty(props,"ext_sakai_section",providedGroups);
+			String providedGroups = getUserSections(groupProvider, courseRoster, user.getEid());
+			if ( providedGroups != null ) setProperty(props,"ext_sakai_section",providedGroups);
+		}
+	}
+
+	// The packed ids of the rosters in courseRoster that the user is in.  This
+	// asks for the user's groups once rather than for the whole enrollment of
+	// every roster - a cross-listed course can have dozens of large sections.
+	static String getUserSections(GroupProvider groupProvider, String courseRoster, String userEid)
+	{
+		if ( groupProvider == null || courseRoster == null || userEid == null ) return null;
+		Map userGroups = groupProvider.getGroupRolesForUser(userEid);
+		if ( userGroups == null || userGroups.isEmpty() ) return null;
+
+		String[] courseRosters = groupProvider.unpackId(courseRoster);
+		List<String> rosterList = new ArrayList<String>();
+		for(int i=0; i<courseRosters.length;i++) {
+			String providerId = courseRosters[i];
+			if ( userGroups.containsKey(providerId) ) {
+				rosterList.add(providerId);
 			}
 		}
+		if ( rosterList.size() < 1 ) return null;
+		String[] sArray = new String[rosterList.size()];
+		sArray = (String[]) rosterList.toArray(sArray);
+		return groupProvider.packId(sArray);
 	}
 
 	// Retrieve the Sakai information about users, etc.
 	public static boolean sakaiInfo(Properties props, String context, String placementId, ResourceLoader rb)
 	{
+		return sakaiInfo(props, new LaunchContext(context), placementId, rb);
+	}
 
-		Site site = null;
-		try {
-			site = SiteService.getSite(context);
-		} catch (Exception e) {
-			dPrint("No site/page associated with Launch context="+context);
+	public static boolean sakaiInfo(Properties props, LaunchContext launch, String placementId, ResourceLoader rb)
+	{
+		Site site = launch.getSite();
+		if ( site == null ) {
+			dPrint("No site/page associated with Launch context="+launch.getSiteId());
 			return false;
 		}
 
 		// Add the generic information
 		addGlobalData(site, props, null, rb);
-		addRoleInfo(props, null, context);
-		addSiteInfo(props, null, site);
+		addRoleInfo(props, null, launch);
+		addSiteInfo(props, null, launch);
 
 		// Add Placement Information
-		addPlacementInfo(props, placementId);
+		addPlacementInfo(props, placementId, launch);
+		if ( M_log.isDebugEnabled() ) M_log.debug(launch.toString());
 		return true;
 	}
 
 	public static void addPlacementInfo(Properties props, String placementId)
+	{
+		ToolConfiguration placement = SiteService.findTool(placementId);
+		addPlacementInfo(props, placementId, new LaunchContext(placement.getContext()));
+	}
+
+	public static void addPlacementInfo(Properties props, String placementId, LaunchContext launch)
 	{
 
 		// Get the placement to see if we are to release information
@@ -388,7 +478,7 @@ public class SakaiBLTIUtil {
 		String releasename = toNull(getCorrectProperty(config,"releasename", placement));
 		String releaseemail = toNull(getCorrectProperty(config,"releaseemail", placement));
 
-		User user = UserDirectoryService.getCurrentUser();
+		User user = launch.getUser();
 
         PrivacyManager pm = (PrivacyManager) 
                 ComponentManager.get("org.sakaiproject.api.privacy.PrivacyManager");
@@ -577,6 +667,20 @@ public class SakaiBLTIUtil {
 	// This must return an HTML message as the [0] in the array
 	// If things are successful - the launch URL is in [1]
 	public static String[] postLaunchHTML(Map<String, Object> content, Map<String,Object> tool, LTIService ltiService, ResourceLoader rb)
+	{
+		try {
+			return postLaunchHTML(content, tool, ltiService, rb, null);
+		} catch (IOException e) {
+			// Nothing is written without a Writer
+			throw new Error(e);
+		}
+	}
+
+	// Write the launch form to out rather than returning it - an error is
+	// still returned as the [0] in the array and nothing is written.  If
+	// things are successful [0] is null and the launch URL is in [1]
+	public static String[] postLaunchHTML(Map<String, Object> content, Map<String,Object> tool, LTIService ltiService, ResourceLoader rb, Writer out)
+		throws IOException
 	{
 		if ( content == null ) {
 			return postError("<p>" + getRB(rb, "error.content.missing" ,"Content item is missing or improperly configured.")+"</p>" ); 
@@ -594,10 +698,9 @@ public class SakaiBLTIUtil {
 		if ( launch_url == null ) return postError("<p>" + getRB(rb, "error.nolaunch" ,"This tool is not yet configured.")+"</p>" );
 
 		String context = (String) content.get(LTIService.LTI_SITE_ID);
-		Site site = null;
-		try {
-			site = SiteService.getSite(context);
-		} catch (Exception e) {
+		LaunchContext launch = new LaunchContext(context);
+		Site site = launch.getSite();
+		if ( site == null ) {
 			dPrint("No site/page associated with Launch context="+context);
 			return postError("<p>" + getRB(rb, "error.site.missing" ,"Cannot load site.")+context+"</p>" ); 
 		}
@@ -627,8 +730,8 @@ public class SakaiBLTIUtil {
 			setProperty(ltiProps,BasicLTIConstants.LTI_VERSION,BasicLTIConstants.LTI_VERSION_2);
 		}
 		addGlobalData(site, ltiProps, lti2subst, rb);
-		addSiteInfo(ltiProps, lti2subst, site);
-		addRoleInfo(ltiProps, lti2subst,  context);
+		addSiteInfo(ltiProps, lti2subst, launch);
+		addRoleInfo(ltiProps, lti2subst, launch);
 
 		if ( deploy != null ) {
 			setProperty(lti2subst,"ToolConsumerProfile.url", getOurServerUrl() + 
@@ -676,7 +779,7 @@ public class SakaiBLTIUtil {
 		int releasename = getInt(tool.get(LTIService.LTI_SENDNAME));
 		int releaseemail = getInt(tool.get(LTIService.LTI_SENDEMAILADDR));
 
-		User user = UserDirectoryService.getCurrentUser();
+		User user = launch.getUser();
 		if ( user != null && !UserDirectoryService.getAnonymousUser().equals(user))
 		{
 			setProperty(ltiProps,BasicLTIConstants.USER_ID,user.getId());
@@ -794,7 +897,8 @@ public class SakaiBLTIUtil {
 			addTIIproperties(ltiProps, custom);
 		}
 
-		return postLaunchHTML(toolProps, ltiProps, rb);
+		if ( M_log.isDebugEnabled() ) M_log.debug(launch.toString());
+		return postLaunchHTML(toolProps, ltiProps, rb, out);
 	}
 	
 	private static void addTIIproperties(Properties ltiProps, Properties custom){
@@ -965,6 +1069,17 @@ public class SakaiBLTIUtil {
 	// This must return an HTML message as the [0] in the array
 	// If things are successful - the launch URL is in [1]
 	public static String[] postLaunchHTML(String placementId, ResourceLoader rb)
+	{
+		try {
+			return postLaunchHTML(placementId, rb, null);
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+	}
+
+	// Like postLaunchHTML(content, tool, ltiService, rb, out)
+	public static String[] postLaunchHTML(String placementId, ResourceLoader rb, Writer out)
+		throws IOException
 	{
 		if ( placementId == null ) return postError("<p>" + getRB(rb, "error.missing" ,"Error, missing placementId")+"</p>" );
 		ToolConfiguration placement = SiteService.findTool(placementId);
@@ -982,24 +1097,37 @@ public class SakaiBLTIUtil {
 		if ( ! loadFromPlacement(toolProps, ltiProps, placement) ) {
 			return postError("<p>" + getRB(rb, "error.nolaunch" ,"Not Configured.")+"</p>");
 		}
-		return postLaunchHTML(toolProps, ltiProps, rb);
+		return postLaunchHTML(toolProps, ltiProps, rb, out);
 	}
 
-	public static String[] postLaunchHTML(Properties toolProps, Properties ltiProps, ResourceLoader rb)
+	// Whether postLaunchHTML(placementId, rb) has what it needs to launch -
+	// a launch url and a key and secret - without looking up the user and
+	// site, decrypting the secret or signing anything
+	public static boolean canLaunch(Placement placement)
 	{
+		if ( placement == null ) return false;
+
+		Properties toolProps = new Properties();
+		if ( ! loadFromPlacement(toolProps, new Properties(), placement) ) return false;
 
 		String launch_url = toolProps.getProperty("secure_launch_url");
 		if ( launch_url == null ) launch_url = toolProps.getProperty("launch_url");
-		if ( launch_url == null ) return postError("<p>" + getRB(rb, "error.missing" ,"Not configured")+"</p>");
+		if ( launch_url == null ) return false;
+
+		String[] keySecret = getKeyAndSecret(launch_url, toolProps);
+		return keySecret[0] != null && keySecret[1] != null;
+	}
 
+	// The key and (still encrypted) secret to sign a launch with
+	private static String[] getKeyAndSecret(String launch_url, Properties toolProps)
+	{
 		String org_guid = ServerConfigurationService.getString("basiclti.consumer_instance_guid",null);
-		String org_desc = ServerConfigurationService.getString("basiclti.consumer_instance_description",null);
-		String org_url = ServerConfigurationService.getString("basiclti.consumer_instance_url",null);
 
 		// Look up the LMS-wide secret and key - default key is guid
-		String key = getToolConsumerInfo(launch_url,"key");
+		String[] consumerInfo = getConsumerInstanceTable().lookup(launch_url);
+		String key = consumerInfo[0];
 		if ( key == null ) key = org_guid;
-		String secret = getToolConsumerInfo(launch_url,LTIService.LTI_SECRET);
+		String secret = consumerInfo[1];
 
 		// Demand key/secret in a pair
 		if ( key == null || secret == null ) {
@@ -1013,8 +1141,36 @@ public class SakaiBLTIUtil {
 			key = toNull(toolProps.getProperty("key"));
 		}
 
+		String [] retval = { key, secret };
+		return retval;
+	}
+
+	public static String[] postLaunchHTML(Properties toolProps, Properties ltiProps, ResourceLoader rb)
+	{
+		try {
+			return postLaunchHTML(toolProps, ltiProps, rb, null);
+		} catch (IOException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static String[] postLaunchHTML(Properties toolProps, Properties ltiProps, ResourceLoader rb, Writer out)
+		throws IOException
+	{
+
+		String launch_url = toolProps.getProperty("secure_launch_url");
+		if ( launch_url == null ) launch_url = toolProps.getProperty("launch_url");
+		if ( launch_url == null ) return postError("<p>" + getRB(rb, "error.missing" ,"Not configured")+"</p>");
+
+		String org_guid = ServerConfigurationService.getString("basiclti.consumer_instance_guid",null);
+		String org_desc = ServerConfigurationService.getString("basiclti.consumer_instance_description",null);
+		String org_url = ServerConfigurationService.getString("basiclti.consumer_instance_url",null);
+
+		String[] keySecret = getKeyAndSecret(launch_url, toolProps);
+		String key = keySecret[0];
+
 		// If secret is encrypted, decrypt it
-		secret = decryptSecret(secret);
+		String secret = decryptSecret(keySecret[1]);
 
 		// Pull in all of the custom parameters
 		for(Object okey : toolProps.keySet() ) {
@@ -1049,6 +1205,11 @@ public class SakaiBLTIUtil {
 
 		String debugProperty = toolProps.getProperty(LTIService.LTI_DEBUG);
 		boolean dodebug = "on".equals(debugProperty) || "1".equals(debugProperty);
+		if ( out != null ) {
+			BasicLTIUtil.writeLaunchHTML(out, BasicLTIUtil.convertToMap(ltiProps), launch_url, dodebug);
+			String [] retval = { null, launch_url };
+			return retval;
+		}
 		String postData = BasicLTIUtil.postLaunchHTML(ltiProps, launch_url, dodebug);
 
 		String [] retval = { postData, launch_url };
@@ -1064,11 +1225,14 @@ public class SakaiBLTIUtil {
 
 	public static String getSourceDID(User user, String placeStr, String placementSecret)
 	{
-		if ( placementSecret == null ) return null;
-		String suffix = ":::" +  user.getId() + ":::" + placeStr;
-		String base_string = placementSecret + suffix;
-		String signature = ShaUtil.sha256Hash(base_string);
-		return signature + suffix;
+		if ( user == null ) return null;
+		return getSourceDID(user.getId(), placeStr, placementSecret);
+	}
+
+	// Only the id goes into the sourcedid so there is no need to look the user up
+	public static String getSourceDID(String userId, String placeStr, String placementSecret)
+	{
+		return SourcedidCodec.getSourceDID(placementSecret, userId, placeStr);
 	}
 
 	public static String[] postError(String str) {
@@ -1092,46 +1256,37 @@ public class SakaiBLTIUtil {
 		props.setProperty(key, value);
 	}
 
-	private static String getExternalRealmId(String siteId) {
-		String realmId = SiteService.siteReference(siteId);
-		String rv = null;
-		try {
-			AuthzGroup realm = AuthzGroupService.getAuthzGroup(realmId);
-			rv = realm.getProviderGroupId();
-		} catch (GroupNotDefinedException e) {
-			dPrint("SiteParticipantHelper.getExternalRealmId: site realm not found"+e.getMessage());
-		}
-		return rv;
-	} // getExternalRealmId
+	// The LMS-wide keys and secrets by launch host, rebuilt once it is
+	// basiclti.consumer.cache.ttl seconds old so property changes are seen
+	private static volatile ConsumerInstanceTable consumerInstanceTable = null;
+	private static volatile long consumerInstanceExpires = 0;
 
-	// Look through a series of secrets from the properties based on the launchUrl
-	private static String getToolConsumerInfo(String launchUrl, String data)
+	// Every launch comes here, so only a reload takes the lock
+	private static ConsumerInstanceTable getConsumerInstanceTable()
 	{
-		String default_secret = ServerConfigurationService.getString("basiclti.consumer_instance_"+data,null);
-		dPrint("launchUrl = "+launchUrl);
-		URL url = null;
-		try {
-			url = new URL(launchUrl);
-		}
-		catch (Exception e) {
-			url = null;
-		}
-		if ( url == null ) return default_secret;
-		String hostName = url.getHost();
-		dPrint("host = "+hostName);
-		if ( hostName == null || hostName.length() < 1 ) return default_secret;
-		// Look for the property starting with the full name
-		String org_info = ServerConfigurationService.getString("basiclti.consumer_instance_"+data+"."+hostName,null);
-		if ( org_info != null ) return org_info;
-		for ( int i = 0; i < hostName.length(); i++ ) {
-			if ( hostName.charAt(i) != '.' ) continue;
-			if ( i > hostName.length()-2 ) continue;
-			String hostPart = hostName.substring(i+1);
-			String propName = "basiclti.consumer_instance_"+data+"."+hostPart;
-			org_info = ServerConfigurationService.getString(propName,null);
-			if ( org_info != null ) return org_info;
-		}
-		return default_secret;
+		ConsumerInstanceTable table = consumerInstanceTable;
+		if ( table != null && consumerInstanceExpires > System.currentTimeMillis() ) return table;
+		return loadConsumerInstanceTable();
+	}
+
+	private static synchronized ConsumerInstanceTable loadConsumerInstanceTable()
+	{
+		long now = System.currentTimeMillis();
+		if ( consumerInstanceTable != null && consumerInstanceExpires > now ) return consumerInstanceTable;
+		Map<String, String> properties = new HashMap<String, String>();
+		for (ConfigItem item : ServerConfigurationService.getInstance().getConfigData().getItems()) {
+			String name = item.getName();
+			if ( name == null || ! name.startsWith(ConsumerInstanceTable.PREFIX) ) continue;
+			// getString() resolves ${...} references as the lookups did before
+			String value = ServerConfigurationService.getString(name, null);
+			if ( value != null ) properties.put(name, value);
+		}
+		int ttl = ServerConfigurationService.getInt(BASICLTI_CONSUMER_CACHE_TTL, 
+			BASICLTI_CONSUMER_CACHE_TTL_DEFAULT);
+		consumerInstanceTable = new ConsumerInstanceTable(properties);
+		consumerInstanceExpires = now + ttl * 1000L;
+		M_log.debug("Loaded consumer keys for "+consumerInstanceTable.getHostCount()+" hosts");
+		return consumerInstanceTable;
 	}
 
 	// expected_oauth_key can be null - if it is non-null it must match the key in the request
@@ -1173,30 +1328,203 @@ public class SakaiBLTIUtil {
 		return handleGradebook(sourcedid, request, ltiService, false, true, null, null);
 	}
 
-	// Quite a long bit of code
-	private static Object handleGradebook(String sourcedid, HttpServletRequest request, 
-		LTIService ltiService, boolean isRead, boolean isDelete, 
-		Double theGrade, String comment)
+	// Split a sourcedid into { signature, user_id, placement_id } - null if it is malformed
+	private static String [] parseSourcedid(String sourcedid)
 	{
+		if ( sourcedid == null ) return null;
 		// Truncate this to the maximum length to insure no cruft at the end
 		if ( sourcedid.length() > 2048) sourcedid = sourcedid.substring(0,2048);
 
-		// Attempt to parse the sourcedid, any failure is fatal
-		String placement_id = null;
-		String signature = null;
-		String user_id = null;
 		try {
 			int pos = sourcedid.indexOf(":::");
 			if ( pos > 0 ) {
-				signature = sourcedid.substring(0, pos);
+				String signature = sourcedid.substring(0, pos);
 				String dec2 = sourcedid.substring(pos+3);
 				pos = dec2.indexOf(":::");
-				user_id = dec2.substring(0,pos);
-				placement_id = dec2.substring(pos+3);
+				String user_id = dec2.substring(0,pos);
+				String placement_id = dec2.substring(pos+3);
+				String [] retval = { signature, user_id, placement_id };
+				return retval;
+			}
+		} catch (Exception e) {
+			return null;
+		}
+		String [] retval = { null, null, null };
+		return retval;
+	}
+
+	// Check the signature of the sourcedid to make sure it was not altered
+	private static boolean checkSourcedidSignature(Properties pitch, String signature, 
+		String user_id, String placement_id)
+	{
+		String placement_secret  = pitch.getProperty(LTIService.LTI_PLACEMENTSECRET);
+		if ( placement_secret == null || signature == null ) return false;
+
+		String old_placement_secret  = pitch.getProperty(LTIService.LTI_OLDPLACEMENTSECRET);
+		boolean matched = SourcedidCodec.verify(signature, placement_secret, old_placement_secret, 
+			user_id, placement_id);
+		M_log.debug("Received signature="+signature+" matched="+matched);
+		return matched;
+	}
+
+	// Validate the incoming message using the key and secret from the placement
+	private static Object validatePlacementMessage(HttpServletRequest request, Properties pitch)
+	{
+		String oauth_secret = pitch.getProperty(LTIService.LTI_SECRET);
+		M_log.debug("oauth_secret: "+oauth_secret);
+		oauth_secret = decryptSecret(oauth_secret);
+		M_log.debug("oauth_secret (decrypted): "+oauth_secret);
+
+		String oauth_consumer_key = pitch.getProperty(LTIService.LTI_CONSUMERKEY);
+		M_log.debug("oauth_consumer_key: "+oauth_consumer_key);
+
+		String URL = getOurServletPath(request);
+
+		return validateMessage(request, URL, oauth_secret, oauth_consumer_key);
+	}
+
+	// Gradebook assignment name to assignment id for each site, so a grade 
+	// does not have to scan all of the gradebook items to find its assignment.
+	// Only the id is kept - the item itself is read again when it is used, so
+	// a change to its points is never missed, and an id whose item has been
+	// renamed or removed just sends us back to the scan.
+	private static TimedCache<String, Map<String, Long>> assignmentCache = null;
+
+	private static synchronized TimedCache<String, Map<String, Long>> getAssignmentCache()
+	{
+		if ( assignmentCache == null ) {
+			int size = ServerConfigurationService.getInt(BASICLTI_GRADEBOOK_CACHE_SIZE, 
+				BASICLTI_GRADEBOOK_CACHE_SIZE_DEFAULT);
+			int ttl = ServerConfigurationService.getInt(BASICLTI_GRADEBOOK_CACHE_TTL, 
+				BASICLTI_GRADEBOOK_CACHE_TTL_DEFAULT);
+			assignmentCache = new TimedCache<String, Map<String, Long>>("assignmentCache", size, ttl * 1000L);
+		}
+		return assignmentCache;
+	}
+
+	// Called when the items in a site's gradebook change
+	public static void invalidateGradebookCache(String siteId)
+	{
+		getAssignmentCache().remove(siteId);
+	}
+
+	public static void clearGradebookCache()
+	{
+		getAssignmentCache().clear();
+	}
+
+	public static String getGradebookCacheStatistics()
+	{
+		return getAssignmentCache().getStatistics();
+	}
+
+	// Returns null if the gradebook cannot be read - the first of several 
+	// items with the same name wins as it did with the scan
+	private static Map<String, Assignment> loadAssignmentIndex(GradebookService g, String siteId)
+	{
+		try {
+			List gradebookAssignments = g.getAssignments(siteId);
+			Map<String, Assignment> index = new HashMap<String, Assignment>(gradebookAssignments.size() * 2);
+			for (Iterator i=gradebookAssignments.iterator(); i.hasNext();) {
+				Assignment gAssignment = (Assignment) i.next();
+				if ( gAssignment.isExternallyMaintained() ) continue;
+				String name = gAssignment.getName();
+				if ( name != null && ! index.containsKey(name) ) index.put(name, gAssignment);
 			}
+			return index;
 		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	// The item as it is now, or null if it has gone or no longer has this name
+	private static Assignment loadAssignment(GradebookService g, String siteId, Long id, String assignment)
+	{
+		try {
+			Assignment assignmentObject = g.getAssignment(siteId, id);
+			if ( assignmentObject != null && assignment.equals(assignmentObject.getName()) 
+				&& ! assignmentObject.isExternallyMaintained() ) return assignmentObject;
+		} catch (Exception e) {
+			M_log.debug("Gradebook item "+id+" not found siteId="+siteId+" "+e.getMessage());
+		}
+		return null;
+	}
+
+	// Find the gradebook assignment for the placement, adding it if the gradebook 
+	// is there but the assignment is not - must be called inside pushAdvisor()
+	private static Assignment getGradebookAssignment(GradebookService g, String siteId, String assignment)
+	{
+		TimedCache<String, Map<String, Long>> cache = getAssignmentCache();
+		Map<String, Long> ids = cache.get(siteId);
+		Long id = (ids == null) ? null : ids.get(assignment);
+		Assignment assignmentObject = (id == null) ? null : loadAssignment(g, siteId, id, assignment);
+		if ( assignmentObject != null ) return assignmentObject;
+
+		// Not in the index, the index has not been loaded or the item has
+		// changed - an item may have been added since, so reload before 
+		// deciding to add it
+		Map<String, Assignment> index = loadAssignmentIndex(g, siteId);
+		if ( index != null ) {
+			ids = new HashMap<String, Long>(index.size() * 2);
+			for (Map.Entry<String, Assignment> entry : index.entrySet()) {
+				ids.put(entry.getKey(), entry.getValue().getId());
+			}
+			cache.put(siteId, ids);
+			assignmentObject = index.get(assignment);
+		}
+
+		// Attempt to add assignment to grade book
+		if ( assignmentObject == null && g.isGradebookDefined(siteId) ) {
+			try {
+				assignmentObject = new Assignment();
+				assignmentObject.setPoints(Double.valueOf(100));
+				assignmentObject.setExternallyMaintained(false);
+				assignmentObject.setName(assignment);
+				assignmentObject.setReleased(true);
+				assignmentObject.setUngraded(false);
+				g.addAssignment(siteId, assignmentObject);
+				M_log.info("Added assignment: "+assignment);
+			}
+			catch (ConflictingAssignmentNameException e) {
+				M_log.warn("ConflictingAssignmentNameException while adding assignment" + e.getMessage());
+				assignmentObject = null; // Just to make sure
+			}
+			catch (Exception e) {
+				M_log.warn("GradebookNotFoundException (may be because GradeBook has not yet been added to the Site) " + e.getMessage());
+				assignmentObject = null; // Just to make double sure
+			}
+			// Load the new item with its id next time
+			cache.remove(siteId);
+		}
+		return assignmentObject;
+	}
+
+	// Indicate "who" is setting this grade - needs to be a real user account
+	private static Session startGradebookSession()
+	{
+		Session sess = SessionManager.getCurrentSession();
+		String gb_user_id = ServerConfigurationService.getString(
+				"basiclti.outcomes.userid", "admin");
+		String gb_user_eid = ServerConfigurationService.getString(
+				"basiclti.outcomes.usereid", gb_user_id);
+		sess.setUserId(gb_user_id);
+		sess.setUserEid(gb_user_eid);
+		return sess;
+	}
+
+	// Quite a long bit of code
+	private static Object handleGradebook(String sourcedid, HttpServletRequest request, 
+		LTIService ltiService, boolean isRead, boolean isDelete, 
+		Double theGrade, String comment)
+	{
+		// Attempt to parse the sourcedid, any failure is fatal
+		String [] parsed = parseSourcedid(sourcedid);
+		if ( parsed == null ) {
 			return "Unable to decrypt result_sourcedid=" + sourcedid;
 		}
+		String signature = parsed[0];
+		String user_id = parsed[1];
+		String placement_id = parsed[2];
 
 		M_log.debug("signature="+signature);
 		M_log.debug("user_id="+user_id);
@@ -1215,40 +1543,16 @@ public class SakaiBLTIUtil {
 			return "Error retrieving result_sourcedid site: "+e.getLocalizedMessage();
 		}
 
-		// Check the message signature using OAuth
-		String oauth_secret = pitch.getProperty(LTIService.LTI_SECRET);
-		M_log.debug("oauth_secret: "+oauth_secret);
-		oauth_secret = decryptSecret(oauth_secret);
-		M_log.debug("oauth_secret (decrypted): "+oauth_secret);
-
-		String oauth_consumer_key = pitch.getProperty(LTIService.LTI_CONSUMERKEY);
-		M_log.debug("oauth_consumer_key: "+oauth_consumer_key);
-
-		String URL = getOurServletPath(request);
-
 		// Validate the incoming message
-		Object retval = validateMessage(request, URL, oauth_secret, oauth_consumer_key);
+		Object retval = validatePlacementMessage(request, pitch);
 		if ( retval instanceof String ) return retval;
 
 		// Check the signature of the sourcedid to make sure it was not altered
-		String placement_secret  = pitch.getProperty(LTIService.LTI_PLACEMENTSECRET);
-		if ( placement_secret == null ) {
+		if ( pitch.getProperty(LTIService.LTI_PLACEMENTSECRET) == null ) {
 			return "Could not find placement secret";
 		}
 
-		String pre_hash = placement_secret + ":::" + user_id + ":::" + placement_id;
-		String received_signature = ShaUtil.sha256Hash(pre_hash);
-		M_log.debug("Received signature="+signature+" received="+received_signature);
-		boolean matched = signature.equals(received_signature);
-
-		String old_placement_secret  = pitch.getProperty(LTIService.LTI_OLDPLACEMENTSECRET);
-		if ( old_placement_secret != null && ! matched ) {
-			pre_hash = placement_secret + ":::" + user_id + ":::" + placement_id;
-			received_signature = ShaUtil.sha256Hash(pre_hash);
-			M_log.debug("Received signature II="+signature+" received="+received_signature);
-			matched = signature.equals(received_signature);
-		}
-
+		boolean matched = checkSourcedidSignature(pitch, signature, user_id, placement_id);
 		if ( !matched ) return "Sourcedid signature did not match";
 
 		// If we are not supposed to lookup or set the grade, we are done
@@ -1276,57 +1580,15 @@ public class SakaiBLTIUtil {
 			return "Assignment not set in placement";
 		}
 
-		Assignment assignmentObject = null;
-
 		pushAdvisor();
-		try {
-			List gradebookAssignments = g.getAssignments(siteId);
-			for (Iterator i=gradebookAssignments.iterator(); i.hasNext();) {
-				Assignment gAssignment = (Assignment) i.next();
-				if ( gAssignment.isExternallyMaintained() ) continue;
-				if ( assignment.equals(gAssignment.getName()) ) { 
-					assignmentObject = gAssignment;
-					break;
-				}
-			}
-		} catch (Exception e) {
-			assignmentObject = null; // Just to make double sure
-		}
-
-		// Attempt to add assignment to grade book
-		if ( assignmentObject == null && g.isGradebookDefined(siteId) ) {
-			try {
-				assignmentObject = new Assignment();
-				assignmentObject.setPoints(Double.valueOf(100));
-				assignmentObject.setExternallyMaintained(false);
-				assignmentObject.setName(assignment);
-				assignmentObject.setReleased(true);
-				assignmentObject.setUngraded(false);
-				g.addAssignment(siteId, assignmentObject);
-				M_log.info("Added assignment: "+assignment);
-			}
-			catch (ConflictingAssignmentNameException e) {
-				M_log.warn("ConflictingAssignmentNameException while adding assignment" + e.getMessage());
-				assignmentObject = null; // Just to make sure
-			}
-			catch (Exception e) {
-				M_log.warn("GradebookNotFoundException (may be because GradeBook has not yet been added to the Site) " + e.getMessage());
-				assignmentObject = null; // Just to make double sure
-			}
-		}
+		Assignment assignmentObject = getGradebookAssignment(g, siteId, assignment);
 
 		// Now read, set, or delete the grade...
-		Session sess = SessionManager.getCurrentSession();
+		Session sess = null;
 		String message = null;
 
 		try {
-			// Indicate "who" is setting this grade - needs to be a real user account
-			String gb_user_id = ServerConfigurationService.getString(
-					"basiclti.outcomes.userid", "admin");
-			String gb_user_eid = ServerConfigurationService.getString(
-					"basiclti.outcomes.usereid", gb_user_id);
-			sess.setUserId(gb_user_id);
-			sess.setUserEid(gb_user_eid);
+			sess = startGradebookSession();
 			if ( isRead ) {
 				String actualGrade = g.getAssignmentScoreString(siteId, assignment, user_id);
 				Double dGrade = null;
@@ -1346,29 +1608,245 @@ public class SakaiBLTIUtil {
 				message = "Result deleted";
 				retval = Boolean.TRUE;
 			} else {
-				if ( theGrade < 0.0 || theGrade > 1.0 ) {
-					throw new Exception("Grade out of range");
-				}
-				theGrade = theGrade * assignmentObject.getPoints();
-				g.setAssignmentScore(siteId, assignment, user_id, theGrade, "External Outcome");
-				g.setAssignmentScoreComment(siteId, assignment, user_id, comment);
-
-				M_log.info("Stored Score=" + siteId + " assignment="+ assignment + " user_id=" + user_id + " score="+ theGrade);
+				storeGrade(g, siteId, assignment, assignmentObject, user_id, theGrade, comment);
 				message = "Result replaced";
 				retval = Boolean.TRUE;
 			}
 		} catch (Exception e) {
+			// The item may have changed under the index
+			invalidateGradebookCache(siteId);
 			retval = "Grade failure "+e.getMessage()+" siteId="+siteId;
 		} finally {
-			sess.invalidate(); // Make sure to leave no traces
+			if ( sess != null ) sess.invalidate(); // Make sure to leave no traces
 			popAdvisor();
 		}
 
 		return retval;
 	}
 
-	// Extract the necessary properties from a placement
+	// Scale a 0.0-1.0 grade to the assignment and store it with the comment
+	private static void storeGrade(GradebookService g, String siteId, String assignment, 
+		Assignment assignmentObject, String user_id, Double theGrade, String comment)
+		throws Exception
+	{
+		if ( theGrade < 0.0 || theGrade > 1.0 ) {
+			throw new Exception("Grade out of range");
+		}
+		theGrade = theGrade * assignmentObject.getPoints();
+		g.setAssignmentScore(siteId, assignment, user_id, theGrade, "External Outcome");
+		g.setAssignmentScoreComment(siteId, assignment, user_id, comment);
+
+		M_log.info("Stored Score=" + siteId + " assignment="+ assignment + " user_id=" + user_id + " score="+ theGrade);
+	}
+
+	/**
+	 * Store many grades for one placement in a single request.  The message is 
+	 * validated and the placement, site and assignment are looked up once, then 
+	 * each grade is written as it is checked.
+	 *
+	 * All of the sourcedids must be for the same placement as the first one.
+	 * A grade of null means the record did not have a usable score.
+	 *
+	 * Returns a String if the whole batch fails, otherwise a List with an entry
+	 * for each record in order - Boolean.TRUE if the grade was stored or a String
+	 * saying why it was not.
+	 */
+	public static Object setGrades(List<String> sourcedids, List<Double> grades, List<String> comments,
+		HttpServletRequest request, LTIService ltiService)
+	{
+		if ( sourcedids == null || sourcedids.size() < 1 ) return "No results in batch";
+		if ( grades == null || grades.size() != sourcedids.size() ) return "Grades do not match results";
+		if ( comments != null && comments.size() != sourcedids.size() ) return "Comments do not match results";
+
+		String [] parsed = parseSourcedid(sourcedids.get(0));
+		if ( parsed == null || parsed[2] == null ) {
+			return "Unable to decrypt result_sourcedid=" + sourcedids.get(0);
+		}
+		String placement_id = parsed[2];
+
+		Properties pitch = getPropertiesFromPlacement(placement_id, ltiService);
+		if ( pitch == null ) {
+			return "Error retrieving result_sourcedid information";
+		}
+
+		String siteId = pitch.getProperty(LTIService.LTI_SITE_ID);
+		Site site = null;
+		try { 
+			site = SiteService.getSite(siteId);
+		} catch (Exception e) {
+			return "Error retrieving result_sourcedid site: "+e.getLocalizedMessage();
+		}
+
+		// Validate the incoming message - once for the whole batch
+		Object retval = validatePlacementMessage(request, pitch);
+		if ( retval instanceof String ) return retval;
+
+		if ( pitch.getProperty(LTIService.LTI_PLACEMENTSECRET) == null ) {
+			return "Could not find placement secret";
+		}
+
+		String assignment = pitch.getProperty("assignment");
+		M_log.debug("ASSN="+assignment);
+		if ( assignment == null ) {
+			return "Assignment not set in placement";
+		}
+
+		GradebookService g = (GradebookService)  ComponentManager
+			.get("org.sakaiproject.service.gradebook.GradebookService");
+
+		List<Object> results = new ArrayList<Object>(sourcedids.size());
+		int stored = 0;
+
+		pushAdvisor();
+		Session sess = null;
+		try {
+			Assignment assignmentObject = getGradebookAssignment(g, siteId, assignment);
+			if ( assignmentObject == null ) {
+				return "Assignment not found in gradebook siteId="+siteId;
+			}
+			sess = startGradebookSession();
+
+			for ( int i = 0; i < sourcedids.size(); i++ ) {
+				String sourcedid = sourcedids.get(i);
+				parsed = parseSourcedid(sourcedid);
+				if ( parsed == null || parsed[2] == null ) {
+					results.add("Unable to decrypt result_sourcedid=" + sourcedid);
+					continue;
+				}
+				if ( ! placement_id.equals(parsed[2]) ) {
+					results.add("Result is not for placement "+placement_id);
+					continue;
+				}
+				String user_id = parsed[1];
+				if ( ! checkSourcedidSignature(pitch, parsed[0], user_id, placement_id) ) {
+					results.add("Sourcedid signature did not match");
+					continue;
+				}
+				Double theGrade = grades.get(i);
+				if ( theGrade == null ) {
+					results.add("Missing or invalid grade");
+					continue;
+				}
+
+				try {
+					site.getMember(user_id);
+				} catch (Exception e) {
+					M_log.warn(e.getLocalizedMessage() + " siteId="+siteId, e);
+					results.add("User not found in site");
+					continue;
+				}
+
+				try {
+					String comment = (comments == null) ? null : comments.get(i);
+					storeGrade(g, siteId, assignment, assignmentObject, user_id, theGrade, comment);
+					results.add(Boolean.TRUE);
+					stored++;
+				} catch (Exception e) {
+					invalidateGradebookCache(siteId);
+					results.add("Grade failure "+e.getMessage());
+				}
+			}
+		} catch (Exception e) {
+			return "Grade failure "+e.getMessage()+" siteId="+siteId;
+		} finally {
+			if ( sess != null ) sess.invalidate(); // Make sure to leave no traces
+			popAdvisor();
+		}
+
+		M_log.info("Stored "+stored+" of "+sourcedids.size()+" scores site=" + siteId + " assignment="+ assignment);
+		return results;
+	}
+
+	// Resolved placement properties keyed by placement_id or content:<id>.
+	// The blis and portlet webapps and the LTI service component each load
+	// their own copy of this class, so the entries are kept in a kernel cache
+	// that all of them share - a change saved through any one of them drops
+	// the entry the others read.  The kernel cache configuration decides its
+	// size, each entry carries its own expiry so basiclti.placement.cache.ttl
+	// still applies.  Entries are { Long expires, Properties } so that nothing
+	// from our classloader is kept in the kernel.
+	public static final String PLACEMENT_CACHE_NAME = "org.sakaiproject.basiclti.util.SakaiBLTIUtil.placementCache";
+	private static Cache placementCache = null;
+	private static boolean placementCacheLoaded = false;
+	private static long placementCacheTtl = BASICLTI_PLACEMENT_CACHE_TTL_DEFAULT * 1000L;
+	private static final AtomicLong placementHits = new AtomicLong();
+	private static final AtomicLong placementMisses = new AtomicLong();
+
+	// null if there is no MemoryService - the properties are then loaded each time
+	private static synchronized Cache getPlacementCache()
+	{
+		if ( ! placementCacheLoaded ) {
+			placementCacheLoaded = true;
+			int ttl = ServerConfigurationService.getInt(BASICLTI_PLACEMENT_CACHE_TTL, 
+				BASICLTI_PLACEMENT_CACHE_TTL_DEFAULT);
+			placementCacheTtl = ttl * 1000L;
+			try {
+				MemoryService memoryService = (MemoryService) ComponentManager.get(MemoryService.class);
+				if ( memoryService != null && ttl > 0 ) placementCache = memoryService.newCache(PLACEMENT_CACHE_NAME);
+			} catch (Exception e) {
+				M_log.warn("Could not create the placement cache, placements will not be cached "+e.getMessage());
+			}
+		}
+		return placementCache;
+	}
+
+	// Called when a placement or content item changes
+	public static void invalidatePlacementCache(String placement_id)
+	{
+		Cache cache = getPlacementCache();
+		if ( cache != null && placement_id != null ) cache.remove(placement_id);
+	}
+
+	// Called when something changes that many placements depend on (i.e. a tool)
+	public static void clearPlacementCache()
+	{
+		Cache cache = getPlacementCache();
+		if ( cache != null ) cache.clear();
+	}
+
+	// The hits and misses are for this copy of the class only
+	public static String getPlacementCacheStatistics()
+	{
+		long hits = placementHits.get();
+		long total = hits + placementMisses.get();
+		long ratio = total == 0 ? 0 : (hits * 100) / total;
+		return "placementCache enabled=" + (getPlacementCache() != null) + " hits=" + hits +
+			" misses=" + (total - hits) + " hitratio=" + ratio + "%";
+	}
+
+	// Extract the necessary properties from a placement - these are cached 
+	// for a short time because the outcome and roster services ask for the 
+	// same few placements over and over
 	public static Properties getPropertiesFromPlacement(String placement_id, LTIService ltiService)
+	{
+		if ( placement_id == null ) return null;
+		Cache cache = getPlacementCache();
+		Properties cached = null;
+		if ( cache != null ) {
+			Object [] entry = (Object []) cache.get(placement_id);
+			if ( entry != null && ((Long) entry[0]).longValue() > System.currentTimeMillis() ) {
+				cached = (Properties) entry[1];
+				placementHits.incrementAndGet();
+			}
+		}
+		if ( cached == null ) {
+			cached = loadPropertiesFromPlacement(placement_id, ltiService);
+			if ( cached == null ) return null;
+			if ( cache != null ) {
+				placementMisses.incrementAndGet();
+				Object [] entry = { Long.valueOf(System.currentTimeMillis() + placementCacheTtl), cached };
+				cache.put(placement_id, entry);
+				if ( M_log.isDebugEnabled() ) M_log.debug(getPlacementCacheStatistics());
+			}
+		}
+
+		// Hand back a copy so callers cannot alter the cached entry
+		Properties retval = new Properties();
+		retval.putAll(cached);
+		return retval;
+	}
+
+	private static Properties loadPropertiesFromPlacement(String placement_id, LTIService ltiService)
 	{
 		// These are the fields from a placement - they are not an exact match
 		// for the fields in tool/content
@@ -1482,6 +1960,29 @@ public class SakaiBLTIUtil {
 	// at request.getServerName() instead of the serverUrl property we have our own 
 	// priority to determine our current url.
 	// BLTI-273
+	private static boolean nonceStoreConfigured = false;
+
+	/**
+	 * Replace the default OAuth nonce store with one sized from
+	 * basiclti.oauth.nonce.max and basiclti.oauth.nonce.window (seconds).
+	 * The window cannot be less than the timestamp window the validators
+	 * accept, or nonces near its edge could not be recorded.  Only the
+	 * first call in a webapp replaces the store.
+	 */
+	public static synchronized void configureNonceStore() {
+		if ( nonceStoreConfigured ) return;
+		nonceStoreConfigured = true;
+		int max = ServerConfigurationService.getInt(BASICLTI_OAUTH_NONCE_MAX, BASICLTI_OAUTH_NONCE_MAX_DEFAULT);
+		int window = ServerConfigurationService.getInt(BASICLTI_OAUTH_NONCE_WINDOW, BASICLTI_OAUTH_NONCE_WINDOW_DEFAULT);
+		if ( window < BASICLTI_OAUTH_NONCE_WINDOW_DEFAULT ) {
+			M_log.warn(BASICLTI_OAUTH_NONCE_WINDOW+"="+window+" is less than the OAuth timestamp window, using "+
+				BASICLTI_OAUTH_NONCE_WINDOW_DEFAULT);
+			window = BASICLTI_OAUTH_NONCE_WINDOW_DEFAULT;
+		}
+		if ( max < 1 ) max = BASICLTI_OAUTH_NONCE_MAX_DEFAULT;
+		SimpleOAuthValidator.setDefaultNonceStore(new SimpleNonceStore(window * 1000L, max));
+	}
+
 	public static String getOurServerUrl() {
 		String ourUrl = ServerConfigurationService.getString("sakai.lti.serverUrl");
 		if (ourUrl == null || ourUrl.equals(""))
@@ -28,6 +28,33 @@ import javax.crypto.spec.SecretKeySpec;
 public class SimpleEncryption {
 
 	public static final String CIPHER = "AES/CBC/PKCS5Padding";
+
+	public static final String KEY_FACTORY = "PBKDF2WithHmacSHA1";
+
+	// Looking up a Cipher or SecretKeyFactory walks the provider list each
+	// time, so keep one of each per thread.  Neither is thread safe but both
+	// are completely reset by init() / generateSecret().
+	private static final ThreadLocal<Cipher> cipherLocal = new ThreadLocal<Cipher>() {
+		protected Cipher initialValue() {
+			try {
+				return Cipher.getInstance(CIPHER);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static final ThreadLocal<SecretKeyFactory> factoryLocal = new ThreadLocal<SecretKeyFactory>() {
+		protected SecretKeyFactory initialValue() {
+			try {
+				return SecretKeyFactory.getInstance(KEY_FACTORY);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	};
+
+	private static int keyLength = -1;
 	
 	public static String encrypt(String key, String source) {
 		if (source == null) {
@@ -41,7 +68,7 @@ public class SimpleEncryption {
 		try {
 			SecretKey secret = generateSecret(password, salt);
 			/* Encrypt the message. */
-			Cipher cipher = Cipher.getInstance(CIPHER);
+			Cipher cipher = cipherLocal.get();
 			cipher.init(Cipher.ENCRYPT_MODE, secret);
 			AlgorithmParameters params = cipher.getParameters();
 			byte[] iv = params.getParameterSpec(IvParameterSpec.class).getIV();
@@ -87,7 +114,7 @@ public class SimpleEncryption {
 		try {
 			SecretKey secret = generateSecret(password, salt);
 
-			Cipher cipher = Cipher.getInstance(CIPHER);
+			Cipher cipher = cipherLocal.get();
 			cipher.init(Cipher.DECRYPT_MODE, secret, new IvParameterSpec(iv));
 			String plaintext = new String(cipher.doFinal(ciphertext), "UTF-8");
 			return plaintext;
@@ -98,7 +125,7 @@ public class SimpleEncryption {
 
 	private static SecretKey generateSecret(char[] password, byte[] salt)
 			throws NoSuchAlgorithmException, InvalidKeySpecException {
-		SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
+		SecretKeyFactory factory = factoryLocal.get();
 		int keyLength = getKeyLength();
 		KeySpec spec = new PBEKeySpec(password, salt, 8, keyLength);
 		SecretKey tmp = factory.generateSecret(spec);
@@ -107,10 +134,12 @@ public class SimpleEncryption {
 	}
 
 	public static int getKeyLength() {
+		// The policy cannot change while the JVM is running
+		if ( keyLength > 0 ) return keyLength;
 		try {
 			// 128 bit keys don't cause problems with the export restrictions in the JVM
 			// 256 bit keys only work when the JCE unlimited strength policy is installed.
-			int keyLength = (Cipher.getMaxAllowedKeyLength("AES") == Integer.MAX_VALUE) ? 256 : 128;
+			keyLength = (Cipher.getMaxAllowedKeyLength("AES") == Integer.MAX_VALUE) ? 256 : 128;
 			return keyLength;
 		} catch ( NoSuchAlgorithmException nsae) {
 			throw new RuntimeException(nsae);
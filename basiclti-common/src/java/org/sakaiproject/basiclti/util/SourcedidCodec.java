@@ -0,0 +1,208 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Signs and checks lis_result_sourcedid values.
+ * <p>
+ * The signature is ShaUtil.sha256Hash(placement_secret + ":::" + user_id +
+ * ":::" + placement_id), exactly as it always has been, so sourcedids
+ * already handed out stay valid.  Each thread keeps a digest, the encoded
+ * bytes of the last placement secret it used and, for a secret of a whole
+ * SHA-256 block or more, a digest that has already consumed the secret and
+ * is cloned for each user.  A shorter secret - placement secrets are
+ * UUIDs - costs no more to hash again than a clone costs to make.  A
+ * signature is compared to the digest in constant time, so checking a
+ * sourcedid does not build any Strings at all.
+ */
+public class SourcedidCodec {
+
+	private static final char[] TOHEX = "0123456789abcdef".toCharArray();
+	private static final byte[] SEPARATOR = { ':', ':', ':' };
+	private static final int DIGEST_LENGTH = 32;
+	private static final int BLOCK_LENGTH = 64;
+
+	private static class Scratch {
+		final MessageDigest md = newDigest();
+		byte[] input = new byte[256];
+		final byte[] digest = new byte[DIGEST_LENGTH];
+		// A roster or outcomes batch uses the same secret thousands of times
+		String secret = null;
+		byte[] secretBytes = null;
+		MessageDigest primed = null;
+	}
+
+	private static final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+		@Override
+		protected Scratch initialValue() {
+			return new Scratch();
+		}
+	};
+
+	/**
+	 * The full sourcedid - signature:::user_id:::placement_id - or null if
+	 * there is no placement secret, user or placement.
+	 */
+	public static String getSourceDID(String placementSecret, String userId, String placementId)
+	{
+		if ( placementSecret == null || userId == null || placementId == null ) return null;
+		byte[] digest = sign(placementSecret, userId, placementId);
+		StringBuilder sb = new StringBuilder(DIGEST_LENGTH * 2 + userId.length() + placementId.length() + 6);
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			int j = digest[i] + 128;
+			sb.append(TOHEX[j / 0x10]).append(TOHEX[j % 0x10]);
+		}
+		sb.append(":::").append(userId).append(":::").append(placementId);
+		return sb.toString();
+	}
+
+	/**
+	 * Check the signature part of a sourcedid against the placement secret
+	 * and, while a secret is being rotated, the old placement secret.
+	 */
+	public static boolean verify(String signature, String placementSecret, String oldPlacementSecret,
+		String userId, String placementId)
+	{
+		if ( verify(signature, placementSecret, userId, placementId) ) return true;
+		return verify(signature, oldPlacementSecret, userId, placementId);
+	}
+
+	public static boolean verify(String signature, String placementSecret, String userId, String placementId)
+	{
+		if ( signature == null || placementSecret == null || userId == null || placementId == null ) return false;
+		// The length of a signature is no secret
+		if ( signature.length() != DIGEST_LENGTH * 2 ) return false;
+		byte[] digest = sign(placementSecret, userId, placementId);
+		int diff = 0;
+		for (int i = 0; i < DIGEST_LENGTH; i++) {
+			int j = digest[i] + 128;
+			diff |= signature.charAt(i * 2) ^ TOHEX[j / 0x10];
+			diff |= signature.charAt(i * 2 + 1) ^ TOHEX[j % 0x10];
+		}
+		return diff == 0;
+	}
+
+	// The digest lands in a per-thread buffer, use it before signing again
+	private static byte[] sign(String placementSecret, String userId, String placementId)
+	{
+		Scratch buffers = scratch.get();
+		MessageDigest md = start(placementSecret, buffers);
+		md.update(SEPARATOR);
+		update(md, userId, buffers);
+		md.update(SEPARATOR);
+		update(md, placementId, buffers);
+		try {
+			md.digest(buffers.digest, 0, DIGEST_LENGTH);
+		} catch (DigestException e) {
+			throw new Error(e);
+		}
+		return buffers.digest;
+	}
+
+	// A digest that has already consumed the secret
+	private static MessageDigest start(String placementSecret, Scratch buffers)
+	{
+		if ( ! placementSecret.equals(buffers.secret) ) {
+			buffers.secret = null;
+			buffers.primed = null;
+			buffers.secretBytes = copy(placementSecret, buffers);
+			// Cloning only saves work if the secret fills a block
+			if ( buffers.secretBytes.length >= BLOCK_LENGTH ) {
+				MessageDigest primed = newDigest();
+				primed.update(buffers.secretBytes);
+				try {
+					primed.clone();
+					buffers.primed = primed;
+				} catch (CloneNotSupportedException e) {
+					// The provider cannot clone - hash the secret each time
+				}
+			}
+			buffers.secret = placementSecret;
+		}
+
+		if ( buffers.primed != null ) {
+			try {
+				return (MessageDigest) buffers.primed.clone();
+			} catch (CloneNotSupportedException e) {
+				throw new Error(e);
+			}
+		}
+		buffers.md.reset();
+		buffers.md.update(buffers.secretBytes);
+		return buffers.md;
+	}
+
+	private static byte[] copy(String s, Scratch buffers)
+	{
+		int n = encode(s, buffers);
+		byte[] bytes = new byte[n];
+		System.arraycopy(buffers.input, 0, bytes, 0, n);
+		return bytes;
+	}
+
+	private static MessageDigest newDigest()
+	{
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new Error(e);
+		}
+	}
+
+	private static void update(MessageDigest md, String s, Scratch buffers)
+	{
+		int n = encode(s, buffers);
+		md.update(buffers.input, 0, n);
+	}
+
+	// The same bytes as getBytes("UTF-8"), which writes '?' for a lone surrogate
+	private static int encode(String s, Scratch buffers)
+	{
+		int len = s.length();
+		if ( buffers.input.length < len * 3 ) buffers.input = new byte[len * 3];
+		byte[] b = buffers.input;
+		int n = 0;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			if ( c < 0x80 ) {
+				b[n++] = (byte) c;
+			} else if ( c < 0x800 ) {
+				b[n++] = (byte) (0xc0 | (c >> 6));
+				b[n++] = (byte) (0x80 | (c & 0x3f));
+			} else if ( Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1)) ) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				b[n++] = (byte) (0xf0 | (cp >> 18));
+				b[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				b[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				b[n++] = (byte) (0x80 | (cp & 0x3f));
+			} else if ( c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE ) {
+				b[n++] = (byte) '?';
+			} else {
+				b[n++] = (byte) (0xe0 | (c >> 12));
+				b[n++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+				b[n++] = (byte) (0x80 | (c & 0x3f));
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,176 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small, bounded, least-recently-used cache whose entries also expire
+ * after a fixed time to live.
+ * <p>
+ * This is intended for the handful of hot lookups in the LTI services
+ * (placements, secrets, gradebook items) where the same few keys are
+ * read over and over in a short time.  It keeps simple hit / miss /
+ * eviction counters so the effectiveness of the cache can be logged.
+ * <p>
+ * A cache with a maximum size less than one or a time to live less
+ * than one is disabled - get() always misses and put() does nothing.
+ */
+public class TimedCache<K, V> {
+
+	private final String name;
+	private final int maxEntries;
+	private final long ttlMillis;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	private final LinkedHashMap<K, Entry<V>> map;
+
+	private static class Entry<V> {
+		final V value;
+		final long expires;
+
+		Entry(V value, long expires) {
+			this.value = value;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * @param name
+	 *		A name for this cache - only used in getStatistics()
+	 * @param maxEntries
+	 *		The maximum number of entries to keep
+	 * @param ttlMillis
+	 *		How long an entry remains valid after it is stored
+	 */
+	public TimedCache(String name, int maxEntries, long ttlMillis) {
+		this.name = name;
+		this.maxEntries = maxEntries;
+		this.ttlMillis = ttlMillis;
+		this.map = new LinkedHashMap<K, Entry<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+				if ( size() <= TimedCache.this.maxEntries ) return false;
+				evictions++;
+				return true;
+			}
+		};
+	}
+
+	public boolean isEnabled() {
+		return maxEntries > 0 && ttlMillis > 0;
+	}
+
+	/**
+	 * Returns the cached value or null if it is not present or has expired
+	 */
+	public V get(K key) {
+		if ( key == null || ! isEnabled() ) return null;
+		synchronized (map) {
+			Entry<V> entry = map.get(key);
+			if ( entry == null ) {
+				misses++;
+				return null;
+			}
+			if ( entry.expires < System.currentTimeMillis() ) {
+				map.remove(key);
+				evictions++;
+				misses++;
+				return null;
+			}
+			hits++;
+			return entry.value;
+		}
+	}
+
+	public void put(K key, V value) {
+		if ( key == null || value == null || ! isEnabled() ) return;
+		synchronized (map) {
+			map.put(key, new Entry<V>(value, System.currentTimeMillis() + ttlMillis));
+		}
+	}
+
+	public void remove(K key) {
+		if ( key == null ) return;
+		synchronized (map) {
+			map.remove(key);
+		}
+	}
+
+	public void clear() {
+		synchronized (map) {
+			map.clear();
+		}
+	}
+
+	/**
+	 * Drop all of the entries that have passed their time to live
+	 */
+	public void expire() {
+		long now = System.currentTimeMillis();
+		synchronized (map) {
+			Iterator<Entry<V>> it = map.values().iterator();
+			while ( it.hasNext() ) {
+				if ( it.next().expires < now ) {
+					it.remove();
+					evictions++;
+				}
+			}
+		}
+	}
+
+	public int size() {
+		synchronized (map) {
+			return map.size();
+		}
+	}
+
+	public long getHits() {
+		synchronized (map) {
+			return hits;
+		}
+	}
+
+	public long getMisses() {
+		synchronized (map) {
+			return misses;
+		}
+	}
+
+	public long getEvictions() {
+		synchronized (map) {
+			return evictions;
+		}
+	}
+
+	public String getStatistics() {
+		synchronized (map) {
+			long total = hits + misses;
+			long ratio = total == 0 ? 0 : (hits * 100) / total;
+			return name + " size=" + map.size() + "/" + maxEntries + " hits=" + hits +
+				" misses=" + misses + " evictions=" + evictions + " hitratio=" + ratio + "%";
+		}
+	}
+}
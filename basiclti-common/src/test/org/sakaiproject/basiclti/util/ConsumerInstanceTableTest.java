@@ -0,0 +1,88 @@
+package org.sakaiproject.basiclti.util;
+import static org.junit.Assert.*;
+
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ConsumerInstanceTableTest {
+
+	private static final String [] URLS = {
+		"http://www.imsglobal.org/launch.php", "https://imsglobal.org", "http://lti.tools.imsglobal.org:8080/x?a=b",
+		"http://badimsglobal.org/", "http://org/", "http://user:pw@www.imsglobal.org/", "https://www.example.com#frag",
+		"http://a.b.example.com/", "http://[::1]:8080/lti", "http://localhost", "http://imsglobal.org./",
+		"not a url", "", null, "https://", "http:///path"
+	};
+
+	private static Map<String,String> properties() {
+		Map<String,String> props = new HashMap<String,String>();
+		props.put("basiclti.consumer_instance_key", "default-key");
+		props.put("basiclti.consumer_instance_secret", "default-secret");
+		props.put("basiclti.consumer_instance_key.imsglobal.org", "ims-key");
+		props.put("basiclti.consumer_instance_secret.imsglobal.org", "ims-secret");
+		// Only the secret is set for this host - the key comes from imsglobal.org
+		props.put("basiclti.consumer_instance_secret.tools.imsglobal.org", "tools-secret");
+		props.put("basiclti.consumer_instance_key.b.example.com", "b-key");
+		props.put("basiclti.consumer_instance_key.[::1]", "local6-key");
+		props.put("basiclti.consumer_instance_guid", "not-a-key");
+		props.put("basiclti.consumer_instance_key.", "no-host");
+		return props;
+	}
+
+	// How SakaiBLTIUtil looked these up before - one property per host suffix
+	private static String oldConsumerInfo(Map<String,String> props, String launchUrl, String data) {
+		String default_secret = props.get("basiclti.consumer_instance_"+data);
+		URL url = null;
+		try {
+			url = new URL(launchUrl);
+		} catch (Exception e) {
+			url = null;
+		}
+		if ( url == null ) return default_secret;
+		String hostName = url.getHost();
+		if ( hostName == null || hostName.length() < 1 ) return default_secret;
+		String org_info = props.get("basiclti.consumer_instance_"+data+"."+hostName);
+		if ( org_info != null ) return org_info;
+		for ( int i = 0; i < hostName.length(); i++ ) {
+			if ( hostName.charAt(i) != '.' ) continue;
+			if ( i > hostName.length()-2 ) continue;
+			org_info = props.get("basiclti.consumer_instance_"+data+"."+hostName.substring(i+1));
+			if ( org_info != null ) return org_info;
+		}
+		return default_secret;
+	}
+
+	@Test
+	public void testSameAsPropertyLookup() {
+		Map<String,String> props = properties();
+		ConsumerInstanceTable table = new ConsumerInstanceTable(props);
+		for (String url : URLS) {
+			String [] found = table.lookup(url);
+			assertEquals(url, oldConsumerInfo(props, url, "key"), found[0]);
+			assertEquals(url, oldConsumerInfo(props, url, "secret"), found[1]);
+		}
+		assertEquals(4, table.getHostCount());
+	}
+
+	@Test
+	public void testLookups() {
+		ConsumerInstanceTable table = new ConsumerInstanceTable(properties());
+		String [] found = table.lookup("http://lti.tools.imsglobal.org/");
+		assertEquals("ims-key", found[0]);
+		assertEquals("tools-secret", found[1]);
+		found = table.lookup("http://badimsglobal.org/");
+		assertEquals("default-key", found[0]);
+		assertEquals("default-secret", found[1]);
+	}
+
+	@Test
+	public void testEmpty() {
+		ConsumerInstanceTable table = new ConsumerInstanceTable(new HashMap<String,String>());
+		String [] found = table.lookup("http://www.imsglobal.org/");
+		assertNull(found[0]);
+		assertNull(found[1]);
+		assertEquals(0, table.getHostCount());
+	}
+}
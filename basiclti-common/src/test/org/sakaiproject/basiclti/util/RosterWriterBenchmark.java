@@ -0,0 +1,186 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.imsglobal.basiclti.XMLMap;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.user.api.User;
+
+/**
+ * Times writing the roster of a large site with RosterWriter against the
+ * Map per member and one user lookup per member that processRoster did
+ * before.  The user directory is a stand-in that waits a little on every
+ * call, as a round trip to a real one would.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java org.sakaiproject.basiclti.util.RosterWriterBenchmark [members] [rounds] [latencyMicros]
+ *
+ * The defaults are 20000 members, 3 rounds and 50 microseconds a lookup.
+ */
+public class RosterWriterBenchmark {
+
+	private static final String TYPE = "basic-lis-readmembershipsforcontext";
+	private static final String PLACEMENT = "content:3";
+	private static final String SECRET = "placement-secret";
+
+	// Stands in for the user directory, paying for each round trip
+	private static class Directory implements RosterWriter.UserSource {
+		final Map<String,User> users = new HashMap<String,User>();
+		final long latency;
+		int calls = 0;
+
+		Directory(long latency) {
+			this.latency = latency;
+		}
+
+		public List<User> getUsers(Collection<String> ids) {
+			calls++;
+			long until = System.nanoTime() + latency;
+			while ( System.nanoTime() < until ) { }
+			List<User> found = new ArrayList<User>(ids.size());
+			for (String id : ids) {
+				User user = users.get(id);
+				if ( user != null ) found.add(user);
+			}
+			return found;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+		long latency = (args.length > 2 ? Long.parseLong(args[2]) : 50) * 1000;
+
+		Directory dir = new Directory(latency);
+		List<Member> members = site(size, dir);
+		RosterWriter roster = new RosterWriter(dir, "maintain", PLACEMENT, SECRET, true, true);
+
+		// Warm up both before timing them
+		oldRoster(members, dir);
+		roster.write(new NullWriter(), TYPE, roster.getRoles(members), null, 0);
+
+		dir.calls = 0;
+		long start = System.nanoTime();
+		long oldChars = 0;
+		for (int r = 0; r < rounds; r++) oldChars = oldRoster(members, dir).length();
+		long old = System.nanoTime() - start;
+		int oldCalls = dir.calls / rounds;
+
+		dir.calls = 0;
+		NullWriter out = new NullWriter();
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			out.chars = 0;
+			roster.write(out, TYPE, roster.getRoles(members), null, 0);
+		}
+		long now = System.nanoTime() - start;
+		int nowCalls = dir.calls / rounds;
+
+		System.out.println(size + " members: map " + (old / rounds / 1000000) + "ms " + oldCalls +
+			" lookups " + oldChars + " chars, streamed " + (now / rounds / 1000000) + "ms " + nowCalls +
+			" lookups " + out.chars + " chars");
+	}
+
+	// Interfaces with only getters are easiest to fake with a Proxy
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final Map<String,Object> values) {
+		return (T) Proxy.newProxyInstance(RosterWriterBenchmark.class.getClassLoader(), new Class<?>[] { type },
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object [] args) {
+					return values.get(method.getName());
+				}
+			});
+	}
+
+	private static List<Member> site(int size, Directory dir) {
+		List<Member> members = new ArrayList<Member>(size);
+		Map<String,Object> maintain = new HashMap<String,Object>();
+		maintain.put("getId", "maintain");
+		Map<String,Object> access = new HashMap<String,Object>();
+		access.put("getId", "access");
+		Role maintainRole = fake(Role.class, maintain);
+		Role accessRole = fake(Role.class, access);
+		for (int i = 0; i < size; i++) {
+			String id = "u" + ((i * 7919) % size) + "-" + i;
+			Map<String,Object> m = new HashMap<String,Object>();
+			m.put("getUserId", id);
+			m.put("getRole", i % 40 == 0 ? maintainRole : accessRole);
+			members.add(fake(Member.class, m));
+
+			Map<String,Object> u = new HashMap<String,Object>();
+			u.put("getId", id);
+			u.put("getEid", "eid" + i);
+			u.put("getEmail", "user" + i + "@example.edu");
+			u.put("getFirstName", "Given" + i);
+			u.put("getLastName", "Family" + i);
+			u.put("getDisplayName", "Given" + i + " Family" + i);
+			dir.users.put(id, fake(User.class, u));
+		}
+		return members;
+	}
+
+	// How processRoster built the roster before - a Map per member, one
+	// user lookup per member, then the whole document as a String
+	private static String oldRoster(List<Member> members, Directory dir) {
+		List<Map<String,String>> lm = new ArrayList<Map<String,String>>();
+		for (Member member : members) {
+			Map<String,String> mm = new TreeMap<String,String>();
+			String id = member.getUserId();
+			mm.put("/user_id", id);
+			mm.put("/role", "maintain".equals(member.getRole().getId()) ? "Instructor" : "Learner");
+			User user = dir.getUsers(Collections.singletonList(id)).get(0);
+			mm.put("/lis_result_sourcedid", SakaiBLTIUtil.getSourceDID(id, PLACEMENT, SECRET));
+			mm.put("/person_name_given", user.getFirstName());
+			mm.put("/person_name_family", user.getLastName());
+			mm.put("/person_name_full", user.getDisplayName());
+			mm.put("/person_contact_email_primary", user.getEmail());
+			mm.put("/person_sourcedid", user.getEid());
+			lm.add(mm);
+		}
+		Map<String,Object> theMap = new TreeMap<String,Object>();
+		theMap.put("/message_response/lti_message_type", TYPE);
+		theMap.put("/message_response/members/member", lm);
+		theMap.put("/message_response/statusinfo/codemajor", "Success");
+		theMap.put("/message_response/statusinfo/severity", "Status");
+		theMap.put("/message_response/statusinfo/codeminor", "fullsuccess");
+		return XMLMap.getXML(theMap, true);
+	}
+
+	// Stands in for the servlet response, which is never held in memory
+	private static class NullWriter extends Writer {
+		long chars = 0;
+		public void write(char [] cbuf, int off, int len) { chars += len; }
+		public void flush() { }
+		public void close() { }
+	}
+}
@@ -0,0 +1,240 @@
+package org.sakaiproject.basiclti.util;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.imsglobal.basiclti.XMLMap;
+import org.junit.Test;
+import org.sakaiproject.authz.api.Member;
+import org.sakaiproject.authz.api.Role;
+import org.sakaiproject.user.api.User;
+
+public class RosterWriterTest {
+
+	private static final String TYPE = "basic-lis-readmembershipsforcontext";
+	private static final String PLACEMENT = "content:3";
+	private static final String SECRET = "placement-secret";
+
+	// Stands in for the user directory - every call would be a round trip
+	private static class Directory implements RosterWriter.UserSource {
+		final Map<String,User> users = new HashMap<String,User>();
+		int calls = 0;
+		int largest = 0;
+		// The call that fails, zero for none
+		int failOn = 0;
+
+		public List<User> getUsers(Collection<String> ids) {
+			calls++;
+			if ( calls == failOn ) throw new IllegalStateException("Directory unavailable");
+			largest = Math.max(largest, ids.size());
+			List<User> found = new ArrayList<User>();
+			for (String id : ids) {
+				User user = users.get(id);
+				if ( user != null ) found.add(user);
+			}
+			return found;
+		}
+	}
+
+	// Interfaces with only getters are easiest to fake with a Proxy
+	@SuppressWarnings("unchecked")
+	private static <T> T fake(Class<T> type, final Map<String,Object> values) {
+		return (T) Proxy.newProxyInstance(RosterWriterTest.class.getClassLoader(), new Class<?>[] { type },
+			new InvocationHandler() {
+				public Object invoke(Object proxy, Method method, Object [] args) {
+					return values.get(method.getName());
+				}
+			});
+	}
+
+	private static List<Member> site(int size, Directory dir) {
+		List<Member> members = new ArrayList<Member>();
+		Map<String,Object> maintain = new HashMap<String,Object>();
+		maintain.put("getId", "maintain");
+		Map<String,Object> access = new HashMap<String,Object>();
+		access.put("getId", "access");
+		Role maintainRole = fake(Role.class, maintain);
+		Role accessRole = fake(Role.class, access);
+		for (int i = 0; i < size; i++) {
+			String id = "u" + ((i * 7919) % size) + "-" + i;
+			Map<String,Object> m = new HashMap<String,Object>();
+			m.put("getUserId", id);
+			m.put("getRole", i % 40 == 0 ? maintainRole : accessRole);
+			members.add(fake(Member.class, m));
+
+			Map<String,Object> u = new HashMap<String,Object>();
+			u.put("getId", id);
+			u.put("getEid", "eid" + i);
+			u.put("getEmail", "user" + i + "@example.edu");
+			u.put("getFirstName", "Given" + i);
+			u.put("getLastName", "O'Family & Co");
+			u.put("getDisplayName", "Given" + i + " O'Family & Co");
+			// Some members have no email
+			if ( i % 13 == 0 ) u.remove("getEmail");
+			dir.users.put(id, fake(User.class, u));
+		}
+		return members;
+	}
+
+	@Test
+	public void testSameAsMapRoster() throws Exception {
+		Directory dir = new Directory();
+		List<Member> members = site(120, dir);
+		RosterWriter roster = new RosterWriter(dir, "maintain", PLACEMENT, SECRET, true, true);
+		StringWriter out = new StringWriter();
+		assertNull(roster.write(out, TYPE, roster.getRoles(members), null, 0));
+		assertEquals(1, dir.calls);
+
+		// The same members, now in user id order
+		Collections.sort(members, new Comparator<Member>() {
+			public int compare(Member a, Member b) {
+				return a.getUserId().compareTo(b.getUserId());
+			}
+		});
+		String old = oldRoster(members, dir);
+		assertEquals(XMLMap.getFullMap(old), XMLMap.getFullMap(out.toString()));
+
+		// Nothing released - nobody is looked up
+		dir.calls = 0;
+		roster = new RosterWriter(dir, "maintain", PLACEMENT, null, false, false);
+		out = new StringWriter();
+		roster.write(out, TYPE, roster.getRoles(members), null, 0);
+		assertEquals(0, dir.calls);
+		assertTrue(out.toString().indexOf("<user_id>") > 0);
+		assertTrue(out.toString().indexOf("lis_result_sourcedid") < 0);
+	}
+
+	@Test
+	public void testPaging() throws Exception {
+		Directory dir = new Directory();
+		List<Member> members = site(2503, dir);
+		RosterWriter roster = new RosterWriter(dir, "maintain", PLACEMENT, SECRET, true, false);
+		SortedMap<String,String> roles = roster.getRoles(members);
+
+		List<String> seen = new ArrayList<String>();
+		String continuation = null;
+		int pages = 0;
+		do {
+			StringWriter out = new StringWriter();
+			String next = roster.write(out, TYPE, roles, continuation, 1000);
+			Map<String,Object> page = XMLMap.getFullMap(out.toString());
+			assertEquals(next, XMLMap.getString(page, "/message_response/ext_sakai_roster_continuation"));
+			assertEquals("Success", XMLMap.getString(page, "/message_response/statusinfo/codemajor"));
+			for (Map<String,Object> member : XMLMap.getList(page, "/message_response/members/member")) {
+				seen.add(XMLMap.getString(member, "/user_id"));
+			}
+			continuation = next;
+			pages++;
+		} while ( continuation != null );
+
+		assertEquals(3, pages);
+		assertEquals(new ArrayList<String>(roles.keySet()), seen);
+		assertTrue(dir.largest <= RosterWriter.USER_BATCH);
+
+		// A member who leaves between pages does not upset the next page
+		StringWriter out = new StringWriter();
+		String next = roster.write(out, TYPE, roles, null, 10);
+		roles.remove(next);
+		out = new StringWriter();
+		roster.write(out, TYPE, roles, next, 10);
+		List<Map<String,Object>> page = XMLMap.getList(XMLMap.getFullMap(out.toString()), "/message_response/members/member");
+		assertEquals(new ArrayList<String>(roles.keySet()).get(9), XMLMap.getString(page.get(0), "/user_id"));
+	}
+
+	@Test
+	public void testLargeSite() throws Exception {
+		Directory dir = new Directory();
+		List<Member> members = site(8000, dir);
+		RosterWriter roster = new RosterWriter(dir, "maintain", PLACEMENT, SECRET, true, true);
+
+		CountingWriter out = new CountingWriter();
+		roster.write(out, TYPE, roster.getRoles(members), null, 0);
+
+		// Users are looked up a batch at a time and each batch is flushed
+		assertEquals(8000 / RosterWriter.USER_BATCH, dir.calls);
+		assertTrue(out.flushes >= dir.calls);
+		assertTrue(out.chars > 0);
+	}
+
+	@Test
+	public void testDirectoryFails() throws Exception {
+		int size = RosterWriter.USER_BATCH * 2 + 10;
+		Directory dir = new Directory();
+		List<Member> members = site(size, dir);
+		RosterWriter roster = new RosterWriter(dir, "maintain", PLACEMENT, SECRET, true, true);
+		SortedMap<String,String> roles = roster.getRoles(members);
+
+		// The second batch fails - the first is kept and the status says so
+		dir.failOn = 2;
+		StringWriter out = new StringWriter();
+		assertNull(roster.write(out, TYPE, roles, null, size - 5));
+		Map<String,Object> theMap = XMLMap.getFullMap(out.toString());
+		List<Map<String,Object>> page = XMLMap.getList(theMap, "/message_response/members/member");
+		assertEquals(RosterWriter.USER_BATCH, page.size());
+		assertEquals(roles.firstKey(), XMLMap.getString(page.get(0), "/user_id"));
+		assertNotNull(XMLMap.getString(page.get(RosterWriter.USER_BATCH - 1), "/person_name_given"));
+		assertEquals("Fail", XMLMap.getString(theMap, "/message_response/statusinfo/codemajor"));
+		assertEquals("Error", XMLMap.getString(theMap, "/message_response/statusinfo/severity"));
+		assertEquals(2, dir.calls);
+
+		// The first batch fails - nothing is written and the caller hears of it
+		dir.calls = 0;
+		dir.failOn = 1;
+		out = new StringWriter();
+		try {
+			roster.write(out, TYPE, roles, null, 0);
+			fail("The directory failure was not passed on");
+		} catch (IllegalStateException e) {
+			// Expected
+		}
+		assertEquals(0, out.toString().length());
+	}
+
+	// How processRoster built the roster before - a Map per member, one
+	// user lookup per member, then the whole document as a String
+	private static String oldRoster(List<Member> members, Directory dir) {
+		List<Map<String,String>> lm = new ArrayList<Map<String,String>>();
+		for (Member member : members) {
+			Map<String,String> mm = new TreeMap<String,String>();
+			String id = member.getUserId();
+			mm.put("/user_id", id);
+			mm.put("/role", "maintain".equals(member.getRole().getId()) ? "Instructor" : "Learner");
+			User user = dir.getUsers(Collections.singletonList(id)).get(0);
+			mm.put("/lis_result_sourcedid", SakaiBLTIUtil.getSourceDID(id, PLACEMENT, SECRET));
+			mm.put("/person_name_given", user.getFirstName());
+			mm.put("/person_name_family", user.getLastName());
+			mm.put("/person_name_full", user.getDisplayName());
+			mm.put("/person_contact_email_primary", user.getEmail());
+			mm.put("/person_sourcedid", user.getEid());
+			lm.add(mm);
+		}
+		Map<String,Object> theMap = new TreeMap<String,Object>();
+		theMap.put("/message_response/lti_message_type", TYPE);
+		theMap.put("/message_response/members/member", lm);
+		theMap.put("/message_response/statusinfo/codemajor", "Success");
+		theMap.put("/message_response/statusinfo/severity", "Status");
+		theMap.put("/message_response/statusinfo/codeminor", "fullsuccess");
+		return XMLMap.getXML(theMap, true);
+	}
+
+	private static class CountingWriter extends Writer {
+		long chars = 0;
+		int flushes = 0;
+		public void write(char [] cbuf, int off, int len) { chars += len; }
+		public void flush() { flushes++; }
+		public void close() { }
+	}
+}
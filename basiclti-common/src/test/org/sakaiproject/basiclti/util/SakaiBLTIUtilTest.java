@@ -0,0 +1,130 @@
+package org.sakaiproject.basiclti.util;
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.sakaiproject.authz.api.GroupProvider;
+
+public class SakaiBLTIUtilTest {
+
+	private static final int SECTIONS = 12;
+	private static final int STUDENTS = 500;
+
+	// Stands in for a course management provider - sections are packed with '+'
+	// and every answer is built again on each call, as it is from a SIS
+	private static class Provider implements InvocationHandler {
+		final Map<String,List<String>> sections = new LinkedHashMap<String,List<String>>();
+		final Map<String,Map<String,String>> users = new HashMap<String,Map<String,String>>();
+		int rosterCalls = 0;
+		int userCalls = 0;
+
+		public Object invoke(Object proxy, Method method, Object [] args) {
+			String name = method.getName();
+			if ( "unpackId".equals(name) ) return ((String) args[0]).split("\\+");
+			if ( "packId".equals(name) ) {
+				StringBuilder sb = new StringBuilder();
+				for (String id : (String []) args[0]) {
+					if ( sb.length() > 0 ) sb.append('+');
+					sb.append(id);
+				}
+				return sb.toString();
+			}
+			if ( "getUserRolesForGroup".equals(name) ) {
+				rosterCalls++;
+				Map<String,String> roles = new HashMap<String,String>();
+				List<String> eids = sections.get(args[0]);
+				if ( eids != null ) {
+					for (String eid : eids) roles.put(eid, "Student");
+				}
+				return roles;
+			}
+			if ( "getGroupRolesForUser".equals(name) ) {
+				userCalls++;
+				Map<String,String> groups = users.get(args[0]);
+				return groups == null ? new HashMap<String,String>() : new HashMap<String,String>(groups);
+			}
+			throw new UnsupportedOperationException(name);
+		}
+
+		GroupProvider proxy() {
+			return (GroupProvider) Proxy.newProxyInstance(SakaiBLTIUtilTest.class.getClassLoader(),
+				new Class<?>[] { GroupProvider.class }, this);
+		}
+
+		void enroll(String section, String eid) {
+			sections.get(section).add(eid);
+			Map<String,String> groups = users.get(eid);
+			if ( groups == null ) {
+				groups = new HashMap<String,String>();
+				// Groups outside this site come back too
+				groups.put("OTHER-101-001", "Student");
+				users.put(eid, groups);
+			}
+			groups.put(section, "Student");
+		}
+	}
+
+	// A cross-listed course - student s0042 is in sections 3 and 7
+	private static Provider crossListed() {
+		Provider provider = new Provider();
+		for (int i = 0; i < SECTIONS; i++) {
+			provider.sections.put("CS-101-" + i, new ArrayList<String>());
+			for (int j = 0; j < STUDENTS; j++) provider.enroll("CS-101-" + i, "s" + (i * STUDENTS + j));
+		}
+		provider.enroll("CS-101-7", "s0042");
+		provider.enroll("CS-101-3", "s0042");
+		return provider;
+	}
+
+	@Test
+	public void testUserSections() {
+		Provider provider = crossListed();
+		GroupProvider groupProvider = provider.proxy();
+		String courseRoster = groupProvider.packId(provider.sections.keySet().toArray(new String[0]));
+
+		assertEquals("CS-101-3+CS-101-7", SakaiBLTIUtil.getUserSections(groupProvider, courseRoster, "s0042"));
+		assertEquals("CS-101-2", SakaiBLTIUtil.getUserSections(groupProvider, courseRoster, "s1000"));
+		assertNull(SakaiBLTIUtil.getUserSections(groupProvider, courseRoster, "nobody"));
+		assertNull(SakaiBLTIUtil.getUserSections(null, courseRoster, "s0042"));
+		assertEquals(0, provider.rosterCalls);
+		assertEquals(3, provider.userCalls);
+	}
+
+	@Test
+	public void testCrossListed() {
+		Provider provider = crossListed();
+		GroupProvider groupProvider = provider.proxy();
+		String courseRoster = groupProvider.packId(provider.sections.keySet().toArray(new String[0]));
+		int launches = 20;
+
+		String old = null;
+		for (int i = 0; i < launches; i++) old = oldUserSections(groupProvider, courseRoster, "s0042");
+		String sections = null;
+		for (int i = 0; i < launches; i++) sections = SakaiBLTIUtil.getUserSections(groupProvider, courseRoster, "s0042");
+
+		// One user lookup per launch rather than every section roster
+		assertEquals(old, sections);
+		assertEquals(launches * SECTIONS, provider.rosterCalls);
+		assertEquals(launches, provider.userCalls);
+	}
+
+	// How addRoleInfo found the sections before - the whole roster of each
+	private static String oldUserSections(GroupProvider groupProvider, String courseRoster, String userEid) {
+		String[] courseRosters = groupProvider.unpackId(courseRoster);
+		List<String> rosterList = new ArrayList<String>();
+		for (String providerId : courseRosters) {
+			Map<?,?> userRole = groupProvider.getUserRolesForGroup(providerId);
+			if ( userRole.containsKey(userEid) ) rosterList.add(providerId);
+		}
+		if ( rosterList.size() < 1 ) return null;
+		return groupProvider.packId(rosterList.toArray(new String[rosterList.size()]));
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Times SimpleEncryption.decrypt(), which keeps a Cipher and a
+ * SecretKeyFactory per thread and looks the key length up once, against
+ * looking all three up again on every call as decrypt did before.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java org.sakaiproject.basiclti.util.SimpleEncryptionBenchmark [rounds]
+ *
+ * The default is 20000 rounds.
+ */
+public class SimpleEncryptionBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		String encrypted = SimpleEncryption.encrypt("key", "tool secret");
+
+		// Warm up both before timing them
+		for (int i = 0; i < rounds; i++) {
+			oldDecrypt("key", encrypted);
+			SimpleEncryption.decrypt("key", encrypted);
+		}
+
+		long start = System.nanoTime();
+		String old = null;
+		for (int i = 0; i < rounds; i++) old = oldDecrypt("key", encrypted);
+		long uncached = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		String now = null;
+		for (int i = 0; i < rounds; i++) now = SimpleEncryption.decrypt("key", encrypted);
+		long cached = System.nanoTime() - start;
+
+		System.out.println("decrypt " + SimpleEncryption.getKeyLength() + " bit: uncached " +
+			(uncached / rounds / 1000) + "us, cached " + (cached / rounds / 1000) + "us");
+		if ( ! old.equals(now) ) System.out.println("Plain texts differ");
+	}
+
+	// How SimpleEncryption decrypted before - everything looked up each time
+	private static String oldDecrypt(String key, String encrypted) throws Exception {
+		String parts[] = encrypted.split(":");
+		byte[] salt = ShaUtil.hexToByte(parts[0]);
+		byte[] iv = ShaUtil.hexToByte(parts[1]);
+		byte[] ciphertext = ShaUtil.hexToByte(parts[2]);
+
+		int keyLength = (Cipher.getMaxAllowedKeyLength("AES") == Integer.MAX_VALUE) ? 256 : 128;
+		SecretKeyFactory factory = SecretKeyFactory.getInstance(SimpleEncryption.KEY_FACTORY);
+		SecretKey tmp = factory.generateSecret(new PBEKeySpec(key.toCharArray(), salt, 8, keyLength));
+		SecretKey secret = new SecretKeySpec(tmp.getEncoded(), "AES");
+
+		Cipher cipher = Cipher.getInstance(SimpleEncryption.CIPHER);
+		cipher.init(Cipher.DECRYPT_MODE, secret, new IvParameterSpec(iv));
+		return new String(cipher.doFinal(ciphertext), "UTF-8");
+	}
+}
@@ -91,6 +91,34 @@ public class SimpleEncryptionTest {
 		assertEquals(longer, SimpleEncryption.decrypt("key", encrypted));
 	}
 	
+	// The Cipher and SecretKeyFactory are reused per thread, check that
+	// reuse is safe on one thread and across several
+	@Test
+	public void testRepeatedDecrypt() throws Exception {
+		final String encrypted = SimpleEncryption.encrypt("key", "plain text");
+		for (int i = 0; i < 200; i++) {
+			assertEquals("plain text", SimpleEncryption.decrypt("key", encrypted));
+		}
+
+		final boolean[] failed = new boolean[1];
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			final String plain = "secret " + t;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 200; i++) {
+						String enc = SimpleEncryption.encrypt("key", plain);
+						if ( ! plain.equals(SimpleEncryption.decrypt("key", enc)) ) failed[0] = true;
+						if ( ! "plain text".equals(SimpleEncryption.decrypt("key", encrypted)) ) failed[0] = true;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) thread.join();
+		assertFalse(failed[0]);
+	}
+
 	@Test
 	public void testNullEncrypt() {
 		assertNull(SimpleEncryption.encrypt("key", null));
@@ -0,0 +1,83 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+/**
+ * Times signing and checking the sourcedids of a large roster with
+ * SourcedidCodec against the ShaUtil.sha256Hash() signing it replaced.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java org.sakaiproject.basiclti.util.SourcedidCodecBenchmark [users] [rounds]
+ *
+ * The defaults are 20000 users and 10 rounds.
+ */
+public class SourcedidCodecBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		String [] ids = new String[size];
+		for (int i = 0; i < size; i++) ids[i] = "0bcb6d3b-74b8-4a44-8a3b-" + (100000000000L + i);
+		String secret = "3b6d6c5e-9e2b-4c1c-a0a7-placement-secret";
+		String placement = "content:42";
+		String [] signatures = new String[size];
+		for (int i = 0; i < size; i++) signatures[i] = oldSourceDID(secret, ids[i], placement).substring(0, 64);
+
+		// Warm up all three before timing them
+		for (int r = 0; r < rounds; r++) {
+			for (int i = 0; i < size; i++) {
+				oldSourceDID(secret, ids[i], placement);
+				SourcedidCodec.getSourceDID(secret, ids[i], placement);
+				SourcedidCodec.verify(signatures[i], secret, ids[i], placement);
+			}
+		}
+
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String id : ids) oldSourceDID(secret, id, placement);
+		}
+		long old = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int r = 0; r < rounds; r++) {
+			for (String id : ids) SourcedidCodec.getSourceDID(secret, id, placement);
+		}
+		long now = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int failed = 0;
+		for (int r = 0; r < rounds; r++) {
+			for (int i = 0; i < size; i++) {
+				if ( ! SourcedidCodec.verify(signatures[i], secret, ids[i], placement) ) failed++;
+			}
+		}
+		long verify = System.nanoTime() - start;
+
+		System.out.println(size + " sourcedids: sha256Hash " + (old / rounds / 1000) + "us, primed " +
+			(now / rounds / 1000) + "us, verify " + (verify / rounds / 1000) + "us");
+		if ( failed > 0 ) System.out.println(failed + " signatures did not verify");
+	}
+
+	// How SakaiBLTIUtil signed a sourcedid before
+	private static String oldSourceDID(String secret, String userId, String placementId) {
+		String suffix = ":::" +  userId + ":::" + placementId;
+		return ShaUtil.sha256Hash(secret + suffix) + suffix;
+	}
+}
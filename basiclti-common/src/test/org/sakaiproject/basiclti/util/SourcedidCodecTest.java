@@ -0,0 +1,66 @@
+package org.sakaiproject.basiclti.util;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class SourcedidCodecTest {
+
+	private static final String [] IDS = {
+		"", "admin", "0bcb6d3b-74b8-4a44-8a3b-6bd5e1ddc3d7", "café", "漢字",
+		"😀 pair", "lone \ud83d surrogate", "lone \ude00 low", "end \ud83d"
+	};
+
+	// How SakaiBLTIUtil signed a sourcedid before
+	private static String oldSourceDID(String secret, String userId, String placementId) {
+		String suffix = ":::" +  userId + ":::" + placementId;
+		return ShaUtil.sha256Hash(secret + suffix) + suffix;
+	}
+
+	@Test
+	public void testSameAsSha256Hash() throws Exception {
+		// Long enough to be primed and cloned as well as short ones
+		String [] secrets = { "secret", "sécrèt", "🔑",
+			"0123456789012345678901234567890123456789012345678901234567890123456789" };
+		for (String secret : secrets) {
+			for (String id : IDS) {
+				for (String placement : IDS) {
+					String expected = oldSourceDID(secret, id, placement);
+					assertEquals(expected, SourcedidCodec.getSourceDID(secret, id, placement));
+					String signature = expected.substring(0, 64);
+					assertTrue(SourcedidCodec.verify(signature, secret, id, placement));
+				}
+			}
+		}
+		// A long id grows the buffer
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < 1000; i++) sb.append("éx");
+		String id = sb.toString();
+		assertEquals(oldSourceDID("secret", id, "p"), SourcedidCodec.getSourceDID("secret", id, "p"));
+		assertNull(SourcedidCodec.getSourceDID(null, "user", "p"));
+		assertNull(SourcedidCodec.getSourceDID("secret", null, "p"));
+		assertNull(SourcedidCodec.getSourceDID("secret", "user", null));
+	}
+
+	@Test
+	public void testVerify() throws Exception {
+		String signature = SourcedidCodec.getSourceDID("secret", "user", "content:1").substring(0, 64);
+		assertTrue(SourcedidCodec.verify(signature, "secret", "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature, "secret", "user2", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature, "secret", "user", "content:2"));
+		assertFalse(SourcedidCodec.verify(signature, "other", "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature.toUpperCase(), "secret", "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature.substring(1), "secret", "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature + "0", "secret", "user", "content:1"));
+		char last = signature.charAt(63);
+		String changed = signature.substring(0, 63) + (last == '0' ? '1' : '0');
+		assertFalse(SourcedidCodec.verify(changed, "secret", "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(null, "secret", "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature, null, "user", "content:1"));
+
+		// Sourcedids signed with the old secret still work while it is kept
+		assertTrue(SourcedidCodec.verify(signature, "new", "secret", "user", "content:1"));
+		assertTrue(SourcedidCodec.verify(signature, "secret", null, "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature, "new", null, "user", "content:1"));
+		assertFalse(SourcedidCodec.verify(signature, "new", "older", "user", "content:1"));
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * $URL$
+ * $Id$
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *             http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.sakaiproject.basiclti.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.authz.api.GroupProvider;
+
+/**
+ * Times finding the sections of a student in a cross-listed course with
+ * SakaiBLTIUtil.getUserSections(), which asks for the groups of the user
+ * once, against the getUserRolesForGroup() call per section that
+ * addRoleInfo made before.  The provider builds every answer again on
+ * each call, as one backed by a SIS would.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java org.sakaiproject.basiclti.util.UserSectionsBenchmark [sections] [students] [launches]
+ *
+ * The defaults are 40 sections of 500 students and 200 launches.
+ */
+public class UserSectionsBenchmark {
+
+	// Stands in for a course management provider - sections are packed with '+'
+	private static class Provider implements InvocationHandler {
+		final Map<String,List<String>> sections = new LinkedHashMap<String,List<String>>();
+		final Map<String,Map<String,String>> users = new HashMap<String,Map<String,String>>();
+
+		public Object invoke(Object proxy, Method method, Object [] args) {
+			String name = method.getName();
+			if ( "unpackId".equals(name) ) return ((String) args[0]).split("\\+");
+			if ( "packId".equals(name) ) {
+				StringBuilder sb = new StringBuilder();
+				for (String id : (String []) args[0]) {
+					if ( sb.length() > 0 ) sb.append('+');
+					sb.append(id);
+				}
+				return sb.toString();
+			}
+			if ( "getUserRolesForGroup".equals(name) ) {
+				Map<String,String> roles = new HashMap<String,String>();
+				List<String> eids = sections.get(args[0]);
+				if ( eids != null ) {
+					for (String eid : eids) roles.put(eid, "Student");
+				}
+				return roles;
+			}
+			if ( "getGroupRolesForUser".equals(name) ) {
+				Map<String,String> groups = users.get(args[0]);
+				return groups == null ? new HashMap<String,String>() : new HashMap<String,String>(groups);
+			}
+			throw new UnsupportedOperationException(name);
+		}
+
+		void enroll(String section, String eid) {
+			sections.get(section).add(eid);
+			Map<String,String> groups = users.get(eid);
+			if ( groups == null ) {
+				groups = new HashMap<String,String>();
+				users.put(eid, groups);
+			}
+			groups.put(section, "Student");
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int sectionCount = args.length > 0 ? Integer.parseInt(args[0]) : 40;
+		int students = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+		int launches = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+		Provider provider = new Provider();
+		for (int i = 0; i < sectionCount; i++) {
+			provider.sections.put("CS-101-" + i, new ArrayList<String>());
+			for (int j = 0; j < students; j++) provider.enroll("CS-101-" + i, "s" + (i * students + j));
+		}
+		// The student launching is cross-listed into two more sections
+		String eid = "s" + (students / 2);
+		provider.enroll("CS-101-" + (sectionCount / 2), eid);
+		provider.enroll("CS-101-" + (sectionCount - 1), eid);
+
+		GroupProvider groupProvider = (GroupProvider) Proxy.newProxyInstance(
+			UserSectionsBenchmark.class.getClassLoader(), new Class<?>[] { GroupProvider.class }, provider);
+		String courseRoster = groupProvider.packId(provider.sections.keySet().toArray(new String[0]));
+
+		// Warm up both before timing them
+		for (int i = 0; i < launches; i++) {
+			oldUserSections(groupProvider, courseRoster, eid);
+			SakaiBLTIUtil.getUserSections(groupProvider, courseRoster, eid);
+		}
+
+		long start = System.nanoTime();
+		String old = null;
+		for (int i = 0; i < launches; i++) old = oldUserSections(groupProvider, courseRoster, eid);
+		long before = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		String sections = null;
+		for (int i = 0; i < launches; i++) sections = SakaiBLTIUtil.getUserSections(groupProvider, courseRoster, eid);
+		long now = System.nanoTime() - start;
+
+		System.out.println(sectionCount + " sections of " + students + ": per section " +
+			(before / launches / 1000) + "us, per user " + (now / launches / 1000) + "us a launch");
+		if ( old == null || ! old.equals(sections) ) System.out.println("Sections differ: " + old + " " + sections);
+	}
+
+	// How addRoleInfo found the sections before - the whole roster of each
+	private static String oldUserSections(GroupProvider groupProvider, String courseRoster, String userEid) {
+		String[] courseRosters = groupProvider.unpackId(courseRoster);
+		List<String> rosterList = new ArrayList<String>();
+		for (String providerId : courseRosters) {
+			Map<?,?> userRole = groupProvider.getUserRolesForGroup(providerId);
+			if ( userRole.containsKey(userEid) ) rosterList.add(providerId);
+		}
+		if ( rosterList.size() < 1 ) return null;
+		return groupProvider.packId(rosterList.toArray(new String[rosterList.size()]));
+	}
+}
@@ -7,7 +7,9 @@ import org.apache.commons.logging.LogFactory;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.Document;
+import org.w3c.dom.NamedNodeMap;
 import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 
 public class BasicLTIArchiveBean {
         private String pageTitle = null;
@@ -19,7 +21,7 @@ public class BasicLTIArchiveBean {
         public final static String TOOL_TITLE = "toolTitle";
         public final static String SITE_TOOL_PROPERTIES = "siteToolProperties";
         
-        private Log logger = LogFactory.getLog(BasicLTISecurityServiceImpl.class);
+        private static Log logger = LogFactory.getLog(BasicLTISecurityServiceImpl.class);
 
         public BasicLTIArchiveBean()
         {
@@ -29,14 +31,16 @@ public class BasicLTIArchiveBean {
         {
         	// Parse basicLTI Element Node and populate fields in BasicLTI bean
         	// The only fields should be pageTitle, toolTitle and siteToolProperties
-        	if(basicLTI.getChildNodes().getLength() != 3)
+        	NodeList children = basicLTI.getChildNodes();
+        	int childCount = children.getLength();
+        	if(childCount != 3)
         	{
         		throw new Exception("Invalid number of child Nodes for basicLTI Node.");
         	}
-        	for(int i=0; i < basicLTI.getChildNodes().getLength(); i++)
+        	for(int i=0; i < childCount; i++)
         	{
         		// This node is a child of node basicLTI
-        		Node basicLTIChildNode = basicLTI.getChildNodes().item(i);
+        		Node basicLTIChildNode = children.item(i);
             	if(basicLTIChildNode.getNodeName().equals(BasicLTIArchiveBean.PAGE_TITLE))
         		{
         			if(this.pageTitle != null)
@@ -60,11 +64,19 @@ public class BasicLTIArchiveBean {
         			{
         				throw new Exception("Multiple siteToolProperties Nodes nested within basicLTI Node.");
         			}
-        			for(int j=0; j < basicLTIChildNode.getChildNodes().getLength(); j++)
+        			NodeList properties = basicLTIChildNode.getChildNodes();
+        			int propertyCount = properties.getLength();
+        			for(int j=0; j < propertyCount; j++)
         			{
-        				Node propertyNode = basicLTIChildNode.getChildNodes().item(j);
-        				String name  = propertyNode.getAttributes().getNamedItem("name").getTextContent();
-        				String value = propertyNode.getAttributes().getNamedItem("value").getTextContent();
+        				NamedNodeMap attributes = properties.item(j).getAttributes();
+        				Node nameNode = attributes == null ? null : attributes.getNamedItem("name");
+        				Node valueNode = attributes == null ? null : attributes.getNamedItem("value");
+        				if(nameNode == null || valueNode == null)
+        				{
+        					throw new Exception("Property without a name and value in siteToolProperties Node.");
+        				}
+        				String name  = nameNode.getTextContent();
+        				String value = valueNode.getTextContent();
         				if(this.getSiteToolProperties().containsKey(name))
         				{
         					throw new Exception("Duplicate property " + name);
@@ -19,6 +19,8 @@
 
 package org.sakaiproject.basiclti.impl;
 
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
@@ -217,25 +219,21 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 		return false;
 	}
 
+	private static final String PAGE_START = 
+		"<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">\n" +
+		"<html xmlns=\"http://www.w3.org/1999/xhtml\" lang=\"en\" xml:lang=\"en\">\n" +
+		"<html>\n<head>\n" +
+		"<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\" />\n" +
+		"</head>\n<body>\n\n";
+	private static final String PAGE_END = "\n\n</body>\n</html>\n";
+
 	private void sendHTMLPage(HttpServletResponse res, String body)
 	{
 		try
 		{							
-			res.setContentType("text/html; charset=UTF-8");
-			res.setCharacterEncoding("utf-8");
-			res.addDateHeader("Expires", System.currentTimeMillis() - (1000L * 60L * 60L * 24L * 365L));
-			res.addDateHeader("Last-Modified", System.currentTimeMillis());
-			res.addHeader("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0, post-check=0, pre-check=0");
-			res.addHeader("Pragma", "no-cache");
-			java.io.PrintWriter out = res.getWriter();
-			
-			out.println("<!DOCTYPE html PUBLIC \"-//W3C//DTD XHTML 1.0 Transitional//EN\" \"http://www.w3.org/TR/xhtml1/DTD/xhtml1-transitional.dtd\">");
-			out.println("<html xmlns=\"http://www.w3.org/1999/xhtml\" lang=\"en\" xml:lang=\"en\">");
-			out.println("<html>\n<head>");
-			out.println("<meta http-equiv=\"Content-Type\" content=\"text/html; charset=UTF-8\" />");
-			out.println("</head>\n<body>\n");
-			out.println(body);
-			out.println("\n</body>\n</html>");
+			java.io.PrintWriter out = startHTMLPage(res);
+			out.write(body);
+			out.write(PAGE_END);
 		}
 		catch (Exception e)
 		{
@@ -244,6 +242,21 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 
 	}
 
+	// Set the headers and write the top of the page - the body goes straight
+	// to the returned writer followed by PAGE_END
+	private java.io.PrintWriter startHTMLPage(HttpServletResponse res) throws IOException
+	{
+		res.setContentType("text/html; charset=UTF-8");
+		res.setCharacterEncoding("utf-8");
+		res.addDateHeader("Expires", System.currentTimeMillis() - (1000L * 60L * 60L * 24L * 365L));
+		res.addDateHeader("Last-Modified", System.currentTimeMillis());
+		res.addHeader("Cache-Control", "no-store, no-cache, must-revalidate, max-age=0, post-check=0, pre-check=0");
+		res.addHeader("Pragma", "no-cache");
+		java.io.PrintWriter out = res.getWriter();
+		out.write(PAGE_START);
+		return out;
+	}
+
 	private void doSplash(HttpServletRequest req, HttpServletResponse res, String splash, ResourceLoader rb)
 	{
 		// req.getRequestURL()=http://localhost:8080/access/basiclti/site/85fd092b-1755-4aa9-8abc-e6549527dce0/content:0
@@ -278,6 +291,8 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 
 						   String refId = ref.getId();
 						   String [] retval = null;
+						   // Launches write their form straight into the page
+						   java.io.PrintWriter out = null;
 						   if ( refId.startsWith("deploy:") && refId.length() > 7 )  
 						   {
 						       if ("!admin".equals(ref.getContext()) ) 
@@ -353,7 +368,16 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 									doSplash(req, res, splash, rb);
 									return;
 							   }
-							   retval = SakaiBLTIUtil.postLaunchHTML(content, tool, ltiService, rb);
+							   try
+							   {
+								   out = startHTMLPage(res);
+								   retval = SakaiBLTIUtil.postLaunchHTML(content, tool, ltiService, rb, out);
+							   }
+							   catch (IOException e)
+							   {
+								   logger.warn("Could not write the launch of "+refId, e);
+								   return;
+							   }
 						   }
 						   else
 						   {
@@ -389,12 +413,30 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 								}
 
 							   // Get the post data for the placement
-							   retval = SakaiBLTIUtil.postLaunchHTML(refId, rb);
+							   try
+							   {
+								   out = startHTMLPage(res);
+								   retval = SakaiBLTIUtil.postLaunchHTML(refId, rb, out);
+							   }
+							   catch (IOException e)
+							   {
+								   logger.warn("Could not write the launch of "+refId, e);
+								   return;
+							   }
 						   }
 
 						   try
 						   {
-							   sendHTMLPage(res, retval[0]);
+							   if ( out == null )
+							   {
+								   sendHTMLPage(res, retval[0]);
+							   }
+							   else
+							   {
+								   // An error comes back rather than being written
+								   if ( retval[0] != null ) out.write(retval[0]);
+								   out.write(PAGE_END);
+							   }
 							   String refstring = ref.getReference();
 							   if ( retval.length > 1 ) refstring = retval[1];
 							   // Cool 2.6 Event call
@@ -474,50 +516,90 @@ public class BasicLTISecurityServiceImpl implements EntityProducer {
 		return true;
 	}
 
+	/**
+	 * Merge the basicLTI placements from an archive.  All of them are parsed
+	 * before the site is touched, each is added to the site in memory and
+	 * the site is saved once at the end - rather than once per placement.
+	 * A placement that cannot be parsed or added is reported on its own
+	 * and does not stop the others.
+	 */
 	@SuppressWarnings("unchecked")
 		public String merge(String siteId, Element root, String archivePath, String fromSiteId, Map attachmentNames, Map userIdTrans,
 				Set userListAllowImport)
 		{
 			StringBuilder results = new StringBuilder("Merging BasicLTI ");
-			org.w3c.dom.NodeList nodeList = root.getElementsByTagName("basicLTI");
+			org.w3c.dom.NodeList nodeList = root.getElementsByTagName(BasicLTIArchiveBean.ALIAS);
+			int total = nodeList.getLength();
+			long start = System.currentTimeMillis();
+
+			// Parse everything first so a bad placement never leaves half a merge behind
+			List<BasicLTIArchiveBean> beans = new ArrayList<BasicLTIArchiveBean>(total);
+			for(int i=0; i < total; i++)
+			{
+				try {
+					beans.add(new BasicLTIArchiveBean(nodeList.item(i)));
+				} catch (Exception e) {
+					logger.warn("Could not parse basicLTI placement "+(i+1)+" of "+total+" for site "+siteId+": "+e.getMessage());
+					results.append(", unable to parse basicLTI tool "+(i+1)+": "+e.getMessage());
+				}
+			}
+			long parsed = System.currentTimeMillis();
 
+			int merged = 0;
+			long applied = parsed;
 			try {
 				Site site = SiteService.getSite(siteId);
 			
-				for(int i=0; i < nodeList.getLength(); i++)
+				for(BasicLTIArchiveBean basicLTI : beans)
 				{
-					BasicLTIArchiveBean basicLTI = new BasicLTIArchiveBean(nodeList.item(i));
 					logger.info("BASIC LTI: " + basicLTI);
-					results.append(", merging basicLTI tool " + basicLTI.getPageTitle());
+					SitePage sitePage = null;
+					try {
+						sitePage = site.addPage();
+						sitePage.setTitle(basicLTI.getPageTitle());
+						// This property affects both the Tool and SitePage.
+						sitePage.setTitleCustom(true);
 				
-					SitePage sitePage = site.addPage();
-					sitePage.setTitle(basicLTI.getPageTitle());
-					// This property affects both the Tool and SitePage.
-					sitePage.setTitleCustom(true);
-				
-					ToolConfiguration toolConfiguration = sitePage.addTool();
-					toolConfiguration.setTool(TOOL_REGISTRATION, ToolManager.getTool(TOOL_REGISTRATION));
-					toolConfiguration.setTitle(basicLTI.getToolTitle());
+						ToolConfiguration toolConfiguration = sitePage.addTool();
+						toolConfiguration.setTool(TOOL_REGISTRATION, ToolManager.getTool(TOOL_REGISTRATION));
+						toolConfiguration.setTitle(basicLTI.getToolTitle());
 
-					for(Object key: basicLTI.getSiteToolProperties().keySet())
-					{
-						toolConfiguration.getPlacementConfig().setProperty((String)key, (String)basicLTI.getSiteToolProperties().get(key));
+						for(Object key: basicLTI.getSiteToolProperties().keySet())
+						{
+							toolConfiguration.getPlacementConfig().setProperty((String)key, (String)basicLTI.getSiteToolProperties().get(key));
+						}
+						results.append(", merging basicLTI tool " + basicLTI.getPageTitle());
+						merged++;
+					} catch (Exception e) {
+						// Take the partly built page back out so it is not saved
+						if ( sitePage != null ) site.removePage(sitePage);
+						logger.warn("Could not merge basicLTI tool "+basicLTI.getPageTitle()+" into site "+siteId+": "+e.getMessage());
+						results.append(", unable to merge basicLTI tool " + basicLTI.getPageTitle()+": "+e.getMessage());
 					}
-				
-					SiteService.save(site);
 				}
+				applied = System.currentTimeMillis();
+
+				if ( merged > 0 ) SiteService.save(site);
 			} catch (IdUnusedException ie) {
 				// This would be thrown by SiteService.getSite(siteId)
-				ie.printStackTrace();
+				logger.warn("Site "+siteId+" not found merging basicLTI tools");
+				results.append(", site not found");
+				merged = 0;
 			} catch (PermissionException pe) {
 				// This would be thrown by SiteService.save(site)
-				pe.printStackTrace();
+				logger.warn("Permission denied saving basicLTI tools into site "+siteId);
+				results.append(", permission denied saving site");
+				merged = 0;
 			} catch (Exception e) {
-				// This is a generic exception that would be thrown by the BasicLTIArchiveBean constructor.
-				e.printStackTrace();
+				logger.warn("Unable to merge basicLTI tools into site "+siteId, e);
+				results.append(", unable to save site: "+e.getMessage());
+				merged = 0;
 			}
+			long done = System.currentTimeMillis();
 
-			results.append(".");
+			logger.info("Merged "+merged+" of "+total+" basicLTI tools into site "+siteId+" parse="+(parsed-start)+
+				"ms apply="+(applied-parsed)+"ms save="+(done-applied)+"ms");
+			results.append(" (" + merged + " of " + total + " merged in " + (done-start) + "ms).");
 			return results.toString();
 		}
 
@@ -42,6 +42,7 @@ import org.sakaiproject.tool.api.SessionManager;
 import org.sakaiproject.tool.api.ToolManager;
 import org.sakaiproject.user.api.UserDirectoryService;
 import org.sakaiproject.util.ResourceLoader;
+import org.sakaiproject.util.foorm.FormModel;
 import org.sakaiproject.util.foorm.SakaiFoorm;
 
 import java.util.ArrayList;
@@ -68,6 +69,14 @@ public abstract class BaseLTIService implements LTIService {
 	 */
 	protected static SakaiFoorm foorm = new SakaiFoorm();
 
+	// The models are used on every request, so parse them once
+	static {
+		FormModel.intern(CONTENT_MODEL);
+		FormModel.intern(TOOL_MODEL);
+		FormModel.intern(DEPLOY_MODEL);
+		FormModel.intern(BINDING_MODEL);
+	}
+
 	/** Dependency: SessionManager */
 	protected SessionManager m_sessionManager = null;
 
@@ -443,6 +452,13 @@ public abstract class BaseLTIService implements LTIService {
 
 	protected abstract Object updateContentDao(Long key, Object newProps, String siteId, boolean isAdminRole, boolean isMaintainRole);
 
+	public List<Object> updateContentsDao(List<Long> keys, List<Map<String, Object>> newProps, String siteId)
+	{
+		return updateContentsDao(keys, newProps, siteId, true, true);
+	}
+
+	protected abstract List<Object> updateContentsDao(List<Long> keys, List<? extends Object> newProps, String siteId, boolean isAdminRole, boolean isMaintainRole);
+
 	public boolean deleteContent(Long key) {
 		return deleteContentDao(key, getContext(), isAdmin(), isMaintain());
 	}
@@ -592,6 +608,16 @@ public abstract class BaseLTIService implements LTIService {
 
 	protected abstract List<Map<String, Object>> getToolsDao(String search, String order, int first, int last, String siteId, boolean isAdminRole);
 
+	public List<Map<String, Object>> getToolsAfter(String search, String orderField, boolean descending, Map<String, Object> after, int count) {
+		return getToolsAfterDao(search, orderField, descending, after, count, getContext(), isAdmin());
+	}
+
+	public List<Map<String, Object>> getToolsAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId) {
+		return getToolsAfterDao(search, orderField, descending, after, count, siteId, true);
+	}
+
+	protected abstract List<Map<String, Object>> getToolsAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId, boolean isAdminRole);
+
 	public Object insertContent(Properties newProps) {
 		return insertContentDao(newProps, getContext(), isAdmin(), isMaintain());
 	}
@@ -603,6 +629,13 @@ public abstract class BaseLTIService implements LTIService {
 
 	protected abstract Object insertContentDao(Properties newProps, String siteId, boolean isAdminRole, boolean isMaintainRole);
 
+	public List<Object> insertContentsDao(List<Properties> newProps, String siteId)
+	{
+		return insertContentsDao(newProps, siteId, true, true);
+	}
+
+	protected abstract List<Object> insertContentsDao(List<Properties> newProps, String siteId, boolean isAdminRole, boolean isMaintainRole);
+
 	public Map<String, Object> getContent(Long key) {
 		return getContentDao(key, getContext(), isAdmin());
 	}
@@ -633,6 +666,16 @@ public abstract class BaseLTIService implements LTIService {
 
 	public abstract List<Map<String, Object>> getContentsDao(String search, String order, int first, int last, String siteId, boolean isAdminRole);
 
+	public List<Map<String, Object>> getContentsAfter(String search, String orderField, boolean descending, Map<String, Object> after, int count) {
+		return getContentsAfterDao(search, orderField, descending, after, count, getContext(), isAdmin());
+	}
+
+	public List<Map<String, Object>> getContentsAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId) {
+		return getContentsAfterDao(search, orderField, descending, after, count, siteId, true);
+	}
+
+	public abstract List<Map<String, Object>> getContentsAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId, boolean isAdminRole);
+
 	public Object insertToolContent(String id, String toolId, Properties reqProps)
 	{
 		return insertToolContentDao(id, toolId, reqProps, getContext(), isAdmin(), isMaintain());
@@ -888,6 +931,12 @@ public abstract class BaseLTIService implements LTIService {
 
 	protected abstract List<Map<String, Object>> getDeploysDao(String search, String order, int first, int last, String siteId, boolean isAdminRole);
 
+	public List<Map<String, Object>> getDeploysAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count) {
+		return getDeploysAfterDao(search, orderField, descending, after, count, null, true);
+	}
+
+	protected abstract List<Map<String, Object>> getDeploysAfterDao(String search, String orderField, boolean descending, Map<String, Object> after, int count, String siteId, boolean isAdminRole);
+
 	public abstract Object insertProxyBindingDao(Properties newProps);
 	public abstract Object updateProxyBindingDao(Long key, Object newProps);
 	public abstract boolean deleteProxyBindingDao(Long key);
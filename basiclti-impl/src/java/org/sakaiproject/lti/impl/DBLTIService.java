@@ -26,28 +26,44 @@ import org.apache.commons.configuration.PropertiesConfiguration;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.sakaiproject.component.cover.ComponentManager;
+import org.sakaiproject.component.cover.ServerConfigurationService;
 import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.exception.PermissionException;
 import org.sakaiproject.lti.api.LTIService;
 import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.support.GeneratedKeyHolder;
 import org.springframework.jdbc.support.KeyHolder;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+
 import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Types;
 
 import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 import javax.sql.DataSource;
 
 import org.sakaiproject.lti.impl.FoormMapRowMapper;
+import org.sakaiproject.basiclti.util.SakaiBLTIUtil;
+import org.sakaiproject.basiclti.util.TimedCache;
+import org.sakaiproject.util.foorm.FormModel;
 
 /**
  * <p>
@@ -98,6 +114,85 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 	 */
 	private org.springframework.jdbc.core.JdbcTemplate jdbcTemplate = null;
 
+	/** Configuration: the number of SELECT statements to keep ready built */
+	public static final String SQL_CACHE_SIZE = "basiclti.sql.cache.size";
+	public static final int SQL_CACHE_SIZE_DEFAULT = 500;
+
+	/** Configuration: rows per page or batch when moving whole tables */
+	public static final String BULK_BATCH_SIZE = "basiclti.bulk.batch.size";
+	public static final int BULK_BATCH_SIZE_DEFAULT = LTIBulkTransfer.DEFAULT_BATCH_SIZE;
+
+	// Log the progress of exportTable and importTable this often (rows)
+	private static final long BULK_LOG_EVERY = 10000L;
+
+	// Statements only change when the code does - the time limit just lets
+	// rarely used entries age out
+	private static final long SQL_CACHE_TTL = 24L * 60L * 60L * 1000L;
+
+	// The column list used to merge the counts for non-mysql getToolsDao - it
+	// has the autodates so the counts can be paged in the same order
+	private static final String[] ID_MODEL = { "id:key", "visible:radio", "SITE_ID:text",
+		"created_at:autodate", "updated_at:autodate" };
+
+	// The column list used to merge the counts for non-mysql getDeploysDao
+	private static final String[] DEPLOY_ID_MODEL = { "id:key", "visible:radio",
+		"created_at:autodate", "updated_at:autodate" };
+
+	static {
+		FormModel.intern(ID_MODEL);
+		FormModel.intern(DEPLOY_ID_MODEL);
+	}
+
+	/**
+	 * A SELECT statement built from a model along with what is needed to
+	 * run it - all that is left to do is to bind the parameters.
+	 */
+	private static class SqlTemplate {
+		final String sql;
+		final String[] columns;
+		final boolean bindSiteId;
+
+		SqlTemplate(String sql, String[] columns, boolean bindSiteId) {
+			this.sql = sql;
+			this.columns = columns;
+			this.bindSiteId = bindSiteId;
+		}
+	}
+
+	/**
+	 * An INSERT or UPDATE with its parameters, ready to run on its own or
+	 * as part of a JDBC batch.
+	 */
+	private static class BatchRow {
+		final String sql;
+		final Object[] fields;
+
+		BatchRow(String sql, Object[] fields) {
+			this.sql = sql;
+			this.fields = fields;
+		}
+	}
+
+	/**
+	 * A keyset page - up to count rows that come after the row after, in
+	 * orderColumn then id order.  after is null for the first page.
+	 */
+	private static class Seek {
+		final String orderColumn;
+		final boolean descending;
+		final Map<String, Object> after;
+		final int count;
+
+		Seek(String orderColumn, boolean descending, Map<String, Object> after, int count) {
+			this.orderColumn = orderColumn;
+			this.descending = descending;
+			this.after = after;
+			this.count = count;
+		}
+	}
+
+	private TimedCache<String, SqlTemplate> sqlCache = null;
+
 	/**********************************************************************************************************************************************************************************************************************************************************
 	 * Init and Destroy
 	 *********************************************************************************************************************************************************************************************************************************************************/
@@ -127,6 +222,29 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		}
 	}
 
+	private synchronized TimedCache<String, SqlTemplate> getSqlCache() {
+		if ( sqlCache == null ) {
+			int size = ServerConfigurationService.getInt(SQL_CACHE_SIZE, SQL_CACHE_SIZE_DEFAULT);
+			sqlCache = new TimedCache<String, SqlTemplate>("sqlCache", size, SQL_CACHE_TTL);
+		}
+		return sqlCache;
+	}
+
+	// Build a cache key from the parts that shape a statement
+	private String sqlCacheKey(Object... parts) {
+		StringBuffer sb = new StringBuffer();
+		for (Object part : parts) {
+			if ( sb.length() > 0 ) sb.append('|');
+			// Keep null distinct from the string "null"
+			if ( part == null ) {
+				sb.append('\u0000');
+			} else {
+				sb.append(part);
+			}
+		}
+		return sb.toString();
+	}
+
 	/**
 	 * 
 	 */
@@ -175,6 +293,26 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 	 */
 	public List<Map<String, Object>> getToolsDao(String search, String order, int first,
 			int last, String siteId, boolean isAdminRole) {
+		return getToolsDao(search, order, first, last, null, siteId, isAdminRole);
+	}
+
+	/**
+	 * A page of tools starting after the last tool of the page before, in
+	 * orderField then id order.
+	 *
+	 * @param orderField
+	 *		id, created_at or updated_at - a column that is never null
+	 */
+	public List<Map<String, Object>> getToolsAfterDao(String search, String orderField, boolean descending,
+			Map<String, Object> after, int count, String siteId, boolean isAdminRole) {
+		if ( count < 1 ) {
+			throw new IllegalArgumentException("count must be at least one");
+		}
+		return getToolsDao(search, null, 0, 0, new Seek(orderField, descending, after, count), siteId, isAdminRole);
+	}
+
+	private List<Map<String, Object>> getToolsDao(String search, String order, int first,
+			int last, Seek seek, String siteId, boolean isAdminRole) {
 		String extraSelect = "COUNT(DISTINCT lti_content.id) AS lti_content_count, COUNT(DISTINCT lti_content.SITE_ID) AS lti_site_count";
 		String joinClause = "LEFT OUTER JOIN lti_content ON lti_content.tool_id = lti_tools.id";
 		String groupBy = "lti_tools.id";
@@ -182,12 +320,11 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		// Oracle needs all the selected values in the GROUP_BY
 		if ("mysql".equals(m_sql.getVendor())) {
-			return getThingsDao("lti_tools", LTIService.TOOL_MODEL, extraSelect, joinClause, search, groupBy, order, first, last, siteId, isAdminRole);
+			return getThingsDao("lti_tools", LTIService.TOOL_MODEL, extraSelect, joinClause, search, groupBy, order, first, last, seek, siteId, isAdminRole);
 		} else {
-			List<Map<String, Object>> mainList = getThingsDao("lti_tools", LTIService.TOOL_MODEL, null, null, search, null, order, first, last, siteId, isAdminRole);
-			String[] id_model = { "id:key", "visible:radio", "SITE_ID:text" } ; 
-			groupBy = "lti_tools.id, lti_tools.visible, lti_tools.SITE_ID";
-			List<Map<String, Object>> countList = getThingsDao("lti_tools", id_model, extraSelect, joinClause, search, groupBy, order, first, last, siteId, isAdminRole);
+			List<Map<String, Object>> mainList = getThingsDao("lti_tools", LTIService.TOOL_MODEL, null, null, search, null, order, first, last, seek, siteId, isAdminRole);
+			groupBy = "lti_tools.id, lti_tools.visible, lti_tools.SITE_ID, lti_tools.created_at, lti_tools.updated_at";
+			List<Map<String, Object>> countList = getThingsDao("lti_tools", ID_MODEL, extraSelect, joinClause, search, groupBy, order, first, last, seek, siteId, isAdminRole);
 
 			// Merge the lists...
 			Map<Object, Map<String, Object>> countMap = new HashMap<Object, Map<String, Object>> ();
@@ -227,6 +364,23 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		if (!isMaintainRole) return null;
 
+		Object contentModel = getInsertContentModel(newProps, siteId, isAdminRole, null);
+		if ( contentModel instanceof String ) return contentModel;
+		return insertThingDao("lti_content", (String[]) contentModel, LTIService.CONTENT_MODEL, newProps, siteId, isAdminRole, isMaintainRole);
+	}
+
+	/**
+	 * Check that newProps points at a tool we can use and work out the 
+	 * model to insert it with, copying the titles and resource handler 
+	 * from the tool into newProps when they are needed.
+	 *
+	 * @param tools
+	 *		Tools already loaded by this batch of inserts, or null
+	 * @return Returns String (failure) or String[] (the content model)
+	 */
+	private Object getInsertContentModel(Properties newProps, String siteId, 
+		boolean isAdminRole, Map<Long, Map<String, Object>> tools)
+	{
 		String toolId = newProps.getProperty(LTI_TOOL_ID);
 		if (toolId == null)
 			return rb.getString("error.missing.toolid");
@@ -239,7 +393,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		// Load the tool we are aiming for Using DAO
 		Map<String, Object> tool = null;
-		tool = getToolDao(toolKey, siteId, isAdminRole);
+		tool = getToolDao(toolKey, siteId, isAdminRole, tools);
 			
 		if ( tool == null ) {
 			return rb.getString("error.invalid.toolid");
@@ -290,7 +444,73 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		}
 		if (contentModel == null)
 			return rb.getString("error.invalid.toolid");
-		return insertThingDao("lti_content", contentModel, LTIService.CONTENT_MODEL, newProps, siteId, isAdminRole, isMaintainRole);
+		return contentModel;
+	}
+
+	/**
+	 * Insert a number of content items in one transaction.  Every row is
+	 * checked before anything is written, rows that fail the checks are left
+	 * out and the rest go to the database as a single JDBC batch.
+	 *
+	 * @return For each of newProps in order, String (failure) or Long (key on
+	 *	success) as insertContentDao() would return.  If the database rejects
+	 *	the batch nothing is inserted and each row that passed the checks gets
+	 *	the database error.
+	 */
+	protected List<Object> insertContentsDao(List<Properties> newProps, String siteId, 
+		boolean isAdminRole, boolean isMaintainRole) 
+	{
+		if ( newProps == null || newProps.contains(null) ) {
+			throw new IllegalArgumentException(
+					"newProps and each of its entries must be non-null");
+		}
+		if (siteId == null && !isAdminRole ) {
+			throw new IllegalArgumentException("siteId must be non-null for non-admins");
+		}
+
+		List<Object> retval = new ArrayList<Object>(newProps.size());
+		if (!isMaintainRole) {
+			for (int i = 0; i < newProps.size(); i++) retval.add(null);
+			return retval;
+		}
+
+		Map<Long, Map<String, Object>> tools = new HashMap<Long, Map<String, Object>>();
+		List<BatchRow> rows = new ArrayList<BatchRow>();
+		List<Integer> positions = new ArrayList<Integer>();
+		for (Properties props : newProps) {
+			Object row = getInsertContentModel(props, siteId, isAdminRole, tools);
+			if ( ! (row instanceof String) ) {
+				row = prepareInsert("lti_content", (String[]) row, LTIService.CONTENT_MODEL, props, siteId, isAdminRole);
+			}
+			if ( row instanceof BatchRow ) {
+				positions.add(Integer.valueOf(retval.size()));
+				rows.add((BatchRow) row);
+			}
+			retval.add(row);
+		}
+
+		Object result = executeBatch(rows, true, null);
+		for (int i = 0; i < rows.size(); i++) {
+			int position = positions.get(i).intValue();
+			if ( result instanceof String ) {
+				retval.set(position, result);
+			} else {
+				retval.set(position, Long.valueOf(((long[]) result)[i]));
+			}
+		}
+		M_log.debug("Inserted "+(result instanceof String ? 0 : rows.size())+" of "+newProps.size()+" content items");
+		return retval;
+	}
+
+	// Each row of a batch is likely to use the same few tools
+	private Map<String, Object> getToolDao(Long key, String siteId, boolean isAdminRole,
+		Map<Long, Map<String, Object>> tools)
+	{
+		if ( tools == null ) return getToolDao(key, siteId, isAdminRole);
+		if ( tools.containsKey(key) ) return tools.get(key);
+		Map<String, Object> tool = getToolDao(key, siteId, isAdminRole);
+		tools.put(key, tool);
+		return tool;
 	}
 
 	/**
@@ -335,6 +555,24 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 			throw new IllegalArgumentException("siteId must be non-null for non-admins");
 		}
 
+		Object contentModel = getUpdateContentModel(key, newProps, siteId, isAdminRole, null);
+		if ( contentModel instanceof String ) return contentModel;
+
+		return updateThingDao("lti_content", (String[]) contentModel, LTIService.CONTENT_MODEL, 
+			key, newProps, siteId, isAdminRole, isMaintainRole);
+	}
+
+	/**
+	 * Check that the content item exists and that any new tool_id in 
+	 * newProps is a tool we can use and work out the model to update it with.
+	 *
+	 * @param tools
+	 *		Tools already loaded by this batch of updates, or null
+	 * @return Returns String (failure) or String[] (the content model)
+	 */
+	private Object getUpdateContentModel(Long key, Object newProps, String siteId, 
+		boolean isAdminRole, Map<Long, Map<String, Object>> tools)
+	{
 		// Load the content item
 		Map<String,Object> content = getContentDao(key, siteId, isAdminRole);
 		if (  content == null ) {
@@ -356,7 +594,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		if ( newToolKey == null || newToolKey < 0 ) newToolKey = oldToolKey;
 
 		// Load the tool we are aiming for
-		Map<String, Object> tool = getToolDao(newToolKey, siteId, isAdminRole);
+		Map<String, Object> tool = getToolDao(newToolKey, siteId, isAdminRole, tools);
 		if ( tool == null ) {
 			return rb.getString("error.invalid.toolid");
 		}
@@ -374,9 +612,86 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		String[] contentModel = getContentModelDao(tool, isAdminRole);
 		if (contentModel == null)
 			return rb.getString("error.invalid.toolid");
+		return contentModel;
+	}
 
-		return updateThingDao("lti_content", contentModel, LTIService.CONTENT_MODEL, 
-			key, newProps, siteId, isAdminRole, isMaintainRole);
+	/**
+	 * Update a number of content items in one transaction.  Every row is
+	 * checked before anything is written, rows that fail the checks are left
+	 * out and the rest go to the database as a single JDBC batch.
+	 *
+	 * @param keys
+	 *		The content items to update, one for each of newProps
+	 * @return For each of keys in order, String (failure) or Boolean as 
+	 *	updateContentDao() would return.  A row the database refuses is
+	 *	rolled back to a savepoint and gets the database error while the
+	 *	rest are still updated.  Without savepoints nothing is updated and 
+	 *	each row that passed the checks gets the database error.
+	 */
+	protected List<Object> updateContentsDao(List<Long> keys, List<? extends Object> newProps, 
+		String siteId, boolean isAdminRole, boolean isMaintainRole) 
+	{
+		if ( keys == null || newProps == null || keys.contains(null) || newProps.contains(null) ) {
+			throw new IllegalArgumentException(
+					"keys and newProps and each of their entries must be non-null");
+		}
+		if ( keys.size() != newProps.size() ) {
+			throw new IllegalArgumentException("keys and newProps must be the same size");
+		}
+		if (siteId == null && !isAdminRole ) {
+			throw new IllegalArgumentException("siteId must be non-null for non-admins");
+		}
+
+		List<Object> retval = new ArrayList<Object>(keys.size());
+		if (!isMaintainRole) {
+			for (int i = 0; i < keys.size(); i++) retval.add(Boolean.FALSE);
+			return retval;
+		}
+
+		Map<Long, Map<String, Object>> tools = new HashMap<Long, Map<String, Object>>();
+		List<BatchRow> rows = new ArrayList<BatchRow>();
+		List<Integer> positions = new ArrayList<Integer>();
+		for (int i = 0; i < keys.size(); i++) {
+			Long key = keys.get(i);
+			Object props = newProps.get(i);
+			if ( ! (props instanceof Properties || props instanceof Map) ) {
+				throw new IllegalArgumentException("newProps must Properties or Map<String, Object>");
+			}
+			Object row = getUpdateContentModel(key, props, siteId, isAdminRole, tools);
+			if ( ! (row instanceof String) ) {
+				row = prepareUpdate("lti_content", (String[]) row, LTIService.CONTENT_MODEL, key, props, siteId, isAdminRole);
+			}
+			if ( row instanceof BatchRow ) {
+				positions.add(Integer.valueOf(i));
+				rows.add((BatchRow) row);
+			}
+			retval.add(row);
+		}
+
+		String[] errors = new String[rows.size()];
+		Object result = executeBatch(rows, false, errors);
+		int updated = 0;
+		for (int i = 0; i < rows.size(); i++) {
+			int position = positions.get(i).intValue();
+			if ( result instanceof String ) {
+				retval.set(position, result);
+				continue;
+			}
+			if ( errors[i] != null ) {
+				retval.set(position, errors[i]);
+				continue;
+			}
+			long count = ((long[]) result)[i];
+			// Some drivers do not say how many rows a batched statement changed
+			boolean success = count == 1 || count == Statement.SUCCESS_NO_INFO;
+			if ( count > 0 || count == Statement.SUCCESS_NO_INFO ) {
+				invalidatePlacementCache("lti_content", keys.get(position));
+			}
+			if ( success ) updated++;
+			retval.set(position, Boolean.valueOf(success));
+		}
+		M_log.debug("Updated "+updated+" of "+keys.size()+" content items");
+		return retval;
 	}
 
 	/**
@@ -396,6 +711,41 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		return contents;
 	}
 
+	/**
+	 * A page of content items starting after the last item of the page 
+	 * before, in orderField then id order.
+	 *
+	 * @param orderField
+	 *		id, created_at or updated_at - a column that is never null
+	 * @param after
+	 *		The last item of the page before, or null for the first page
+	 */
+	public List<Map<String, Object>> getContentsAfterDao(String search, String orderField, boolean descending,
+			Map<String, Object> after, int count, String siteId, boolean isAdminRole) {
+		List<Map<String, Object>> contents = getThingsAfterDao("lti_content",
+				LTIService.CONTENT_MODEL, null, null, search, null, orderField, descending, after, count, 
+				siteId, isAdminRole);
+		for (Map<String, Object> content : contents) {
+			content.put("launch_url", getContentLaunch(content));
+		}
+		return contents;
+	}
+
+	/**
+	 * Like getContentsDao but each content item is handed to the handler as it 
+	 * is read rather than building a List of the whole result.
+	 */
+	public void streamContentsDao(String search, String order, int first,
+			int last, String siteId, boolean isAdminRole, final FoormRowHandler handler) {
+		streamThingsDao("lti_content", LTIService.CONTENT_MODEL, null, null, search, null, 
+			order, first, last, siteId, isAdminRole, new FoormRowHandler() {
+				public void processRow(Map<String, Object> content) {
+					content.put("launch_url", getContentLaunch(content));
+					handler.processRow(content);
+				}
+			});
+	}
+
 	/**
 	 * 
 	 */
@@ -448,6 +798,26 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 	 */
 	protected List<Map<String, Object>> getDeploysDao(String search, String order, int first,
 			int last, String siteId, boolean isAdminRole) {
+		return getDeploysDao(search, order, first, last, null, siteId, isAdminRole);
+	}
+
+	/**
+	 * A page of deployments starting after the last deployment of the page 
+	 * before, in orderField then id order.
+	 *
+	 * @param orderField
+	 *		id, created_at or updated_at - a column that is never null
+	 */
+	protected List<Map<String, Object>> getDeploysAfterDao(String search, String orderField, boolean descending,
+			Map<String, Object> after, int count, String siteId, boolean isAdminRole) {
+		if ( count < 1 ) {
+			throw new IllegalArgumentException("count must be at least one");
+		}
+		return getDeploysDao(search, null, 0, 0, new Seek(orderField, descending, after, count), siteId, isAdminRole);
+	}
+
+	private List<Map<String, Object>> getDeploysDao(String search, String order, int first,
+			int last, Seek seek, String siteId, boolean isAdminRole) {
 		if ( ! isAdminRole ) throw new IllegalArgumentException("Currently we support admins/Dao access");
 		String extraSelect = "COUNT(DISTINCT lti_tools.id) AS lti_tool_count, COUNT(DISTINCT lti_content.SITE_ID) AS lti_site_count, COUNT(DISTINCT lti_content.id) AS lti_content_count";
 		String joinClause = "LEFT OUTER JOIN lti_tools ON lti_tools.deployment_id = lti_deploy.id LEFT OUTER JOIN lti_content ON lti_content.tool_id = lti_tools.id";
@@ -456,12 +826,11 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		// Oracle needs all the selected values in the GROUP_BY
 		if ("mysql".equals(m_sql.getVendor())) {
-			return getThingsDao("lti_deploy", LTIService.DEPLOY_MODEL, extraSelect, joinClause, search, groupBy, order, first, last, siteId, isAdminRole);
+			return getThingsDao("lti_deploy", LTIService.DEPLOY_MODEL, extraSelect, joinClause, search, groupBy, order, first, last, seek, siteId, isAdminRole);
 		} else {
-			List<Map<String, Object>> mainList = getThingsDao("lti_deploy",LTIService.DEPLOY_MODEL, null, null, search, null, order, first, last, siteId, isAdminRole);
-			String[] id_model = { "id:key", "visible:radio" } ; 
-			groupBy = "lti_tools.id, lti_tools.visible";
-			List<Map<String, Object>> countList = getThingsDao("lti_deploy", id_model, extraSelect, joinClause, search, groupBy, order, first, last, siteId, isAdminRole);
+			List<Map<String, Object>> mainList = getThingsDao("lti_deploy",LTIService.DEPLOY_MODEL, null, null, search, null, order, first, last, seek, siteId, isAdminRole);
+			groupBy = "lti_deploy.id, lti_deploy.visible, lti_deploy.created_at, lti_deploy.updated_at";
+			List<Map<String, Object>> countList = getThingsDao("lti_deploy", DEPLOY_ID_MODEL, extraSelect, joinClause, search, groupBy, order, first, last, seek, siteId, isAdminRole);
 
 			// Merge the lists...
 			Map<Object, Map<String, Object>> countMap = new HashMap<Object, Map<String, Object>> ();
@@ -566,20 +935,36 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		// TODO: Remove this as a parameter
 		if (!isMaintainRole) return null;
 
-		HashMap<String, Object> newMapping = new HashMap<String, Object>();
+		Object row = prepareInsert(table, formModel, fullModel, newProps, siteId, isAdminRole);
+		if ( row instanceof String ) return row;
+		final String sql = ((BatchRow) row).sql;
 
-		String[] columns = null;
-		String theKey = null;
-		if (fullModel == null) {
-			columns = foorm.getFields(formModel);
-			theKey = foorm.formSqlKey(formModel);
-		} else {
-			columns = foorm.getFields(fullModel);
-			theKey = foorm.formSqlKey(fullModel);
-		}
+		// System.out.println("Insert SQL="+sql);
+		final Object[] fields = ((BatchRow) row).fields;
+
+		Long retval = m_sql.dbInsert(null, sql, fields, LTI_ID);
+
+		M_log.debug("Count="+retval+" Insert="+sql);
+		return retval;
+	}
+
+	/**
+	 * Check newProps against the model and build the INSERT for it.
+	 *
+	 * @return Returns String (failure) or BatchRow (the statement and its fields)
+	 */
+	private Object prepareInsert(String table, String[] formModel, String[] fullModel,
+			Object newProps, String siteId, boolean isAdminRole) {
+
+		// Sorted so that rows with the same columns make the same statement
+		Map<String, Object> newMapping = new TreeMap<String, Object>();
+
+		FormModel columns = FormModel.get(fullModel == null ? formModel : fullModel);
+		String theKey = foorm.formSqlKey(columns);
+		boolean hasSiteId = columns.hasField(LTI_SITE_ID);
 
 		// Insert the SITE_ID if it is not present in case it is required
-		if (!isAdminRole && (Arrays.asList(columns).contains(LTI_SITE_ID))) {
+		if (!isAdminRole && hasSiteId) {
 			((Map) newProps).put(LTI_SITE_ID, siteId);
 		}
 
@@ -589,7 +974,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 			return errors;
 
 		// Only admins can insert things into sites other than the current site
-		if (!isAdminRole && (Arrays.asList(columns).contains(LTI_SITE_ID))) {
+		if (!isAdminRole && hasSiteId) {
 			newMapping.put(LTI_SITE_ID, siteId);
 		}
 		String seqName = foorm.getSqlSequence(table, theKey, m_sql.getVendor());
@@ -603,15 +988,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 				+ " ) VALUES ( " + seqName + ".NextVal, " + insertInfo[1] + " )";
 		}
 
-		final String sql = makeSql;
-
-		// System.out.println("Insert SQL="+sql);
-		final Object[] fields = foorm.getInsertObjects(newMapping);
-
-		Long retval = m_sql.dbInsert(null, sql, fields, LTI_ID);
-
-		M_log.debug("Count="+retval+" Insert="+sql);
-		return retval;
+		return new BatchRow(makeSql, foorm.getInsertObjects(newMapping));
 	}
 
 	/**
@@ -632,14 +1009,28 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		if (siteId == null && !isAdminRole ) {
 			throw new IllegalArgumentException("siteId must be non-null for non-admins");
 		}
-		String statement = "SELECT " + foorm.formSelect(model) + " from " + table
-			+ " WHERE id = ?";
-		Object fields[] = null;
-		String[] columns = foorm.getFields(model);
+		FormModel formModel = FormModel.get(model);
+		TimedCache<String, SqlTemplate> cache = getSqlCache();
+		String cacheKey = sqlCacheKey("get", table, formModel.getId(), m_sql.getVendor(), isAdminRole);
+		SqlTemplate template = cache.get(cacheKey);
+		if ( template == null ) {
+			String statement = "SELECT " + foorm.formSelect(formModel) + " from " + table
+				+ " WHERE id = ?";
+
+			// Non-admins only see global (SITE_ID IS NULL) or in their site
+			boolean bindSiteId = !isAdminRole && formModel.hasField(LTI_SITE_ID);
+			if ( bindSiteId ) {
+				statement += " AND (SITE_ID = ? OR SITE_ID IS NULL)";
+			}
+			template = new SqlTemplate(statement, foorm.getFields(formModel), bindSiteId);
+			// A model made for one call has no id to key the statement by
+			if ( formModel.getId() > 0 ) cache.put(cacheKey, template);
+			M_log.debug(cache.getStatistics());
+		}
 
-		// Non-admins only see global (SITE_ID IS NULL) or in their site
-		if (!isAdminRole && Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0 ) {
-			statement += " AND (SITE_ID = ? OR SITE_ID IS NULL)";
+		String statement = template.sql;
+		Object fields[] = null;
+		if ( template.bindSiteId ) {
 			fields = new Object[2];
 			fields[0] = key;
 			fields[1] = siteId;
@@ -649,7 +1040,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		}
 
 		M_log.debug(statement);
-		List rv = getResultSet(statement, fields, columns);
+		List rv = getResultSet(statement, fields, template.columns);
 
 		if ((rv != null) && (rv.size() > 0)) {
 			if ( rv.size() > 1 ) {
@@ -675,6 +1066,42 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 	public List<Map<String, Object>> getThingsDao(String table, String[] model, 
 		String extraSelect, String joinClause, String search, String groupBy, String order, 
 		int first, int last, String siteId, boolean isAdminRole) 
+	{
+		return getThingsDao(table, model, extraSelect, joinClause, search, groupBy, order, 
+			first, last, null, siteId, isAdminRole);
+	}
+
+	/**
+	 * Like getThingsDao but rather than skipping over the rows of the pages
+	 * before with an offset, start after the last row of the page before.
+	 * The database can go straight to that row through an index, so a deep
+	 * page costs no more than the first one.  Rows added or removed while
+	 * paging do not shift rows from one page to another.
+	 *
+	 * @param orderField
+	 *		The column to sort on, null for the key.  It must be the key or an 
+	 *		autodate column as they are never null.
+	 * @param after
+	 *		The last row of the page before with at least orderField and the key, 
+	 *		or null for the first page
+	 * @param count
+	 *		The most rows to return
+	 */
+	public List<Map<String, Object>> getThingsAfterDao(String table, String[] model, 
+		String extraSelect, String joinClause, String search, String groupBy, 
+		String orderField, boolean descending, Map<String, Object> after, int count, 
+		String siteId, boolean isAdminRole) 
+	{
+		if ( count < 1 ) {
+			throw new IllegalArgumentException("count must be at least one");
+		}
+		return getThingsDao(table, model, extraSelect, joinClause, search, groupBy, null, 
+			0, 0, new Seek(orderField, descending, after, count), siteId, isAdminRole);
+	}
+
+	private List<Map<String, Object>> getThingsDao(String table, String[] model, 
+		String extraSelect, String joinClause, String search, String groupBy, String order, 
+		int first, int last, Seek seek, String siteId, boolean isAdminRole) 
 	{
 		if (table == null || model == null ) {
 			throw new IllegalArgumentException("table and model must be non-null");
@@ -683,6 +1110,102 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 			throw new IllegalArgumentException("siteId must be non-null for non-admins");
 		}
 
+		SqlTemplate template = getThingsTemplate(table, model, extraSelect, joinClause, search, 
+			groupBy, order, first, last, seek, isAdminRole);
+		Object fields[] = getThingsFields(template, model, seek, siteId);
+
+		M_log.debug(template.sql);
+		return getResultSet(template.sql, fields, template.columns);
+	}
+
+	// The values for the ? in a statement from getThingsTemplate
+	private Object[] getThingsFields(SqlTemplate template, String[] model, Seek seek, String siteId)
+	{
+		List<Object> fields = new ArrayList<Object>();
+		if ( template.bindSiteId ) fields.add(siteId);
+		if ( seek != null && seek.after != null ) {
+			String orderColumn = getSeekColumn(FormModel.get(model), seek);
+			Object orderValue = seek.after.get(orderColumn);
+			Object keyValue = seek.after.get(LTI_ID);
+			if ( orderValue == null || keyValue == null ) {
+				throw new IllegalArgumentException("after must have values for "+orderColumn+" and "+LTI_ID);
+			}
+			fields.addAll(Arrays.asList(foorm.getSeekValues(orderColumn, LTI_ID, orderValue, keyValue)));
+		}
+		return fields.size() > 0 ? fields.toArray() : null;
+	}
+
+	// Only columns that are never null can be paged through this way
+	private String getSeekColumn(FormModel model, Seek seek)
+	{
+		String orderColumn = seek.orderColumn == null ? LTI_ID : seek.orderColumn;
+		int i = model.indexOf(orderColumn);
+		String type = i < 0 ? null : model.getSpec(i).getType();
+		if ( ! "key".equals(type) && ! "autodate".equals(type) ) {
+			throw new IllegalArgumentException("Cannot page by "+orderColumn+" - it must be the key or an autodate");
+		}
+		if ( ! model.hasField(LTI_ID) ) {
+			throw new IllegalArgumentException("Cannot page without an "+LTI_ID+" column");
+		}
+		return orderColumn;
+	}
+
+	/**
+	 * Like getThingsDao but each row is handed to the handler as it is read
+	 * so large results never need to be held in memory at once.
+	 */
+	public void streamThingsDao(String table, String[] model, 
+		String extraSelect, String joinClause, String search, String groupBy, String order, 
+		int first, int last, String siteId, boolean isAdminRole, FoormRowHandler handler) 
+	{
+		if (table == null || model == null || handler == null ) {
+			throw new IllegalArgumentException("table, model, and handler must be non-null");
+		}
+		if (siteId == null && !isAdminRole ) {
+			throw new IllegalArgumentException("siteId must be non-null for non-admins");
+		}
+
+		SqlTemplate template = getThingsTemplate(table, model, extraSelect, joinClause, search, 
+			groupBy, order, first, last, null, isAdminRole);
+		Object fields[] = getThingsFields(template, model, null, siteId);
+
+		M_log.debug(template.sql);
+		streamResultSet(template.sql, fields, template.columns, handler);
+	}
+
+	private SqlTemplate getThingsTemplate(String table, String[] model, 
+		String extraSelect, String joinClause, String search, String groupBy, String order, 
+		int first, int last, Seek seek, boolean isAdminRole) 
+	{
+		FormModel formModel = FormModel.get(model);
+		// A search is free text so every one would be a new entry, and a model
+		// made for one call has no id to key it by - build those each time
+		if ( ( search != null && search.length() > 0 ) || formModel.getId() == 0 ) {
+			return buildThingsSql(table, formModel, extraSelect, joinClause, search, 
+				groupBy, order, first, last, seek, isAdminRole);
+		}
+		TimedCache<String, SqlTemplate> cache = getSqlCache();
+		String cacheKey = sqlCacheKey("list", table, formModel.getId(), m_sql.getVendor(), isAdminRole,
+			extraSelect, joinClause, groupBy, order, first, last);
+		if ( seek != null ) {
+			cacheKey = sqlCacheKey(cacheKey, "seek", seek.orderColumn, seek.descending, 
+				seek.after != null, seek.count);
+		}
+		SqlTemplate template = cache.get(cacheKey);
+		if ( template == null ) {
+			template = buildThingsSql(table, formModel, extraSelect, joinClause, search, 
+				groupBy, order, first, last, seek, isAdminRole);
+			cache.put(cacheKey, template);
+			M_log.debug(cache.getStatistics());
+		}
+		return template;
+	}
+
+	// Build the SELECT for getThingsDao
+	private SqlTemplate buildThingsSql(String table, FormModel model, 
+		String extraSelect, String joinClause, String search, String groupBy, String order, 
+		int first, int last, Seek seek, boolean isAdminRole) 
+	{
 		String statement = "SELECT " + foorm.formSelect(table, model, true);
 		if ( extraSelect != null ) {
 			statement += ", " + extraSelect;
@@ -691,22 +1214,18 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		if ( joinClause != null ) {
 			statement += " " + joinClause;
 		}
-		String[] columns = foorm.getFields(model);
 		String whereClause = "";
 
 		// Only admins can see invisible items and items from any site
-		Object fields[] = null;
+		boolean bindSiteId = false;
 		if ( ! isAdminRole ) {
-			if (Arrays.asList(columns).indexOf(LTI_VISIBLE) >= 0 && 
-				Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0 ) {
+			if (model.hasField(LTI_VISIBLE) && model.hasField(LTI_SITE_ID) ) {
 				whereClause = " ("+table+'.'+LTI_SITE_ID+" = ? OR "+
 					"("+table+'.'+LTI_SITE_ID+" IS NULL AND "+table+'.'+LTI_VISIBLE+" != 1 ) ) ";
-				fields = new Object[1];
-				fields[0] = siteId;
-			} else if (Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0) {
+				bindSiteId = true;
+			} else if (model.hasField(LTI_SITE_ID)) {
 				whereClause = " ("+table+'.'+LTI_SITE_ID+" = ? OR "+table+'.'+LTI_SITE_ID+" IS NULL)";
-				fields = new Object[1];
-				fields[0] = siteId;
+				bindSiteId = true;
 			}
 		}
 
@@ -718,6 +1237,23 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 			}
 		}
 
+		// A keyset page replaces the order and the offset
+		if ( seek != null ) {
+			String orderColumn = table + "." + getSeekColumn(model, seek);
+			String keyColumn = table + "." + LTI_ID;
+			if ( seek.after != null ) {
+				String seekWhere = foorm.getSeekWhere(orderColumn, keyColumn, seek.descending);
+				if ( whereClause.length() > 0 ) {
+					whereClause += " AND " + seekWhere + " ";
+				} else {
+					whereClause += " " + seekWhere + " ";
+				}
+			}
+			order = foorm.getSeekOrder(orderColumn, keyColumn, seek.descending);
+			first = 0;
+			last = seek.count - 1;
+		}
+
 		if ( whereClause.length() > 0 ) statement += " WHERE " + whereClause;
 
 		if ( groupBy != null ) {
@@ -733,14 +1269,13 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 			statement += " ORDER BY " + order;
 		}
 
-		if (last != 0) {
+		if (last != 0 || seek != null) {
 			String pagedStatement = foorm.getPagedSelect(statement, first, last,
 					m_sql.getVendor());
 			if (pagedStatement != null)
 				statement = pagedStatement;
 		}
-		M_log.debug(statement);
-		return getResultSet(statement, fields, columns);
+		return new SqlTemplate(statement, foorm.getFields(model), bindSiteId);
 	}
 
 	/**
@@ -766,10 +1301,9 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		String statement = "DELETE FROM " + table + " WHERE id = ?";
 		Object fields[] = null;
-		String[] columns = foorm.getFields(model);
 
 		// Only admins can delete by id irrespective of the current site
-		if (!isAdminRole && Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0 ) {
+		if (!isAdminRole && FormModel.get(model).hasField(LTI_SITE_ID) ) {
 			statement += " AND SITE_ID = ?";
 			fields = new Object[2];
 			fields[0] = key;
@@ -781,6 +1315,7 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		int count = m_sql.dbWriteCount(statement, fields, null, null, false);
 		M_log.debug("Count="+count+" Delete="+statement);
+		if ( count > 0 ) invalidatePlacementCache(table, key);
 		return count == 1;
 	}
 
@@ -826,40 +1361,297 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 
 		if (!isMaintainRole) return false;
 
-		HashMap<String, Object> newMapping = new HashMap<String, Object>();
+		Object row = prepareUpdate(table, formModel, fullModel, key, newProps, siteId, isAdminRole);
+		if ( row instanceof String ) return row;
+		String sql = ((BatchRow) row).sql;
+
+		// System.out.println("Upate="+sql);
+		Object[] fields = ((BatchRow) row).fields;
+		// System.out.println("Fields="+Arrays.toString(fields));
+
+		int count = m_sql.dbWriteCount(sql, fields, null, null, false);
+
+		M_log.debug("Count="+count+" Update="+sql);
+		if ( count > 0 ) invalidatePlacementCache(table, key);
+		return count == 1;
+	}
+
+	/**
+	 * Check newProps against the model and build the UPDATE for it.  The
+	 * key and SITE_ID are bound rather than part of the statement so rows
+	 * that change the same columns share one statement.
+	 *
+	 * @return Returns String (failure) or BatchRow (the statement and its fields)
+	 */
+	private Object prepareUpdate(String table, String[] formModel, String[] fullModel,
+			Long key, Object newProps, String siteId, boolean isAdminRole) 
+	{
+		Map<String, Object> newMapping = new TreeMap<String, Object>();
 
 		String errors = foorm.formExtract(newProps, formModel, rb, false, newMapping, null);
 		if (errors != null)
 			return errors;
 
-		String[] columns = null;
-		if (fullModel == null) {
-			columns = foorm.getFields(formModel);
-		} else {
-			columns = foorm.getFields(fullModel);
-		}
+		boolean hasSiteId = FormModel.get(fullModel == null ? formModel : fullModel).hasField(LTI_SITE_ID);
 
 		// Only admins can update *into* a site
-		if ( !isAdminRole && (Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0)) {
+		if ( !isAdminRole && hasSiteId ) {
 			newMapping.put(LTI_SITE_ID, siteId);
 		}
 
 		String sql = "UPDATE " + table + " SET " + foorm.updateForm(newMapping)
-			+ " WHERE id=" + key.toString();
+			+ " WHERE id=?";
+		List<Object> fields = new ArrayList<Object>(Arrays.asList(foorm.getUpdateObjects(newMapping)));
+		fields.add(key);
 
-		if ( isMaintainRole && !isAdminRole && (Arrays.asList(columns).indexOf(LTI_SITE_ID) >= 0)) {
-			sql += " AND SITE_ID = '" + siteId + "'";
-			foorm.setField(newMapping, LTI_SITE_ID, siteId);
+		if ( !isAdminRole && hasSiteId ) {
+			sql += " AND SITE_ID=?";
+			fields.add(siteId);
 		}
+		return new BatchRow(sql, fields.toArray());
+	}
 
-		// System.out.println("Upate="+sql);
-		Object[] fields = foorm.getUpdateObjects(newMapping);
-		// System.out.println("Fields="+Arrays.toString(fields));
+	/**
+	 * Keep the placement properties cached by SakaiBLTIUtil for the outcome 
+	 * and roster services in sync with the tables.  A content item only affects 
+	 * its own entry, a tool affects all of the content items that point to it.
+	 */
+	protected void invalidatePlacementCache(String table, Long key)
+	{
+		if ( "lti_content".equals(table) ) {
+			SakaiBLTIUtil.invalidatePlacementCache("content:" + key);
+		} else if ( "lti_tools".equals(table) ) {
+			SakaiBLTIUtil.clearPlacementCache();
+		}
+	}
 
-		int count = m_sql.dbWriteCount(sql, fields, null, null, false);
+	/**
+	 * Run the rows in a single transaction, as one JDBC batch for each 
+	 * distinct statement.  If any row fails the whole transaction is rolled
+	 * back, unless errors is given and the database has savepoints.
+	 *
+	 * @param keys
+	 *		True to collect the id generated for each row by an INSERT
+	 * @param errors
+	 *		Null, or one for each row to take the error of a row the database
+	 *		refuses - that row alone is rolled back and the rest are kept
+	 * @return Returns String (failure) or long[] (the id or update count of 
+	 *	each row)
+	 */
+	private Object executeBatch(List<BatchRow> rows, boolean keys, String[] errors)
+	{
+		long[] retval = new long[rows.size()];
+		if ( rows.size() < 1 ) return retval;
+
+		Map<String, List<Integer>> statements = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < rows.size(); i++) {
+			List<Integer> positions = statements.get(rows.get(i).sql);
+			if ( positions == null ) {
+				positions = new ArrayList<Integer>();
+				statements.put(rows.get(i).sql, positions);
+			}
+			positions.add(Integer.valueOf(i));
+		}
 
-		M_log.debug("Count="+count+" Update="+sql);
-		return count == 1;
+		long start = System.currentTimeMillis();
+		Connection conn = null;
+		boolean autoCommit = true;
+		try {
+			conn = m_sql.borrowConnection();
+			autoCommit = conn.getAutoCommit();
+			conn.setAutoCommit(false);
+			// Oracle will not return the ids generated by a batch
+			boolean batchKeys = ! "oracle".equals(m_sql.getVendor()) 
+				&& conn.getMetaData().supportsGetGeneratedKeys() 
+				&& conn.getMetaData().supportsSavepoints();
+			String[] rowErrors = conn.getMetaData().supportsSavepoints() ? errors : null;
+			for (Map.Entry<String, List<Integer>> statement : statements.entrySet()) {
+				executeStatement(conn, statement.getKey(), statement.getValue(), rows, 
+					keys, keys && batchKeys, retval, rowErrors);
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			M_log.warn("Batch of "+rows.size()+" rows rolled back: "+e.getMessage());
+			if ( conn != null ) {
+				try {
+					conn.rollback();
+				} catch (SQLException e2) {
+					M_log.warn("Rollback failed: "+e2.getMessage());
+				}
+			}
+			return e.getMessage();
+		} finally {
+			if ( conn != null ) {
+				try {
+					conn.setAutoCommit(autoCommit);
+				} catch (SQLException e) {
+					M_log.warn("Could not restore autocommit: "+e.getMessage());
+				}
+				m_sql.returnConnection(conn);
+			}
+		}
+		M_log.debug("Batch of "+rows.size()+" rows in "+statements.size()+" statements took "
+			+(System.currentTimeMillis() - start)+"ms");
+		return retval;
+	}
+
+	private void executeStatement(Connection conn, String sql, List<Integer> positions, 
+		List<BatchRow> rows, boolean keys, boolean batchKeys, long[] retval, String[] errors) 
+		throws SQLException
+	{
+		PreparedStatement ps = null;
+		try {
+			if ( keys ) {
+				ps = conn.prepareStatement(sql, new String[] { LTI_ID });
+			} else {
+				ps = conn.prepareStatement(sql);
+			}
+
+			if ( ! keys || batchKeys ) {
+				Savepoint savepoint = batchKeys || errors != null ? conn.setSavepoint() : null;
+				for (Integer i : positions) {
+					bindFields(ps, rows.get(i.intValue()).fields);
+					ps.addBatch();
+				}
+				int[] counts;
+				try {
+					counts = ps.executeBatch();
+				} catch (SQLException e) {
+					if ( keys || errors == null ) throw e;
+					// Go again a row at a time to find the rows that are refused
+					M_log.debug("Batch refused, retrying "+positions.size()+" rows of "+sql+": "+e.getMessage());
+					conn.rollback(savepoint);
+					ps.clearBatch();
+					executeRows(conn, ps, positions, rows, retval, errors);
+					return;
+				}
+				if ( ! keys ) {
+					for (int j = 0; j < counts.length && j < positions.size(); j++) {
+						retval[positions.get(j).intValue()] = counts[j];
+					}
+					return;
+				}
+				int found = 0;
+				ResultSet rs = ps.getGeneratedKeys();
+				try {
+					while ( found < positions.size() && rs.next() ) {
+						retval[positions.get(found++).intValue()] = rs.getLong(1);
+					}
+				} finally {
+					rs.close();
+				}
+				if ( found == positions.size() ) return;
+				// This driver only has the last id - go again a row at a time
+				M_log.debug("Only "+found+" ids for "+positions.size()+" rows from "+sql);
+				conn.rollback(savepoint);
+			}
+
+			for (Integer i : positions) {
+				bindFields(ps, rows.get(i.intValue()).fields);
+				ps.executeUpdate();
+				ResultSet rs = ps.getGeneratedKeys();
+				try {
+					if ( ! rs.next() ) throw new SQLException("No id was generated by "+sql);
+					retval[i.intValue()] = rs.getLong(1);
+				} finally {
+					rs.close();
+				}
+			}
+		} finally {
+			if ( ps != null ) ps.close();
+		}
+	}
+
+	// Each row in a savepoint of its own so one that is refused leaves the rest
+	private void executeRows(Connection conn, PreparedStatement ps, List<Integer> positions, 
+		List<BatchRow> rows, long[] retval, String[] errors) throws SQLException
+	{
+		for (Integer i : positions) {
+			Savepoint savepoint = conn.setSavepoint();
+			bindFields(ps, rows.get(i.intValue()).fields);
+			try {
+				retval[i.intValue()] = ps.executeUpdate();
+			} catch (SQLException e) {
+				conn.rollback(savepoint);
+				errors[i.intValue()] = e.getMessage();
+				M_log.warn("Row "+i+" of batch refused: "+e.getMessage());
+			}
+		}
+	}
+
+	// The same binding SqlService uses for the fields of dbInsert and dbWrite
+	private static void bindFields(PreparedStatement ps, Object[] fields) throws SQLException
+	{
+		for (int i = 0; i < fields.length; i++) {
+			if ( fields[i] == null ) {
+				ps.setNull(i + 1, Types.VARCHAR);
+			} else {
+				ps.setObject(i + 1, fields[i]);
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * {@inheritDoc}
+	 * 
+	 * @see org.sakaiproject.lti.api.LTIService#exportTable(java.lang.String, java.io.Writer)
+	 */
+	public long exportTable(String table, Writer out) throws IOException, PermissionException {
+		checkBulkTransfer("export", table);
+		return exportTableDao(table, out, new LTIBulkTransfer.LogProgress(BULK_LOG_EVERY));
+	}
+
+	/**
+	 * 
+	 * {@inheritDoc}
+	 * 
+	 * @see org.sakaiproject.lti.api.LTIService#importTable(java.lang.String, java.io.BufferedReader)
+	 */
+	public long importTable(String table, BufferedReader in) throws IOException, PermissionException {
+		checkBulkTransfer("import", table);
+		LTIBulkTransfer.Result result = importTableDao(table, in, new LTIBulkTransfer.LogProgress(BULK_LOG_EVERY));
+		return result.getInserted();
+	}
+
+	// Moving whole tables ignores sites, so it is only for the admin site
+	private void checkBulkTransfer(String operation, String table) throws PermissionException {
+		if ( isAdmin() ) return;
+		String userId = m_sessionManager == null ? null : m_sessionManager.getCurrentSessionUserId();
+		M_log.warn("Refused "+operation+" of "+table+" for "+userId);
+		throw new PermissionException(userId, "basiclti."+operation, table);
+	}
+
+	/**
+	 * Write the whole of lti_tools, lti_content, lti_deploy or lti_binding
+	 * to out in the LTIBulkFormat.  For administrators only - no site or
+	 * role checks are made.
+	 *
+	 * @return the number of rows written
+	 */
+	public long exportTableDao(String table, Writer out, LTIBulkTransfer.Progress progress) throws IOException {
+		return getBulkTransfer().exportTable(table, out, progress);
+	}
+
+	/**
+	 * Load rows written by exportTableDao, keeping their ids.  For
+	 * administrators only - no site or role checks are made.
+	 */
+	public LTIBulkTransfer.Result importTableDao(String table, BufferedReader in, 
+			LTIBulkTransfer.Progress progress) throws IOException {
+		LTIBulkTransfer.Result result = getBulkTransfer().importTable(table, in, progress);
+		// The rows went in without going through updateThingDao
+		if ( result.getInserted() > 0 ) SakaiBLTIUtil.clearPlacementCache();
+		if ( result.getInserted() > 0 && "oracle".equals(m_sql.getVendor()) ) {
+			M_log.warn("Rows were loaded into "+table+" with their ids - make sure "+
+				foorm.getSqlSequence(table, LTI_ID, m_sql.getVendor())+" is past the largest id");
+		}
+		return result;
+	}
+
+	private LTIBulkTransfer getBulkTransfer() {
+		int batchSize = ServerConfigurationService.getInt(BULK_BATCH_SIZE, BULK_BATCH_SIZE_DEFAULT);
+		return new LTIBulkTransfer(jdbcTemplate, m_sql.getVendor(), foorm, batchSize);
 	}
 
 	/*-- Straight-up API methods ------------------------*/
@@ -927,6 +1719,19 @@ public class DBLTIService extends BaseLTIService implements LTIService {
 		return (List<Map<String, Object>>) rv;
 	}
 
+	// Utility to walk a resultset a row at a time
+	public void streamResultSet(String statement, Object[] fields,
+			final String[] columns, final FoormRowHandler handler) {
+		final FoormMapRowMapper mapper = new FoormMapRowMapper(columns);
+		jdbcTemplate.query(statement, fields, new RowCallbackHandler() {
+			private int rowNum = 0;
+
+			public void processRow(ResultSet rs) throws SQLException {
+				handler.processRow(mapper.mapRow(rs, rowNum++));
+			}
+		});
+	}
+
 
 
 }
@@ -1,23 +1,42 @@
-
 package org.sakaiproject.lti.impl;
 
-import java.util.Map;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
 import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import org.springframework.jdbc.core.ColumnMapRowMapper;
 import org.springframework.jdbc.support.JdbcUtils;
-import org.springframework.util.LinkedCaseInsensitiveMap;
 
 /**
  * Override some methods in the ColumnMapRowMapper so the columns end
  * up with the case we expect.
+ * <p>
+ * The column keys are worked out from the ResultSetMetaData once, on
+ * the first row, and every row shares them in a FoormRowMap - so use a
+ * new mapper for each query.
  */
 public class FoormMapRowMapper extends ColumnMapRowMapper {
 
 	String [] columns = null;
 
+	// Lower case column name to the model column name
+	private HashMap<String, String> columnKeys = null;
+
+	// Resolved on the first row
+	private FoormRowMap.Index index = null;
+	private int [] positions = null;
+
 	public FoormMapRowMapper(String [] columns ) {
 		this.columns = columns;
+		columnKeys = new HashMap<String, String>(columns.length * 2);
+		for (String s : columns ) {
+			String lower = s.toLowerCase(Locale.ENGLISH);
+			// First match wins, as it did with the linear scan
+			if ( ! columnKeys.containsKey(lower) ) columnKeys.put(lower, s);
+		}
 	}
 
 	@SuppressWarnings("unchecked")
@@ -32,10 +51,42 @@ public class FoormMapRowMapper extends ColumnMapRowMapper {
 	 * @see java.sql.ResultSetMetaData#getColumnName
 	 */
 	protected String getColumnKey(String columnName) {
-		for (String s : columns ) {
-			if ( s.equalsIgnoreCase(columnName) ) return s;
-		}
+		String key = columnKeys.get(columnName.toLowerCase(Locale.ENGLISH));
+		if ( key != null ) return key;
 		// Probably something ancilarry like RNUM
 		return columnName;
 	}
+
+	public Map<String, Object> mapRow(ResultSet rs, int rowNum) throws SQLException {
+		if ( index == null ) resolve(rs.getMetaData());
+		FoormRowMap row = new FoormRowMap(index);
+		for (int i = 0; i < positions.length; i++) {
+			row.setValue(positions[i], getColumnValue(rs, i + 1));
+		}
+		return row;
+	}
+
+	// Work out the key for each column - if a key appears twice the
+	// later column wins, as it would with a HashMap
+	private void resolve(ResultSetMetaData rsmd) throws SQLException {
+		int columnCount = rsmd.getColumnCount();
+		HashMap<String, Integer> seen = new HashMap<String, Integer>(columnCount * 2);
+		String [] keys = new String[columnCount];
+		int [] pos = new int[columnCount];
+		int count = 0;
+		for (int i = 1; i <= columnCount; i++) {
+			String key = getColumnKey(JdbcUtils.lookupColumnName(rsmd, i));
+			Integer slot = seen.get(key);
+			if ( slot == null ) {
+				slot = Integer.valueOf(count);
+				keys[count++] = key;
+				seen.put(key, slot);
+			}
+			pos[i - 1] = slot.intValue();
+		}
+		String [] used = new String[count];
+		System.arraycopy(keys, 0, used, 0, count);
+		index = new FoormRowMap.Index(used);
+		positions = pos;
+	}
 }
@@ -0,0 +1,12 @@
+package org.sakaiproject.lti.impl;
+
+import java.util.Map;
+
+/**
+ * Called for each row when a query is streamed rather than returned
+ * as a List.  The row belongs to the handler once it is handed over.
+ */
+public interface FoormRowHandler {
+
+	void processRow(Map<String, Object> row);
+}
@@ -0,0 +1,233 @@
+package org.sakaiproject.lti.impl;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A row from a Foorm query.  The values are held in an array and all of the
+ * rows from one query share a single key index, so a row costs little more
+ * than its values.
+ * <p>
+ * Callers are free to treat this as an ordinary mutable Map - keys that
+ * are not columns in the query go into a small overflow map.
+ */
+public class FoormRowMap extends AbstractMap<String, Object> implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	// Marks a column that has been removed from the row - it has to stay the
+	// one instance when a row is serialized, as it is compared with ==
+	private static final class Absent implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private Object readResolve() {
+			return ABSENT;
+		}
+
+		public String toString() {
+			return "ABSENT";
+		}
+	}
+
+	private static final Absent ABSENT = new Absent();
+
+	/**
+	 * The column names of a query and where they are in the value array
+	 */
+	public static class Index implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		final String[] keys;
+		final HashMap<String, Integer> positions;
+
+		public Index(String[] keys) {
+			this.keys = keys;
+			positions = new HashMap<String, Integer>(keys.length * 2);
+			for (int i = 0; i < keys.length; i++) {
+				positions.put(keys[i], Integer.valueOf(i));
+			}
+		}
+
+		public int size() {
+			return keys.length;
+		}
+
+		public int indexOf(Object key) {
+			Integer i = positions.get(key);
+			return i == null ? -1 : i.intValue();
+		}
+	}
+
+	private final Index index;
+	private final Object[] values;
+	private int present;
+	private HashMap<String, Object> extra = null;
+
+	public FoormRowMap(Index index) {
+		this.index = index;
+		this.values = new Object[index.size()];
+		this.present = values.length;
+	}
+
+	/**
+	 * Set a column value by position - used when the row is loaded
+	 */
+	public void setValue(int i, Object value) {
+		if (values[i] == ABSENT) present++;
+		values[i] = value;
+	}
+
+	public int size() {
+		return present + (extra == null ? 0 : extra.size());
+	}
+
+	public boolean containsKey(Object key) {
+		int i = index.indexOf(key);
+		if (i >= 0) return values[i] != ABSENT;
+		return extra != null && extra.containsKey(key);
+	}
+
+	public Object get(Object key) {
+		int i = index.indexOf(key);
+		if (i >= 0) {
+			Object value = values[i];
+			return value == ABSENT ? null : value;
+		}
+		return extra == null ? null : extra.get(key);
+	}
+
+	public Object put(String key, Object value) {
+		int i = index.indexOf(key);
+		if (i >= 0) {
+			Object old = values[i];
+			values[i] = value;
+			if (old == ABSENT) {
+				present++;
+				return null;
+			}
+			return old;
+		}
+		if (extra == null) extra = new HashMap<String, Object>();
+		return extra.put(key, value);
+	}
+
+	public Object remove(Object key) {
+		int i = index.indexOf(key);
+		if (i >= 0) {
+			Object old = values[i];
+			if (old == ABSENT) return null;
+			values[i] = ABSENT;
+			present--;
+			return old;
+		}
+		return extra == null ? null : extra.remove(key);
+	}
+
+	public void clear() {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = ABSENT;
+		}
+		present = 0;
+		extra = null;
+	}
+
+	public Set<Map.Entry<String, Object>> entrySet() {
+		return new AbstractSet<Map.Entry<String, Object>>() {
+			public int size() {
+				return FoormRowMap.this.size();
+			}
+
+			public Iterator<Map.Entry<String, Object>> iterator() {
+				return new EntryIterator();
+			}
+		};
+	}
+
+	private class Entry implements Map.Entry<String, Object> {
+		private final int i;
+
+		Entry(int i) {
+			this.i = i;
+		}
+
+		public String getKey() {
+			return index.keys[i];
+		}
+
+		public Object getValue() {
+			Object value = values[i];
+			return value == ABSENT ? null : value;
+		}
+
+		public Object setValue(Object value) {
+			Object old = getValue();
+			values[i] = value;
+			return old;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Map.Entry)) return false;
+			Map.Entry<?, ?> e = (Map.Entry<?, ?>) o;
+			Object value = getValue();
+			return getKey().equals(e.getKey()) &&
+				(value == null ? e.getValue() == null : value.equals(e.getValue()));
+		}
+
+		public int hashCode() {
+			Object value = getValue();
+			return getKey().hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+
+		public String toString() {
+			return getKey() + "=" + getValue();
+		}
+	}
+
+	// Walks the columns that are present and then the overflow map
+	private class EntryIterator implements Iterator<Map.Entry<String, Object>> {
+		private int next = 0;
+		private int last = -1;
+		private Iterator<Map.Entry<String, Object>> extraIterator = null;
+
+		private void skipAbsent() {
+			while (next < values.length && values[next] == ABSENT) next++;
+		}
+
+		public boolean hasNext() {
+			skipAbsent();
+			if (next < values.length) return true;
+			if (extra == null) return false;
+			if (extraIterator == null) extraIterator = extra.entrySet().iterator();
+			return extraIterator.hasNext();
+		}
+
+		public Map.Entry<String, Object> next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			if (next < values.length) {
+				last = next++;
+				return new Entry(last);
+			}
+			last = -1;
+			return extraIterator.next();
+		}
+
+		public void remove() {
+			if (last >= 0) {
+				if (values[last] == ABSENT) throw new IllegalStateException();
+				values[last] = ABSENT;
+				present--;
+			} else if (extraIterator != null) {
+				extraIterator.remove();
+			} else {
+				throw new IllegalStateException();
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.lti.impl;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sakaiproject.util.foorm.FieldSpec;
+import org.sakaiproject.util.foorm.FormModel;
+
+/**
+ * The line format used to move whole lti_ tables between servers.
+ * <p>
+ * The first line names the table and its columns, each row is one line
+ * of tab separated values and the last line gives the number of rows so
+ * a truncated file can be spotted:
+ * <pre>
+ * #lti_tools	id	SITE_ID	title	...	created_at
+ * 1	\N	A Tool	...	1396450800000
+ * #end	1
+ * </pre>
+ * Numbers are written in decimal, dates as milliseconds since the epoch
+ * and everything else as text with backslash, tab, newline and carriage
+ * return escaped as \\, \t, \n and \r.  A null is \N.  Columns are
+ * matched by name when a file is read, so a file written before a column
+ * was added can still be loaded.
+ */
+public class LTIBulkFormat {
+
+	public static final String NULL = "\\N";
+	public static final String END = "#end";
+
+	private static final int NUMBER = 0;
+	private static final int DATE = 1;
+	private static final int TEXT = 2;
+
+	private final String table;
+	private final String[] columns;
+	private final int[] kinds;
+	private final Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+
+	public LTIBulkFormat(String table, FormModel model) {
+		this.table = table;
+		List<String> names = new ArrayList<String>();
+		List<Integer> kindList = new ArrayList<Integer>();
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec spec = model.getSpec(i);
+			String type = spec.getType();
+			if ( spec.getField() == null || type == null ) {
+				throw new IllegalArgumentException("All model elements must include field name and type");
+			}
+			if ( "header".equals(type) ) continue;
+			if ( columnIndex.containsKey(spec.getField()) ) continue;
+			columnIndex.put(spec.getField(), Integer.valueOf(names.size()));
+			names.add(spec.getField());
+			if ( "key".equals(type) || "integer".equals(type) || "radio".equals(type) || "checkbox".equals(type) ) {
+				kindList.add(Integer.valueOf(NUMBER));
+			} else if ( "autodate".equals(type) ) {
+				kindList.add(Integer.valueOf(DATE));
+			} else {
+				kindList.add(Integer.valueOf(TEXT));
+			}
+		}
+		columns = names.toArray(new String[names.size()]);
+		kinds = new int[columns.length];
+		for (int i = 0; i < kinds.length; i++) kinds[i] = kindList.get(i).intValue();
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	/**
+	 * The columns in the order values are passed to writeRow() and
+	 * returned by parseRow()
+	 */
+	public String[] getColumns() {
+		return columns.clone();
+	}
+
+	public int indexOf(String column) {
+		Integer i = columnIndex.get(column);
+		return i == null ? -1 : i.intValue();
+	}
+
+	public boolean isNumber(int column) {
+		return kinds[column] == NUMBER;
+	}
+
+	public boolean isDate(int column) {
+		return kinds[column] == DATE;
+	}
+
+	/**
+	 * The java.sql.Types value used to bind a null in this column
+	 */
+	public int getSqlType(int column) {
+		if ( kinds[column] == NUMBER ) return Types.INTEGER;
+		if ( kinds[column] == DATE ) return Types.TIMESTAMP;
+		return Types.VARCHAR;
+	}
+
+	public void writeHeader(Writer out) throws IOException {
+		out.write('#');
+		out.write(table);
+		for (String column : columns) {
+			out.write('\t');
+			out.write(column);
+		}
+		out.write('\n');
+	}
+
+	/**
+	 * Write one row, values are in the order of getColumns()
+	 */
+	public void writeRow(Writer out, Object[] values) throws IOException {
+		for (int i = 0; i < columns.length; i++) {
+			if ( i > 0 ) out.write('\t');
+			Object value = values[i];
+			if ( value == null ) {
+				out.write(NULL);
+			} else if ( kinds[i] == NUMBER && value instanceof Number ) {
+				out.write(Long.toString(((Number) value).longValue()));
+			} else if ( kinds[i] == DATE && value instanceof Date ) {
+				out.write(Long.toString(((Date) value).getTime()));
+			} else {
+				writeEscaped(out, value.toString());
+			}
+		}
+		out.write('\n');
+	}
+
+	public void writeTrailer(Writer out, long rows) throws IOException {
+		out.write(END);
+		out.write('\t');
+		out.write(Long.toString(rows));
+		out.write('\n');
+	}
+
+	/**
+	 * Match the columns named in a header line to ours.
+	 *
+	 * @return for each column in the file, the position of that column in
+	 * getColumns() or -1 if we do not have it
+	 * @throws IllegalArgumentException if this is not a header for our table
+	 */
+	public int[] parseHeader(String line) {
+		if ( line == null || ! line.startsWith("#") ) {
+			throw new IllegalArgumentException("Missing header line for "+table);
+		}
+		String[] names = split(line.substring(1));
+		if ( ! table.equals(names[0]) ) {
+			throw new IllegalArgumentException("Expected data for "+table+" found "+names[0]);
+		}
+		int[] positions = new int[names.length - 1];
+		for (int i = 1; i < names.length; i++) {
+			positions[i - 1] = indexOf(names[i]);
+		}
+		return positions;
+	}
+
+	/**
+	 * @return the row count from a trailer line or -1 if this is not one
+	 */
+	public static long parseTrailer(String line) {
+		if ( line == null || ! line.startsWith(END + "\t") ) return -1;
+		try {
+			return Long.parseLong(line.substring(END.length() + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Read a row written with the header given to parseHeader().
+	 *
+	 * @return the values in the order of getColumns() - a column that is
+	 * not in the file is null
+	 * @throws IllegalArgumentException if the line does not have one value
+	 * per column or a value is not of the right type
+	 */
+	public Object[] parseRow(String line, int[] positions) {
+		Object[] values = new Object[columns.length];
+		int field = 0;
+		int start = 0;
+		int length = line.length();
+		while ( true ) {
+			int end = line.indexOf('\t', start);
+			if ( end < 0 ) end = length;
+			if ( field >= positions.length ) {
+				throw new IllegalArgumentException("Expected "+positions.length+" values");
+			}
+			int column = positions[field];
+			if ( column >= 0 ) values[column] = parseValue(line, start, end, column);
+			field++;
+			if ( end == length ) break;
+			start = end + 1;
+		}
+		if ( field != positions.length ) {
+			throw new IllegalArgumentException("Expected "+positions.length+" values found "+field);
+		}
+		return values;
+	}
+
+	private Object parseValue(String line, int start, int end, int column) {
+		if ( end - start == 2 && line.startsWith(NULL, start) ) return null;
+		String text = line.substring(start, end);
+		if ( kinds[column] == TEXT ) return unescape(text);
+		try {
+			long value = Long.parseLong(text);
+			if ( kinds[column] == DATE ) return new Timestamp(value);
+			return Long.valueOf(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid value for "+columns[column]+": "+text);
+		}
+	}
+
+	private static String[] split(String line) {
+		List<String> parts = new ArrayList<String>();
+		int start = 0;
+		while ( true ) {
+			int end = line.indexOf('\t', start);
+			if ( end < 0 ) {
+				parts.add(line.substring(start));
+				break;
+			}
+			parts.add(line.substring(start, end));
+			start = end + 1;
+		}
+		return parts.toArray(new String[parts.size()]);
+	}
+
+	private static void writeEscaped(Writer out, String value) throws IOException {
+		int length = value.length();
+		int from = 0;
+		for (int i = 0; i < length; i++) {
+			char c = value.charAt(i);
+			char escape;
+			if ( c == '\\' ) escape = '\\';
+			else if ( c == '\t' ) escape = 't';
+			else if ( c == '\n' ) escape = 'n';
+			else if ( c == '\r' ) escape = 'r';
+			else continue;
+			out.write(value, from, i - from);
+			out.write('\\');
+			out.write(escape);
+			from = i + 1;
+		}
+		out.write(value, from, length - from);
+	}
+
+	private static String unescape(String text) {
+		if ( text.indexOf('\\') < 0 ) return text;
+		StringBuilder sb = new StringBuilder(text.length());
+		int length = text.length();
+		for (int i = 0; i < length; i++) {
+			char c = text.charAt(i);
+			if ( c != '\\' || i + 1 == length ) {
+				sb.append(c);
+				continue;
+			}
+			char next = text.charAt(++i);
+			if ( next == 't' ) sb.append('\t');
+			else if ( next == 'n' ) sb.append('\n');
+			else if ( next == 'r' ) sb.append('\r');
+			else sb.append(next);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,395 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.lti.impl;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.sakaiproject.lti.api.LTIService;
+import org.sakaiproject.util.foorm.Foorm;
+import org.sakaiproject.util.foorm.FormModel;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
+
+/**
+ * Copies whole lti_tools, lti_content, lti_deploy and lti_binding tables
+ * to and from the LTIBulkFormat.
+ * <p>
+ * An export reads the table a page at a time in id order, each page
+ * starting after the last id of the one before, so it never holds more
+ * than a page and never has to skip rows with an OFFSET.  An import
+ * sends the rows to the database as JDBC batches.  Ids are kept so the
+ * tool_id references between tables still line up - load lti_tools
+ * before the tables that point to it, into a server that does not
+ * already have rows with those ids.
+ * <p>
+ * Nothing here checks who is asking - this is for administrators only.
+ */
+public class LTIBulkTransfer {
+
+	private static Log M_log = LogFactory.getLog(LTIBulkTransfer.class);
+
+	public static final int DEFAULT_BATCH_SIZE = 500;
+
+	/**
+	 * Told how an export or import is going.
+	 */
+	public interface Progress {
+		/**
+		 * Called after each page or batch with the rows done so far
+		 */
+		void progress(String table, long rows, long failed);
+
+		/**
+		 * Called for each line that could not be read or inserted
+		 */
+		void failed(String table, long line, String message);
+	}
+
+	/**
+	 * Logs progress every so many rows and every failure
+	 */
+	public static class LogProgress implements Progress {
+		private final long every;
+		private long next;
+
+		public LogProgress(long every) {
+			this.every = every;
+			this.next = every;
+		}
+
+		public void progress(String table, long rows, long failed) {
+			if ( rows < next ) return;
+			M_log.info(table+": "+rows+" rows, "+failed+" failed");
+			next = rows + every;
+		}
+
+		public void failed(String table, long line, String message) {
+			M_log.warn(table+" line "+line+": "+message);
+		}
+	}
+
+	/**
+	 * The totals from an import
+	 */
+	public static class Result {
+		private long rows = 0;
+		private long inserted = 0;
+		private long failed = 0;
+		private boolean complete = false;
+
+		/**
+		 * Rows read from the file, including any that failed
+		 */
+		public long getRows() {
+			return rows;
+		}
+
+		public long getInserted() {
+			return inserted;
+		}
+
+		public long getFailed() {
+			return failed;
+		}
+
+		/**
+		 * True if the file ended with a trailer that matched the rows read
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		public String toString() {
+			return "rows="+rows+" inserted="+inserted+" failed="+failed+" complete="+complete;
+		}
+	}
+
+	// Lets an IOException out of a RowCallbackHandler
+	private static class WriteFailure extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+
+		WriteFailure(IOException e) {
+			super(e);
+		}
+	}
+
+	private final JdbcTemplate jdbcTemplate;
+	private final String vendor;
+	private final Foorm foorm;
+	private final int batchSize;
+
+	public LTIBulkTransfer(JdbcTemplate jdbcTemplate, String vendor, Foorm foorm, int batchSize) {
+		this.jdbcTemplate = jdbcTemplate;
+		this.vendor = vendor;
+		this.foorm = foorm;
+		this.batchSize = batchSize > 0 ? batchSize : DEFAULT_BATCH_SIZE;
+	}
+
+	/**
+	 * The model for one of the tables that can be moved
+	 */
+	public static String[] getModel(String table) {
+		if ( "lti_tools".equals(table) ) return LTIService.TOOL_MODEL;
+		if ( "lti_content".equals(table) ) return LTIService.CONTENT_MODEL;
+		if ( "lti_deploy".equals(table) ) return LTIService.DEPLOY_MODEL;
+		if ( "lti_binding".equals(table) ) return LTIService.BINDING_MODEL;
+		throw new IllegalArgumentException("Cannot transfer table "+table);
+	}
+
+	/**
+	 * Write every row of the table to out.
+	 *
+	 * @return the number of rows written
+	 */
+	public long exportTable(String table, final Writer out, Progress progress) throws IOException {
+		final LTIBulkFormat format = new LTIBulkFormat(table, FormModel.get(getModel(table)));
+		final String[] columns = format.getColumns();
+
+		StringBuffer select = new StringBuffer("SELECT ");
+		for (int i = 0; i < columns.length; i++) {
+			if ( i > 0 ) select.append(", ");
+			select.append(columns[i]);
+		}
+		select.append(" FROM ").append(table).append(" WHERE ").append(LTIService.LTI_ID)
+			.append(" > ? ORDER BY ").append(LTIService.LTI_ID);
+		String statement = foorm.getPagedSelect(select.toString(), 0, batchSize - 1, vendor);
+		boolean paged = statement != null;
+		if ( ! paged ) statement = select.toString();
+		M_log.debug(statement);
+
+		format.writeHeader(out);
+		long total = 0;
+		// Ids start at one, or zero in hsqldb
+		long lastId = -1;
+		// Rows in this page and the last id seen
+		final long[] page = new long[2];
+		final int idColumn = format.indexOf(LTIService.LTI_ID);
+		long start = System.currentTimeMillis();
+		while ( true ) {
+			page[0] = 0;
+			try {
+				jdbcTemplate.query(statement, new Object[] { Long.valueOf(lastId) }, new RowCallbackHandler() {
+					public void processRow(ResultSet rs) throws SQLException {
+						Object[] values = new Object[columns.length];
+						for (int i = 0; i < columns.length; i++) {
+							values[i] = readValue(rs, i + 1, format, i);
+						}
+						try {
+							format.writeRow(out, values);
+						} catch (IOException e) {
+							throw new WriteFailure(e);
+						}
+						page[0]++;
+						page[1] = ((Number) values[idColumn]).longValue();
+					}
+				});
+			} catch (WriteFailure e) {
+				throw (IOException) e.getCause();
+			}
+			total += page[0];
+			if ( progress != null ) progress.progress(table, total, 0);
+			if ( ! paged || page[0] < batchSize ) break;
+			lastId = page[1];
+		}
+		format.writeTrailer(out, total);
+		out.flush();
+		M_log.info("Exported "+total+" rows from "+table+" in "+(System.currentTimeMillis() - start)+"ms");
+		return total;
+	}
+
+	/**
+	 * Insert the rows in a file written by exportTable().
+	 */
+	public Result importTable(String table, BufferedReader in, Progress progress) throws IOException {
+		LTIBulkFormat format = new LTIBulkFormat(table, FormModel.get(getModel(table)));
+		String[] columns = format.getColumns();
+		int[] positions;
+		try {
+			positions = format.parseHeader(in.readLine());
+		} catch (IllegalArgumentException e) {
+			throw new IOException(e.getMessage());
+		}
+
+		StringBuffer insert = new StringBuffer("INSERT INTO ").append(table).append(" ( ");
+		StringBuffer qmarks = new StringBuffer();
+		for (int i = 0; i < columns.length; i++) {
+			if ( i > 0 ) {
+				insert.append(", ");
+				qmarks.append(", ");
+			}
+			insert.append(columns[i]);
+			qmarks.append('?');
+		}
+		String statement = insert.append(" ) VALUES ( ").append(qmarks).append(" )").toString();
+		M_log.debug(statement);
+
+		Result result = new Result();
+		List<Object[]> batch = new ArrayList<Object[]>(batchSize);
+		List<Long> lines = new ArrayList<Long>(batchSize);
+		long lineNumber = 1;
+		long expected = -1;
+		long start = System.currentTimeMillis();
+		String line;
+		while ( (line = in.readLine()) != null ) {
+			lineNumber++;
+			if ( line.length() == 0 ) continue;
+			expected = LTIBulkFormat.parseTrailer(line);
+			if ( expected >= 0 ) break;
+			result.rows++;
+			try {
+				Object[] values = format.parseRow(line, positions);
+				fillDates(format, values);
+				batch.add(values);
+				lines.add(Long.valueOf(lineNumber));
+			} catch (IllegalArgumentException e) {
+				result.failed++;
+				if ( progress != null ) progress.failed(table, lineNumber, e.getMessage());
+			}
+			if ( batch.size() >= batchSize ) {
+				insertBatch(table, statement, format, batch, lines, result, progress);
+				if ( progress != null ) progress.progress(table, result.rows, result.failed);
+			}
+		}
+		insertBatch(table, statement, format, batch, lines, result, progress);
+		if ( progress != null ) progress.progress(table, result.rows, result.failed);
+
+		if ( expected < 0 ) {
+			M_log.warn("No "+LTIBulkFormat.END+" line in the "+table+" data - it may be incomplete");
+		} else if ( expected != result.rows ) {
+			M_log.warn("The "+table+" data should have "+expected+" rows but has "+result.rows);
+		} else {
+			result.complete = true;
+		}
+		M_log.info("Imported "+table+" "+result+" in "+(System.currentTimeMillis() - start)+"ms");
+		return result;
+	}
+
+	// A row from an older file may not have the dates, which cannot be null
+	private static void fillDates(LTIBulkFormat format, Object[] values) {
+		Timestamp now = null;
+		for (int i = 0; i < values.length; i++) {
+			if ( values[i] != null || ! format.isDate(i) ) continue;
+			if ( now == null ) now = new Timestamp(System.currentTimeMillis());
+			values[i] = now;
+		}
+	}
+
+	private void insertBatch(String table, String statement, final LTIBulkFormat format,
+		final List<Object[]> batch, List<Long> lines, Result result, Progress progress) {
+		if ( batch.size() < 1 ) return;
+		int done = 0;
+		try {
+			jdbcTemplate.batchUpdate(statement, new BatchPreparedStatementSetter() {
+				public void setValues(PreparedStatement ps, int i) throws SQLException {
+					bind(ps, format, batch.get(i));
+				}
+
+				public int getBatchSize() {
+					return batch.size();
+				}
+			});
+			result.inserted += batch.size();
+			done = batch.size();
+		} catch (DataAccessException e) {
+			// Some drivers carry on past a bad row and some stop - count
+			// what the driver says went in and retry the rest one by one
+			BatchUpdateException bue = findBatchUpdateException(e);
+			int[] counts = bue == null ? null : bue.getUpdateCounts();
+			if ( counts != null ) {
+				for (int i = 0; i < counts.length && i < batch.size(); i++) {
+					if ( counts[i] == Statement.EXECUTE_FAILED ) {
+						result.failed++;
+						if ( progress != null ) progress.failed(table, lines.get(i).longValue(), bue.getMessage());
+					} else {
+						result.inserted++;
+					}
+				}
+				done = Math.min(counts.length, batch.size());
+			}
+		}
+
+		for (int i = done; i < batch.size(); i++) {
+			final Object[] values = batch.get(i);
+			try {
+				jdbcTemplate.update(statement, new PreparedStatementSetter() {
+					public void setValues(PreparedStatement ps) throws SQLException {
+						bind(ps, format, values);
+					}
+				});
+				result.inserted++;
+			} catch (DataAccessException e) {
+				result.failed++;
+				if ( progress != null ) progress.failed(table, lines.get(i).longValue(), e.getMostSpecificCause().getMessage());
+			}
+		}
+		batch.clear();
+		lines.clear();
+	}
+
+	private static BatchUpdateException findBatchUpdateException(Throwable t) {
+		while ( t != null ) {
+			if ( t instanceof BatchUpdateException ) return (BatchUpdateException) t;
+			if ( t.getCause() == t ) break;
+			t = t.getCause();
+		}
+		return null;
+	}
+
+	private static void bind(PreparedStatement ps, LTIBulkFormat format, Object[] values) throws SQLException {
+		for (int i = 0; i < values.length; i++) {
+			Object value = values[i];
+			if ( value == null ) {
+				ps.setNull(i + 1, format.getSqlType(i));
+			} else if ( value instanceof Long ) {
+				ps.setLong(i + 1, ((Long) value).longValue());
+			} else if ( value instanceof Timestamp ) {
+				ps.setTimestamp(i + 1, (Timestamp) value);
+			} else {
+				ps.setString(i + 1, value.toString());
+			}
+		}
+	}
+
+	private static Object readValue(ResultSet rs, int position, LTIBulkFormat format, int column) throws SQLException {
+		if ( format.isNumber(column) ) {
+			long value = rs.getLong(position);
+			return rs.wasNull() ? null : Long.valueOf(value);
+		}
+		if ( format.isDate(column) ) return rs.getTimestamp(position);
+		return rs.getString(position);
+	}
+}
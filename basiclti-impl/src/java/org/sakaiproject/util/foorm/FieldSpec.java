@@ -0,0 +1,135 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *		   http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util.foorm;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The parsed, immutable form of a single Foorm field description such as
+ * <code>title:text:label=bl_title:required=true:maxlength=255</code>.
+ * <p>
+ * Field descriptions are parsed once and shared - use get() rather than
+ * parsing the same line over and over.
+ */
+public final class FieldSpec {
+
+	private static Log M_log = LogFactory.getLog(FieldSpec.class);
+
+	// Model lines are almost all constants so this stays small - the limit
+	// is only there in case someone feeds us generated lines.  Keyed by the
+	// text of the line, so the lines of a filtered model share the entries
+	// of the model they came from.
+	private static final int MAX_INTERNED = 2000;
+	private static final ConcurrentMap<String, FieldSpec> interned = new ConcurrentHashMap<String, FieldSpec>();
+
+	private final String line;
+	private final String field;
+	private final String type;
+	private final Map<String, String> info;
+
+	private FieldSpec(String line, Map<String, String> info) {
+		this.line = line;
+		this.info = Collections.unmodifiableMap(info);
+		this.field = info.get("field");
+		this.type = info.get("type");
+	}
+
+	/**
+	 * Parse a field description - field:type:key=value:key2=value2
+	 */
+	public static FieldSpec parse(String line) {
+		Map<String, String> op = new HashMap<String, String>();
+		String[] pairs = line.split(":");
+		int i = 0;
+		for (String s : pairs) {
+			String[] kv = s.split("=");
+			if (kv.length == 2) {
+				op.put(kv[0], kv[1]);
+			} else if (kv.length == 1 && i < Foorm.positional.length) {
+				op.put(Foorm.positional[i++], kv[0]);
+			} else {
+				M_log.warn("Ignoring '" + s + "' in field description " + line);
+			}
+		}
+		return new FieldSpec(line, op);
+	}
+
+	/**
+	 * Return the shared parsed form of a field description
+	 */
+	public static FieldSpec get(String line) {
+		FieldSpec spec = interned.get(line);
+		if (spec != null) return spec;
+		spec = parse(line);
+		// The size is only a rough limit - a few over does no harm
+		if (interned.size() < MAX_INTERNED) {
+			FieldSpec other = interned.putIfAbsent(line, spec);
+			if (other != null) return other;
+		}
+		return spec;
+	}
+
+	/**
+	 * The original field description
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	public String getField() {
+		return field;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public String getProperty(String key) {
+		return info.get(key);
+	}
+
+	public String getProperty(String key, String defaultValue) {
+		String value = info.get(key);
+		return value == null ? defaultValue : value;
+	}
+
+	/**
+	 * A fresh, modifiable copy of the parsed values
+	 */
+	public Properties toProperties() {
+		Properties op = new Properties();
+		op.putAll(info);
+		return op;
+	}
+
+	public String toString() {
+		return line;
+	}
+}
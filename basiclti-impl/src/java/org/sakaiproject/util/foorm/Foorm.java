@@ -52,20 +52,7 @@ public class Foorm {
 	 * 
 	 */
 	public Properties parseFormString(String str) {
-		Properties op = new Properties();
-		String[] pairs = str.split(":");
-		int i = 0;
-		for (String s : pairs) {
-			String[] kv = s.split("=");
-			if (kv.length == 2) {
-				op.setProperty(kv[0], kv[1]);
-			} else if (kv.length == 1 && i < positional.length) {
-				op.setProperty(positional[i++], kv[0]);
-			} else {
-				// TODO : Log something here
-			}
-		}
-		return op;
+		return FieldSpec.get(str).toProperties();
 	}
 
 	// Returns -1 on failure
@@ -177,10 +164,18 @@ public class Foorm {
 	 * @return
 	 */
 	public String[] getFields(String fieldInfo[]) {
+		return getFields(FormModel.get(fieldInfo));
+	}
+
+	/**
+	 * 
+	 * @param model
+	 * @return
+	 */
+	public String[] getFields(FormModel model) {
 		ArrayList<String> aa = new ArrayList<String>();
-		for (String line : fieldInfo) {
-			Properties info = parseFormString(line);
-			String field = info.getProperty("field");
+		for (int i = 0; i < model.size(); i++) {
+			String field = model.getSpec(i).getField();
 			if (field == null) {
 				throw new IllegalArgumentException(
 						"All model elements must include field name and type");
@@ -588,7 +583,13 @@ public class Foorm {
 	 * 
 	 */
 	public String formInput(Object row, String fieldinfo, Object loader) {
-		Properties info = parseFormString(fieldinfo);
+		return formInput(row, FieldSpec.get(fieldinfo), loader);
+	}
+
+	/**
+	 * 
+	 */
+	public String formInput(Object row, FieldSpec info, Object loader) {
 		String field = info.getProperty("field", null);
 		String type = info.getProperty("type", null);
 		
@@ -678,6 +679,15 @@ public class Foorm {
 		return checkI18NStrings(fieldinfo, null);
 	}
 
+	/**
+	 * 
+	 * @param model
+	 * @return
+	 */
+	public ArrayList<String> utilI18NStrings(FormModel model) {
+		return checkI18NStrings(model, null);
+	}
+
 	/**
 	 * 
 	 * @param fieldinfo
@@ -685,9 +695,19 @@ public class Foorm {
 	 * @return
 	 */
 	public ArrayList<String> checkI18NStrings(String[] fieldinfo, Object loader) {
+		return checkI18NStrings(FormModel.get(fieldinfo), loader);
+	}
+
+	/**
+	 * 
+	 * @param model
+	 * @param loader
+	 * @return
+	 */
+	public ArrayList<String> checkI18NStrings(FormModel model, Object loader) {
 		ArrayList<String> strings = new ArrayList<String>();
-		for (String line : fieldinfo) {
-			Properties info = parseFormString(line);
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec info = model.getSpec(i);
 			String label = info.getProperty("label", info.getProperty("field"));
 			String type = info.getProperty("type", null);
 			String hidden = info.getProperty("hidden", null);
@@ -729,14 +749,25 @@ public class Foorm {
 	 * @return
 	 */
 	public String formInput(Object row, String[] formDefinition, Object loader) {
+		return formInput(row, FormModel.get(formDefinition), loader);
+	}
+
+	/**
+	 * 
+	 * @param row
+	 * @param model
+	 * @param loader
+	 * @return
+	 */
+	public String formInput(Object row, FormModel model, Object loader) {
 		StringBuffer sb = new StringBuffer();
 		String header = null;
 		String fieldList[] = null;
-		for (String formInput : formDefinition) {
-			String tmp = formInput(row, formInput, loader);
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec info = model.getSpec(i);
+			String tmp = formInput(row, info, loader);
 			if (tmp.length() < 1)
 				continue;
-			Properties info = parseFormString(formInput);
 			String type = info.getProperty("type", null);
 			String field = info.getProperty("field", null);
 
@@ -913,7 +944,17 @@ public class Foorm {
 	 * @return
 	 */
 	public String formOutput(Object row, String fieldinfo, Object loader) {
-		Properties info = parseFormString(fieldinfo);
+		return formOutput(row, FieldSpec.get(fieldinfo), loader);
+	}
+
+	/**
+	 * 
+	 * @param row
+	 * @param info
+	 * @param loader
+	 * @return
+	 */
+	public String formOutput(Object row, FieldSpec info, Object loader) {
 		String field = info.getProperty("field", null);
 		String type = info.getProperty("type", null);
 		Object value = getField(row, field);
@@ -966,9 +1007,20 @@ public class Foorm {
 	 * @return
 	 */
 	public String formOutput(Object row, String[] formDefinition, Object loader) {
+		return formOutput(row, FormModel.get(formDefinition), loader);
+	}
+
+	/**
+	 * 
+	 * @param row
+	 * @param model
+	 * @param loader
+	 * @return
+	 */
+	public String formOutput(Object row, FormModel model, Object loader) {
 		StringBuffer sb = new StringBuffer();
-		for (String formOutput : formDefinition) {
-			String tmp = formOutput(row, formOutput, loader);
+		for (int i = 0; i < model.size(); i++) {
+			String tmp = formOutput(row, model.getSpec(i), loader);
 			if (tmp.length() < 1)
 				continue;
 			sb.append(tmp);
@@ -990,6 +1042,19 @@ public class Foorm {
 		return formExtract(parms, formDefinition, loader, forInsert, null, errors);
 	}
 
+	/**
+	 * 
+	 * @param parms
+	 * @param model
+	 * @param forInsert
+	 * @param loader
+	 * @return
+	 */
+	public String formValidate(Properties parms, FormModel model,
+			boolean forInsert, Object loader, SortedMap<String,String> errors) {
+		return formExtract(parms, model, loader, forInsert, null, errors);
+	}
+
 	// dataMap should be empty
 	/**
 	 * dataMap should be empty
@@ -997,11 +1062,20 @@ public class Foorm {
 	 */
 	public String formExtract(Object parms, String[] formDefinition, Object loader,
 			boolean forInsert, Map<String, Object> dataMap, SortedMap<String,String> errors) {
+		return formExtract(parms, FormModel.get(formDefinition), loader, forInsert, dataMap, errors);
+	}
+
+	/**
+	 * dataMap should be empty
+	 * errors should be empty
+	 */
+	public String formExtract(Object parms, FormModel model, Object loader,
+			boolean forInsert, Map<String, Object> dataMap, SortedMap<String,String> errors) {
 		StringBuffer sb = new StringBuffer();
 		String error = null;
 
-		for (String formInput : formDefinition) {
-			Properties info = parseFormString(formInput);
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec info = model.getSpec(i);
 			String field = info.getProperty("field", null);
 			String type = info.getProperty("type", null);
 			if (field == null || type == null) {
@@ -1178,9 +1252,39 @@ public class Foorm {
 	 * @return
 	 */
 	public String formSelect(String tableName, String[] fieldinfo, boolean doAS) {
+		return formSelect(tableName, FormModel.get(fieldinfo), doAS);
+	}
+
+	/**
+	 * 
+	 * @param model
+	 * @return
+	 */
+	public String formSelect(FormModel model) {
+		return formSelect(null, model, false);
+	}
+
+	/**
+	 * 
+	 * @param tableName
+	 * @param model
+	 * @return
+	 */
+	public String formSelect(String tableName, FormModel model) {
+		return formSelect(tableName, model, true);
+	}
+
+	/**
+	 * 
+	 * @param tableName
+	 * @param model
+	 * @param doAS
+	 * @return
+	 */
+	public String formSelect(String tableName, FormModel model, boolean doAS) {
 		StringBuffer fields = new StringBuffer();
-		for (String line : fieldinfo) {
-			Properties info = parseFormString(line);
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec info = model.getSpec(i);
 			String field = info.getProperty("field");
 			String type = info.getProperty("type");
 			if (field == null || type == null) {
@@ -1303,13 +1407,39 @@ public class Foorm {
 			String includePattern, String excludePattern) {
 		if (fieldinfo == null)
 			return null;
+		return filterForm(controlRow, FormModel.get(fieldinfo), includePattern, excludePattern);
+	}
+
+	/**
+	 * 
+	 * @param controlRow
+	 * @param model
+	 * @return
+	 */
+	public String[] filterForm(Object controlRow, FormModel model) {
+		return filterForm(controlRow, model, null, null);
+	}
+
+	/**
+	 * 
+	 * @param controlRow
+	 * @param model
+	 * @param includePattern
+	 * @param excludePattern
+	 * @return
+	 */
+	public String[] filterForm(Object controlRow, FormModel model,
+			String includePattern, String excludePattern) {
+		if (model == null)
+			return null;
 		ArrayList<String> ret = new ArrayList<String>();
-		for (String line : fieldinfo) {
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec fields = model.getSpec(i);
+			String line = fields.getLine();
 			if (includePattern != null && (!line.matches(includePattern)))
 				continue;
 			if (excludePattern != null && (line.matches(excludePattern)))
 				continue;
-			Properties fields = parseFormString(line);
 			String field = fields.getProperty("field", null);
 			String type = fields.getProperty("type", null);
 			String allowed = fields.getProperty("allowed", null);
@@ -1350,7 +1480,13 @@ public class Foorm {
 	 * 
 	 */
 	public String formSql(String fieldinfo, String vendor) {
-		Properties info = parseFormString(fieldinfo);
+		return formSql(FieldSpec.get(fieldinfo), vendor);
+	}
+
+	/**
+	 * 
+	 */
+	public String formSql(FieldSpec info, String vendor) {
 		String field = info.getProperty("field", null);
 		String type = info.getProperty("type", null);
 		if ( "header".equals(type) ) return null;
@@ -1425,10 +1561,14 @@ public class Foorm {
 
 	public String getFormField(String [] formDefinition, String fieldName)
 	{
-		for (String formField : formDefinition) {
-			Properties info = parseFormString(formField);
-			String field = info.getProperty("field", null);
-			if ( fieldName.equals(field) ) return formField;
+		return getFormField(FormModel.get(formDefinition), fieldName);
+	}
+
+	public String getFormField(FormModel model, String fieldName)
+	{
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec info = model.getSpec(i);
+			if ( fieldName.equals(info.getField()) ) return info.getLine();
 		}
 		return null;
 	}
@@ -1442,10 +1582,22 @@ public class Foorm {
 	 * @return
 	 */
 	public String[] formAdjustTable(String table, String[] formDefinition, String vendor, ResultSetMetaData md) {
+		return formAdjustTable(table, FormModel.get(formDefinition), vendor, md);
+	}
+
+	/**
+	 * 
+	 * @param table
+	 * @param model
+	 * @param vendor
+	 * @param md
+	 * @return
+	 */
+	public String[] formAdjustTable(String table, FormModel model, String vendor, ResultSetMetaData md) {
 		ArrayList<String> rv = new ArrayList<String>();
 
-		for (String formField : formDefinition) {
-			Properties info = parseFormString(formField);
+		for (int j = 0; j < model.size(); j++) {
+			FieldSpec info = model.getSpec(j);
 			String field = info.getProperty("field", null);
 			String type = info.getProperty("type", null);
 			if ( "header".equals(type) ) continue;
@@ -1478,16 +1630,16 @@ public class Foorm {
 			//  If the field is not there...
 			if ( sqlType == null ) {
 				if ( "oracle".equals(vendor) ) {
-					rv.add("ALTER TABLE "+table+" ADD ( " + formSql(formField, vendor) + " )");
+					rv.add("ALTER TABLE "+table+" ADD ( " + formSql(info, vendor) + " )");
 				} else if ( "mysql".equals(vendor) ) {
-					rv.add("ALTER TABLE "+table+" ADD " + formSql(formField, vendor));
+					rv.add("ALTER TABLE "+table+" ADD " + formSql(info, vendor));
 				} else {
-					rv.add("ALTER TABLE "+table+" ADD COLUMN " + formSql(formField, vendor));
+					rv.add("ALTER TABLE "+table+" ADD COLUMN " + formSql(info, vendor));
 				}
 				continue;
 			}
 
-			String ff = formSql(formField, vendor);
+			String ff = formSql(info, vendor);
 
 			// BLTI-220, BLTI-238 - Required will be enforced in software - not the DB
 			boolean shouldAlter = false;
@@ -1530,6 +1682,18 @@ public class Foorm {
 	 * @return
 	 */
 	public String[] formSqlTable(String table, String[] formDefinition, String vendor, boolean doReset)  {
+		return formSqlTable(table, FormModel.get(formDefinition), vendor, doReset);
+	}
+
+	/**
+	 * 
+	 * @param table
+	 * @param model
+	 * @param vendor
+	 * @param doReset
+	 * @return
+	 */
+	public String[] formSqlTable(String table, FormModel formDefinition, String vendor, boolean doReset)  {
 		String theKey = formSqlKey(formDefinition);
 		String fieldList = formSqlFields(formDefinition, vendor);
 		ArrayList<String> rv = new ArrayList<String>();
@@ -1597,9 +1761,19 @@ public class Foorm {
 	 * @return
 	 */
 	public String formSqlFields(String[] formDefinition, String vendor) {
+		return formSqlFields(FormModel.get(formDefinition), vendor);
+	}
+
+	/**
+	 * 
+	 * @param model
+	 * @param vendor
+	 * @return
+	 */
+	public String formSqlFields(FormModel model, String vendor) {
 		StringBuffer sb = new StringBuffer();
-		for (String formField : formDefinition) {
-			String retval = formSql(formField, vendor);
+		for (int i = 0; i < model.size(); i++) {
+			String retval = formSql(model.getSpec(i), vendor);
 			if (retval == null)
 				continue;
 			if (sb.length() > 0)
@@ -1615,10 +1789,18 @@ public class Foorm {
 	 * @return
 	 */
 	public String formSqlKey(String[] formDefinition) {
-		StringBuffer sb = new StringBuffer();
+		return formSqlKey(FormModel.get(formDefinition));
+	}
+
+	/**
+	 * 
+	 * @param model
+	 * @return
+	 */
+	public String formSqlKey(FormModel model) {
 		String theKey = null;
-		for (String formField : formDefinition) {
-			Properties info = parseFormString(formField);
+		for (int i = 0; i < model.size(); i++) {
+			FieldSpec info = model.getSpec(i);
 			String field = info.getProperty("field", null);
 			String type = info.getProperty("type", null);
 			if (field == null || type == null) {
@@ -1667,4 +1849,44 @@ public class Foorm {
 		}
 	}
 
+	// Keyset (seek) paging - rather than skipping the rows of the pages 
+	// before, start after the last row of the page before.  The rows are
+	// sorted by orderColumn and then by keyColumn so the order is total
+	// even when orderColumn has duplicates.  orderColumn must not be null.
+
+	/**
+	 * The condition for the rows that come after a row.  It takes the 
+	 * order value twice then the key value, or just the key value when 
+	 * the two columns are the same.  This is spelled out rather than 
+	 * using a row value comparison that Oracle does not have.
+	 */
+	public String getSeekWhere(String orderColumn, String keyColumn, boolean descending) {
+		String op = descending ? " < ?" : " > ?";
+		if (orderColumn == null || orderColumn.equals(keyColumn)) {
+			return keyColumn + op;
+		}
+		return "( " + orderColumn + op + " OR ( " + orderColumn + " = ? AND " + keyColumn + op + " ) )";
+	}
+
+	/**
+	 * The ORDER BY that goes with getSeekWhere()
+	 */
+	public String getSeekOrder(String orderColumn, String keyColumn, boolean descending) {
+		String direction = descending ? " DESC" : "";
+		if (orderColumn == null || orderColumn.equals(keyColumn)) {
+			return keyColumn + direction;
+		}
+		return orderColumn + direction + ", " + keyColumn + direction;
+	}
+
+	/**
+	 * The values for the ? in getSeekWhere()
+	 */
+	public Object[] getSeekValues(String orderColumn, String keyColumn, Object orderValue, Object keyValue) {
+		if (orderColumn == null || orderColumn.equals(keyColumn)) {
+			return new Object[] { keyValue };
+		}
+		return new Object[] { orderValue, orderValue, keyValue };
+	}
+
 }
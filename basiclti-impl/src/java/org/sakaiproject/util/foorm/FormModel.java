@@ -0,0 +1,124 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *		   http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.util.foorm;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The parsed, immutable form of a Foorm model (i.e. LTIService.TOOL_MODEL).
+ * <p>
+ * The constant models are interned once with intern() and then found by
+ * array identity without taking a lock.  Any other array (i.e. one made
+ * by filterForm) is parsed on each call to get() and is never held, since
+ * a fresh array is made on every call.
+ */
+public final class FormModel {
+
+	// Copied on write - models are interned a handful of times at startup
+	// and looked up on every request
+	private static volatile Map<String[], FormModel> registry = new IdentityHashMap<String[], FormModel>();
+	private static int nextId = 1;
+
+	private final int id;
+	private final String[] lines;
+	private final FieldSpec[] specs;
+	private final Map<String, Integer> fieldIndex;
+
+	private FormModel(String[] formDefinition, int id) {
+		this.id = id;
+		// Copy - the caller may still change its array
+		lines = formDefinition.clone();
+		specs = new FieldSpec[lines.length];
+		fieldIndex = new HashMap<String, Integer>();
+		for (int i = 0; i < lines.length; i++) {
+			specs[i] = FieldSpec.get(lines[i]);
+			String field = specs[i].getField();
+			if (field != null && !fieldIndex.containsKey(field)) fieldIndex.put(field, Integer.valueOf(i));
+		}
+	}
+
+	/**
+	 * Parse a model that is used over and over (i.e. a static final array)
+	 * once and keep it, so get() on the same array finds it.
+	 */
+	public static FormModel intern(String[] formDefinition) {
+		if (formDefinition == null) return null;
+		synchronized (FormModel.class) {
+			FormModel model = registry.get(formDefinition);
+			if (model != null) return model;
+			model = new FormModel(formDefinition, nextId++);
+			Map<String[], FormModel> copy = new IdentityHashMap<String[], FormModel>(registry);
+			copy.put(formDefinition, model);
+			registry = copy;
+			return model;
+		}
+	}
+
+	/**
+	 * Return the parsed form of a model array - the interned model if
+	 * there is one, otherwise a model parsed for this call alone.
+	 */
+	public static FormModel get(String[] formDefinition) {
+		if (formDefinition == null) return null;
+		FormModel model = registry.get(formDefinition);
+		if (model != null) return model;
+		return new FormModel(formDefinition, 0);
+	}
+
+	/**
+	 * A number that is unique to an interned model - handy for building
+	 * cache keys for things derived from the model.  A model parsed for a
+	 * single call is 0 and should not be used as a cache key.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	public int size() {
+		return specs.length;
+	}
+
+	public FieldSpec getSpec(int i) {
+		return specs[i];
+	}
+
+	/**
+	 * The position of the named field in the model or -1
+	 */
+	public int indexOf(String field) {
+		Integer i = fieldIndex.get(field);
+		return i == null ? -1 : i.intValue();
+	}
+
+	public boolean hasField(String field) {
+		return fieldIndex.containsKey(field);
+	}
+
+	/**
+	 * A copy of the original field descriptions
+	 */
+	public String[] getLines() {
+		return lines.clone();
+	}
+}
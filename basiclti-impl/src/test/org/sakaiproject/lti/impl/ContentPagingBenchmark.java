@@ -0,0 +1,186 @@
+/**********************************************************************************
+ * $URL$
+ * $Id$
+ ***********************************************************************************
+ *
+ * Copyright (c) 2014 The Sakai Foundation
+ *
+ * Licensed under the Educational Community License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.opensource.org/licenses/ECL-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ **********************************************************************************/
+
+package org.sakaiproject.lti.impl;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.sakaiproject.util.foorm.Foorm;
+
+/**
+ * Times one deep page of a large lti_content table with offset paging
+ * (getContentsDao) and with keyset paging (getContentsAfterDao), using
+ * the statements Foorm builds for each.  This is not a unit test - it
+ * takes a while to load the rows - so run it by hand with the test
+ * classpath:
+ *
+ *   java -Xmx2g org.sakaiproject.lti.impl.ContentPagingBenchmark [rows] [page] [pageSize]
+ *
+ * The defaults are 1000000 rows and page 1000 of 50.
+ */
+public class ContentPagingBenchmark {
+
+	private static final String VENDOR = "hsqldb";
+	private static final String[] MODEL = {
+		"id:key",
+		"tool_id:integer",
+		"SITE_ID:text:maxlength=99",
+		"title:text:maxlength=255",
+		"created_at:autodate",
+		"updated_at:autodate" };
+	private static final int RUNS = 20;
+
+	public static void main(String[] args) throws Exception {
+		int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int page = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int pageSize = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+
+		Class.forName("org.hsqldb.jdbcDriver");
+		Connection conn = DriverManager.getConnection("jdbc:hsqldb:mem:paging", "sa", "");
+		try {
+			long start = System.currentTimeMillis();
+			seed(conn, rows);
+			System.out.println("Loaded "+rows+" rows in "+(System.currentTimeMillis() - start)+"ms");
+
+			Foorm foorm = new Foorm();
+			compare(conn, foorm, "lti_content.id", false, page, pageSize);
+			compare(conn, foorm, "lti_content.created_at", true, page, pageSize);
+		} finally {
+			Statement st = conn.createStatement();
+			st.execute("SHUTDOWN");
+			conn.close();
+		}
+	}
+
+	private static void seed(Connection conn, int rows) throws SQLException {
+		Statement st = conn.createStatement();
+		st.executeUpdate("CREATE TABLE lti_content ( id INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "+
+			"tool_id INTEGER, SITE_ID VARCHAR(99), title VARCHAR(255), "+
+			"created_at TIMESTAMP NOT NULL, updated_at TIMESTAMP NOT NULL )");
+		// What a created_at page needs to seek rather than sort
+		st.executeUpdate("CREATE INDEX lti_content_created ON lti_content ( created_at, id )");
+		st.close();
+
+		conn.setAutoCommit(false);
+		PreparedStatement ps = conn.prepareStatement("INSERT INTO lti_content "+
+			"( tool_id, SITE_ID, title, created_at, updated_at ) VALUES ( ?, ?, ?, ?, ? )");
+		long base = System.currentTimeMillis() - rows * 1000L;
+		for (int i = 0; i < rows; i++) {
+			// Three items a second, so created_at has ties to break
+			Timestamp created = new Timestamp(base + (i / 3) * 1000L);
+			ps.setInt(1, i % 20);
+			ps.setString(2, "site" + (i % 5000));
+			ps.setString(3, "Item " + i);
+			ps.setTimestamp(4, created);
+			ps.setTimestamp(5, created);
+			ps.addBatch();
+			if ( i % 10000 == 9999 ) {
+				ps.executeBatch();
+				conn.commit();
+			}
+		}
+		ps.executeBatch();
+		conn.commit();
+		ps.close();
+		conn.setAutoCommit(true);
+	}
+
+	private static void compare(Connection conn, Foorm foorm, String orderColumn, boolean descending,
+		int page, int pageSize) throws SQLException {
+		String select = "SELECT " + foorm.formSelect("lti_content", MODEL) + " FROM lti_content";
+		String keyColumn = "lti_content.id";
+		String order = " ORDER BY " + foorm.getSeekOrder(orderColumn, keyColumn, descending);
+
+		int first = (page - 1) * pageSize;
+		String offsetSql = foorm.getPagedSelect(select + order, first, first + pageSize - 1, VENDOR);
+		String seekSql = foorm.getPagedSelect(select + " WHERE " +
+			foorm.getSeekWhere(orderColumn, keyColumn, descending) + order, 0, pageSize - 1, VENDOR);
+
+		// The page before would have handed us its last row
+		String beforeSql = foorm.getPagedSelect(select + order, first - 1, first - 1, VENDOR);
+		Object[] last = query(conn, beforeSql, null).get(0);
+		String orderField = orderColumn.substring(orderColumn.indexOf('.') + 1);
+		Object[] after = foorm.getSeekValues(orderColumn, keyColumn, last[indexOf(orderField)], last[0]);
+
+		List<Object[]> offsetPage = query(conn, offsetSql, null);
+		List<Object[]> seekPage = query(conn, seekSql, after);
+		if ( offsetPage.size() != seekPage.size() ) {
+			throw new IllegalStateException("Pages differ: "+offsetPage.size()+" and "+seekPage.size()+" rows");
+		}
+		for (int i = 0; i < offsetPage.size(); i++) {
+			if ( ! offsetPage.get(i)[0].equals(seekPage.get(i)[0]) ) {
+				throw new IllegalStateException("Pages differ at row "+i);
+			}
+		}
+
+		long offsetTime = time(conn, offsetSql, null);
+		long seekTime = time(conn, seekSql, after);
+		System.out.println("Page "+page+" of "+pageSize+" by "+orderColumn+(descending ? " DESC" : "")+
+			": offset "+(offsetTime / 1000)+"us, keyset "+(seekTime / 1000)+"us (median of "+RUNS+")");
+	}
+
+	private static int indexOf(String field) {
+		for (int i = 0; i < MODEL.length; i++) {
+			if ( MODEL[i].startsWith(field + ":") ) return i;
+		}
+		throw new IllegalArgumentException(field);
+	}
+
+	// Median nanoseconds after a warm up
+	private static long time(Connection conn, String sql, Object[] fields) throws SQLException {
+		for (int i = 0; i < 5; i++) query(conn, sql, fields);
+		long[] times = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			query(conn, sql, fields);
+			times[i] = System.nanoTime() - start;
+		}
+		Arrays.sort(times);
+		return times[RUNS / 2];
+	}
+
+	private static List<Object[]> query(Connection conn, String sql, Object[] fields) throws SQLException {
+		PreparedStatement ps = conn.prepareStatement(sql);
+		if ( fields != null ) {
+			for (int i = 0; i < fields.length; i++) ps.setObject(i + 1, fields[i]);
+		}
+		ResultSet rs = ps.executeQuery();
+		List<Object[]> result = new ArrayList<Object[]>();
+		int columns = MODEL.length;
+		while ( rs.next() ) {
+			Object[] row = new Object[columns];
+			for (int i = 0; i < columns; i++) row[i] = rs.getObject(i + 1);
+			result.add(row);
+		}
+		rs.close();
+		ps.close();
+		return result;
+	}
+}
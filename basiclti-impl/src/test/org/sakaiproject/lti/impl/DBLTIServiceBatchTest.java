@@ -0,0 +1,259 @@
+package org.sakaiproject.lti.impl;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.db.api.SqlService;
+import org.sakaiproject.lti.api.LTIService;
+import org.sakaiproject.util.ResourceLoader;
+import org.sakaiproject.util.foorm.SakaiFoorm;
+
+public class DBLTIServiceBatchTest {
+
+	private static final String SITE = "site1";
+
+	// Tools come from a map rather than lti_tools and content items are
+	// read straight from the table
+	private static class BatchService extends DBLTIService {
+		static {
+			// Messages are looked up by key without a session to find a locale in
+			rb = new ResourceLoader("ltiservice") {
+				public String getString(String key) {
+					return key;
+				}
+			};
+		}
+
+		final Map<Long, Map<String, Object>> tools = new HashMap<Long, Map<String, Object>>();
+		final List<Long> invalidated = new ArrayList<Long>();
+		Connection conn;
+
+		// The placement cache needs a running Sakai
+		protected void invalidatePlacementCache(String table, Long key) {
+			invalidated.add(key);
+		}
+
+		protected Map<String, Object> getToolDao(Long key, String siteId, boolean isAdminRole) {
+			return tools.get(key);
+		}
+
+		public Map<String, Object> getContentDao(Long key, String siteId, boolean isAdminRole) {
+			try {
+				PreparedStatement ps = conn.prepareStatement("SELECT tool_id, title FROM lti_content WHERE id=?");
+				try {
+					ps.setLong(1, key.longValue());
+					ResultSet rs = ps.executeQuery();
+					if ( ! rs.next() ) return null;
+					Map<String, Object> content = new HashMap<String, Object>();
+					content.put(LTIService.LTI_ID, key);
+					content.put(LTIService.LTI_TOOL_ID, Long.valueOf(rs.getLong(1)));
+					content.put(LTIService.LTI_TITLE, rs.getString(2));
+					return content;
+				} finally {
+					ps.close();
+				}
+			} catch (SQLException e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	// Hands out the one HSQLDB connection, as SqlService would from its pool
+	private static class Pool implements InvocationHandler {
+		final Connection conn;
+		int borrowed = 0;
+
+		Pool(Connection conn) {
+			this.conn = conn;
+		}
+
+		public Object invoke(Object proxy, Method method, Object [] args) {
+			String name = method.getName();
+			if ( "getVendor".equals(name) ) return "hsqldb";
+			if ( "borrowConnection".equals(name) ) {
+				borrowed++;
+				return conn;
+			}
+			if ( "returnConnection".equals(name) ) {
+				borrowed--;
+				return null;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private Connection conn;
+	private Pool pool;
+	private BatchService service;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		conn = DriverManager.getConnection("jdbc:hsqldb:mem:batch", "sa", "");
+		Statement st = conn.createStatement();
+		// The IDENTITY column is already the primary key in hsqldb
+		st.executeUpdate("CREATE TABLE lti_content ( " +
+			new SakaiFoorm().formSqlFields(LTIService.CONTENT_MODEL, "hsqldb") + " )");
+		st.close();
+
+		pool = new Pool(conn);
+		service = new BatchService();
+		service.conn = conn;
+		service.setSqlService((SqlService) Proxy.newProxyInstance(DBLTIServiceBatchTest.class.getClassLoader(),
+			new Class<?>[] { SqlService.class }, pool));
+		Map<String, Object> tool = new HashMap<String, Object>();
+		tool.put(LTIService.LTI_ID, Long.valueOf(1));
+		tool.put(LTIService.LTI_TITLE, "Tool");
+		tool.put(LTIService.LTI_VISIBLE, Long.valueOf(0));
+		tool.put("allowtitle", Long.valueOf(1));
+		service.tools.put(Long.valueOf(1), tool);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		Statement st = conn.createStatement();
+		st.execute("SHUTDOWN");
+		conn.close();
+	}
+
+	private static Properties content(Object toolId, String title) {
+		Properties props = new Properties();
+		props.setProperty(LTIService.LTI_TOOL_ID, toolId.toString());
+		props.setProperty(LTIService.LTI_TITLE, title);
+		return props;
+	}
+
+	private Map<Long, String> titles() throws Exception {
+		Map<Long, String> titles = new HashMap<Long, String>();
+		PreparedStatement ps = conn.prepareStatement("SELECT id, title FROM lti_content");
+		ResultSet rs = ps.executeQuery();
+		while ( rs.next() ) titles.put(Long.valueOf(rs.getLong(1)), rs.getString(2));
+		rs.close();
+		ps.close();
+		return titles;
+	}
+
+	@Test
+	public void testKeysInInputOrder() throws Exception {
+		List<Properties> rows = new ArrayList<Properties>();
+		rows.add(content(1, "first"));
+		// Different columns make a second statement that runs after the first
+		Properties other = content(1, "second");
+		other.setProperty("xmlimport", "<x/>");
+		rows.add(other);
+		rows.add(content(1, "third"));
+
+		List<Object> result = service.insertContentsDao(rows, SITE, false, true);
+		assertEquals(3, result.size());
+		Map<Long, String> titles = titles();
+		assertEquals(3, titles.size());
+		assertEquals("first", titles.get(result.get(0)));
+		assertEquals("second", titles.get(result.get(1)));
+		assertEquals("third", titles.get(result.get(2)));
+		assertEquals(0, pool.borrowed);
+		assertTrue(conn.getAutoCommit());
+	}
+
+	@Test
+	public void testFailedCheck() throws Exception {
+		List<Properties> rows = new ArrayList<Properties>();
+		rows.add(content(1, "good"));
+		rows.add(content(99, "no such tool"));
+		rows.add(content("x", "bad tool id"));
+		rows.add(content(1, "also good"));
+
+		List<Object> result = service.insertContentsDao(rows, SITE, false, true);
+		assertTrue(result.get(0) instanceof Long);
+		assertTrue(result.get(1) instanceof String);
+		assertTrue(result.get(2) instanceof String);
+		assertTrue(result.get(3) instanceof Long);
+		Map<Long, String> titles = titles();
+		assertEquals(2, titles.size());
+		assertEquals("good", titles.get(result.get(0)));
+		assertEquals("also good", titles.get(result.get(3)));
+	}
+
+	@Test
+	public void testRollback() throws Exception {
+		Statement st = conn.createStatement();
+		st.executeUpdate("CREATE UNIQUE INDEX lti_content_title ON lti_content ( title )");
+		st.close();
+
+		List<Properties> rows = new ArrayList<Properties>();
+		rows.add(content(1, "one"));
+		rows.add(content(99, "no such tool"));
+		rows.add(content(1, "two"));
+		// The database refuses this one so none of them go in
+		rows.add(content(1, "one"));
+
+		List<Object> result = service.insertContentsDao(rows, SITE, false, true);
+		assertEquals(4, result.size());
+		for (Object row : result) assertTrue(row instanceof String);
+		assertEquals("error.invalid.toolid", result.get(1));
+		assertEquals(result.get(0), result.get(3));
+		assertEquals(0, titles().size());
+		assertEquals(0, pool.borrowed);
+		assertTrue(conn.getAutoCommit());
+	}
+
+	@Test
+	public void testUpdateRollsBackOneRow() throws Exception {
+		Statement st = conn.createStatement();
+		st.executeUpdate("CREATE UNIQUE INDEX lti_content_title ON lti_content ( title )");
+		st.close();
+
+		List<Properties> rows = new ArrayList<Properties>();
+		rows.add(content(1, "a"));
+		rows.add(content(1, "b"));
+		rows.add(content(1, "c"));
+		List<Object> ids = service.insertContentsDao(rows, SITE, false, true);
+		for (Object id : ids) assertTrue(id instanceof Long);
+
+		List<Long> keys = new ArrayList<Long>();
+		List<Properties> updates = new ArrayList<Properties>();
+		keys.add(Long.valueOf(999));
+		updates.add(content(1, "missing"));
+		keys.add((Long) ids.get(0));
+		updates.add(content(1, "a2"));
+		// The database refuses this one as c still has that title
+		keys.add((Long) ids.get(1));
+		updates.add(content(1, "c"));
+		keys.add((Long) ids.get(2));
+		updates.add(content(1, "c2"));
+
+		List<Object> result = service.updateContentsDao(keys, updates, SITE, false, true);
+		assertEquals(4, result.size());
+		assertEquals("error.content.not.found", result.get(0));
+		assertEquals(Boolean.TRUE, result.get(1));
+		assertTrue(result.get(2) instanceof String);
+		assertEquals(Boolean.TRUE, result.get(3));
+
+		Map<Long, String> titles = titles();
+		assertEquals(3, titles.size());
+		assertEquals("a2", titles.get(ids.get(0)));
+		assertEquals("b", titles.get(ids.get(1)));
+		assertEquals("c2", titles.get(ids.get(2)));
+		assertEquals(2, service.invalidated.size());
+		assertTrue(service.invalidated.contains(ids.get(0)));
+		assertTrue(service.invalidated.contains(ids.get(2)));
+		assertEquals(0, pool.borrowed);
+		assertTrue(conn.getAutoCommit());
+	}
+}
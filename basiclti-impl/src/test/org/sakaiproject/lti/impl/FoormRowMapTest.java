@@ -0,0 +1,69 @@
+package org.sakaiproject.lti.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class FoormRowMapTest {
+
+	private static FoormRowMap row() {
+		FoormRowMap row = new FoormRowMap(new FoormRowMap.Index(new String[] { "id", "title", "launch" }));
+		row.setValue(0, Long.valueOf(42));
+		row.setValue(1, "Title");
+		row.setValue(2, null);
+		return row;
+	}
+
+	private static Object copy(Object o) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(o);
+		out.close();
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+		return in.readObject();
+	}
+
+	@Test
+	public void testMap() {
+		FoormRowMap row = row();
+		Map<String, Object> expected = new HashMap<String, Object>();
+		expected.put("id", Long.valueOf(42));
+		expected.put("title", "Title");
+		expected.put("launch", null);
+		assertEquals(expected, row);
+
+		assertEquals("Title", row.remove("title"));
+		assertFalse(row.containsKey("title"));
+		assertTrue(row.containsKey("launch"));
+		row.put("launch_url", "http://x");
+		expected.remove("title");
+		expected.put("launch_url", "http://x");
+		assertEquals(expected, row);
+		assertEquals(3, row.size());
+	}
+
+	@Test
+	public void testSerialized() throws Exception {
+		FoormRowMap row = row();
+		row.remove("title");
+		row.put("extra", "x");
+
+		@SuppressWarnings("unchecked")
+		Map<String, Object> copy = (Map<String, Object>) copy(row);
+		assertEquals(row, copy);
+		// The removed column is still removed rather than holding a marker
+		assertFalse(copy.containsKey("title"));
+		assertNull(copy.get("title"));
+		assertEquals(3, copy.size());
+		copy.put("title", "Back");
+		assertEquals(4, copy.size());
+		assertEquals("Back", copy.get("title"));
+	}
+}
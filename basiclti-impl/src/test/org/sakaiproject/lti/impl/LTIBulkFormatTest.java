@@ -0,0 +1,119 @@
+package org.sakaiproject.lti.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Timestamp;
+
+import org.junit.Test;
+import org.sakaiproject.lti.api.LTIService;
+import org.sakaiproject.util.foorm.FormModel;
+
+public class LTIBulkFormatTest {
+
+	private static final String [] MODEL = {
+		"id:key",
+		"tool_id:integer:hidden=true",
+		"SITE_ID:text:maxlength=99",
+		"title:text:maxlength=255",
+		"xmlheader:header:fields=title",
+		"custom:textarea:maxlength=16384",
+		"launch:url",
+		"newpage:checkbox",
+		"created_at:autodate"
+	};
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		LTIBulkFormat format = new LTIBulkFormat("lti_content", FormModel.get(MODEL));
+		String [] columns = format.getColumns();
+		assertEquals(8, columns.length);
+		assertEquals(-1, format.indexOf("xmlheader"));
+
+		Timestamp when = new Timestamp(1396450800123L);
+		Object [][] rows = {
+			{ 1L, 7, "site", "Plain", "a=1\nb=2", "http://x.edu/lti", 1, when },
+			{ 2L, null, null, "Tab\there \\ slash \\N \r\n", "", null, 0, when },
+			{ 3L, 7L, "\\N", "\\", "\t", "\\t", null, when },
+			{ 4L, 7, "site", "café 漢 😀", "trailing\\", "x", 1, when },
+		};
+
+		StringWriter out = new StringWriter();
+		format.writeHeader(out);
+		for (Object [] row : rows) format.writeRow(out, row);
+		format.writeTrailer(out, rows.length);
+		String text = out.toString();
+		// One line per row plus the header and trailer
+		assertEquals(rows.length + 2, text.split("\n").length);
+
+		BufferedReader in = new BufferedReader(new StringReader(text));
+		int [] positions = format.parseHeader(in.readLine());
+		for (Object [] row : rows) {
+			Object [] values = format.parseRow(in.readLine(), positions);
+			for (int i = 0; i < row.length; i++) {
+				Object expected = row[i];
+				if ( expected instanceof Number ) expected = Long.valueOf(((Number) expected).longValue());
+				assertEquals(columns[i], expected, values[i]);
+			}
+		}
+		assertEquals(rows.length, LTIBulkFormat.parseTrailer(in.readLine()));
+		assertNull(in.readLine());
+	}
+
+	@Test
+	public void testColumnsByName() throws Exception {
+		LTIBulkFormat format = new LTIBulkFormat("lti_content", FormModel.get(MODEL));
+		// An older file - different order, a column we no longer have and two missing
+		int [] positions = format.parseHeader("#lti_content\ttitle\tid\tgone\tSITE_ID\tcustom\tlaunch");
+		Object [] values = format.parseRow("T\t42\tx\ts\t\\N\thttp://a", positions);
+		assertEquals(Long.valueOf(42), values[format.indexOf("id")]);
+		assertEquals("T", values[format.indexOf("title")]);
+		assertEquals("s", values[format.indexOf("SITE_ID")]);
+		assertNull(values[format.indexOf("custom")]);
+		assertNull(values[format.indexOf("tool_id")]);
+		assertNull(values[format.indexOf("created_at")]);
+
+		try {
+			format.parseRow("T\t42\tx\ts\t\\N", positions);
+			fail("Too few values");
+		} catch (IllegalArgumentException e) { }
+		try {
+			format.parseRow("T\t42\tx\ts\t\\N\thttp://a\textra", positions);
+			fail("Too many values");
+		} catch (IllegalArgumentException e) { }
+		try {
+			format.parseRow("T\tforty-two\tx\ts\t\\N\thttp://a", positions);
+			fail("Not a number");
+		} catch (IllegalArgumentException e) { }
+		try {
+			format.parseHeader("#lti_tools\tid");
+			fail("Wrong table");
+		} catch (IllegalArgumentException e) { }
+		try {
+			format.parseHeader("1\t2");
+			fail("Not a header");
+		} catch (IllegalArgumentException e) { }
+
+		assertEquals(-1, LTIBulkFormat.parseTrailer("#end\tmany"));
+		assertEquals(-1, LTIBulkFormat.parseTrailer("1\t2"));
+		assertEquals(0, LTIBulkFormat.parseTrailer("#end\t0"));
+	}
+
+	@Test
+	public void testModels() throws Exception {
+		String [] tables = { "lti_tools", "lti_content", "lti_deploy", "lti_binding" };
+		for (String table : tables) {
+			LTIBulkFormat format = new LTIBulkFormat(table, FormModel.get(LTIBulkTransfer.getModel(table)));
+			assertEquals(0, format.indexOf(LTIService.LTI_ID));
+			assertTrue(format.isNumber(0));
+		}
+		assertTrue(new LTIBulkFormat("lti_content", FormModel.get(LTIService.CONTENT_MODEL))
+			.isDate(new LTIBulkFormat("lti_content", FormModel.get(LTIService.CONTENT_MODEL)).indexOf("created_at")));
+		try {
+			LTIBulkTransfer.getModel("SAKAI_USER");
+			fail("Not one of ours");
+		} catch (IllegalArgumentException e) { }
+	}
+}
@@ -0,0 +1,166 @@
+package org.sakaiproject.lti.impl;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sakaiproject.exception.PermissionException;
+import org.sakaiproject.lti.api.LTIService;
+import org.sakaiproject.util.foorm.SakaiFoorm;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+
+public class LTIBulkTransferTest {
+
+	private static final String VENDOR = "hsqldb";
+	private static final String COLUMNS = "id, SITE_ID, title, description, frameheight, created_at";
+
+	// { id, SITE_ID, title, description, frameheight } - the ids have gaps
+	private static final Object [][] ROWS = {
+		{ 3L, "site1", "Plain", "A tool", 1200L },
+		{ 7L, null, "Tab\there\nnewline \\N", null, null },
+		{ 8L, "\\N", "", "trailing\\", 0L },
+	};
+
+	private final SakaiFoorm foorm = new SakaiFoorm();
+	private Connection from;
+	private Connection to;
+
+	@Before
+	public void setUp() throws Exception {
+		Class.forName("org.hsqldb.jdbcDriver");
+		from = open("jdbc:hsqldb:mem:bulkfrom");
+		to = open("jdbc:hsqldb:mem:bulkto");
+
+		PreparedStatement ps = from.prepareStatement("INSERT INTO lti_tools ( " + COLUMNS + ", updated_at ) " +
+			"VALUES ( ?, ?, ?, ?, ?, ?, ? )");
+		Timestamp when = new Timestamp(1396450800000L);
+		for (Object [] row : ROWS) {
+			for (int i = 0; i < row.length; i++) ps.setObject(i + 1, row[i]);
+			ps.setTimestamp(6, when);
+			ps.setTimestamp(7, when);
+			ps.executeUpdate();
+		}
+		ps.close();
+	}
+
+	private Connection open(String url) throws Exception {
+		Connection conn = DriverManager.getConnection(url, "sa", "");
+		Statement st = conn.createStatement();
+		// The IDENTITY column is already the primary key in hsqldb
+		st.executeUpdate("CREATE TABLE lti_tools ( " + foorm.formSqlFields(LTIService.TOOL_MODEL, VENDOR) + " )");
+		st.close();
+		return conn;
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		for (Connection conn : new Connection[] { from, to }) {
+			Statement st = conn.createStatement();
+			st.execute("SHUTDOWN");
+			conn.close();
+		}
+	}
+
+	// A small batch so that the export takes more than one page
+	private LTIBulkTransfer transfer(Connection conn) {
+		return new LTIBulkTransfer(new JdbcTemplate(new SingleConnectionDataSource(conn, true)), VENDOR, foorm, 2);
+	}
+
+	private static List<Object []> read(Connection conn) throws Exception {
+		List<Object []> rows = new ArrayList<Object []>();
+		PreparedStatement ps = conn.prepareStatement("SELECT " + COLUMNS + " FROM lti_tools ORDER BY id");
+		ResultSet rs = ps.executeQuery();
+		while ( rs.next() ) {
+			Object [] row = new Object[6];
+			row[0] = Long.valueOf(rs.getLong(1));
+			row[1] = rs.getString(2);
+			row[2] = rs.getString(3);
+			row[3] = rs.getString(4);
+			long height = rs.getLong(5);
+			row[4] = rs.wasNull() ? null : Long.valueOf(height);
+			row[5] = rs.getTimestamp(6);
+			rows.add(row);
+		}
+		rs.close();
+		ps.close();
+		return rows;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		StringWriter out = new StringWriter();
+		assertEquals(ROWS.length, transfer(from).exportTable("lti_tools", out, null));
+		String [] lines = out.toString().split("\n");
+		// The header, one line per row and the trailer
+		assertEquals(ROWS.length + 2, lines.length);
+		assertEquals(LTIBulkFormat.END + "\t" + ROWS.length, lines[lines.length - 1]);
+		assertEquals(ROWS.length, LTIBulkFormat.parseTrailer(lines[lines.length - 1]));
+
+		LTIBulkTransfer.Result result = transfer(to).importTable("lti_tools",
+			new BufferedReader(new StringReader(out.toString())), null);
+		assertEquals(ROWS.length, result.getRows());
+		assertEquals(ROWS.length, result.getInserted());
+		assertEquals(0, result.getFailed());
+		assertTrue(result.isComplete());
+
+		List<Object []> before = read(from);
+		List<Object []> after = read(to);
+		assertEquals(ROWS.length, after.size());
+		for (int i = 0; i < ROWS.length; i++) {
+			for (int j = 0; j < ROWS[i].length; j++) {
+				assertEquals(ROWS[i][j], after.get(i)[j]);
+			}
+			assertEquals(before.get(i)[5], after.get(i)[5]);
+		}
+	}
+
+	@Test
+	public void testIncomplete() throws Exception {
+		StringWriter out = new StringWriter();
+		transfer(from).exportTable("lti_tools", out, null);
+		String text = out.toString();
+		// Cut off after the second row
+		String cut = text.substring(0, text.indexOf(LTIBulkFormat.END) - 1);
+		cut = cut.substring(0, cut.lastIndexOf('\n') + 1);
+
+		LTIBulkTransfer.Result result = transfer(to).importTable("lti_tools",
+			new BufferedReader(new StringReader(cut)), null);
+		assertEquals(2, result.getInserted());
+		assertFalse(result.isComplete());
+	}
+
+	@Test
+	public void testAdminOnly() throws Exception {
+		DBLTIService service = new DBLTIService() {
+			public boolean isAdmin() {
+				return false;
+			}
+		};
+		try {
+			service.exportTable("lti_tools", new StringWriter());
+			fail("Exported without being an admin");
+		} catch (PermissionException e) {
+			// Expected
+		}
+		try {
+			service.importTable("lti_tools", new BufferedReader(new StringReader("")));
+			fail("Imported without being an admin");
+		} catch (PermissionException e) {
+			// Expected
+		}
+	}
+}
@@ -21,6 +21,8 @@
 
 package org.sakaiproject.util.foorm;
 
+import static org.junit.Assert.*;
+
 import java.lang.Class;
 
 import java.sql.Connection;
@@ -89,6 +91,11 @@ public class FoormTest {
 
 		System.out.println(foorm.formOutput(row, test_form, null));
 
+		// The parsed model should produce exactly the same output
+		FormModel model = FormModel.get(test_form);
+		assertEquals(foorm.formInput(row, test_form), foorm.formInput(row, model, null));
+		assertEquals(foorm.formOutput(row, test_form, null), foorm.formOutput(row, model, null));
+
 		Properties pro = new Properties(); 
 		pro.setProperty("title","blah");
 		pro.setProperty("acceptgrades","blah"); 
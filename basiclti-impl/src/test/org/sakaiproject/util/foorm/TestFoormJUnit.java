@@ -190,6 +190,124 @@ public class TestFoormJUnit {
 
     }
 
+    /* These tests check that the parsed FormModel gives the same results as the String[] models */
+
+    @Test
+	public void testFieldSpec() {
+	FieldSpec spec = FieldSpec.get("sendname:radio:label=bl_sendname:choices=off,on,content");
+	assertEquals("sendname", spec.getField());
+	assertEquals("radio", spec.getType());
+	assertEquals("bl_sendname", spec.getProperty("label"));
+	assertEquals("off,on,content", spec.getProperty("choices"));
+	assertEquals("40", spec.getProperty("size", "40"));
+	assertNull(spec.getProperty("required"));
+	assertSame(spec, FieldSpec.get("sendname:radio:label=bl_sendname:choices=off,on,content"));
+
+	Foorm foorm = new Foorm();
+	for (String line : test_form) {
+	    Properties info = foorm.parseFormString(line);
+	    assertEquals(info, FieldSpec.parse(line).toProperties());
+	}
+    }
+
+    @Test
+	public void testFormModelInterned() {
+	FormModel model = FormModel.intern(test_form);
+	assertSame(model, FormModel.get(test_form));
+	assertSame(model, FormModel.intern(test_form));
+	assertTrue(model.getId() > 0);
+	assertEquals(test_form.length, model.size());
+	assertTrue(Arrays.equals(test_form, model.getLines()));
+	assertNotSame(model, FormModel.get(test_form_2));
+
+	// A filtered form is a new array each call, so it is never kept
+	HashMap<String, Object> crow = new HashMap<String, Object>();
+	crow.put("allowtitle", Integer.valueOf(0));
+	String[] filtered = new Foorm().filterForm(crow, test_form);
+	FormModel once = FormModel.get(filtered);
+	assertNotSame(once, FormModel.get(filtered));
+	assertEquals(0, once.getId());
+	assertEquals(filtered.length, once.size());
+	// Its lines still share the parsed fields of the model it came from
+	assertSame(model.getSpec(0), once.getSpec(0));
+    }
+
+    @Test
+	public void testFormModelOutputUnchanged() {
+	Foorm foorm = new Foorm();
+	FormModel model = FormModel.get(test_form);
+
+	assertEquals("[id, title, preferheight, sendname, acceptgrades, homepage, webpage, custom, created_at, updated_at]",
+	    Arrays.toString(foorm.getFields(test_form)));
+	assertTrue(Arrays.equals(foorm.getFields(test_form), foorm.getFields(model)));
+
+	assertEquals("lti_content.id AS id, lti_content.title AS title, lti_content.preferheight AS preferheight, " +
+	    "lti_content.sendname AS sendname, lti_content.acceptgrades AS acceptgrades, lti_content.homepage AS homepage, " +
+	    "lti_content.webpage AS webpage, lti_content.custom AS custom, lti_content.created_at AS created_at, " +
+	    "lti_content.updated_at AS updated_at", foorm.formSelect("lti_content", model));
+	assertEquals(foorm.formSelect(test_form), foorm.formSelect(model));
+
+	assertEquals("id", foorm.formSqlKey(model));
+	String[] sqls = foorm.formSqlTable("lti_content", model, "mysql", false);
+	assertEquals(1, sqls.length);
+	assertEquals("CREATE TABLE lti_content (\n    id INTEGER NOT NULL AUTO_INCREMENT,\n    title VARCHAR(80),\n" +
+	    "    preferheight INT,\n    sendname TINYINT DEFAULT '0',\n    acceptgrades TINYINT DEFAULT '0',\n" +
+	    "    homepage VARCHAR(100),\n    webpage VARCHAR(100),\n    custom TEXT(1024),\n" +
+	    "    created_at DATETIME NOT NULL,\n    updated_at DATETIME NOT NULL,\n PRIMARY KEY( id )\n)\n", sqls[0]);
+	assertTrue(Arrays.equals(foorm.formSqlTable("lti_content", test_form, "oracle", true),
+	    foorm.formSqlTable("lti_content", model, "oracle", true)));
+
+	assertEquals("[id, title, bl_preferheight, bl_sendname, bl_sendname_off, bl_sendname_on, bl_sendname_content, " +
+	    "bl_acceptgrades, bl_acceptgrades_off, bl_acceptgrades_on, homepage, webpage, bl_custom]",
+	    foorm.utilI18NStrings(model).toString());
+
+	HashMap<String, Object> row = new HashMap<String, Object>();
+	row.put("title", "Fred");
+	row.put("sendname", Integer.valueOf(1));
+	row.put("preferheight", Integer.valueOf(100));
+	assertEquals(foorm.formInput(row, test_form), foorm.formInput(row, model, null));
+	assertEquals(foorm.formOutput(row, test_form, null), foorm.formOutput(row, model, null));
+
+	HashMap<String, Object> crow = new HashMap<String, Object>();
+	crow.put("allowtitle", Integer.valueOf(0));
+	crow.put("allowwebpage", Integer.valueOf(0));
+	crow.put("sendname", Integer.valueOf(1));
+	crow.put("acceptgrades", Integer.valueOf(2));
+	String[] filtered = foorm.filterForm(crow, model);
+	assertEquals("[id:key, preferheight:integer:label=bl_preferheight:maxlength=80, " +
+	    "acceptgrades:radio:label=bl_acceptgrades:choices=off,on, homepage:url:maxlength=100, " +
+	    "custom:textarea:label=bl_custom:rows=5:cols=25:maxlength=1024, created_at:autodate, updated_at:autodate]",
+	    Arrays.toString(filtered));
+	assertTrue(Arrays.equals(filtered, foorm.filterForm(crow, test_form)));
+
+	Properties pro = new Properties();
+	pro.setProperty("title", "blah");
+	pro.setProperty("preferheight", "zz");
+	pro.setProperty("homepage", "ftp://www.cnn.com/");
+	HashMap<String, Object> rm1 = new HashMap<String, Object>();
+	HashMap<String, Object> rm2 = new HashMap<String, Object>();
+	String err1 = foorm.formExtract(pro, test_form, null, false, rm1, null);
+	String err2 = foorm.formExtract(pro, model, null, false, rm2, null);
+	assertEquals("Field should be an integer: bl_preferheight, Field is not a url: homepage", err1);
+	assertEquals(err1, err2);
+	assertEquals(rm1, rm2);
+    }
+
+    @Test
+	public void testSeekPaging() {
+	Foorm foorm = new Foorm();
+	assertEquals("lti_content.id > ?", foorm.getSeekWhere(null, "lti_content.id", false));
+	assertEquals("lti_content.id < ?", foorm.getSeekWhere("lti_content.id", "lti_content.id", true));
+	assertEquals("lti_content.id DESC", foorm.getSeekOrder("lti_content.id", "lti_content.id", true));
+	assertEquals("[42]", Arrays.toString(foorm.getSeekValues(null, "id", null, Long.valueOf(42))));
+
+	assertEquals("( created_at > ? OR ( created_at = ? AND id > ? ) )", foorm.getSeekWhere("created_at", "id", false));
+	assertEquals("( created_at < ? OR ( created_at = ? AND id < ? ) )", foorm.getSeekWhere("created_at", "id", true));
+	assertEquals("created_at, id", foorm.getSeekOrder("created_at", "id", false));
+	assertEquals("created_at DESC, id DESC", foorm.getSeekOrder("created_at", "id", true));
+	assertEquals("[t, t, 42]", Arrays.toString(foorm.getSeekValues("created_at", "id", "t", Long.valueOf(42))));
+    }
+
     /************* database tests **********************/
     /* 
      *  These database tests are currently commented out as:
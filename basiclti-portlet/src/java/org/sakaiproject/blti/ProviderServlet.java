@@ -46,6 +46,7 @@ import org.sakaiproject.authz.api.SecurityAdvisor;
 import org.sakaiproject.authz.cover.SecurityService;
 import org.sakaiproject.lti.api.BLTIProcessor;
 import org.sakaiproject.lti.api.LTIException;
+import org.sakaiproject.basiclti.util.SakaiBLTIUtil;
 import org.sakaiproject.basiclti.util.ShaUtil;
 import org.sakaiproject.component.cover.ComponentManager;
 import org.sakaiproject.component.cover.ServerConfigurationService;
@@ -177,6 +178,7 @@ public class ProviderServlet extends HttpServlet {
         });
         
         setupProfile2Methods();
+        SakaiBLTIUtil.configureNonceStore();
 	}
 	
     /**
@@ -204,11 +204,11 @@ public class IMSBLTIPortlet extends GenericPortlet {
 				placement.getPlacementConfig().setProperty("imsti.placementsecret", uuid);
 				placement.getPlacementConfig().setProperty("imsti.placementsecretdate", date_secret);
 				placement.save();
+				SakaiBLTIUtil.invalidatePlacementCache(placement.getId());
 			}
 
-			// Check to see if our launch will be successful
-			String[] retval = SakaiBLTIUtil.postLaunchHTML(placement.getId(), rb);
-			if ( retval.length > 1 ) {
+			// Check to see if our launch will be successful - the iframe does the launch
+			if ( SakaiBLTIUtil.canLaunch(placement) ) {
 				String iframeUrl = "/access/basiclti/site/"+context+"/"+placement.getId();
 				String frameHeight =  getCorrectProperty(request, "frameheight", null);
 				dPrint("fh="+frameHeight);
@@ -225,6 +225,7 @@ public class IMSBLTIPortlet extends GenericPortlet {
 				if ( forcePopup && ! "on".equals(newPage) ) {
 					placement.getPlacementConfig().setProperty("imsti.newpage","on");
 					placement.save();
+					SakaiBLTIUtil.invalidatePlacementCache(placement.getId());
 				}
 
 				String maximize =  getCorrectProperty(request, "maximize", null);
@@ -809,6 +810,7 @@ public class IMSBLTIPortlet extends GenericPortlet {
 				// Event event = EventTrackingService.newEvent(EVENT_BASICLTI_CONFIG, launch_url, true);
 				LocalEventTrackingService.post(event);
 				prefs.store();
+				SakaiBLTIUtil.invalidatePlacementCache(placement.getId());
 			}
 
 			pSession.setAttribute("sakai.view", "main");
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2014 The Sakai Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+/**
+ * Remembers the nonces of recently accepted messages so that a replayed
+ * message can be refused. An implementation only has to remember a nonce
+ * for as long as its timestamp would be accepted by the validator.
+ * <p>
+ * SimpleNonceStore keeps the nonces in memory, which is fine for a single
+ * server. A cluster should plug in an implementation backed by a shared
+ * store with {@link SimpleOAuthValidator#setDefaultNonceStore}.
+ */
+public interface NonceStore {
+
+    /**
+     * Record the use of a nonce.
+     *
+     * @param consumerKey
+     *            the oauth_consumer_key of the message
+     * @param nonce
+     *            the oauth_nonce of the message
+     * @param timestampMsec
+     *            the oauth_timestamp of the message in milliseconds
+     * @return true if this is the first time the combination has been seen,
+     *         false if it has been used before or cannot be recorded
+     */
+    boolean addNonce(String consumerKey, String nonce, long timestampMsec);
+
+}
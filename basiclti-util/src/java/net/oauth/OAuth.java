@@ -16,12 +16,9 @@
 
 package net.oauth;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
-import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -143,9 +140,9 @@ public class OAuth {
     @SuppressWarnings("rawtypes")
 	public static String formEncode(Iterable<? extends Map.Entry> parameters)
             throws IOException {
-        ByteArrayOutputStream b = new ByteArrayOutputStream();
+        StringBuilder b = new StringBuilder();
         formEncode(parameters, b);
-        return new String(b.toByteArray());
+        return b.toString();
     }
 
     /**
@@ -155,19 +152,35 @@ public class OAuth {
     @SuppressWarnings("rawtypes")
 	public static void formEncode(Iterable<? extends Map.Entry> parameters,
             OutputStream into) throws IOException {
+        StringBuilder b = new StringBuilder();
+        formEncode(parameters, b);
+        // Percent encoded text is all ASCII
+        int length = b.length();
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = (byte) b.charAt(i);
+        }
+        into.write(bytes);
+    }
+
+    /**
+     * Append a form-urlencoded document to the given builder, containing the
+     * given sequence of name/value pairs.
+     */
+    @SuppressWarnings("rawtypes")
+	public static void formEncode(Iterable<? extends Map.Entry> parameters,
+            StringBuilder into) {
         if (parameters != null) {
             boolean first = true;
             for (Map.Entry parameter : parameters) {
                 if (first) {
                     first = false;
                 } else {
-                    into.write('&');
+                    into.append('&');
                 }
-                into.write(percentEncode(toString(parameter.getKey()))
-                        .getBytes());
-                into.write('=');
-                into.write(percentEncode(toString(parameter.getValue()))
-                        .getBytes());
+                percentEncode(toString(parameter.getKey()), into);
+                into.append('=');
+                percentEncode(toString(parameter.getValue()), into);
             }
         }
     }
@@ -200,24 +213,91 @@ public class OAuth {
             if (p.length() > 0) {
                 p.append("&");
             }
-            p.append(OAuth.percentEncode(toString(v)));
+            percentEncode(toString(v), p);
         }
         return p.toString();
     }
 
+    /**
+     * Encode a string as OAuth requires - the unreserved characters
+     * ALPHA, DIGIT, '-', '.', '_' and '~' are left alone and every other
+     * character is UTF-8 encoded with each byte written as %XX.
+     */
     public static String percentEncode(String s) {
         if (s == null) {
             return "";
         }
-        try {
-            return URLEncoder.encode(s, ENCODING)
-                    // OAuth encodes some characters differently:
-                    .replace("+", "%20").replace("*", "%2A")
-                    .replace("%7E", "~");
-            // This could be done faster with more hand-crafted code.
-        } catch (UnsupportedEncodingException wow) {
-            throw new RuntimeException(wow.getMessage(), wow);
+        int length = s.length();
+        int i = 0;
+        while (i < length && isUnreserved(s.charAt(i))) {
+            i++;
+        }
+        if (i == length) {
+            // The common case - nothing to encode
+            return s;
         }
+        StringBuilder into = new StringBuilder(length + 16);
+        into.append(s, 0, i);
+        percentEncode(s, i, into);
+        return into.toString();
+    }
+
+    /** Append the percent encoding of the given string to a builder. */
+    public static void percentEncode(String s, StringBuilder into) {
+        if (s != null) {
+            percentEncode(s, 0, into);
+        }
+    }
+
+    private static void percentEncode(String s, int start, StringBuilder into) {
+        int length = s.length();
+        for (int i = start; i < length; i++) {
+            char c = s.charAt(i);
+            if (isUnreserved(c)) {
+                into.append(c);
+            } else if (c < 0x80) {
+                appendEscaped(c, into);
+            } else if (c < 0x800) {
+                appendEscaped(0xC0 | (c >> 6), into);
+                appendEscaped(0x80 | (c & 0x3F), into);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                appendEscaped(0xF0 | (cp >> 18), into);
+                appendEscaped(0x80 | ((cp >> 12) & 0x3F), into);
+                appendEscaped(0x80 | ((cp >> 6) & 0x3F), into);
+                appendEscaped(0x80 | (cp & 0x3F), into);
+            } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                // An unpaired surrogate cannot be encoded, the UTF-8
+                // encoder substitutes '?' so we do the same
+                appendEscaped('?', into);
+            } else {
+                appendEscaped(0xE0 | (c >> 12), into);
+                appendEscaped(0x80 | ((c >> 6) & 0x3F), into);
+                appendEscaped(0x80 | (c & 0x3F), into);
+            }
+        }
+    }
+
+    private static final boolean[] UNRESERVED = new boolean[128];
+    static {
+        for (char c = 'a'; c <= 'z'; c++) UNRESERVED[c] = true;
+        for (char c = 'A'; c <= 'Z'; c++) UNRESERVED[c] = true;
+        for (char c = '0'; c <= '9'; c++) UNRESERVED[c] = true;
+        UNRESERVED['-'] = true;
+        UNRESERVED['.'] = true;
+        UNRESERVED['_'] = true;
+        UNRESERVED['~'] = true;
+    }
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    private static boolean isUnreserved(char c) {
+        return c < 128 && UNRESERVED[c];
+    }
+
+    private static void appendEscaped(int b, StringBuilder into) {
+        into.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
     }
 
     public static String decodePercent(String s) {
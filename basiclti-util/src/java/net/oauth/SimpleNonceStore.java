@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 The Sakai Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.oauth;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An in memory NonceStore.
+ * <p>
+ * OAuth timestamps are in seconds, so nonces are kept in a ring of one
+ * bucket per second, enough buckets to cover the timestamp window into the
+ * past and the future. A bucket is emptied in one step when it is reused for
+ * a newer second, so old nonces expire as the window slides without any
+ * scanning. Each bucket has its own lock so threads working on different
+ * seconds do not contend.
+ * <p>
+ * The total number of nonces held is limited. When the limit is reached
+ * the oldest second still in the window is forgotten to make room, and if
+ * that is not enough the nonce is accepted without being recorded. Either
+ * way a replay of a forgotten nonce could get through, which is logged, but
+ * a fresh nonce is never reported as used - refusing good messages because
+ * the store is full would turn a busy server into an outage.
+ *
+ * @author Sakai Foundation
+ */
+public class SimpleNonceStore implements NonceStore {
+
+    private static Log M_log = LogFactory.getLog(SimpleNonceStore.class);
+
+    /** By default remember up to this many nonces. */
+    public static final int DEFAULT_MAX_NONCES = 200000;
+
+    private static final long BUCKET_MSEC = 1000L;
+
+    // Results of trying to add to a bucket
+    private static final int ADDED = 0;
+    private static final int REFUSED = 1;
+    private static final int FULL = 2;
+
+    private static class Bucket {
+        long second = Long.MIN_VALUE;
+        Set<String> nonces = new HashSet<String>();
+    }
+
+    private final long window;
+    private final int maxNonces;
+    private final Bucket[] buckets;
+    private final AtomicInteger count = new AtomicInteger();
+
+    /**
+     * Construct a store for the default validator window.
+     */
+    public SimpleNonceStore() {
+        this(SimpleOAuthValidator.DEFAULT_TIMESTAMP_WINDOW, DEFAULT_MAX_NONCES);
+    }
+
+    /**
+     * @param timestampWindowMsec
+     *            how far into the past and the future timestamps are accepted
+     * @param maxNonces
+     *            the largest number of nonces to hold at once
+     */
+    public SimpleNonceStore(long timestampWindowMsec, int maxNonces) {
+        this.window = timestampWindowMsec;
+        this.maxNonces = maxNonces;
+        // Two windows plus a bucket either side for rounding
+        int size = (int) ((2 * timestampWindowMsec) / BUCKET_MSEC) + 3;
+        buckets = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new Bucket();
+        }
+    }
+
+    public boolean addNonce(String consumerKey, String nonce, long timestampMsec) {
+        long now = currentTimeMsec();
+        if (timestampMsec < now - window || timestampMsec > now + window) {
+            return false;
+        }
+        long second = floorDiv(timestampMsec, BUCKET_MSEC);
+        Bucket bucket = buckets[(int) floorMod(second, buckets.length)];
+        String key = consumerKey + '&' + nonce;
+        int result = add(bucket, second, key);
+        if (result == FULL) {
+            // Make room outside of the bucket lock and try again
+            expire(now);
+            result = add(bucket, second, key);
+            while (result == FULL && dropOldest(second) > 0) {
+                result = add(bucket, second, key);
+            }
+            if (result == FULL) {
+                M_log.warn("Nonce store is full with " + size() + " nonces for the current second, accepting " +
+                        "a nonce without recording it");
+                return true;
+            }
+        }
+        return result == ADDED;
+    }
+
+    private int add(Bucket bucket, long second, String key) {
+        synchronized (bucket) {
+            if (bucket.second < second) {
+                // This bucket was holding a second that has left the window
+                count.addAndGet(-bucket.nonces.size());
+                bucket.nonces = new HashSet<String>();
+                bucket.second = second;
+            } else if (bucket.second > second) {
+                // Cannot happen for timestamps inside the window
+                return REFUSED;
+            }
+            if (bucket.nonces.contains(key)) {
+                return REFUSED;
+            }
+            if (count.get() >= maxNonces) {
+                return FULL;
+            }
+            bucket.nonces.add(key);
+            count.incrementAndGet();
+            return ADDED;
+        }
+    }
+
+    /**
+     * Empty the buckets that are no longer in the window - this is only
+     * needed when the store is full as buckets are otherwise emptied
+     * when they are reused.
+     *
+     * @return the number of nonces released
+     */
+    protected int expire(long now) {
+        long oldest = floorDiv(now - window, BUCKET_MSEC);
+        int released = 0;
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                if (bucket.second < oldest && bucket.nonces.size() > 0) {
+                    released += bucket.nonces.size();
+                    count.addAndGet(-bucket.nonces.size());
+                    bucket.nonces = new HashSet<String>();
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Forget the oldest second that is still held, other than the one being
+     * added to, when the store is full of nonces that are all in the window.
+     *
+     * @return the number of nonces released
+     */
+    protected int dropOldest(long keep) {
+        Bucket oldest = null;
+        long oldestSecond = Long.MAX_VALUE;
+        for (Bucket bucket : buckets) {
+            synchronized (bucket) {
+                if (bucket.second < oldestSecond && bucket.second != keep && bucket.nonces.size() > 0) {
+                    oldest = bucket;
+                    oldestSecond = bucket.second;
+                }
+            }
+        }
+        if (oldest == null) {
+            return 0;
+        }
+        int released = 0;
+        synchronized (oldest) {
+            // Another thread may have reused or emptied it since
+            if (oldest.second == oldestSecond) {
+                released = oldest.nonces.size();
+                count.addAndGet(-released);
+                oldest.nonces = new HashSet<String>();
+            }
+        }
+        if (released > 0) {
+            M_log.warn("Nonce store is full (" + maxNonces + "), forgot " + released +
+                    " nonces from " + oldestSecond + " that are still in the window");
+        }
+        return released;
+    }
+
+    /**
+     * @return the number of nonces currently held
+     */
+    public int size() {
+        return count.get();
+    }
+
+    protected long currentTimeMsec() {
+        return System.currentTimeMillis();
+    }
+
+    private static long floorDiv(long x, long y) {
+        long r = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) r--;
+        return r;
+    }
+
+    private static long floorMod(long x, long y) {
+        return x - floorDiv(x, y) * y;
+    }
+}
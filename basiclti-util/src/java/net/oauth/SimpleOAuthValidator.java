@@ -31,7 +31,8 @@ import net.oauth.signature.OAuthSignatureMethod;
 
 /**
  * A simple OAuthValidator, which checks the version, whether the timestamp
- * is close to now and the signature is valid. Each check may be overridden.
+ * is close to now, the signature is valid and the nonce has not been used
+ * before. Each check may be overridden.
  *
  * @author Dirk Balfanz
  * @author John Kristian
@@ -41,6 +42,21 @@ public class SimpleOAuthValidator implements OAuthValidator {
     /** The default window for timestamps is 5 minutes. */
     public static final long DEFAULT_TIMESTAMP_WINDOW = 5 * 60 * 1000L;
 
+    private static volatile NonceStore defaultNonceStore = new SimpleNonceStore();
+
+    /**
+     * Replace the store used by validators that were not given one, for
+     * example with one that is shared across a cluster. Setting null turns
+     * off replay detection.
+     */
+    public static void setDefaultNonceStore(NonceStore nonceStore) {
+        defaultNonceStore = nonceStore;
+    }
+
+    public static NonceStore getDefaultNonceStore() {
+        return defaultNonceStore;
+    }
+
     /**
      * Names of parameters that may not appear twice in a valid message.
      * This limitation is specified by OAuth Core <a
@@ -77,13 +93,24 @@ public class SimpleOAuthValidator implements OAuthValidator {
      *            the maximum acceptable oauth_version
      */
     public SimpleOAuthValidator(long timestampWindowMsec, double maxVersion) {
+        this(timestampWindowMsec, maxVersion, null);
+    }
+
+    /**
+     * @param nonceStore
+     *            where to remember nonces, or null to use the default store
+     *            in effect when each message is validated
+     */
+    public SimpleOAuthValidator(long timestampWindowMsec, double maxVersion, NonceStore nonceStore) {
         this.timestampWindow = timestampWindowMsec;
         this.maxVersion = maxVersion;
+        this.nonceStore = nonceStore;
     }
 
     protected final double minVersion = 1.0;
     protected final double maxVersion;
     protected final long timestampWindow;
+    protected final NonceStore nonceStore;
 
     /** {@inherit} 
      * @throws URISyntaxException */
@@ -93,6 +120,9 @@ public class SimpleOAuthValidator implements OAuthValidator {
         validateVersion(message);
         validateTimestampAndNonce(message);
         validateSignature(message, accessor);
+        // Only record nonces from messages that are signed correctly, so
+        // that unsigned traffic cannot fill the store
+        validateNonce(message);
     }
 
     /** Throw an exception if any SINGLE_PARAMETERS occur repeatedly. */
@@ -143,7 +173,11 @@ public class SimpleOAuthValidator implements OAuthValidator {
         }
     }
 
-    /** This implementation doesn't check the nonce value. */
+    /**
+     * This implementation only checks that the nonce is present, it is
+     * checked against earlier messages by validateNonce once the signature
+     * has been validated.
+     */
     protected void validateTimestampAndNonce(OAuthMessage message)
     throws IOException, OAuthProblemException {
         message.requireParameters(OAuth.OAUTH_TIMESTAMP, OAuth.OAUTH_NONCE);
@@ -158,6 +192,19 @@ public class SimpleOAuthValidator implements OAuthValidator {
         }
     }
 
+    /** Throw an exception if the nonce has been used before by this consumer. */
+    protected void validateNonce(OAuthMessage message)
+    throws IOException, OAuthProblemException {
+        NonceStore store = (nonceStore != null) ? nonceStore : defaultNonceStore;
+        if (store == null) {
+            return;
+        }
+        long timestamp = Long.parseLong(message.getParameter(OAuth.OAUTH_TIMESTAMP)) * 1000L;
+        if (!store.addNonce(message.getConsumerKey(), message.getParameter(OAuth.OAUTH_NONCE), timestamp)) {
+            throw new OAuthProblemException(OAuth.Problems.NONCE_USED);
+        }
+    }
+
     protected void validateSignature(OAuthMessage message, OAuthAccessor accessor)
     throws OAuthException, IOException, URISyntaxException {
         message.requireParameters(OAuth.OAUTH_CONSUMER_KEY,
@@ -18,10 +18,12 @@ package net.oauth.signature;
 
 import java.io.UnsupportedEncodingException;
 import java.security.GeneralSecurityException;
-import java.util.Arrays;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.crypto.Mac;
-import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
 
 import net.oauth.OAuth;
@@ -50,7 +52,8 @@ class HMAC_SHA1 extends OAuthSignatureMethod {
         try {
             byte[] expected = computeSignature(baseString);
             byte[] actual = decodeBase64(signature);
-            return Arrays.equals(expected, actual);
+            // Takes the same time wherever the first difference is
+            return MessageDigest.isEqual(expected, actual);
         } catch (GeneralSecurityException e) {
             throw new OAuthException(e);
         } catch (UnsupportedEncodingException e) {
@@ -60,33 +63,107 @@ class HMAC_SHA1 extends OAuthSignatureMethod {
 
     private byte[] computeSignature(String baseString)
             throws GeneralSecurityException, UnsupportedEncodingException {
-        SecretKey key = null;
+        String keyString = null;
         synchronized (this) {
-            if (this.key == null) {
-                String keyString = OAuth.percentEncode(getConsumerSecret())
+            if (this.keyString == null) {
+                this.keyString = OAuth.percentEncode(getConsumerSecret())
                         + '&' + OAuth.percentEncode(getTokenSecret());
-                byte[] keyBytes = keyString.getBytes(ENCODING);
-                this.key = new SecretKeySpec(keyBytes, MAC_NAME);
             }
-            key = this.key;
+            keyString = this.keyString;
         }
-        Mac mac = Mac.getInstance(MAC_NAME);
-        mac.init(key);
+        Mac mac = getMac(keyString);
         byte[] text = baseString.getBytes(ENCODING);
+        // doFinal leaves the Mac ready to be used again with the same key
         return mac.doFinal(text);
     }
 
+    /**
+     * Mac.getInstance and init are far more expensive than signing a base
+     * string, and a signer only lives for one message, so each thread keeps
+     * initialized Macs for the keys it has used most recently.  They are
+     * found by a digest of the key rather than the key itself, and an entry
+     * is dropped once it is MAC_TTL old whether or not it is still used.
+     */
+    private static Mac getMac(String keyString)
+            throws GeneralSecurityException, UnsupportedEncodingException {
+        byte[] keyBytes = keyString.getBytes(ENCODING);
+        MacCache cache = MACS.get();
+        long now = System.currentTimeMillis();
+        cache.expire(now);
+        String digest = base64Encode(cache.digest.digest(keyBytes));
+        CachedMac cached = cache.macs.get(digest);
+        if (cached == null) {
+            Mac mac = Mac.getInstance(MAC_NAME);
+            mac.init(new SecretKeySpec(keyBytes, MAC_NAME));
+            cached = new CachedMac(mac, now + MAC_TTL);
+            cache.macs.put(digest, cached);
+        }
+        return cached.mac;
+    }
+
+    /** How many initialized Macs each thread keeps. */
+    private static final int MACS_PER_THREAD = 16;
+
+    /** How long an initialized Mac is kept, in milliseconds. */
+    private static final long MAC_TTL = 10 * 60 * 1000L;
+
+    private static final String DIGEST_NAME = "SHA-256";
+
+    private static class CachedMac {
+        final Mac mac;
+        final long expires;
+
+        CachedMac(Mac mac, long expires) {
+            this.mac = mac;
+            this.expires = expires;
+        }
+    }
+
+    private static class MacCache {
+        final MessageDigest digest;
+        final Map<String, CachedMac> macs = new LinkedHashMap<String, CachedMac>(MACS_PER_THREAD * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedMac> eldest) {
+                return size() > MACS_PER_THREAD;
+            }
+        };
+
+        MacCache() {
+            try {
+                digest = MessageDigest.getInstance(DIGEST_NAME);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(DIGEST_NAME + " is not available", e);
+            }
+        }
+
+        void expire(long now) {
+            Iterator<CachedMac> it = macs.values().iterator();
+            while (it.hasNext()) {
+                if (it.next().expires <= now) it.remove();
+            }
+        }
+    }
+
+    private static final ThreadLocal<MacCache> MACS = new ThreadLocal<MacCache>() {
+        @Override
+        protected MacCache initialValue() {
+            return new MacCache();
+        }
+    };
+
     /** ISO-8859-1 or US-ASCII would work, too. */
     private static final String ENCODING = OAuth.ENCODING;
 
     private static final String MAC_NAME = "HmacSHA1";
 
-    private SecretKey key = null;
+    private String keyString = null;
 
     @Override
     public void setConsumerSecret(String consumerSecret) {
         synchronized (this) {
-            key = null;
+            keyString = null;
         }
         super.setConsumerSecret(consumerSecret);
     }
@@ -94,7 +171,7 @@ class HMAC_SHA1 extends OAuthSignatureMethod {
     @Override
     public void setTokenSecret(String tokenSecret) {
         synchronized (this) {
-            key = null;
+            keyString = null;
         }
         super.setTokenSecret(tokenSecret);
     }
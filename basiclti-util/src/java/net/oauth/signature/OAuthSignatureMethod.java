@@ -20,11 +20,12 @@ import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import net.oauth.OAuth;
 import net.oauth.OAuthAccessor;
@@ -69,17 +70,21 @@ public abstract class OAuthSignatureMethod {
 
 	// Allow for some confusion coming through load balancers
 	if ( baseString.startsWith(POST_HTTP) ) { 
-		otherBaseString = baseString.replaceFirst("^"+POST_HTTP,POST_SECURE);
+		otherBaseString = POST_SECURE + baseString.substring(POST_HTTP.length());
 	} else if ( baseString.startsWith(POST_SECURE) ) { 
-		otherBaseString = baseString.replaceFirst("^"+POST_SECURE, POST_HTTP);
+		otherBaseString = POST_HTTP + baseString.substring(POST_SECURE.length());
 	} else if ( baseString.startsWith(GET_HTTP) ) { 
-		otherBaseString = baseString.replaceFirst("^"+GET_HTTP,GET_SECURE);
+		otherBaseString = GET_SECURE + baseString.substring(GET_HTTP.length());
 	} else if ( baseString.startsWith(GET_SECURE) ) { 
-		otherBaseString = baseString.replaceFirst("^"+GET_SECURE, GET_HTTP);
+		otherBaseString = GET_HTTP + baseString.substring(GET_SECURE.length());
 	}
 
 	boolean valid = isValid(signature, baseString);
-	if ( ! valid && otherBaseString != null ) valid = isValid(signature, otherBaseString);
+	signatureCount.incrementAndGet();
+	if ( ! valid && otherBaseString != null ) {
+		valid = isValid(signature, otherBaseString);
+		signatureCount.incrementAndGet();
+	}
 
         if (!valid) {
             OAuthProblemException problem = new OAuthProblemException(
@@ -96,6 +101,7 @@ public abstract class OAuthSignatureMethod {
     throws OAuthException, IOException, URISyntaxException {
         String baseString = getBaseString(message);
         String signature = getSignature(baseString);
+        signatureCount.incrementAndGet();
         // Logger log = Logger.getLogger(getClass().getName());
         // if (log.isLoggable(Level.FINE)) {
         // log.fine(signature + "=getSignature(" + baseString + ")");
@@ -126,6 +132,16 @@ public abstract class OAuthSignatureMethod {
 
     public static final String _ACCESSOR = "-Accessor";
 
+    private static final AtomicLong signatureCount = new AtomicLong();
+
+    /**
+     * @return the number of signatures computed, to sign or to validate a
+     *         message, since the class was loaded
+     */
+    public static long getSignatureCount() {
+        return signatureCount.get();
+    }
+
     /** Compute the signature for the given base string. */
     protected abstract String getSignature(String baseString) throws OAuthException;
 
@@ -167,9 +183,32 @@ public abstract class OAuthSignatureMethod {
             parameters.addAll(message.getParameters());
             url = url.substring(0, q);
         }
-        return OAuth.percentEncode(message.method.toUpperCase()) + '&'
-                + OAuth.percentEncode(normalizeUrl(url)) + '&'
-                + OAuth.percentEncode(normalizeParameters(parameters));
+        String[] sorted = sortParameters(parameters);
+        StringBuilder base = new StringBuilder(estimateLength(sorted) * 5 / 4 + url.length() + 32);
+        OAuth.percentEncode(message.method.toUpperCase(), base);
+        base.append('&');
+        OAuth.percentEncode(normalizeUrl(url), base);
+        base.append('&');
+        // The normalized parameters are encoded a second time - they are
+        // already percent encoded so only '%', '=' and '&' need escaping
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0) {
+                base.append("%26");
+            }
+            String p = sorted[i];
+            int length = p.length();
+            for (int j = 0; j < length; j++) {
+                char c = p.charAt(j);
+                if (c == '%') {
+                    base.append("%25");
+                } else if (c == ' ') {
+                    base.append("%3D");
+                } else {
+                    base.append(c);
+                }
+            }
+        }
+        return base.toString();
     }
 
     protected static String normalizeUrl(String url) throws URISyntaxException {
@@ -199,15 +238,58 @@ public abstract class OAuthSignatureMethod {
         if (parameters == null) {
             return "";
         }
-        List<ComparableParameter> p = new ArrayList<ComparableParameter>(
-                parameters.size());
+        String[] sorted = sortParameters(parameters);
+        StringBuilder normalized = new StringBuilder(estimateLength(sorted));
+        for (int i = 0; i < sorted.length; i++) {
+            if (i > 0) {
+                normalized.append('&');
+            }
+            normalized.append(sorted[i].replace(' ', '='));
+        }
+        return normalized.toString();
+    }
+
+    /**
+     * Percent encode each parameter (other than the signature) as
+     * "name value" and sort them. ' ' is used because it comes before any
+     * character that can appear in a percent encoded string, so the sort
+     * is by name and then by value as the specification requires.
+     */
+    @SuppressWarnings("rawtypes")
+    private static String[] sortParameters(Collection<? extends Map.Entry> parameters) {
+        if (parameters == null) {
+            return new String[0];
+        }
+        String[] sorted = new String[parameters.size()];
+        StringBuilder scratch = new StringBuilder(64);
+        int count = 0;
         for (Map.Entry parameter : parameters) {
-            if (!"oauth_signature".equals(parameter.getKey())) {
-                p.add(new ComparableParameter(parameter));
+            Object name = parameter.getKey();
+            if ("oauth_signature".equals(name)) {
+                continue;
             }
+            Object value = parameter.getValue();
+            scratch.setLength(0);
+            OAuth.percentEncode(name == null ? null : name.toString(), scratch);
+            scratch.append(' ');
+            OAuth.percentEncode(value == null ? null : value.toString(), scratch);
+            sorted[count++] = scratch.toString();
+        }
+        if (count < sorted.length) {
+            String[] trimmed = new String[count];
+            System.arraycopy(sorted, 0, trimmed, 0, count);
+            sorted = trimmed;
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    private static int estimateLength(String[] sorted) {
+        int length = 0;
+        for (String p : sorted) {
+            length += p.length() + 1;
         }
-        Collections.sort(p);
-        return OAuth.formEncode(getParameters(p));
+        return length;
     }
 
     public static byte[] decodeBase64(String s) {
@@ -272,52 +354,4 @@ public abstract class OAuthSignatureMethod {
         registerMethodClass("PLAINTEXT" + _ACCESSOR, PLAINTEXT.class);
     }
 
-    /** An efficiently sortable wrapper around a parameter. */
-    private static class ComparableParameter implements
-            Comparable<ComparableParameter> {
-
-        @SuppressWarnings("rawtypes")
-		ComparableParameter(Map.Entry value) {
-            this.value = value;
-            String n = toString(value.getKey());
-            String v = toString(value.getValue());
-            this.key = OAuth.percentEncode(n) + ' ' + OAuth.percentEncode(v);
-            // ' ' is used because it comes before any character
-            // that can appear in a percentEncoded string.
-        }
-
-        @SuppressWarnings("rawtypes")
-		final Map.Entry value;
-
-        private final String key;
-
-        private static String toString(Object from) {
-            return (from == null) ? null : from.toString();
-        }
-
-        public int compareTo(ComparableParameter that) {
-            return this.key.compareTo(that.key);
-        }
-
-        @Override
-        public String toString() {
-            return key;
-        }
-
-    }
-
-    /** Retrieve the original parameters from a sorted collection. */
-    @SuppressWarnings("rawtypes")
-	private static List<Map.Entry> getParameters(
-            Collection<ComparableParameter> parameters) {
-        if (parameters == null) {
-            return null;
-        }
-        List<Map.Entry> list = new ArrayList<Map.Entry>(parameters.size());
-        for (ComparableParameter parameter : parameters) {
-            list.add(parameter.value);
-        }
-        return list;
-    }
-
 }
@@ -30,6 +30,9 @@ import static org.imsglobal.basiclti.BasicLTIConstants.TOOL_CONSUMER_INSTANCE_GU
 import static org.imsglobal.basiclti.BasicLTIConstants.TOOL_CONSUMER_INSTANCE_NAME;
 import static org.imsglobal.basiclti.BasicLTIConstants.TOOL_CONSUMER_INSTANCE_URL;
 
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -523,6 +526,71 @@ public class BasicLTIUtil {
 	 */
 	public static String postLaunchHTML(
 			final Map<String, String> cleanProperties, String endpoint, boolean debug) {
+		StringWriter text = new StringWriter(4096);
+		try {
+			writeLaunchHTML(text, cleanProperties, endpoint, debug);
+		} catch (IOException e) {
+			// A StringWriter does not throw
+			throw new Error(e);
+		}
+		return text.toString();
+	}
+
+	// The fixed parts of the launch form
+	private static final String FORM_START = "<div id=\"ltiLaunchFormSubmitArea\">\n<form action=\"";
+	private static final String FORM_ATTRIBUTES = "\" name=\"ltiLaunchForm\" id=\"ltiLaunchForm\" method=\"post\" "
+			+ " encType=\"application/x-www-form-urlencoded\" accept-charset=\"utf-8\">\n";
+	private static final String SUBMIT_INPUT = "<input type=\"submit\" name=\"";
+	private static final String HIDDEN_INPUT = "<input type=\"hidden\" name=\"";
+	private static final String INPUT_VALUE = "\" value=\"";
+	private static final String INPUT_END = "\"/>\n";
+	private static final String FORM_END = "</form>\n</div>\n"
+			// Paint the auto-pop up if we are transitioning from https: to http:
+			// and are not already the top frame...
+			+ "<script type=\"text/javascript\">\n"
+			+ "if (window.top!=window.self) {\n"
+			+ "  theform = document.getElementById('ltiLaunchForm');\n"
+			+ "  if ( theform && theform.action ) {\n"
+			+ "   formAction = theform.action;\n"
+			+ "   ourUrl = window.location.href;\n"
+			+ "   if ( formAction.indexOf('http://') == 0 && ourUrl.indexOf('https://') == 0 ) {\n"
+			+ "      theform.target = '_blank';\n"
+			+ "      window.console && console.log('Launching http from https in new window!');\n"
+			+ "    }\n"
+			+ "  }\n"
+			+ "}\n"
+			+ "</script>\n";
+	private static final String DEBUG_START = "<pre>\n<b>BasicLTI Endpoint</b>\n";
+	private static final String DEBUG_PARAMETERS = "\n\n<b>BasicLTI Parameters:</b>\n";
+	private static final String DEBUG_END = "</pre>\n";
+	private static final String SUBMIT_START = " <script language=\"javascript\"> \n"
+			+ "	document.getElementById(\"ltiLaunchFormSubmitArea\").style.display = \"none\";\n"
+			+ "	nei = document.createElement('input');\n"
+			+ "	nei.setAttribute('type', 'hidden');\n"
+			+ "	nei.setAttribute('name', '" + BASICLTI_SUBMIT + "');\n"
+			+ "	nei.setAttribute('value', '";
+	private static final String SUBMIT_END = "');\n"
+			+ "	document.getElementById(\"ltiLaunchForm\").appendChild(nei);\n"
+			+ "	document.ltiLaunchForm.submit(); \n" + " </script> \n";
+
+	/**
+	 * Write the HTML to render a POST form and then automatically submit it.
+	 * This writes exactly what {@link #postLaunchHTML(Map, String, boolean)}
+	 * returns, without building it up in memory first.
+	 * 
+	 * @param out
+	 *		  Where to write the form - usually the response Writer.
+	 * @param cleanProperties
+	 *		  Assumes you have called {@link #cleanupProperties(Properties)}
+	 *		  beforehand.
+	 * @param endpoint
+	 *		  The LTI launch url.
+	 * @param debug
+	 *		  Useful for viewing the HTML before posting to end point.
+	 */
+	public static void writeLaunchHTML(Writer out,
+			final Map<String, String> cleanProperties, String endpoint, boolean debug)
+			throws IOException {
 		if (cleanProperties == null || cleanProperties.isEmpty()) {
 			throw new IllegalArgumentException(
 					"cleanProperties == null || cleanProperties.isEmpty()");
@@ -537,88 +605,47 @@ public class BasicLTIUtil {
 		} else {
 			newMap = cleanProperties;
 		}
-		StringBuilder text = new StringBuilder();
 		// paint form
-		text.append("<div id=\"ltiLaunchFormSubmitArea\">\n");
-		text.append("<form action=\"");
-		text.append(endpoint);
-		text.append("\" name=\"ltiLaunchForm\" id=\"ltiLaunchForm\" method=\"post\" ");
-		text.append(" encType=\"application/x-www-form-urlencoded\" accept-charset=\"utf-8\">\n");
+		out.write(FORM_START);
+		out.write(endpoint);
+		out.write(FORM_ATTRIBUTES);
 		for (Entry<String, String> entry : newMap.entrySet()) {
 			String key = entry.getKey();
 			String value = entry.getValue();
 			if (value == null)
 				continue;
+			out.write(key.equals(BASICLTI_SUBMIT) ? SUBMIT_INPUT : HIDDEN_INPUT);
 			// This will escape the contents pretty much - at least
 			// we will be safe and not generate dangerous HTML
-			key = htmlspecialchars(key);
-			value = htmlspecialchars(value);
-			if (key.equals(BASICLTI_SUBMIT)) {
-				text.append("<input type=\"submit\" name=\"");
-			} else {
-				text.append("<input type=\"hidden\" name=\"");
-			}
-			text.append(key);
-			text.append("\" value=\"");
-			text.append(value);
-			text.append("\"/>\n");
-		}
-		text.append("</form>\n");
-		text.append("</div>\n");
-
-		// Paint the auto-pop up if we are transitioning from https: to http:
-		// and are not already the top frame...
-		text.append("<script type=\"text/javascript\">\n");
-		text.append("if (window.top!=window.self) {\n");
-    		text.append("  theform = document.getElementById('ltiLaunchForm');\n");
-		text.append("  if ( theform && theform.action ) {\n");
-		text.append("   formAction = theform.action;\n");
-		text.append("   ourUrl = window.location.href;\n");
-		text.append("   if ( formAction.indexOf('http://') == 0 && ourUrl.indexOf('https://') == 0 ) {\n");
-		text.append("      theform.target = '_blank';\n");
-		text.append("      window.console && console.log('Launching http from https in new window!');\n");
-		text.append("    }\n");
-		text.append("  }\n");
-		text.append("}\n");
-		text.append("</script>\n");
+			writeHtmlSpecialChars(out, key);
+			out.write(INPUT_VALUE);
+			writeHtmlSpecialChars(out, value);
+			out.write(INPUT_END);
+		}
+		out.write(FORM_END);
 
 		// paint debug output
 		if (debug) {
-			text.append("<pre>\n");
-			text.append("<b>BasicLTI Endpoint</b>\n");
-			text.append(endpoint);
-			text.append("\n\n");
-			text.append("<b>BasicLTI Parameters:</b>\n");
+			out.write(DEBUG_START);
+			out.write(endpoint);
+			out.write(DEBUG_PARAMETERS);
 			for (Entry<String, String> entry : newMap.entrySet()) {
 				String key = entry.getKey();
 				String value = entry.getValue();
 				if (value == null)
 					continue;
-				text.append(htmlspecialchars(key));
-				text.append("=");
-				text.append(htmlspecialchars(value));
-				text.append("\n");
+				writeHtmlSpecialChars(out, key);
+				out.write('=');
+				writeHtmlSpecialChars(out, value);
+				out.write('\n');
 			}
-			text.append("</pre>\n");
+			out.write(DEBUG_END);
 		} else {
 			// paint auto submit script
-			text
-				.append(" <script language=\"javascript\"> \n"
-						+ "	document.getElementById(\"ltiLaunchFormSubmitArea\").style.display = \"none\";\n"
-						+ "	nei = document.createElement('input');\n"
-						+ "	nei.setAttribute('type', 'hidden');\n"
-						+ "	nei.setAttribute('name', '"
-						+ BASICLTI_SUBMIT
-						+ "');\n"
-						+ "	nei.setAttribute('value', '"
-						+ newMap.get(BASICLTI_SUBMIT)
-						+ "');\n"
-						+ "	document.getElementById(\"ltiLaunchForm\").appendChild(nei);\n"
-						+ "	document.ltiLaunchForm.submit(); \n" + " </script> \n");
-		}
-
-		String htmltext = text.toString();
-		return htmltext;
+			out.write(SUBMIT_START);
+			out.write(String.valueOf(newMap.get(BASICLTI_SUBMIT)));
+			out.write(SUBMIT_END);
+		}
 	}
 
 	/**
@@ -821,6 +848,29 @@ public class BasicLTIUtil {
 		props.setProperty(key, value);
 	}
 
+	// The same escaping as htmlspecialchars() in one pass - the runs of
+	// text between special characters (for most keys, all of it) are
+	// written as they are
+	public static void writeHtmlSpecialChars(Writer out, String input) throws IOException {
+		int length = input.length();
+		int from = 0;
+		for (int i = 0; i < length; i++) {
+			String escape;
+			switch (input.charAt(i)) {
+				case '&': escape = "&amp;"; break;
+				case '"': escape = "&quot;"; break;
+				case '<': escape = "&lt;"; break;
+				case '>': escape = "&gt;"; break;
+				case '=': escape = "&#61;"; break;
+				default: continue;
+			}
+			if (i > from) out.write(input, from, i - from);
+			out.write(escape);
+			from = i + 1;
+		}
+		if (length > from) out.write(input, from, length - from);
+	}
+
 	// Basic utility to encode form text - handle the "safe cases"
 	public static String htmlspecialchars(String input) {
 		if (input == null)
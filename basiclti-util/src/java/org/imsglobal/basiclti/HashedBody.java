@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2014 IMS GLobal Learning Consortium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.imsglobal.basiclti;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A request body read once from its stream.  The SHA-1 digest used for
+ * oauth_body_hash is computed as the bytes arrive, and the bytes are kept
+ * so they can be handed straight to a parser - there is no second copy
+ * and no trip through a String.
+ */
+public class HashedBody {
+
+	public static final int DEFAULT_MAX_BODY_SIZE = 10000000;
+
+	private static final int CHUNK = 8192;
+
+	private static volatile int maxBodySize = DEFAULT_MAX_BODY_SIZE;
+
+	private byte [] bytes;
+	private int length = 0;
+	private boolean tooLarge = false;
+	private String hash = null;
+
+	/**
+	 * The largest body read by default, in bytes.  Anything bigger is
+	 * refused rather than held in memory.
+	 */
+	public static void setMaxBodySize(int max)
+	{
+		if ( max < 1 ) throw new IllegalArgumentException("Maximum body size must be positive");
+		maxBodySize = max;
+	}
+
+	public static int getMaxBodySize()
+	{
+		return maxBodySize;
+	}
+
+	public static HashedBody read(InputStream in, int contentLength) throws IOException
+	{
+		return read(in, contentLength, maxBodySize);
+	}
+
+	/**
+	 * Read and hash the whole stream.  contentLength is only used to size
+	 * the buffer and may be -1 when it is not known.  If there are more
+	 * than maxBytes the read stops and isTooLarge() is true.
+	 */
+	public static HashedBody read(InputStream in, int contentLength, int maxBytes) throws IOException
+	{
+		MessageDigest md;
+		try {
+			md = MessageDigest.getInstance("SHA1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+
+		HashedBody body = new HashedBody();
+		int size = contentLength > 0 && contentLength <= maxBytes ? contentLength : Math.min(CHUNK, maxBytes);
+		body.bytes = new byte[size];
+		while ( true ) {
+			if ( body.length == body.bytes.length ) {
+				// A full buffer is usually the end of a body whose length
+				// was known - only grow if there really is more
+				int next = in.read();
+				if ( next < 0 ) break;
+				if ( body.length >= maxBytes ) {
+					body.tooLarge = true;
+					return body;
+				}
+				byte [] bigger = new byte[(int) Math.min((long) maxBytes, body.bytes.length * 2L)];
+				System.arraycopy(body.bytes, 0, bigger, 0, body.length);
+				body.bytes = bigger;
+				body.bytes[body.length++] = (byte) next;
+				md.update((byte) next);
+			}
+			int read = in.read(body.bytes, body.length, body.bytes.length - body.length);
+			if ( read < 0 ) break;
+			md.update(body.bytes, body.length, read);
+			body.length += read;
+		}
+		body.hash = new String(Base64.encode(md.digest()));
+		return body;
+	}
+
+	public boolean isTooLarge()
+	{
+		return tooLarge;
+	}
+
+	public int getLength()
+	{
+		return length;
+	}
+
+	/**
+	 * The base64 SHA-1 of the body, as sent in oauth_body_hash
+	 */
+	public String getHash()
+	{
+		return hash;
+	}
+
+	public boolean matches(String oauth_body_hash)
+	{
+		if ( hash == null || oauth_body_hash == null ) return false;
+		return MessageDigest.isEqual(hash.getBytes(), oauth_body_hash.getBytes());
+	}
+
+	public InputStream getInputStream()
+	{
+		return new ByteArrayInputStream(bytes, 0, length);
+	}
+
+	public String getString(String charset) throws UnsupportedEncodingException
+	{
+		return new String(bytes, 0, length, charset);
+	}
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 IMS GLobal Learning Consortium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.imsglobal.basiclti;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.imsglobal.json.IMSJSONRequest;
+import org.imsglobal.lti2.LTI2Constants;
+import org.imsglobal.pox.IMSPOXRequest;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * The records of a replaceResultBatchRequest - many replaceResult records
+ * in one request - read from either the POX or the JSON form, and the
+ * response to it once each record has a status.
+ * <p>
+ * A status is Boolean.TRUE when the result was stored, otherwise the
+ * message saying why it was not.
+ */
+public class OutcomeBatch {
+
+	public static final String REPLACE_RESULT_BATCH = "replaceResultBatchRequest";
+	public static final String RESULT_REPLACED = "Result replaced";
+
+	private static final String RECORD = "/replaceResultBatchResponse/resultRecord";
+
+	private final List<String> sourcedids;
+	private final List<Double> grades;
+	private final List<String> comments;
+
+	private OutcomeBatch(int size)
+	{
+		sourcedids = new ArrayList<String>(size);
+		grades = new ArrayList<Double>(size);
+		comments = new ArrayList<String>(size);
+	}
+
+	/**
+	 * @param body
+	 *		The replaceResultBatchRequest element
+	 */
+	public static OutcomeBatch fromXml(Element body)
+	{
+		List<Element> records = new ArrayList<Element>();
+		for ( Node n = body.getFirstChild(); n != null; n = n.getNextSibling() ) {
+			if ( n instanceof Element && "resultRecord".equals(n.getNodeName()) ) records.add((Element) n);
+		}
+		OutcomeBatch batch = new OutcomeBatch(records.size());
+		for ( Element record : records ) {
+			batch.add(getChildText(record, "sourcedGUID", "sourcedId"),
+				getChildText(record, "result", "resultScore", "textString"),
+				getChildText(record, "result", "resultData", "text"));
+		}
+		return batch;
+	}
+
+	/**
+	 * @param results
+	 *		The "results" array of the request - anything in it that is not
+	 *		a Map is taken as an empty record
+	 */
+	public static OutcomeBatch fromJSON(List<?> results)
+	{
+		OutcomeBatch batch = new OutcomeBatch(results.size());
+		for ( Object o : results ) {
+			Map<?, ?> record = (o instanceof Map) ? (Map<?, ?>) o : new TreeMap<String, Object>();
+			Object score = record.get(LTI2Constants.RESULTSCORE);
+			if ( score instanceof Map ) score = ((Map<?, ?>) score).get(LTI2Constants.VALUE);
+			batch.add(toString(record.get("sourcedId")), toString(score),
+				toString(record.get(LTI2Constants.COMMENT)));
+		}
+		return batch;
+	}
+
+	private void add(String sourcedid, String grade, String comment)
+	{
+		sourcedids.add(sourcedid);
+		grades.add(parseGrade(grade));
+		comments.add(comment);
+	}
+
+	/**
+	 * @return A message if a batch of size records is more than max,
+	 *		otherwise null
+	 */
+	public static String checkSize(int size, int max)
+	{
+		if ( size > max ) return "count="+size+" max="+max;
+		return null;
+	}
+
+	// Returns null if the grade is missing or not a number
+	public static Double parseGrade(String grade)
+	{
+		if ( BasicLTIUtil.isBlank(grade) ) return null;
+		try {
+			return new Double(grade.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	public int size()
+	{
+		return sourcedids.size();
+	}
+
+	public List<String> getSourcedids()
+	{
+		return sourcedids;
+	}
+
+	public List<Double> getGrades()
+	{
+		return grades;
+	}
+
+	public List<String> getComments()
+	{
+		return comments;
+	}
+
+	public static int countStored(List<Object> statuses)
+	{
+		int stored = 0;
+		for ( Object status : statuses ) {
+			if ( Boolean.TRUE.equals(status) ) stored++;
+		}
+		return stored;
+	}
+
+	public static String getDescription(List<Object> statuses)
+	{
+		return countStored(statuses) + " of " + statuses.size() + " results replaced";
+	}
+
+	/**
+	 * @return The replaceResultBatchResponse element for the POX response,
+	 *		with a resultRecord holding the sourcedId and imsx_statusInfo of
+	 *		each record in the request
+	 */
+	public String getXmlResponse(List<Object> statuses)
+	{
+		List<Map<String,String>> records = new ArrayList<Map<String,String>>(statuses.size());
+		for ( int i = 0; i < statuses.size(); i++ ) {
+			Object status = statuses.get(i);
+			boolean ok = Boolean.TRUE.equals(status);
+			Map<String,String> record = new LinkedHashMap<String,String>();
+			// XMLMap skips nulls, so a missing sourcedId still has its element
+			String sourcedid = sourcedids.get(i);
+			record.put("/sourcedGUID/sourcedId", sourcedid == null ? "" : sourcedid);
+			record.put("/imsx_statusInfo/imsx_codeMajor", ok ? IMSPOXRequest.MAJOR_SUCCESS : IMSPOXRequest.MAJOR_FAILURE);
+			record.put("/imsx_statusInfo/imsx_severity", ok ? IMSPOXRequest.SEVERITY_STATUS : IMSPOXRequest.SEVERITY_ERROR);
+			record.put("/imsx_statusInfo/imsx_description", ok ? RESULT_REPLACED : String.valueOf(status));
+			records.add(record);
+		}
+		Map<String,Object> theMap = new TreeMap<String,Object>();
+		theMap.put(RECORD, records);
+		StringWriter out = new StringWriter(statuses.size() * 300);
+		try {
+			XMLMap.writeXMLFragment(theMap, out, true);
+		} catch (IOException e) {
+			// A StringWriter does not throw
+			throw new IllegalStateException(e.getMessage());
+		}
+		return out.toString();
+	}
+
+	/**
+	 * @return The "results" array for the JSON response, with the
+	 *		sourcedId and status of each record in the request
+	 */
+	public List<Map<String,Object>> getJSONResults(List<Object> statuses)
+	{
+		List<Map<String,Object>> outcomes = new ArrayList<Map<String,Object>>(statuses.size());
+		for ( int i = 0; i < statuses.size(); i++ ) {
+			Object status = statuses.get(i);
+			Map<String,Object> outcome = new TreeMap<String,Object>();
+			outcome.put("sourcedId", sourcedids.get(i));
+			if ( Boolean.TRUE.equals(status) ) {
+				outcome.put(IMSJSONRequest.STATUS, IMSJSONRequest.getStatusSuccess(RESULT_REPLACED));
+			} else {
+				outcome.put(IMSJSONRequest.STATUS, IMSJSONRequest.getStatusFailure(String.valueOf(status)));
+			}
+			outcomes.add(outcome);
+		}
+		return outcomes;
+	}
+
+	// Follow a path of child elements and return the text of the last one
+	private static String getChildText(Element element, String... path)
+	{
+		Node current = element;
+		for ( String name : path ) {
+			Node found = null;
+			for ( Node n = current.getFirstChild(); n != null; n = n.getNextSibling() ) {
+				if ( n instanceof Element && name.equals(n.getNodeName()) ) {
+					found = n;
+					break;
+				}
+			}
+			if ( found == null ) return null;
+			current = found;
+		}
+		return current.getTextContent();
+	}
+
+	private static String toString(Object o)
+	{
+		return ( o == null ) ? null : o.toString();
+	}
+}
@@ -174,8 +174,11 @@ package org.imsglobal.basiclti;
  */
 
 import java.io.ByteArrayOutputStream;
-import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -183,9 +186,8 @@ import java.util.HashSet;
 import java.util.TreeMap;
 import java.util.Iterator;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Node;
@@ -262,12 +264,7 @@ public class XMLMap {
 	public static Document documentFromString(String input)
 	{
 		try{
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance(); 
-			factory.setFeature("http://xml.org/sax/features/external-general-entities", false); 
-			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false); 
-			DocumentBuilder parser = factory.newDocumentBuilder();
-			Document document = parser.parse(new ByteArrayInputStream(input.getBytes()));
-			return document;
+			return XMLPool.parse(input.getBytes());
 		} catch (Exception e) {
 			return null;
 		}
@@ -439,6 +436,198 @@ public class XMLMap {
 		return retval;
 	}
 	
+	/**
+	 * Write the XML that getXML() would return straight to out, without
+	 * building a DOM or a String.  Each Map in a List is only expanded as it
+	 * is written, so a long list of members does not sit in memory twice.
+	 */
+	public static void writeXML(Map<?, ?> tm, Writer out, boolean pretty) throws IOException
+	{
+		writeXML(tm, out, pretty, true);
+	}
+
+	/**
+	 * Like writeXML() but without the XML declaration, for embedding in
+	 * another document.
+	 */
+	public static void writeXMLFragment(Map<?, ?> tm, Writer out, boolean pretty) throws IOException
+	{
+		writeXML(tm, out, pretty, false);
+	}
+
+	private static void writeXML(Map<?, ?> tm, Writer out, boolean pretty, boolean declaration) throws IOException
+	{
+		if ( tm == null ) return;
+		XNode root = new XNode(null);
+		addMap(root, tm);
+		try {
+			XMLStreamWriter writer = XMLPool.createStreamWriter(out);
+			if ( declaration ) writer.writeStartDocument("UTF-8", "1.0");
+			boolean first = ! declaration;
+			for ( Object child : root.content ) {
+				// Text can not go outside the document element
+				if ( ! (child instanceof XNode) ) continue;
+				if ( pretty && ! first ) writer.writeCharacters("\n");
+				writeNode(writer, (XNode) child, pretty, 0);
+				first = false;
+			}
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			IOException ioe = new IOException("Could not write XML: "+e.getMessage());
+			ioe.initCause(e);
+			throw ioe;
+		}
+	}
+
+	/*  An element on its way out.  The same map walk as iterateMap()
+	 *  builds these instead of DOM nodes - children are found by name
+	 *  rather than by scanning, and a Map from a List is kept as it is
+	 *  until its element is written.
+	 */
+	private static class XNode {
+		final String name;
+		Map<String,String> attributes = null;
+		List<Object> content = new ArrayList<Object>();
+		Map<String,List<XNode>> children = null;
+		List<Map<?, ?>> deferred = null;
+
+		XNode(String name)
+		{
+			this.name = name;
+		}
+
+		// The same rules as getOrAddChildNode()
+		XNode getOrAddChild(String nodeName, int whichNode)
+		{
+			int begpos = nodeName.indexOf('[');
+			int endpos = nodeName.indexOf(']');
+			if ( begpos > 0 && endpos > begpos && endpos < nodeName.length() ) {
+				whichNode = Integer.parseInt(nodeName.substring(begpos+1,endpos));
+				nodeName = nodeName.substring(0,begpos);
+			}
+			if ( children == null ) children = new HashMap<String,List<XNode>>();
+			List<XNode> named = children.get(nodeName);
+			if ( named == null ) {
+				named = new ArrayList<XNode>(1);
+				children.put(nodeName, named);
+			}
+			while ( named.size() <= whichNode ) {
+				XNode child = new XNode(nodeName);
+				named.add(child);
+				content.add(child);
+			}
+			return named.get(whichNode);
+		}
+	}
+
+	private static void addMap(XNode parent, Map<?, ?> tm)
+	{
+		for ( Map.Entry<?, ?> entry : tm.entrySet() ) {
+			String key = (String) entry.getKey();
+			if ( key == null ) continue;
+			if ( ! key.startsWith("/") ) continue;  // Skip
+			Object obj = entry.getValue();
+			if ( obj == null ) {
+				continue;
+			} else if ( obj instanceof String ) {
+				storeInNode(parent, key, (String) obj, 0);
+			} else if ( obj instanceof String [] ) {
+				String [] strArray = (String []) obj;
+				for(int i=0; i < strArray.length; i++ ) {
+					storeInNode(parent, key, strArray[i], i);
+				} 
+			} else if ( obj instanceof Map ) {
+				addMap(getNodeAtPath(parent, key, 0), (Map<?, ?>) obj);
+			} else if ( obj instanceof List ) {
+				int newPos = 0;
+				for ( Object listObj : (List<?>) obj ) {
+					if ( listObj instanceof String ) {
+						storeInNode(parent, key, (String) listObj, newPos);
+						newPos++;
+					} else if ( listObj instanceof Map ) {
+						XNode node = getNodeAtPath(parent, key, newPos);
+						if ( node.deferred == null ) node.deferred = new ArrayList<Map<?, ?>>(1);
+						node.deferred.add((Map<?, ?>) listObj);
+						newPos++;
+					}
+				}
+			}
+		}
+	}
+
+	private static void storeInNode(XNode parent, String key, String value, int nodePos)
+	{
+		if ( value == null ) return;
+		String nodeAttr = null;
+		int bang = key.indexOf('!', key.lastIndexOf('/'));
+		if ( bang > 0 ) {
+			nodeAttr = key.substring(bang+1).split("!")[0];
+			key = key.substring(0, bang);
+		}
+		XNode node = getNodeAtPath(parent, key, nodePos);
+		if ( nodeAttr != null ) {
+			if ( node.attributes == null ) node.attributes = new LinkedHashMap<String,String>();
+			node.attributes.put(nodeAttr, value);
+		} else {
+			node.content.add(value);
+		}
+	}
+
+	private static XNode getNodeAtPath(XNode parent, String path, int nodePos)
+	{
+		String [] newPath = path.split("/");
+		for ( int i=1; i< newPath.length; i++ ) {
+			String nodeName = newPath[i];
+			if ( i == newPath.length-1 ) {
+				int bang = nodeName.indexOf('!');
+				if ( bang > 0 ) nodeName = nodeName.substring(0, bang);
+				parent = parent.getOrAddChild(nodeName, nodePos);
+			} else {
+				parent = parent.getOrAddChild(nodeName, 0);
+			}
+		}
+		return parent;
+	}
+
+	private static void writeNode(XMLStreamWriter writer, XNode node, boolean pretty, int depth) 
+		throws XMLStreamException
+	{
+		if ( node.deferred != null ) {
+			for ( Map<?, ?> subMap : node.deferred ) {
+				addMap(node, subMap);
+			}
+			node.deferred = null;
+		}
+		writer.writeStartElement(node.name);
+		if ( node.attributes != null ) {
+			for ( Map.Entry<String,String> attr : node.attributes.entrySet() ) {
+				writer.writeAttribute(attr.getKey(), attr.getValue());
+			}
+		}
+		boolean hasElements = false;
+		for ( Object child : node.content ) {
+			if ( child instanceof XNode ) {
+				hasElements = true;
+				if ( pretty ) writeIndent(writer, depth+1);
+				writeNode(writer, (XNode) child, pretty, depth+1);
+			} else {
+				writer.writeCharacters((String) child);
+			}
+		}
+		if ( pretty && hasElements ) writeIndent(writer, depth);
+		writer.writeEndElement();
+		// Written - let it go
+		node.content = null;
+		node.children = null;
+	}
+
+	private static void writeIndent(XMLStreamWriter writer, int depth) throws XMLStreamException
+	{
+		writer.writeCharacters("\n");
+		for (int j=0; j<depth && j < 15; j++) writer.writeCharacters("  ");
+	}
+
 	// This process a pretty print from an input string - 
 	// It does it the hard way - using the methods in this class.
 	// It may not be the ideal way to pretty print a XML String
@@ -492,11 +681,7 @@ public class XMLMap {
 		Document document = null;
 
 		try{
-			DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance(); 
-			factory.setFeature("http://xml.org/sax/features/external-general-entities", false); 
-			factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false); 
-			DocumentBuilder parser = factory.newDocumentBuilder();
-			document = parser.newDocument();
+			document = XMLPool.newDocument();
 		} catch (Exception e) {
 			return null;
 		}
@@ -750,12 +935,7 @@ public class XMLMap {
 	public static String nodeToString(Node node, boolean pretty)
 	{
 		try {
-			javax.xml.transform.Transformer tf =
-				javax.xml.transform.TransformerFactory.newInstance().newTransformer();
-			if ( pretty ) {
-				tf.setOutputProperty(OutputKeys.INDENT, "yes");
-				tf.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-			}
+			javax.xml.transform.Transformer tf = XMLPool.getTransformer(pretty);
 			ByteArrayOutputStream baStream = new ByteArrayOutputStream();
 			tf.transform (new javax.xml.transform.dom.DOMSource (node),
 					new javax.xml.transform.stream.StreamResult (baStream));
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2014 IMS GLobal Learning Consortium
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ * implied. See the License for the specific language governing
+ * permissions and limitations under the License.
+ */
+package org.imsglobal.basiclti;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+
+/**
+ * Parsers, transformers and compiled XPath expressions that are set up
+ * once and reused.
+ * <p>
+ * None of the JAXP objects are thread safe once they are built, so each
+ * thread gets its own, made from factories that are configured a single
+ * time. The parser factory does not resolve external entities or DTDs, so
+ * everything parsed here is safe from XXE.
+ */
+public class XMLPool {
+
+	private final static Logger Log = Logger.getLogger(XMLPool.class .getName());
+
+	private static final DocumentBuilderFactory builderFactory = newBuilderFactory();
+
+	private static final TransformerFactory transformerFactory = TransformerFactory.newInstance();
+
+	private static final XPathFactory xpathFactory = XPathFactory.newInstance();
+
+	private static final String REPORT_CDATA = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+	private static final XMLInputFactory inputFactory = newInputFactory();
+
+	private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+	private static DocumentBuilderFactory newBuilderFactory()
+	{
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		setFeature(factory, "http://xml.org/sax/features/external-general-entities", false);
+		setFeature(factory, "http://xml.org/sax/features/external-parameter-entities", false);
+		setFeature(factory, "http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+		setFeature(factory, XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		factory.setXIncludeAware(false);
+		return factory;
+	}
+
+	// StAX factories are safe to share once they are configured - no DTDs
+	// and no entities from outside the document.  Not coalescing, so a CDATA
+	// section is its own event just as it is its own node in a DOM - the JDK
+	// parser needs telling, or it hands CDATA over as plain characters.
+	private static XMLInputFactory newInputFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		if ( factory.isPropertySupported(REPORT_CDATA) ) factory.setProperty(REPORT_CDATA, Boolean.TRUE);
+		return factory;
+	}
+
+	// Not every parser knows every feature - the first two are required
+	private static void setFeature(DocumentBuilderFactory factory, String feature, boolean value)
+	{
+		try {
+			factory.setFeature(feature, value);
+		} catch (ParserConfigurationException e) {
+			if ( feature.startsWith("http://xml.org/sax/features/external-") ) {
+				throw new IllegalStateException("XML parser cannot disable "+feature, e);
+			}
+			Log.fine("XML parser does not support "+feature);
+		}
+	}
+
+	private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>() {
+		@Override
+		protected DocumentBuilder initialValue() {
+			try {
+				synchronized (builderFactory) {
+					return builderFactory.newDocumentBuilder();
+				}
+			} catch (ParserConfigurationException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
+	private static final ThreadLocal<Transformer> plainTransformers = new ThreadLocal<Transformer>() {
+		@Override
+		protected Transformer initialValue() {
+			return newTransformer(false);
+		}
+	};
+
+	private static final ThreadLocal<Transformer> prettyTransformers = new ThreadLocal<Transformer>() {
+		@Override
+		protected Transformer initialValue() {
+			return newTransformer(true);
+		}
+	};
+
+	private static Transformer newTransformer(boolean pretty)
+	{
+		try {
+			Transformer tf;
+			synchronized (transformerFactory) {
+				tf = transformerFactory.newTransformer();
+			}
+			if ( pretty ) {
+				tf.setOutputProperty(OutputKeys.INDENT, "yes");
+				tf.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+			}
+			return tf;
+		} catch (TransformerConfigurationException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * A parser for this thread - do not hold on to it or pass it to
+	 * another thread.
+	 */
+	public static DocumentBuilder getDocumentBuilder()
+	{
+		DocumentBuilder builder = builders.get();
+		builder.reset();
+		return builder;
+	}
+
+	public static Document parse(InputStream input) throws Exception
+	{
+		DocumentBuilder builder = getDocumentBuilder();
+		try {
+			return builder.parse(input);
+		} finally {
+			// Let go of anything held from this parse
+			builder.reset();
+		}
+	}
+
+	public static Document parse(byte [] input) throws Exception
+	{
+		return parse(new ByteArrayInputStream(input));
+	}
+
+	public static Document newDocument()
+	{
+		return getDocumentBuilder().newDocument();
+	}
+
+	/**
+	 * A streaming reader that reports each run of text as a single event.
+	 * The caller must close it.
+	 */
+	public static XMLStreamReader createStreamReader(InputStream input) throws XMLStreamException
+	{
+		return inputFactory.createXMLStreamReader(input);
+	}
+
+	/**
+	 * A streaming writer on top of out - closing it does not close out.
+	 */
+	public static XMLStreamWriter createStreamWriter(Writer out) throws XMLStreamException
+	{
+		return outputFactory.createXMLStreamWriter(out);
+	}
+
+	/**
+	 * An identity transformer for this thread, optionally indenting its
+	 * output - do not change its output properties.
+	 */
+	public static Transformer getTransformer(boolean pretty)
+	{
+		// Identity transformers have no parameters or state between
+		// transforms, so there is nothing to reset
+		return pretty ? prettyTransformers.get() : plainTransformers.get();
+	}
+
+	/**
+	 * Compiled expressions are not thread safe either, so each thread
+	 * compiles its own copy the first time it is used.
+	 */
+	public static class Expression extends ThreadLocal<XPathExpression> {
+
+		private final String expression;
+
+		public Expression(String expression)
+		{
+			this.expression = expression;
+		}
+
+		public String getExpression()
+		{
+			return expression;
+		}
+
+		@Override
+		protected XPathExpression initialValue()
+		{
+			try {
+				synchronized (xpathFactory) {
+					return xpathFactory.newXPath().compile(expression);
+				}
+			} catch (XPathExpressionException e) {
+				throw new IllegalArgumentException("Bad XPath "+expression, e);
+			}
+		}
+	}
+}
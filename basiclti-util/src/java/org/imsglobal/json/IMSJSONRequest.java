@@ -1,16 +1,13 @@
 package org.imsglobal.json;
 
-import java.io.ByteArrayOutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.net.URLDecoder;
-import java.security.MessageDigest;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 
-import javax.servlet.ServletInputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -22,7 +19,7 @@ import net.oauth.SimpleOAuthValidator;
 import net.oauth.server.OAuthServlet;
 import net.oauth.signature.OAuthSignatureMethod;
 
-import org.imsglobal.basiclti.Base64;
+import org.imsglobal.basiclti.HashedBody;
 import org.json.simple.JSONValue;
 
 public class IMSJSONRequest {
@@ -108,45 +105,29 @@ public class IMSJSONRequest {
 		}
 
 		System.out.println("OBH="+oauth_body_hash);
-        byte[] buf = new byte[1024];
-		ByteArrayOutputStream bos = new ByteArrayOutputStream();
-		int chars = 0;
+		HashedBody body = null;
 		try {
-			ServletInputStream is = request.getInputStream();
-			int readNum;
-			do {
-				readNum = is.read(buf);
-				if (readNum>0) {
-					bos.write(buf, 0, readNum); 
-					chars = chars + readNum;
-					// We dont' want a DOS
-					if ( chars > 10000000 ) {
-						errorMessage = "Message body size exceeded";
-						return;
-					}
-				}
-			} while (readNum>=0);
+			body = HashedBody.read(request.getInputStream(), request.getContentLength());
 		} catch(Exception e) {
 			errorMessage = "Could not read message body:"+e.getMessage();
 			return;
 		}
-
-        byte[] bytes = bos.toByteArray();
+		// We dont' want a DOS
+		if ( body.isTooLarge() ) {
+			errorMessage = "Message body size exceeded";
+			return;
+		}
 
 		try {
-			postBody = new String(bytes, "UTF-8");
-			MessageDigest md = MessageDigest.getInstance("SHA1");
-			md.update(bytes); 
-			byte[] output = Base64.encode(md.digest());
-			String hash = new String(output);
-			System.out.println("HASH="+hash+" bytes="+bytes.length);
-			if ( ! hash.equals(oauth_body_hash) ) {
-				errorMessage = "Body hash does not match. bytes="+bytes.length;
+			postBody = body.getString("UTF-8");
+			System.out.println("HASH="+body.getHash()+" bytes="+body.getLength());
+			if ( ! body.matches(oauth_body_hash) ) {
+				errorMessage = "Body hash does not match. bytes="+body.getLength();
 				System.out.println(postBody);
 				return;
 			}
 		} catch (Exception e) {
-			errorMessage = "Could not compute body hash.  bytes="+bytes.length;
+			errorMessage = "Could not compute body hash.  bytes="+body.getLength();
 			return;
 		}
 		valid = true;  // So far we are valid
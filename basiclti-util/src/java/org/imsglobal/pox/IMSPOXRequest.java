@@ -1,24 +1,25 @@
 package org.imsglobal.pox;
 
 import java.io.ByteArrayInputStream;
-import java.io.Reader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
 import java.net.URLDecoder;
-import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.TreeMap;
 import java.util.logging.Logger;
 
 import javax.servlet.http.HttpServletRequest;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.xpath.XPath;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpression;
-import javax.xml.xpath.XPathFactory;
 
 import net.oauth.OAuthAccessor;
 import net.oauth.OAuthConsumer;
@@ -29,8 +30,9 @@ import net.oauth.server.OAuthServlet;
 import net.oauth.signature.OAuthSignatureMethod;
 
 import org.apache.commons.lang.StringEscapeUtils;
-import org.imsglobal.basiclti.Base64;
+import org.imsglobal.basiclti.HashedBody;
 import org.imsglobal.basiclti.XMLMap;
+import org.imsglobal.basiclti.XMLPool;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
@@ -85,15 +87,29 @@ public class IMSPOXRequest {
 		MINOR_UNSUPPORTED
 	} ; 
 
+	// Operations whose bodies are only ever read through the body map, so
+	// they can be parsed without building a DOM
+	public final static String [] streamingOperations = {
+		"replaceResultRequest", "readResultRequest", "deleteResultRequest" };
+
+	public final static String RESULT_SOURCEDID = "/resultRecord/sourcedGUID/sourcedId";
+	public final static String RESULT_SCORE = "/resultRecord/result/resultScore/textString";
+	public final static String RESULT_COMMENT = "/resultRecord/result/resultData/text";
+
 	public Document postDom = null;
 	public Element bodyElement = null;
 	public Element headerElement = null;
 	public String postBody = null;
+	private HashedBody body = null;
+	private String bodyCharset = null;
 	private String header = null;
 	private String oauth_body_hash = null;
 	private String oauth_consumer_key = null;
 
 	public boolean valid = false;
+	// True when the body was parsed without a DOM - postDom, bodyElement
+	// and headerElement are null
+	public boolean streamed = false;
 	private String operation = null;
 	public String errorMessage = null;
 	public String base_string = null;
@@ -142,11 +158,42 @@ public class IMSPOXRequest {
 		return bodyMap;
 	}
 
+	public String getResultSourcedId()
+	{
+		if ( getBodyMap() == null ) return null;
+		return bodyMap.get(RESULT_SOURCEDID);
+	}
+
+	public String getResultScore()
+	{
+		if ( getBodyMap() == null ) return null;
+		return bodyMap.get(RESULT_SCORE);
+	}
+
+	public String getResultComment()
+	{
+		if ( getBodyMap() == null ) return null;
+		return bodyMap.get(RESULT_COMMENT);
+	}
+
+	// The body is parsed from its bytes, the String is only made if asked for
 	public String getPostBody()
 	{
+		if ( postBody != null || body == null ) return postBody;
+		try {
+			postBody = body.getString(bodyCharset == null ? "UTF-8" : bodyCharset);
+		} catch (java.io.UnsupportedEncodingException e) {
+			Log.warning("Unknown body encoding "+bodyCharset);
+		}
 		return postBody;
 	}
 
+	private InputStream getPostStream()
+	{
+		if ( body != null ) return body.getInputStream();
+		return new ByteArrayInputStream(postBody.getBytes());
+	}
+
 	// Normal Constructor
 	public IMSPOXRequest(String oauth_consumer_key, String oauth_secret, HttpServletRequest request) 
 	{
@@ -168,6 +215,17 @@ public class IMSPOXRequest {
 		parsePostBody();
 	}
 
+	// Constructor for testing the streaming parser
+	public IMSPOXRequest(String bodyString, boolean streaming)
+	{
+		postBody = bodyString;
+		if ( streaming ) {
+			parsePostBodyStreaming();
+		} else {
+			parsePostBody();
+		}
+	}
+
 	// Load but do not check the authentication
 	@SuppressWarnings("deprecation")
 	public void loadFromRequest(HttpServletRequest request) 
@@ -204,63 +262,48 @@ public class IMSPOXRequest {
 		}
 
 		// System.out.println("OBH="+oauth_body_hash);
-		final char[] buffer = new char[0x10000];
 		try {
-			StringBuilder out = new StringBuilder();
-			Reader in = request.getReader();
-			int read;
-			do {
-				read = in.read(buffer, 0, buffer.length);
-				if (read>0) {
-					out.append(buffer, 0, read);
-				}
-			} while (read>=0);
-			postBody = out.toString();
+			body = HashedBody.read(request.getInputStream(), request.getContentLength());
 		} catch(Exception e) {
 			errorMessage = "Could not read message body:"+e.getMessage();
 			return;
 		}
+		if ( body.isTooLarge() ) {
+			body = null;
+			errorMessage = "Message body size exceeded";
+			return;
+		}
+		bodyCharset = request.getCharacterEncoding();
 
-		try {
-			MessageDigest md = MessageDigest.getInstance("SHA1");
-			md.update(postBody.getBytes()); 
-			byte[] output = Base64.encode(md.digest());
-			String hash = new String(output);
-			// System.out.println("HASH="+hash);
-			if ( ! hash.equals(oauth_body_hash) ) {
-				errorMessage = "Body hash does not match header";
-				return;
-			}
-		} catch (Exception e) {
-			errorMessage = "Could not compute body hash";
+		if ( ! body.matches(oauth_body_hash) ) {
+			errorMessage = "Body hash does not match header";
 			return;
 		}
-		parsePostBody();
+		parsePostBodyStreaming();
 	}
 
+	// The envelope is always taken apart the same way
+	private static final XMLPool.Expression BODY_EXPR = 
+		new XMLPool.Expression("/imsx_POXEnvelopeRequest/imsx_POXBody/*");
+	private static final XMLPool.Expression HEADER_EXPR = 
+		new XMLPool.Expression("/imsx_POXEnvelopeRequest/imsx_POXHeader/*");
+
 	public void parsePostBody()
 	{
 		try {
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			dbf.setFeature("http://xml.org/sax/features/external-general-entities", false); 
-			dbf.setFeature("http://xml.org/sax/features/external-parameter-entities", false); 
-			DocumentBuilder db = dbf.newDocumentBuilder();
-			postDom = db.parse(new ByteArrayInputStream(postBody.getBytes()));
+			postDom = XMLPool.parse(getPostStream());
 		}catch(Exception e) {
 			errorMessage = "Could not parse XML: "+e.getMessage();
 			return;
 		}
 
 		try {
-			XPath xpath = XPathFactory.newInstance().newXPath();
-			XPathExpression expr = xpath.compile("/imsx_POXEnvelopeRequest/imsx_POXBody/*");
-			Object result = expr.evaluate(postDom, XPathConstants.NODESET);
+			Object result = BODY_EXPR.get().evaluate(postDom, XPathConstants.NODESET);
 			NodeList nodes = (NodeList) result;
 			bodyElement = (Element) nodes.item(0);
 			operation = bodyElement.getNodeName();
 
-			expr = xpath.compile("/imsx_POXEnvelopeRequest/imsx_POXHeader/*");
-			result = expr.evaluate(postDom, XPathConstants.NODESET);
+			result = HEADER_EXPR.get().evaluate(postDom, XPathConstants.NODESET);
 			nodes = (NodeList) result;
 			headerElement = (Element) nodes.item(0);
 		}catch(javax.xml.xpath.XPathExpressionException e) {
@@ -278,6 +321,154 @@ public class IMSPOXRequest {
 		valid = true;
 	}
 
+	/**
+	 * Parse the envelope in one pass without building a DOM, filling in the
+	 * header and body maps directly.  Only the operations in
+	 * streamingOperations are handled this way - anything else, like the
+	 * Lessons structure requests, needs the body as a DOM and is handed to
+	 * parsePostBody().
+	 */
+	public void parsePostBodyStreaming()
+	{
+		XMLStreamReader reader = null;
+		boolean useDom = false;
+		try {
+			reader = XMLPool.createStreamReader(getPostStream());
+			reader.nextTag();
+			if ( "imsx_POXEnvelopeRequest".equals(getName(reader)) ) {
+				while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+					String section = getName(reader);
+					if ( "imsx_POXHeader".equals(section) && headerMap == null ) {
+						if ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+							headerMap = new TreeMap<String,String>();
+							streamMap(reader, "", headerMap);
+							skipSiblings(reader);
+						}
+					} else if ( "imsx_POXBody".equals(section) && operation == null ) {
+						if ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+							operation = getName(reader);
+							if ( ! inArray(streamingOperations, operation) ) {
+								useDom = true;
+								break;
+							}
+							bodyMap = new TreeMap<String,String>();
+							streamMap(reader, "", bodyMap);
+							skipSiblings(reader);
+						}
+					} else {
+						skipElement(reader);
+					}
+				}
+			}
+		} catch(Exception e) {
+			// Let the DOM parser have a go, it reports the error if there is one
+			Log.fine("Streaming parse failed: "+e.getMessage());
+			useDom = true;
+		} finally {
+			if ( reader != null ) try { reader.close(); } catch (XMLStreamException e) { }
+		}
+
+		if ( useDom ) {
+			operation = null;
+			headerMap = null;
+			bodyMap = null;
+			parsePostBody();
+			return;
+		}
+
+		if ( operation == null || bodyMap == null ) {
+			errorMessage = "Could not find operation";
+			return;
+		}
+		streamed = true;
+		valid = true;
+	}
+
+	// Flatten the element the reader is on the same way XMLMap.getMap()
+	// does - its first text, its attributes and the first child of each
+	// name - leaving the reader on the matching end tag.  The first text is
+	// what a DOM holds in its first Text node - a run of characters that a
+	// CDATA section, comment or element ends.  XMLMap.getMap() only looks
+	// at Text nodes, so CDATA is not gathered.
+	private static void streamMap(XMLStreamReader reader, String path, Map<String,String> map)
+		throws XMLStreamException
+	{
+		for (int i = 0; i < reader.getNamespaceCount(); i++ ) {
+			String prefix = reader.getNamespacePrefix(i);
+			putAttribute(map, path, prefix == null || prefix.length() == 0 ? "xmlns" : "xmlns:"+prefix,
+				reader.getNamespaceURI(i));
+		}
+		for (int i = 0; i < reader.getAttributeCount(); i++ ) {
+			String prefix = reader.getAttributePrefix(i);
+			String name = reader.getAttributeLocalName(i);
+			if ( prefix != null && prefix.length() > 0 ) name = prefix + ":" + name;
+			putAttribute(map, path, name, reader.getAttributeValue(i));
+		}
+
+		// The reader may hand one Text node over in several pieces
+		StringBuilder text = null;
+		boolean textDone = false;
+		Set<String> done = null;
+		while ( true ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.SPACE ) {
+				if ( textDone ) continue;
+				if ( text == null ) text = new StringBuilder();
+				text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+				continue;
+			}
+			if ( text != null && ! textDone ) {
+				textDone = true;
+				String value = text.toString();
+				if ( value.trim().length() > 0 ) map.put(path, value);
+			}
+			if ( event == XMLStreamConstants.END_ELEMENT ) return;
+			if ( event == XMLStreamConstants.START_ELEMENT ) {
+				String name = getName(reader);
+				if ( done == null ) done = new HashSet<String>();
+				if ( done.add(name) ) {
+					streamMap(reader, path + "/" + name, map);
+				} else {
+					skipElement(reader);
+				}
+			}
+		}
+	}
+
+	private static void putAttribute(Map<String,String> map, String path, String name, String value)
+	{
+		if ( name == null || name.trim().length() < 1 || 
+				value == null || value.trim().length() < 1 ) return;
+		map.put(path+"!"+name, value);
+	}
+
+	// Element names as a DOM without namespaces would report them
+	private static String getName(XMLStreamReader reader)
+	{
+		String prefix = reader.getPrefix();
+		if ( prefix == null || prefix.length() == 0 ) return reader.getLocalName();
+		return prefix + ":" + reader.getLocalName();
+	}
+
+	// Move past the rest of the current element, nested elements and all
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while ( depth > 0 ) {
+			int event = reader.next();
+			if ( event == XMLStreamConstants.START_ELEMENT ) depth++;
+			if ( event == XMLStreamConstants.END_ELEMENT ) depth--;
+		}
+	}
+
+	// Only the first child of the header and body is used
+	private static void skipSiblings(XMLStreamReader reader) throws XMLStreamException
+	{
+		while ( reader.nextTag() == XMLStreamConstants.START_ELEMENT ) {
+			skipElement(reader);
+		}
+	}
+
 	// Assumes data is all loaded
 	public void validateRequest(String oauth_consumer_key, String oauth_secret, HttpServletRequest request) 
 	{
@@ -370,7 +561,7 @@ public class IMSPOXRequest {
 				StringEscapeUtils.escapeXml(message_id)); 
 	}
 
-	static final String responseMessage = 
+	static final String responseHead = 
 		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
 		"<imsx_POXEnvelopeResponse xmlns = \"http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0\">\n" +
 		"  <imsx_POXHeader>\n" +
@@ -387,8 +578,9 @@ public class IMSPOXRequest {
 		"      </imsx_statusInfo>\n" +
 		"    </imsx_POXResponseHeaderInfo>\n" + 
 		"  </imsx_POXHeader>\n" +
-		"  <imsx_POXBody>\n" +
-		"%s%s"+
+		"  <imsx_POXBody>\n";
+
+	static final String responseTail = 
 		"  </imsx_POXBody>\n" +
 		"</imsx_POXEnvelopeResponse>";
 
@@ -412,8 +604,9 @@ public class IMSPOXRequest {
 		return getResponse(desc, MAJOR_SUCCESS, null, null, null, bodyString);
 	}
 
-	public String getResponse(String description, String major, String severity, 
-			String messageId, Properties minor, String bodyString)
+	// Everything up to the contents of imsx_POXBody
+	private String getResponseHead(String description, String major, String severity, 
+			String messageId, Properties minor)
 	{
 		StringBuffer internalError = new StringBuffer();
 		if ( major == null ) major = MAJOR_FAILURE;
@@ -461,6 +654,20 @@ public class IMSPOXRequest {
 			Log.warning(internalError.toString());
 		}
 
+		return String.format(responseHead, 
+				StringEscapeUtils.escapeXml(messageId), 
+				StringEscapeUtils.escapeXml(major), 
+				StringEscapeUtils.escapeXml(severity), 
+				StringEscapeUtils.escapeXml(description), 
+				StringEscapeUtils.escapeXml(getHeaderMessageIdentifier()), 
+				StringEscapeUtils.escapeXml(operation), 
+				StringEscapeUtils.escapeXml(minorString));
+	}
+
+	public String getResponse(String description, String major, String severity, 
+			String messageId, Properties minor, String bodyString)
+	{
+		String head = getResponseHead(description, major, severity, messageId, minor);
 		if ( bodyString == null ) bodyString = "";
 		// Trim off XML header
 		if ( bodyString.startsWith("<?xml") ) {
@@ -470,16 +677,27 @@ public class IMSPOXRequest {
 		bodyString = bodyString.trim();
 		String newLine = "";
 		if ( bodyString.length() > 0 ) newLine = "\n";
-		return String.format(responseMessage, 
-				StringEscapeUtils.escapeXml(messageId), 
-				StringEscapeUtils.escapeXml(major), 
-				StringEscapeUtils.escapeXml(severity), 
-				StringEscapeUtils.escapeXml(description), 
-				StringEscapeUtils.escapeXml(getHeaderMessageIdentifier()), 
-				StringEscapeUtils.escapeXml(operation), 
-				StringEscapeUtils.escapeXml(minorString), 
-				bodyString, newLine); 
+		return head + bodyString + newLine + responseTail;
+	}
 
+	public void writeResponseSuccess(String desc, Map<?, ?> bodyMap, Writer out) throws IOException
+	{
+		writeResponse(desc, MAJOR_SUCCESS, null, null, null, bodyMap, out);
+	}
+
+	/**
+	 * Write the response envelope to out with the body streamed from a
+	 * map by XMLMap.writeXMLFragment() rather than passed in as a String.
+	 */
+	public void writeResponse(String description, String major, String severity, 
+			String messageId, Properties minor, Map<?, ?> bodyMap, Writer out) throws IOException
+	{
+		out.write(getResponseHead(description, major, severity, messageId, minor));
+		if ( bodyMap != null && bodyMap.size() > 0 ) {
+			XMLMap.writeXMLFragment(bodyMap, out, true);
+			out.write("\n");
+		}
+		out.write(responseTail);
 	}
 
 	/** Unit Tests */
@@ -0,0 +1,81 @@
+package net.oauth;
+
+/**
+ * Times filling a SimpleNonceStore to its limit from several threads, with
+ * the nonces spread across the timestamp window, and then adding to it
+ * once it is full and has to forget the oldest second to make room.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java net.oauth.SimpleNonceStoreBenchmark [maxNonces] [threads]
+ *
+ * The defaults are SimpleNonceStore.DEFAULT_MAX_NONCES and 4 threads.
+ */
+public class SimpleNonceStoreBenchmark {
+
+	private static final long WINDOW = SimpleOAuthValidator.DEFAULT_TIMESTAMP_WINDOW;
+
+	// The clock stands still so the whole run sees the same window
+	private static class ClockedStore extends SimpleNonceStore {
+		final long now;
+
+		ClockedStore(long now, int max) {
+			super(WINDOW, max);
+			this.now = now;
+		}
+
+		protected long currentTimeMsec() {
+			return now;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int max = args.length > 0 ? Integer.parseInt(args[0]) : SimpleNonceStore.DEFAULT_MAX_NONCES;
+		int threadCount = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+
+		// Warm up on a store of its own before timing
+		fill(new ClockedStore(System.currentTimeMillis(), max), max, threadCount, "warm");
+
+		ClockedStore store = new ClockedStore(System.currentTimeMillis(), max);
+		long start = System.nanoTime();
+		int refused = fill(store, max, threadCount, "fill");
+		long filled = System.nanoTime() - start;
+		int size = store.size();
+
+		// Every add from here on has to make room first
+		int extra = max / 10;
+		start = System.nanoTime();
+		int full = fill(store, extra, threadCount, "full");
+		long overflow = System.nanoTime() - start;
+
+		System.out.println(size + " nonces from " + threadCount + " threads: fill " + (filled / 1000000) + "ms (" +
+			(filled / max) + "ns each), when full " + (overflow / Math.max(extra, 1)) + "ns each, " +
+			store.size() + " held after");
+		if ( refused + full > 0 ) System.out.println((refused + full) + " fresh nonces were refused");
+	}
+
+	// Add count fresh nonces, shared across threads, with timestamps all
+	// over the window.  Returns how many were refused.
+	private static int fill(final ClockedStore store, final int count, final int threadCount, final String prefix)
+		throws InterruptedException {
+		final int [] refused = new int[threadCount];
+		Thread [] threads = new Thread[threadCount];
+		for (int t = 0; t < threadCount; t++) {
+			final int thread = t;
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = thread; i < count; i += threadCount) {
+						long timestamp = store.now - WINDOW + (i * 7919L) % (2 * WINDOW);
+						if ( ! store.addNonce("key" + (i % 50), prefix + i, timestamp) ) refused[thread]++;
+					}
+				}
+			};
+			threads[t].start();
+		}
+		int total = 0;
+		for (int t = 0; t < threadCount; t++) {
+			threads[t].join();
+			total += refused[t];
+		}
+		return total;
+	}
+}
@@ -0,0 +1,122 @@
+package net.oauth;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SimpleNonceStoreTest {
+
+	private static final long WINDOW = 10 * 1000L;
+
+	// A store whose clock can be moved by the test
+	private static class ClockedStore extends SimpleNonceStore {
+		long now = 1000000000L;
+
+		ClockedStore(long window, int max) {
+			super(window, max);
+		}
+
+		protected long currentTimeMsec() {
+			return now;
+		}
+	}
+
+	private ClockedStore store;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new ClockedStore(WINDOW, 100);
+	}
+
+	@Test
+	public void testReplay() {
+		assertTrue(store.addNonce("key", "abc", store.now));
+		assertFalse(store.addNonce("key", "abc", store.now));
+		// Same nonce from another consumer is fine
+		assertTrue(store.addNonce("other", "abc", store.now));
+		assertTrue(store.addNonce("key", "def", store.now));
+		assertEquals(3, store.size());
+	}
+
+	@Test
+	public void testOutsideWindow() {
+		assertFalse(store.addNonce("key", "old", store.now - WINDOW - 1000));
+		assertFalse(store.addNonce("key", "new", store.now + WINDOW + 1000));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void testExpiry() {
+		long ts = store.now;
+		assertTrue(store.addNonce("key", "abc", ts));
+		// Still remembered at the edge of the window
+		store.now += WINDOW;
+		assertFalse(store.addNonce("key", "abc", ts));
+		// Once the window has moved on the timestamp itself is refused and
+		// the bucket is reused for a new second
+		store.now += WINDOW + 3000;
+		assertFalse(store.addNonce("key", "abc", ts));
+		for (int i = 0; i <= 20; i++) {
+			assertTrue(store.addNonce("key", "n" + i, store.now - WINDOW + i * 1000));
+		}
+		assertEquals(21, store.size());
+	}
+
+	@Test
+	public void testBounded() {
+		for (int i = 0; i < 40; i++) {
+			assertTrue(store.addNonce("key", "old" + i, store.now - 2000));
+		}
+		for (int i = 0; i < 60; i++) {
+			assertTrue(store.addNonce("key", "n" + i, store.now));
+		}
+		// Full of nonces that are still in the window - the oldest second
+		// is forgotten rather than refusing a fresh nonce
+		assertTrue(store.addNonce("key", "more", store.now));
+		assertEquals(61, store.size());
+		assertFalse(store.addNonce("key", "n0", store.now));
+		assertFalse(store.addNonce("key", "more", store.now));
+		// A replay from the forgotten second is let through
+		assertTrue(store.addNonce("key", "old0", store.now - 2000));
+	}
+
+	@Test
+	public void testFullSecond() {
+		for (int i = 0; i < 100; i++) {
+			assertTrue(store.addNonce("key", "n" + i, store.now));
+		}
+		// Nothing older to forget - accept without recording
+		assertTrue(store.addNonce("key", "more", store.now));
+		assertEquals(100, store.size());
+		assertFalse(store.addNonce("key", "n99", store.now));
+	}
+
+	@Test
+	public void testConcurrent() throws Exception {
+		final SimpleNonceStore shared = new SimpleNonceStore(WINDOW, 1000000);
+		final long now = System.currentTimeMillis();
+		final int perThread = 20000;
+		final AtomicInteger accepted = new AtomicInteger();
+		Thread [] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					// Every thread offers the same nonces
+					for (int i = 0; i < perThread; i++) {
+						if (shared.addNonce("key", "n" + i, now + (i % 5) * 1000)) {
+							accepted.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(perThread, accepted.get());
+		assertEquals(perThread, shared.size());
+	}
+}
@@ -0,0 +1,45 @@
+package net.oauth.signature;
+
+import java.util.List;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthMessage;
+
+/**
+ * Times OAuthSignatureMethod.getBaseString() on a typical LTI launch
+ * against the URLEncoder based base string it replaced.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java net.oauth.signature.BaseStringBenchmark [rounds]
+ *
+ * The default is 20000 rounds.
+ */
+public class BaseStringBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		List<OAuth.Parameter> launch = OAuthSignatureMethodTest.launch();
+		OAuthMessage message = new OAuthMessage("POST", "https://tool.example.com/lti/launch", launch);
+
+		// Warm up both before timing them
+		String a = null;
+		String b = null;
+		for (int i = 0; i < rounds; i++) {
+			a = OAuthSignatureMethodTest.oldBaseString(message);
+			b = OAuthSignatureMethod.getBaseString(message);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) a = OAuthSignatureMethodTest.oldBaseString(message);
+		long old = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) b = OAuthSignatureMethod.getBaseString(message);
+		long now = System.nanoTime() - start;
+
+		System.out.println("getBaseString " + launch.size() + " parameters: URLEncoder " +
+			(old / rounds) + "ns, now " + (now / rounds) + "ns");
+		if ( ! a.equals(b) ) System.out.println("Base strings differ");
+	}
+}
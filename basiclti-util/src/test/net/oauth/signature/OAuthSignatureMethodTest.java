@@ -0,0 +1,198 @@
+package net.oauth.signature;
+import static org.junit.Assert.*;
+
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import net.oauth.OAuth;
+import net.oauth.OAuthAccessor;
+import net.oauth.OAuthConsumer;
+import net.oauth.OAuthMessage;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class OAuthSignatureMethodTest {
+
+	private List<OAuth.Parameter> launch;
+
+	@Before
+	public void setUp() throws Exception {
+		launch = launch();
+	}
+
+	// Something like a typical LTI launch
+	static List<OAuth.Parameter> launch() {
+		return OAuth.newList(
+			"lti_message_type", "basic-lti-launch-request",
+			"lti_version", "LTI-1p0",
+			"resource_link_id", "ebe3c66d-8d87-4e08-a1e7-8ee4f7f1c2f1",
+			"resource_link_title", "Week 3 - Quiz (graded)",
+			"resource_link_description", "A quiz on chapters 3 & 4, worth 10% of the grade",
+			"user_id", "b5c0d0a5-1d6e-4e5d-9c8a-2c5b5f5e7f21",
+			"roles", "Instructor,urn:lti:instrole:ims/lis/Administrator",
+			"lis_person_name_given", "Renée",
+			"lis_person_name_family", "O'Connor-张",
+			"lis_person_name_full", "Renée O'Connor-张",
+			"lis_person_contact_email_primary", "renee+lti@example.edu",
+			"lis_person_sourcedid", "school.edu:user",
+			"context_id", "8213060-006f-4d7e-8f5e-7b5a4b2b8c10",
+			"context_type", "CourseSection",
+			"context_title", "Design of Personal Environments 1",
+			"context_label", "SI182",
+			"lis_course_section_sourcedid", "SI182-F14",
+			"lis_result_sourcedid", "feb-123-456-2929::28883",
+			"lis_outcome_service_url", "https://lms.example.edu/imsblis/service/",
+			"launch_presentation_locale", "en_US",
+			"launch_presentation_document_target", "iframe",
+			"launch_presentation_return_url", "https://lms.example.edu/portal/tool/123?panel=Main&x=1",
+			"launch_presentation_css_url", "https://lms.example.edu/library/skin/default/tool.css",
+			"tool_consumer_instance_guid", "lms.example.edu",
+			"tool_consumer_instance_name", "Example LMS",
+			"tool_consumer_instance_description", "Example University",
+			"tool_consumer_info_product_family_code", "sakai",
+			"tool_consumer_info_version", "10",
+			"ext_lms", "sakai-10",
+			"ext_sakai_role", "maintain",
+			"ext_sakai_server", "https://lms.example.edu",
+			"ext_sakai_serverid", "app1",
+			"ext_ims_lis_memberships_url", "https://lms.example.edu/imsblis/service/",
+			"ext_ims_lis_memberships_id", "c1007fb6345a87cd651785422a2925114d0707fad32c66edb6bfefbf2165819a:::admin:::content:3",
+			"ext_ims_lti_tool_setting_url", "https://lms.example.edu/imsblis/service/",
+			"custom_keyname", "value with spaces, commas and *stars*",
+			"custom_unicode", "über été 日本語 😀",
+			"oauth_version", "1.0",
+			"oauth_nonce", "9f3c81dfd2b4c74b2e3e6d60b5f2a9f1",
+			"oauth_timestamp", "1413651273",
+			"oauth_consumer_key", "12345",
+			"oauth_callback", "about:blank",
+			"oauth_signature_method", "HMAC-SHA1",
+			"oauth_signature", "ignored=");
+	}
+
+	@Test
+	public void testPercentEncode() throws Exception {
+		assertEquals("", OAuth.percentEncode((String) null));
+		assertEquals("abcXYZ019-._~", OAuth.percentEncode("abcXYZ019-._~"));
+		assertEquals("a%20b%2Ac%2Bd%25e%26f%3Dg", OAuth.percentEncode("a b*c+d%e&f=g"));
+		assertEquals("%C3%A9%E6%97%A5%F0%9F%98%80", OAuth.percentEncode("é日😀"));
+
+		// Compare with the URLEncoder based encoding this replaced
+		Random random = new Random(42);
+		for (int i = 0; i < 20000; i++) {
+			char [] chars = new char[random.nextInt(12)];
+			for (int j = 0; j < chars.length; j++) {
+				int kind = random.nextInt(4);
+				if (kind == 0) chars[j] = (char) random.nextInt(128);
+				else if (kind == 1) chars[j] = (char) random.nextInt(0x800);
+				else chars[j] = (char) random.nextInt(0x10000);
+			}
+			String s = new String(chars);
+			assertEquals(oldPercentEncode(s), OAuth.percentEncode(s));
+		}
+	}
+
+	@Test
+	public void testBaseString() throws Exception {
+		OAuthMessage message = new OAuthMessage("post",
+			"HTTPS://LMS.Example.edu:443/imsblis/provider/tool?b=2&a=1&a=0", launch);
+		String base = OAuthSignatureMethod.getBaseString(message);
+		assertEquals(oldBaseString(message), base);
+		assertTrue(base.startsWith("POST&https%3A%2F%2Flms.example.edu%2Fimsblis%2Fprovider%2Ftool&a%3D0%26a%3D1%26b%3D2%26context_id%3D"));
+		assertTrue(base.indexOf("oauth_signature%3D") < 0);
+		assertEquals(OAuth.formEncode(sorted(launch)),
+			OAuthSignatureMethod.normalizeParameters(launch));
+	}
+
+	@Test
+	public void testHmacSha1() throws Exception {
+		String base = "POST&https%3A%2F%2Ftool.example.com%2Flti&a%3D1";
+		String [] secrets = { "secret", "sécret & more", "secret" };
+		for (String secret : secrets) {
+			OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer("about:blank", "key", secret, null));
+			OAuthSignatureMethod signer = OAuthSignatureMethod.newMethod("HMAC-SHA1", accessor);
+
+			// Same answer as a freshly initialized Mac
+			Mac mac = Mac.getInstance("HmacSHA1");
+			mac.init(new SecretKeySpec((OAuth.percentEncode(secret) + "&").getBytes("UTF-8"), "HmacSHA1"));
+			String expected = OAuthSignatureMethod.base64Encode(mac.doFinal(base.getBytes("UTF-8")));
+			assertEquals(expected, signer.getSignature(base));
+			// And again, with the Mac reused
+			assertEquals(expected, signer.getSignature(base));
+
+			assertTrue(signer.isValid(expected, base));
+			assertFalse(signer.isValid(expected, base + "x"));
+			assertFalse(signer.isValid("AAAA", base));
+		}
+	}
+
+	@Test
+	public void testSignatureCount() throws Exception {
+		OAuthAccessor accessor = new OAuthAccessor(new OAuthConsumer("about:blank", "12345", "secret", null));
+		OAuthMessage message = new OAuthMessage("POST", "https://tool.example.com/lti/launch",
+			OAuth.newList("oauth_consumer_key", "12345", "oauth_signature_method", "HMAC-SHA1"));
+		long before = OAuthSignatureMethod.getSignatureCount();
+		int rounds = 1000;
+		for (int i = 0; i < rounds; i++) {
+			OAuthSignatureMethod.newMethod("HMAC-SHA1", accessor).getSignature(message);
+		}
+		assertTrue(OAuthSignatureMethod.getSignatureCount() - before >= rounds);
+	}
+
+	// The base string as it was built before - URLEncoder, sorted wrappers
+	// and an intermediate normalized String
+	static String oldBaseString(OAuthMessage message) throws Exception {
+		List<Map.Entry<String, String>> parameters = new ArrayList<Map.Entry<String, String>>();
+		String url = message.URL;
+		int q = url.indexOf('?');
+		if (q >= 0) {
+			parameters.addAll(OAuth.decodeForm(url.substring(q + 1)));
+			url = url.substring(0, q);
+		}
+		parameters.addAll(message.getParameters());
+		List<Map.Entry<String, String>> sorted = sorted(parameters);
+		StringBuilder normalized = new StringBuilder();
+		for (Map.Entry<String, String> p : sorted) {
+			if (normalized.length() > 0) normalized.append('&');
+			normalized.append(oldPercentEncode(p.getKey())).append('=').append(oldPercentEncode(p.getValue()));
+		}
+		return oldPercentEncode(message.method.toUpperCase()) + '&'
+			+ oldPercentEncode(OAuthSignatureMethod.normalizeUrl(url)) + '&'
+			+ oldPercentEncode(normalized.toString());
+	}
+
+	private static List<Map.Entry<String, String>> sorted(List<? extends Map.Entry<String, String>> parameters) {
+		List<String> keys = new ArrayList<String>();
+		final java.util.HashMap<String, Map.Entry<String, String>> byKey = new java.util.HashMap<String, Map.Entry<String, String>>();
+		for (Map.Entry<String, String> p : parameters) {
+			if ("oauth_signature".equals(p.getKey())) continue;
+			String key = oldPercentEncode(p.getKey()) + ' ' + oldPercentEncode(p.getValue());
+			keys.add(key);
+			byKey.put(key, p);
+		}
+		Collections.sort(keys);
+		List<Map.Entry<String, String>> result = new ArrayList<Map.Entry<String, String>>();
+		for (String key : keys) {
+			result.add(byKey.get(key));
+		}
+		return result;
+	}
+
+	private static String oldPercentEncode(String s) {
+		if (s == null) return "";
+		try {
+			return URLEncoder.encode(s, "UTF-8")
+				.replace("+", "%20").replace("*", "%2A")
+				.replace("%7E", "~");
+		} catch (java.io.UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -1,6 +1,12 @@
 package org.imsglobal.basiclti;
 import static org.junit.Assert.*;
 
+import java.io.StringWriter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -26,5 +32,107 @@ public class BasicLTIUtilTest {
         fixed = BasicLTIUtil.getRealPath("https://localhost/path/blah/", "https://right.com/path/blah");
         assertEquals("https://right.com/path/blah/",fixed);
 	}
-	
+
+	private static Map<String, String> launch() {
+		Map<String, String> props = new LinkedHashMap<String, String>();
+		props.put("lti_message_type", "basic-lti-launch-request");
+		props.put("resource_link_title", "Week 1 <Intro> & \"Q=A\"");
+		props.put("custom_a=b", "x>y");
+		props.put("empty", "");
+		props.put("skipped", null);
+		props.put(BasicLTIUtil.BASICLTI_SUBMIT, "Press to Launch");
+		props.put("oauth_signature", "abc+def/ghi=");
+		return props;
+	}
+
+	@Test
+	public void testLaunchHTMLUnchanged() throws Exception {
+		String endpoint = "http://www.imsglobal.org/developers/BLTI/tool.php";
+		for (boolean debug : new boolean[] { false, true }) {
+			String expected = oldLaunchHTML(launch(), endpoint, debug);
+			assertEquals(expected, BasicLTIUtil.postLaunchHTML(launch(), endpoint, debug));
+			StringWriter out = new StringWriter();
+			BasicLTIUtil.writeLaunchHTML(out, launch(), endpoint, debug);
+			assertEquals(expected, out.toString());
+		}
+	}
+
+	@Test
+	public void testWriteHtmlSpecialChars() throws Exception {
+		String [] inputs = { "", "plain", "&", "a<b>c", "\"=\"", "x&&y", "end=" };
+		for (String input : inputs) {
+			StringWriter out = new StringWriter();
+			BasicLTIUtil.writeHtmlSpecialChars(out, input);
+			assertEquals(BasicLTIUtil.htmlspecialchars(input), out.toString());
+		}
+	}
+
+	// How postLaunchHTML built the form before
+	private static String oldLaunchHTML(Map<String, String> cleanProperties, String endpoint, boolean debug) {
+		Map<String, String> newMap = debug ? new TreeMap<String, String>(cleanProperties) : cleanProperties;
+		StringBuilder text = new StringBuilder();
+		text.append("<div id=\"ltiLaunchFormSubmitArea\">\n");
+		text.append("<form action=\"");
+		text.append(endpoint);
+		text.append("\" name=\"ltiLaunchForm\" id=\"ltiLaunchForm\" method=\"post\" ");
+		text.append(" encType=\"application/x-www-form-urlencoded\" accept-charset=\"utf-8\">\n");
+		for (Entry<String, String> entry : newMap.entrySet()) {
+			String key = entry.getKey();
+			String value = entry.getValue();
+			if (value == null) continue;
+			key = BasicLTIUtil.htmlspecialchars(key);
+			value = BasicLTIUtil.htmlspecialchars(value);
+			if (key.equals(BasicLTIUtil.BASICLTI_SUBMIT)) {
+				text.append("<input type=\"submit\" name=\"");
+			} else {
+				text.append("<input type=\"hidden\" name=\"");
+			}
+			text.append(key);
+			text.append("\" value=\"");
+			text.append(value);
+			text.append("\"/>\n");
+		}
+		text.append("</form>\n");
+		text.append("</div>\n");
+		text.append("<script type=\"text/javascript\">\n");
+		text.append("if (window.top!=window.self) {\n");
+		text.append("  theform = document.getElementById('ltiLaunchForm');\n");
+		text.append("  if ( theform && theform.action ) {\n");
+		text.append("   formAction = theform.action;\n");
+		text.append("   ourUrl = window.location.href;\n");
+		text.append("   if ( formAction.indexOf('http://') == 0 && ourUrl.indexOf('https://') == 0 ) {\n");
+		text.append("      theform.target = '_blank';\n");
+		text.append("      window.console && console.log('Launching http from https in new window!');\n");
+		text.append("    }\n");
+		text.append("  }\n");
+		text.append("}\n");
+		text.append("</script>\n");
+		if (debug) {
+			text.append("<pre>\n");
+			text.append("<b>BasicLTI Endpoint</b>\n");
+			text.append(endpoint);
+			text.append("\n\n");
+			text.append("<b>BasicLTI Parameters:</b>\n");
+			for (Entry<String, String> entry : newMap.entrySet()) {
+				String key = entry.getKey();
+				String value = entry.getValue();
+				if (value == null) continue;
+				text.append(BasicLTIUtil.htmlspecialchars(key));
+				text.append("=");
+				text.append(BasicLTIUtil.htmlspecialchars(value));
+				text.append("\n");
+			}
+			text.append("</pre>\n");
+		} else {
+			text.append(" <script language=\"javascript\"> \n"
+					+ "	document.getElementById(\"ltiLaunchFormSubmitArea\").style.display = \"none\";\n"
+					+ "	nei = document.createElement('input');\n"
+					+ "	nei.setAttribute('type', 'hidden');\n"
+					+ "	nei.setAttribute('name', '" + BasicLTIUtil.BASICLTI_SUBMIT + "');\n"
+					+ "	nei.setAttribute('value', '" + newMap.get(BasicLTIUtil.BASICLTI_SUBMIT) + "');\n"
+					+ "	document.getElementById(\"ltiLaunchForm\").appendChild(nei);\n"
+					+ "	document.ltiLaunchForm.submit(); \n" + " </script> \n");
+		}
+		return text.toString();
+	}
 }
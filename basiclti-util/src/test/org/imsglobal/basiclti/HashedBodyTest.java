@@ -0,0 +1,90 @@
+package org.imsglobal.basiclti;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HashedBodyTest {
+
+	// Hands out a few bytes at a time, like a slow client
+	private static class TrickleStream extends InputStream {
+		private final InputStream in;
+		private final Random random = new Random(7);
+
+		TrickleStream(byte [] bytes) {
+			in = new ByteArrayInputStream(bytes);
+		}
+
+		public int read() throws IOException {
+			return in.read();
+		}
+
+		public int read(byte [] b, int off, int len) throws IOException {
+			return in.read(b, off, Math.min(len, 1 + random.nextInt(100)));
+		}
+	}
+
+	private static String sha1(byte [] bytes) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA1");
+		return new String(Base64.encode(md.digest(bytes)));
+	}
+
+	private static byte [] body(int size) {
+		byte [] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+	@Test
+	public void testHash() throws Exception {
+		int [] sizes = { 0, 1, 8191, 8192, 8193, 100000 };
+		for (int size : sizes) {
+			byte [] bytes = body(size);
+			String expected = sha1(bytes);
+			// Known, unknown and wrong content lengths
+			int [] lengths = { size, -1, size / 2, size + 10 };
+			for (int length : lengths) {
+				HashedBody hb = HashedBody.read(new TrickleStream(bytes), length, 1000000);
+				assertFalse(hb.isTooLarge());
+				assertEquals(size, hb.getLength());
+				assertEquals(expected, hb.getHash());
+				assertTrue(hb.matches(expected));
+				assertFalse(hb.matches(sha1(body(size + 1))));
+				assertFalse(hb.matches(null));
+
+				ByteArrayOutputStream copy = new ByteArrayOutputStream();
+				InputStream in = hb.getInputStream();
+				int b;
+				while ( (b = in.read()) >= 0 ) copy.write(b);
+				assertArrayEquals(bytes, copy.toByteArray());
+			}
+		}
+		String text = "<x>über</x>";
+		HashedBody hb = HashedBody.read(new ByteArrayInputStream(text.getBytes("UTF-8")), -1);
+		assertEquals(text, hb.getString("UTF-8"));
+	}
+
+	@Test
+	public void testMaximum() throws Exception {
+		byte [] bytes = body(5000);
+		assertFalse(HashedBody.read(new ByteArrayInputStream(bytes), -1, 5000).isTooLarge());
+		assertTrue(HashedBody.read(new ByteArrayInputStream(bytes), -1, 4999).isTooLarge());
+		// A content length that understates the body does not get around it
+		assertTrue(HashedBody.read(new TrickleStream(bytes), 100, 1000).isTooLarge());
+		assertTrue(HashedBody.read(new ByteArrayInputStream(bytes), 5000, 1000).isTooLarge());
+
+		int old = HashedBody.getMaxBodySize();
+		try {
+			HashedBody.setMaxBodySize(10);
+			assertTrue(HashedBody.read(new ByteArrayInputStream(bytes), 5000).isTooLarge());
+		} finally {
+			HashedBody.setMaxBodySize(old);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+package org.imsglobal.basiclti;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLEncoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+
+import org.imsglobal.json.IMSJSONRequest;
+import org.imsglobal.pox.IMSPOXRequest;
+import org.junit.Test;
+
+public class OutcomeBatchTest {
+
+	private static final String POX_BODY =
+		"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+		"<imsx_POXEnvelopeRequest xmlns=\"http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0\">" +
+		"<imsx_POXHeader><imsx_POXRequestHeaderInfo><imsx_version>V1.0</imsx_version>" +
+		"<imsx_messageIdentifier>42</imsx_messageIdentifier></imsx_POXRequestHeaderInfo></imsx_POXHeader>" +
+		"<imsx_POXBody><replaceResultBatchRequest>" +
+		"<resultRecord><sourcedGUID><sourcedId>a&amp;b</sourcedId></sourcedGUID>" +
+		"<result><resultScore><language>en</language><textString> 0.92 </textString></resultScore>" +
+		"<resultData><text>Nice &lt;work&gt;</text></resultData></result></resultRecord>" +
+		"<resultRecord><sourcedGUID><sourcedId>second</sourcedId></sourcedGUID>" +
+		"<result><resultScore><textString>A</textString></resultScore></result></resultRecord>" +
+		"<ignored/>" +
+		"<resultRecord><sourcedGUID><sourcedId>third</sourcedId></sourcedGUID></resultRecord>" +
+		"</replaceResultBatchRequest></imsx_POXBody></imsx_POXEnvelopeRequest>";
+
+	private static final String JSON_BODY = "{\"operation\":\"replaceResultBatchRequest\",\"results\":[]}";
+
+	// A stored result, a refused one and one with markup in its message
+	private static List<Object> statuses() {
+		List<Object> statuses = new ArrayList<Object>();
+		statuses.add(Boolean.TRUE);
+		statuses.add("Grade out of range");
+		statuses.add("Not <yours> & never was");
+		return statuses;
+	}
+
+	// Stands in for a POST with an OAuth header carrying bodyHash
+	private static HttpServletRequest post(final String contentType, final String bodyHash, String body)
+		throws Exception {
+		final byte [] bytes = body.getBytes("UTF-8");
+		InvocationHandler handler = new InvocationHandler() {
+			public Object invoke(Object proxy, Method method, Object [] args) throws Exception {
+				String name = method.getName();
+				if ( "getContentType".equals(name) ) return contentType;
+				if ( "getCharacterEncoding".equals(name) ) return "UTF-8";
+				if ( "getContentLength".equals(name) ) return Integer.valueOf(bytes.length);
+				if ( "getHeader".equals(name) ) {
+					if ( ! "Authorization".equals(args[0]) || bodyHash == null ) return null;
+					return "OAuth oauth_consumer_key=\"key\", oauth_body_hash=\"" +
+						URLEncoder.encode(bodyHash, "UTF-8") + "\"";
+				}
+				if ( "getInputStream".equals(name) ) {
+					final InputStream in = new ByteArrayInputStream(bytes);
+					return new ServletInputStream() {
+						public int read() throws IOException {
+							return in.read();
+						}
+					};
+				}
+				throw new UnsupportedOperationException(name);
+			}
+		};
+		return (HttpServletRequest) Proxy.newProxyInstance(OutcomeBatchTest.class.getClassLoader(),
+			new Class<?>[] { HttpServletRequest.class }, handler);
+	}
+
+	private static String sha1(String body) throws Exception {
+		MessageDigest md = MessageDigest.getInstance("SHA1");
+		return new String(Base64.encode(md.digest(body.getBytes("UTF-8"))));
+	}
+
+	@Test
+	public void testBatchSize() {
+		assertNull(OutcomeBatch.checkSize(1, 100));
+		assertNull(OutcomeBatch.checkSize(100, 100));
+		assertEquals("count=101 max=100", OutcomeBatch.checkSize(101, 100));
+	}
+
+	@Test
+	public void testXml() {
+		IMSPOXRequest pox = new IMSPOXRequest(POX_BODY);
+		assertTrue(pox.valid);
+		assertEquals(OutcomeBatch.REPLACE_RESULT_BATCH, pox.getOperation());
+		OutcomeBatch batch = OutcomeBatch.fromXml(pox.bodyElement);
+		assertEquals(3, batch.size());
+		assertEquals("a&b", batch.getSourcedids().get(0));
+		assertEquals(Double.valueOf(0.92), batch.getGrades().get(0));
+		assertEquals("Nice <work>", batch.getComments().get(0));
+		assertNull(batch.getGrades().get(1));
+		assertNull(batch.getComments().get(1));
+		assertNull(batch.getGrades().get(2));
+
+		List<Object> statuses = statuses();
+		assertEquals(1, OutcomeBatch.countStored(statuses));
+		assertEquals("1 of 3 results replaced", OutcomeBatch.getDescription(statuses));
+		String output = pox.getResponseFailure(OutcomeBatch.getDescription(statuses), null,
+			batch.getXmlResponse(statuses));
+
+		Map<String,Object> theMap = XMLMap.getFullMap(output);
+		assertEquals("failure", XMLMap.getString(theMap,
+			"/imsx_POXEnvelopeResponse/imsx_POXHeader/imsx_POXResponseHeaderInfo/imsx_statusInfo/imsx_codeMajor"));
+		List<Map<String,Object>> records = XMLMap.getList(theMap,
+			"/imsx_POXEnvelopeResponse/imsx_POXBody/replaceResultBatchResponse/resultRecord");
+		assertEquals(3, records.size());
+		String [] codes = { "success", "failure", "failure" };
+		for (int i = 0; i < records.size(); i++) {
+			Map<String,Object> record = records.get(i);
+			assertEquals(batch.getSourcedids().get(i), XMLMap.getString(record, "/sourcedGUID/sourcedId"));
+			assertEquals(codes[i], XMLMap.getString(record, "/imsx_statusInfo/imsx_codeMajor"));
+		}
+		assertEquals(OutcomeBatch.RESULT_REPLACED, XMLMap.getString(records.get(0), "/imsx_statusInfo/imsx_description"));
+		assertEquals("Not <yours> & never was", XMLMap.getString(records.get(2), "/imsx_statusInfo/imsx_description"));
+		assertEquals("error", XMLMap.getString(records.get(1), "/imsx_statusInfo/imsx_severity"));
+	}
+
+	@Test
+	public void testJSON() {
+		List<Object> results = new ArrayList<Object>();
+		Map<String,Object> first = new HashMap<String,Object>();
+		first.put("sourcedId", "a&b");
+		Map<String,Object> score = new HashMap<String,Object>();
+		score.put("@value", "0.92");
+		first.put("resultScore", score);
+		first.put("comment", "Nice");
+		results.add(first);
+		Map<String,Object> second = new HashMap<String,Object>();
+		second.put("sourcedId", "second");
+		second.put("resultScore", Double.valueOf(0.5));
+		results.add(second);
+		// Not a record at all
+		results.add("third");
+
+		OutcomeBatch batch = OutcomeBatch.fromJSON(results);
+		assertEquals(3, batch.size());
+		assertEquals(Double.valueOf(0.92), batch.getGrades().get(0));
+		assertEquals("Nice", batch.getComments().get(0));
+		assertEquals(Double.valueOf(0.5), batch.getGrades().get(1));
+		assertNull(batch.getComments().get(1));
+		assertNull(batch.getSourcedids().get(2));
+		assertNull(batch.getGrades().get(2));
+
+		List<Object> statuses = statuses();
+		List<Map<String,Object>> outcomes = batch.getJSONResults(statuses);
+		assertEquals(3, outcomes.size());
+		assertEquals("a&b", outcomes.get(0).get("sourcedId"));
+		assertEquals(IMSJSONRequest.getStatusSuccess(OutcomeBatch.RESULT_REPLACED), outcomes.get(0).get(IMSJSONRequest.STATUS));
+		assertEquals(IMSJSONRequest.getStatusFailure("Grade out of range"), outcomes.get(1).get(IMSJSONRequest.STATUS));
+		assertEquals(IMSJSONRequest.getStatusFailure("Not <yours> & never was"), outcomes.get(2).get(IMSJSONRequest.STATUS));
+	}
+
+	@Test
+	public void testPOXBodyHash() throws Exception {
+		IMSPOXRequest pox = new IMSPOXRequest(post("application/xml", sha1(POX_BODY), POX_BODY));
+		assertTrue(pox.errorMessage, pox.valid);
+		assertEquals(3, OutcomeBatch.fromXml(pox.bodyElement).size());
+
+		String changed = POX_BODY.replace("0.92", "1.00");
+		pox = new IMSPOXRequest(post("application/xml", sha1(POX_BODY), changed));
+		assertFalse(pox.valid);
+		assertEquals("Body hash does not match header", pox.errorMessage);
+
+		pox = new IMSPOXRequest(post("application/xml", null, POX_BODY));
+		assertFalse(pox.valid);
+		assertEquals("Did not find oauth_body_hash", pox.errorMessage);
+	}
+
+	@Test
+	public void testJSONBodyHash() throws Exception {
+		IMSJSONRequest json = new IMSJSONRequest(post("application/json", sha1(JSON_BODY), JSON_BODY));
+		assertTrue(json.errorMessage, json.valid);
+		assertEquals(JSON_BODY, json.getPostBody());
+
+		String changed = JSON_BODY.replace("[]", "[{}]");
+		json = new IMSJSONRequest(post("application/json", sha1(JSON_BODY), changed));
+		assertFalse(json.valid);
+		assertTrue(json.errorMessage, json.errorMessage.startsWith("Body hash does not match"));
+
+		json = new IMSJSONRequest(post("application/json", null, JSON_BODY));
+		assertFalse(json.valid);
+		assertEquals("Did not find oauth_body_hash", json.errorMessage);
+	}
+}
@@ -0,0 +1,112 @@
+package org.imsglobal.basiclti;
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+public class XMLMapTest {
+
+	private static String write(Map<?, ?> tm, boolean pretty) throws Exception {
+		StringWriter out = new StringWriter();
+		XMLMap.writeXML(tm, out, pretty);
+		return out.toString();
+	}
+
+	// Same document as getXML() once both are read back
+	private static void assertSameXml(Map<?, ?> tm) throws Exception {
+		for (boolean pretty : new boolean[] { false, true }) {
+			String expected = XMLMap.getXML(tm, pretty);
+			String actual = write(tm, pretty);
+			assertNotNull(XMLMap.getFullMap(actual));
+			assertEquals(XMLMap.getFullMap(expected), XMLMap.getFullMap(actual));
+			assertEquals(XMLMap.getMap(expected), XMLMap.getMap(actual));
+		}
+	}
+
+	@Test
+	public void testSimple() throws Exception {
+		Map<String,Object> simpleMap = new TreeMap<String,Object>();
+		simpleMap.put("/a/b!x", "X");
+		simpleMap.put("/a/b", "B & <b>");
+		simpleMap.put("/a/c/d", "D");
+		simpleMap.put("/a/c/e[2]", "E2");
+		simpleMap.put("/a/stuff", new String [] { "first", "second", "third" });
+		simpleMap.put("skipped", "not a path");
+		assertSameXml(simpleMap);
+
+		String xml = write(simpleMap, false);
+		assertTrue(xml.startsWith("<?xml"));
+		assertTrue(xml.indexOf("<b x=\"X\">B &amp; &lt;b&gt;</b>") > 0);
+		assertTrue(xml.indexOf("<e></e><e></e><e>E2</e>") > 0 || xml.indexOf("<e/><e/><e>E2</e>") > 0);
+
+		StringWriter out = new StringWriter();
+		XMLMap.writeXMLFragment(simpleMap, out, true);
+		assertTrue(out.toString().startsWith("<a>"));
+	}
+
+	@Test
+	public void testNested() throws Exception {
+		Map<String,Object> newMap = new TreeMap<String,Object>();
+		newMap.put("/Root/milton", "Root-milton");
+		Map<String,String> m2 = new TreeMap<String,String>();
+		m2.put("/fred/a", "fred-a");
+		m2.put("/fred/b", "fred-b");
+		newMap.put("/Root/freds", m2);
+
+		List<Object> lm = new ArrayList<Object>();
+		for (int i = 0; i < 3; i++) {
+			Map<String,Object> m3 = new TreeMap<String,Object>();
+			m3.put("/key", "key-" + i);
+			m3.put("/val", "val-" + i);
+			m3.put("/val!type", "t" + i);
+			List<Map<String,String>> inner = new ArrayList<Map<String,String>>();
+			for (int j = 0; j < 2; j++) {
+				Map<String,String> m4 = new TreeMap<String,String>();
+				m4.put("/name", "n" + i + j);
+				inner.add(m4);
+			}
+			m3.put("/props/prop", inner);
+			lm.add(m3);
+		}
+		newMap.put("/Root/maps/map", lm);
+		assertSameXml(newMap);
+
+		List<Map<String,Object>> maps = XMLMap.getList(XMLMap.getFullMap(write(newMap, true)), "/Root/maps/map");
+		assertEquals(3, maps.size());
+		assertEquals("key-2", XMLMap.getString(maps.get(2), "/key"));
+	}
+
+	@Test
+	public void testRoster() throws Exception {
+		Map<String,Object> theMap = roster(3000);
+		assertSameXml(theMap);
+	}
+
+	private static Map<String,Object> roster(int size) {
+		List<Map<String,String>> lm = new ArrayList<Map<String,String>>();
+		for (int i = 0; i < size; i++) {
+			Map<String,String> mm = new TreeMap<String,String>();
+			mm.put("/user_id", "user-" + i);
+			mm.put("/role", i % 50 == 0 ? "Instructor" : "Learner");
+			mm.put("/lis_result_sourcedid", "c1007fb6345a87cd651785422a2925114d0707fad32c66edb6bfefbf2165819a:::user-" + i + ":::content:3");
+			mm.put("/person_name_given", "Given" + i);
+			mm.put("/person_name_family", "O'Family & Co");
+			mm.put("/person_name_full", "Given" + i + " O'Family & Co");
+			mm.put("/person_contact_email_primary", "user" + i + "@example.edu");
+			mm.put("/person_sourcedid", "eid" + i);
+			lm.add(mm);
+		}
+		Map<String,Object> theMap = new TreeMap<String,Object>();
+		theMap.put("/message_response/lti_message_type", "basic-lis-readmembershipsforcontext");
+		theMap.put("/message_response/members/member", lm);
+		theMap.put("/message_response/statusinfo/codemajor", "Success");
+		theMap.put("/message_response/statusinfo/severity", "Status");
+		theMap.put("/message_response/statusinfo/codeminor", "fullsuccess");
+		return theMap;
+	}
+}
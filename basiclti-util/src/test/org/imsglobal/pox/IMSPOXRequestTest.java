@@ -0,0 +1,211 @@
+package org.imsglobal.pox;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.imsglobal.basiclti.XMLMap;
+import org.junit.Test;
+
+public class IMSPOXRequestTest {
+
+	@Test
+	public void testParse() {
+		IMSPOXRequest pox = new IMSPOXRequest(IMSPOXRequest.inputTestData);
+		assertTrue(pox.valid);
+		assertEquals("replaceResultRequest", pox.getOperation());
+		assertEquals("V1.0", pox.getHeaderVersion());
+		assertEquals("999999123", pox.getHeaderMessageIdentifier());
+		Map<String,String> bodyMap = pox.getBodyMap();
+		assertEquals("3124567", bodyMap.get("/resultRecord/sourcedGUID/sourcedId"));
+		assertEquals("A", bodyMap.get("/resultRecord/result/resultScore/textString"));
+
+		IMSPOXRequest bad = new IMSPOXRequest("<not really xml");
+		assertFalse(bad.valid);
+		assertTrue(bad.errorMessage.startsWith("Could not parse XML"));
+		// The next parse on this thread is not affected
+		assertTrue(new IMSPOXRequest(IMSPOXRequest.inputTestData).valid);
+	}
+
+	@Test
+	public void testStreaming() {
+		String [] bodies = {
+			IMSPOXRequest.inputTestData,
+			// Namespaces, attributes, a comment, CDATA and repeated elements
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+			"<imsx_POXEnvelopeRequest xmlns=\"http://www.imsglobal.org/services/ltiv1p1/xsd/imsoms_v1p0\">" +
+			"<imsx_POXHeader><imsx_POXRequestHeaderInfo><imsx_version>V1.0</imsx_version>" +
+			"<imsx_messageIdentifier>  id &amp; 42 </imsx_messageIdentifier></imsx_POXRequestHeaderInfo>" +
+			"<ignored>x</ignored></imsx_POXHeader>" +
+			"<imsx_POXBody><replaceResultRequest xmlns:x=\"urn:x\" x:flag=\"y\"><!-- note -->" +
+			"<resultRecord><sourcedGUID><sourcedId>abc:::1:::2</sourcedId></sourcedGUID>" +
+			"<result><resultScore lang=\"en\"><language>en</language><textString>0.92</textString></resultScore>" +
+			"<resultData><text>Nice &lt;work&gt;</text></resultData></result></resultRecord>" +
+			"<resultRecord><sourcedGUID><sourcedId>second</sourcedId></sourcedGUID></resultRecord>" +
+			"</replaceResultRequest></imsx_POXBody></imsx_POXEnvelopeRequest>",
+		};
+		for (String body : bodies) {
+			IMSPOXRequest dom = new IMSPOXRequest(body, false);
+			IMSPOXRequest stax = new IMSPOXRequest(body, true);
+			assertTrue(dom.valid);
+			assertTrue(stax.valid);
+			assertFalse(dom.streamed);
+			assertTrue(stax.streamed);
+			assertNull(stax.postDom);
+			assertEquals(dom.getOperation(), stax.getOperation());
+			assertEquals(dom.getHeaderMap(), stax.getHeaderMap());
+			assertEquals(dom.getBodyMap(), stax.getBodyMap());
+		}
+		IMSPOXRequest pox = new IMSPOXRequest(bodies[1], true);
+		assertEquals("  id & 42 ", pox.getHeaderMessageIdentifier());
+		assertEquals("abc:::1:::2", pox.getResultSourcedId());
+		assertEquals("0.92", pox.getResultScore());
+		assertEquals("Nice <work>", pox.getResultComment());
+	}
+
+	// Text split up by CDATA, entities and comments comes out of the
+	// streaming parse just as XMLMap.getMap() finds it in the DOM
+	@Test
+	public void testStreamingCdata() {
+		String [] scores = {
+			"<![CDATA[0.92]]>",
+			"0.<![CDATA[92]]>",
+			"<![CDATA[0.]]>92",
+			"  <![CDATA[0.92]]>",
+			"0.9&#50;<!-- two -->0",
+			"<![CDATA[ ]]><!-- none -->0.92<![CDATA[0]]>",
+		};
+		for (String score : scores) {
+			String body = IMSPOXRequest.inputTestData.replace("<textString>A</textString>",
+				"<textString>" + score + "</textString>");
+			assertTrue(body.indexOf(score) > 0);
+			IMSPOXRequest dom = new IMSPOXRequest(body, false);
+			IMSPOXRequest stax = new IMSPOXRequest(body, true);
+			assertTrue(dom.valid);
+			assertTrue(stax.valid);
+			assertTrue(stax.streamed);
+			assertEquals(score, dom.getBodyMap(), stax.getBodyMap());
+			assertEquals(score, dom.getResultScore(), stax.getResultScore());
+		}
+		assertNull(new IMSPOXRequest(IMSPOXRequest.inputTestData.replace("<textString>A</textString>",
+			"<textString><![CDATA[0.92]]></textString>"), true).getResultScore());
+		assertEquals("0.92", new IMSPOXRequest(IMSPOXRequest.inputTestData.replace("<textString>A</textString>",
+			"<textString>0.9&#50;<![CDATA[0]]></textString>"), true).getResultScore());
+	}
+
+	@Test
+	public void testStreamingFallback() {
+		// Structure requests need the body as a DOM
+		String lessons = IMSPOXRequest.inputTestData.replace("replaceResultRequest", "getCourseStructureRequest");
+		IMSPOXRequest pox = new IMSPOXRequest(lessons, true);
+		assertTrue(pox.valid);
+		assertFalse(pox.streamed);
+		assertNotNull(pox.bodyElement);
+		assertEquals("getCourseStructureRequest", pox.getOperation());
+		assertEquals("999999123", pox.getHeaderMessageIdentifier());
+		assertEquals("3124567", pox.getResultSourcedId());
+
+		IMSPOXRequest bad = new IMSPOXRequest("<not really xml", true);
+		assertFalse(bad.valid);
+		assertTrue(bad.errorMessage.startsWith("Could not parse XML"));
+
+		bad = new IMSPOXRequest("<imsx_POXEnvelopeRequest><imsx_POXHeader/></imsx_POXEnvelopeRequest>", true);
+		assertFalse(bad.valid);
+	}
+
+	@Test
+	public void testNoExternalEntities() throws Exception {
+		File secret = File.createTempFile("pox", ".txt");
+		secret.deleteOnExit();
+		FileWriter fw = new FileWriter(secret);
+		fw.write("TOPSECRET");
+		fw.close();
+		String xxe = "<?xml version=\"1.0\"?>\n" +
+			"<!DOCTYPE foo [ <!ENTITY xxe SYSTEM \"" + secret.toURI() + "\"> ]>\n" +
+			IMSPOXRequest.inputTestData.substring(IMSPOXRequest.inputTestData.indexOf("<imsx_POXEnvelopeRequest"))
+				.replace("3124567", "&xxe;");
+		IMSPOXRequest pox = new IMSPOXRequest(xxe);
+		if ( pox.valid ) {
+			String guid = pox.getBodyMap().get("/resultRecord/sourcedGUID/sourcedId");
+			assertTrue(guid == null || guid.indexOf("TOPSECRET") < 0);
+		}
+		pox = new IMSPOXRequest(xxe, true);
+		if ( pox.valid ) {
+			String guid = pox.getResultSourcedId();
+			assertTrue(guid == null || guid.indexOf("TOPSECRET") < 0);
+		}
+		Map<String,String> map = XMLMap.getMap(xxe);
+		if ( map != null ) {
+			assertFalse(map.toString().indexOf("TOPSECRET") >= 0);
+		}
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		final AtomicInteger failures = new AtomicInteger();
+		Thread [] threads = new Thread[4];
+		for (int t = 0; t < threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i = 0; i < 500; i++) {
+						IMSPOXRequest pox = new IMSPOXRequest(IMSPOXRequest.inputTestData);
+						String output = pox.getResponseSuccess("ok", XMLMap.getXMLFragment(response(), true));
+						if ( ! pox.valid || output.indexOf("<replaceResultResponse") < 0 ) failures.incrementAndGet();
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertEquals(0, failures.get());
+	}
+
+	@Test
+	public void testWriteResponse() throws Exception {
+		IMSPOXRequest pox = new IMSPOXRequest(IMSPOXRequest.inputTestData);
+		Map<String,Object> theMap = new TreeMap<String,Object>();
+		theMap.put("/readResultResponse/result/resultScore/language", "en");
+		theMap.put("/readResultResponse/result/resultScore/textString", "0.5 & up");
+		String expected = pox.getResponse("Result read", IMSPOXRequest.MAJOR_SUCCESS, null, "42", null,
+			XMLMap.getXMLFragment(theMap, true));
+		java.io.StringWriter out = new java.io.StringWriter();
+		pox.writeResponse("Result read", IMSPOXRequest.MAJOR_SUCCESS, null, "42", null, theMap, out);
+		assertEquals(XMLMap.getFullMap(expected), XMLMap.getFullMap(out.toString()));
+		assertEquals("0.5 & up", XMLMap.getMap(out.toString())
+			.get("/imsx_POXEnvelopeResponse/imsx_POXBody/readResultResponse/result/resultScore/textString"));
+
+		// No body at all comes out the same either way
+		out = new java.io.StringWriter();
+		pox.writeResponse("Done", IMSPOXRequest.MAJOR_SUCCESS, null, "42", null, null, out);
+		assertEquals(pox.getResponse("Done", IMSPOXRequest.MAJOR_SUCCESS, null, "42", null, null), out.toString());
+	}
+
+	// One replaceResultRequest taken apart and answered, again and again
+	// on the same thread with the reused parsers
+	@Test
+	public void testParseAndRespond() throws Exception {
+		for (int i = 0; i < 100; i++) {
+			String output = cycle();
+			assertTrue(output.indexOf("<imsx_codeMajor>success</imsx_codeMajor>") > 0);
+			assertTrue(output.indexOf("<replaceResultResponse") > 0);
+		}
+	}
+
+	private static String cycle() {
+		IMSPOXRequest pox = new IMSPOXRequest(IMSPOXRequest.inputTestData);
+		Map<String,String> bodyMap = pox.getBodyMap();
+		bodyMap.get("/resultRecord/sourcedGUID/sourcedId");
+		return pox.getResponseSuccess("Result replaced", XMLMap.getXMLFragment(response(), true));
+	}
+
+	private static Map<String,Object> response() {
+		Map<String,Object> theMap = new TreeMap<String,Object>();
+		theMap.put("/replaceResultResponse", "");
+		return theMap;
+	}
+}
@@ -0,0 +1,68 @@
+package org.imsglobal.pox;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathFactory;
+
+import org.w3c.dom.Document;
+
+/**
+ * Times parsing a replaceResultRequest envelope with IMSPOXRequest, which
+ * reuses the parsers held by XMLPool, against building new factories for
+ * every request as IMSPOXRequest did before.  The streamed parse is timed
+ * as well.
+ * This is not a unit test, so run it by hand with the test classpath:
+ *
+ *   java org.imsglobal.pox.POXParseBenchmark [rounds]
+ *
+ * The default is 5000 rounds.
+ */
+public class POXParseBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+		String body = IMSPOXRequest.inputTestData;
+
+		// Warm up all three before timing them
+		for (int i = 0; i < rounds; i++) {
+			oldParse(body);
+			new IMSPOXRequest(body, false);
+			new IMSPOXRequest(body, true);
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) oldParse(body);
+		long old = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		int invalid = 0;
+		for (int i = 0; i < rounds; i++) {
+			if ( ! new IMSPOXRequest(body, false).valid ) invalid++;
+		}
+		long pooled = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < rounds; i++) {
+			if ( ! new IMSPOXRequest(body, true).valid ) invalid++;
+		}
+		long streamed = System.nanoTime() - start;
+
+		System.out.println("POX parse: new factories " + (old / rounds / 1000) + "us, pooled " +
+			(pooled / rounds / 1000) + "us, streamed " + (streamed / rounds / 1000) + "us");
+		if ( invalid > 0 ) System.out.println(invalid + " requests did not parse");
+	}
+
+	// How the envelope was parsed before the parsers were reused
+	private static void oldParse(String body) throws Exception {
+		DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+		dbf.setFeature("http://xml.org/sax/features/external-general-entities", false);
+		dbf.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+		Document dom = dbf.newDocumentBuilder().parse(new ByteArrayInputStream(body.getBytes("UTF-8")));
+		XPathFactory.newInstance().newXPath().compile("/imsx_POXEnvelopeRequest/imsx_POXBody/*")
+			.evaluate(dom, XPathConstants.NODESET);
+		XPathFactory.newInstance().newXPath().compile("/imsx_POXEnvelopeRequest/imsx_POXHeader/*")
+			.evaluate(dom, XPathConstants.NODESET);
+	}
+}